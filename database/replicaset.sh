@@ -0,0 +1,50 @@
+#!/usr/bin/env bash
+
+# Start (or stop) a local three-member MongoDB replica set, for trying out
+# (and testing) reads from secondaries. The members run in Docker, on ports
+# 27021-27023 of this machine. Once it's started, point the server (or the
+# tests) at it with
+#
+#   MONGO_REPLICA_SET=rs0 MONGO_ADDR=localhost:27021,localhost:27022,localhost:27023
+
+replica_set="${MONGO_REPLICA_SET:-rs0}"
+image="${MONGO_IMAGE:-mongo:7}"
+ports=(27021 27022 27023)
+
+case "$1" in
+  start)
+    for port in "${ports[@]}"; do
+      echo Starting replica set member on port "$port"
+      # Host networking, so the members (and clients) all find each other
+      # at the same `localhost` addresses. Test commands let the tests pause
+      # replication, to see what reads from a secondary that's behind do.
+      docker run --detach --rm --name "$replica_set-$port" --network host "$image" \
+        --replSet "$replica_set" --port "$port" --bind_ip localhost --setParameter enableTestCommands=1
+    done
+    members=""
+    for i in "${!ports[@]}"; do
+      members+="{ _id: $i, host: 'localhost:${ports[$i]}' },"
+    done
+    echo Initiating replica set "$replica_set"
+    until docker exec "$replica_set-${ports[0]}" mongosh --port "${ports[0]}" --quiet \
+        --eval "rs.initiate({ _id: '$replica_set', members: [ $members ] })" > /dev/null 2>&1; do
+      sleep 1
+    done
+    echo Waiting for a primary and two secondaries
+    until docker exec "$replica_set-${ports[0]}" mongosh --port "${ports[0]}" --quiet \
+        --eval "quit(rs.status().members.every(m => ['PRIMARY', 'SECONDARY'].includes(m.stateStr)) ? 0 : 1)" \
+        > /dev/null 2>&1; do
+      sleep 1
+    done
+    echo Replica set "$replica_set" is up at localhost:"${ports[0]}",localhost:"${ports[1]}",localhost:"${ports[2]}"
+    ;;
+  stop)
+    for port in "${ports[@]}"; do
+      docker stop "$replica_set-$port"
+    done
+    ;;
+  *)
+    echo "Usage: $0 start|stop"
+    exit 1
+    ;;
+esac
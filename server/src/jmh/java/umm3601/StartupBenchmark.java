@@ -0,0 +1,113 @@
+package umm3601;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long the server takes from being launched to successfully
+ * answering its first `GET /api/users`, with and without the class-data
+ * sharing (CDS) archive made by `./gradlew cdsArchive`.
+ *
+ * Each invocation launches the installed server (`build/install/server`)
+ * as a separate process, so this includes starting the JVM, which is the
+ * point. Like the tests, it needs MongoDB to be running (at `MONGO_ADDR`,
+ * if that's set). The `cds=true` case needs the archive to have been built
+ * first; run it with, e.g.,
+ * `./gradlew cdsArchive jmh -PjmhIncludes=StartupBenchmark`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 10)
+@SuppressWarnings({"MagicNumber", "VisibilityModifier"})
+public class StartupBenchmark {
+
+  // How long to keep trying before giving up on the server.
+  private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+  private static final long POLL_MILLIS = 5;
+
+  // JMH sets this (so it can't be private) to each of these values in turn.
+  @Param({"false", "true"})
+  public boolean cds;
+
+  private Path installDir;
+  private Path cdsArchive;
+  private HttpClient client;
+  private HttpRequest usersRequest;
+  private Process server;
+
+  @Setup
+  public void setup() {
+    // `build.gradle` tells us where these are.
+    installDir = Path.of(System.getProperty("server.installDir"));
+    cdsArchive = Path.of(System.getProperty("server.cdsArchive"));
+    if (cds && !Files.exists(cdsArchive)) {
+      throw new IllegalStateException("There's no CDS archive at " + cdsArchive + "; run `./gradlew cdsArchive` first");
+    }
+    client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    usersRequest = HttpRequest.newBuilder(URI.create("http://localhost:" + Server.SERVER_PORT + "/api/users")).build();
+  }
+
+  @Benchmark
+  public int timeToFirstUsersResponse() throws IOException, InterruptedException {
+    ProcessBuilder builder = new ProcessBuilder(installDir.resolve("bin/server").toString())
+      .redirectErrorStream(true)
+      .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+    // Run the server on the JVM we're running on, which is the one that
+    // made the archive (an archive only works with the JVM that made it).
+    builder.environment().put("JAVA_HOME", System.getProperty("java.home"));
+    builder.environment().put("JAVA_OPTS", cds ? "-XX:SharedArchiveFile=" + cdsArchive : "");
+    server = builder.start();
+
+    long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+    while (System.nanoTime() < deadline) {
+      if (!server.isAlive()) {
+        throw new IllegalStateException("The server exited with status " + server.exitValue());
+      }
+      try {
+        HttpResponse<Void> response = client.send(usersRequest, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 200) {
+          return response.statusCode();
+        }
+      } catch (IOException e) {
+        // The server isn't listening yet.
+      }
+      Thread.sleep(POLL_MILLIS);
+    }
+    throw new IllegalStateException("The server didn't answer `GET /api/users` within " + STARTUP_TIMEOUT);
+  }
+
+  @TearDown(Level.Invocation)
+  public void stopServer() throws InterruptedException {
+    if (server != null) {
+      // The server's shutdown hooks stop it cleanly, freeing its port for
+      // the next invocation.
+      server.destroy();
+      server.waitFor();
+      server = null;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package umm3601.user;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.conversions.Bson;
+import org.mongojack.JacksonMongoCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+
+/**
+ * End-to-end benchmarks for `UserController.getUsers`: building the filter,
+ * "querying" the collection, and serializing the results.
+ *
+ * The users collection is an in-memory stand-in (a Mockito mock that hands
+ * back a fixed list of users), so these measure our code and Jackson's, not
+ * MongoDB or the network. The mocked context serializes whatever is passed
+ * to `ctx.json(…)` with Javalin's JSON mapper, just as Javalin would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@SuppressWarnings({"MagicNumber", "VisibilityModifier", "unchecked"})
+public class GetUsersBenchmark {
+
+  // JMH sets this (so it can't be private) to each of these values in turn.
+  @Param({"10", "100", "1000", "10000"})
+  public int size;
+
+  private UserController userController;
+  private Context allUsers;
+  private Context filteredUsers;
+
+  // The length of the last serialized response, so the JIT can't decide
+  // the serialization is unused and skip it.
+  private int responseLength;
+
+  @Setup
+  public void setup() {
+    List<User> users = UserFixtures.users(size);
+
+    FindIterable<User> found = mock(FindIterable.class);
+    when(found.collation(any())).thenReturn(found);
+    when(found.into(any())).thenAnswer(invocation -> {
+      Collection<User> target = invocation.getArgument(0);
+      target.addAll(users);
+      return target;
+    });
+    JacksonMongoCollection<User> userCollection = mock(JacksonMongoCollection.class);
+    when(userCollection.find(any(Bson.class))).thenReturn(found);
+
+    userController = new UserController(userCollection, mock(MongoCollection.class));
+    allUsers = serializingContext(UserFixtures.contextWithParams());
+    filteredUsers = serializingContext(
+      UserFixtures.contextWithParams(UserController.AGE_KEY, "37", UserController.COMPANY_KEY, "ohm"));
+  }
+
+  /**
+   * Make the mocked `ctx` serialize whatever is passed to `ctx.json(…)`.
+   *
+   * @param ctx the mocked context
+   * @return the same context
+   */
+  private Context serializingContext(Context ctx) {
+    JavalinJackson mapper = new JavalinJackson();
+    doAnswer(invocation -> {
+      Object value = invocation.getArgument(0);
+      responseLength = mapper.toJsonString(value, value.getClass()).length();
+      return ctx;
+    }).when(ctx).json(any());
+    return ctx;
+  }
+
+  @Benchmark
+  public int getAllUsers() {
+    userController.getUsers(allUsers);
+    return responseLength;
+  }
+
+  @Benchmark
+  public int getFilteredUsers() {
+    userController.getUsers(filteredUsers);
+    return responseLength;
+  }
+}
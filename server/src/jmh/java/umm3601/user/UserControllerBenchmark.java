@@ -0,0 +1,90 @@
+package umm3601.user;
+
+import static org.mockito.Mockito.mock;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.mongojack.JacksonMongoCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.client.MongoCollection;
+
+import io.javalin.http.Context;
+
+/**
+ * Benchmarks for the small, hot helpers in `UserController`: building the
+ * query filter, and hashing emails for avatars.
+ *
+ * The request contexts are Mockito mocks, so the filter benchmarks include
+ * the (constant) cost of the mock answering `queryParamMap()` and friends.
+ * That's fine for comparing one commit against another.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@SuppressWarnings({"MagicNumber", "unchecked"})
+public class UserControllerBenchmark {
+
+  private static final String EMAIL = "conniestewart@ohmnet.com";
+
+  private UserController userController;
+  private Context noParams;
+  private Context ageAndCompany;
+  private Context containsCompany;
+
+  @Setup
+  public void setup() {
+    userController = new UserController(mock(JacksonMongoCollection.class), mock(MongoCollection.class));
+    noParams = UserFixtures.contextWithParams();
+    ageAndCompany = UserFixtures.contextWithParams(UserController.AGE_KEY, "37", UserController.COMPANY_KEY, "ohm");
+    containsCompany = UserFixtures.contextWithParams(
+      UserController.COMPANY_KEY, "net",
+      UserController.COMPANY_MATCH_KEY, UserController.MATCH_CONTAINS);
+  }
+
+  @Benchmark
+  public Bson constructFilterWithNoParams() {
+    return userController.constructFilter(noParams);
+  }
+
+  @Benchmark
+  public Bson constructFilterWithAgeAndCompany() {
+    return userController.constructFilter(ageAndCompany);
+  }
+
+  @Benchmark
+  public Bson constructFilterWithContainsCompany() {
+    return userController.constructFilter(containsCompany);
+  }
+
+  @Benchmark
+  public Document constructFilterAsBson() {
+    // Turning the filter into BSON is what the driver (and the result cache key) does with it.
+    return Document.parse(userController.constructFilter(ageAndCompany).toBsonDocument().toJson());
+  }
+
+  @Benchmark
+  public String md5() throws NoSuchAlgorithmException {
+    return userController.md5(EMAIL);
+  }
+
+  @Benchmark
+  public String generateAvatar() {
+    return userController.generateAvatar(EMAIL);
+  }
+}
@@ -0,0 +1,80 @@
+package umm3601.user;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.javalin.http.Context;
+import io.javalin.validation.Validation;
+
+/**
+ * Made-up users and mocked request contexts shared by the benchmarks.
+ *
+ * Everything here is deterministic, so benchmark runs on different
+ * commits are working with exactly the same data.
+ */
+final class UserFixtures {
+
+  private static final String[] COMPANIES = {"OHMNET", "NIQUENT", "IBM", "UMM", "FROGS", "SPRINGBEE"};
+  private static final String[] ROLES = {"admin", "editor", "viewer"};
+  private static final int MIN_AGE = 18;
+  private static final int AGE_RANGE = 50;
+
+  private UserFixtures() {
+    // Just a holder for static helpers.
+  }
+
+  /**
+   * Make `count` users that look like the ones in `database/seed/users.json`.
+   *
+   * @param count the number of users to make
+   * @return the users
+   */
+  static List<User> users(int count) {
+    List<User> users = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      User user = new User();
+      user._id = String.format("%024x", i);
+      user.name = "User Number" + i;
+      user.age = MIN_AGE + i % AGE_RANGE;
+      user.company = COMPANIES[i % COMPANIES.length];
+      user.email = "user" + i + "@" + user.company.toLowerCase() + ".com";
+      user.role = ROLES[i % ROLES.length];
+      user.avatar = "https://gravatar.com/avatar/" + String.format("%032x", i) + "?d=identicon";
+      users.add(user);
+    }
+    return users;
+  }
+
+  /**
+   * Make a mocked request context with the given query parameters.
+   *
+   * Any parameter can be asked for as an integer (e.g., `age`), as long as
+   * its value actually is one.
+   *
+   * @param params the query parameters, as name/value pairs
+   * @return the mocked context
+   */
+  static Context contextWithParams(String... params) {
+    Context ctx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    Validation validation = new Validation();
+    for (int i = 0; i + 1 < params.length; i += 2) {
+      String name = params[i];
+      String value = params[i + 1];
+      queryParams.put(name, Arrays.asList(value));
+      when(ctx.queryParam(name)).thenReturn(value);
+      if (value.chars().allMatch(Character::isDigit)) {
+        when(ctx.queryParamAsClass(name, Integer.class))
+          .thenAnswer(invocation -> validation.validator(name, Integer.class, value));
+      }
+    }
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    return ctx;
+  }
+}
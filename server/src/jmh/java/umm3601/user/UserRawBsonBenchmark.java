@@ -0,0 +1,88 @@
+package umm3601.user;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.javalin.json.JavalinJackson;
+
+import umm3601.http.RawBsonJson;
+
+/**
+ * Benchmarks for turning users, as the BSON MongoDB sends, into a JSON
+ * array: by decoding each document and encoding it again with Jackson
+ * (roughly what the usual `getUsers` path does), and by transcoding the
+ * BSON directly (see `RawBsonJson`).
+ *
+ * Run these with JMH's GC profiler (`-prof gc`) to see the allocation per
+ * operation as well as the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@SuppressWarnings({"MagicNumber", "VisibilityModifier"})
+public class UserRawBsonBenchmark {
+
+  // JMH sets this (so it can't be private) to each of these values in turn.
+  @Param({"100", "1000", "10000"})
+  public int size;
+
+  private final DocumentCodec codec = new DocumentCodec();
+  private final JavalinJackson mapper = new JavalinJackson();
+  private final RawBsonJson rawBsonJson = new RawBsonJson();
+  private List<RawBsonDocument> documents;
+
+  @Setup
+  public void setup() {
+    documents = new ArrayList<>(size);
+    for (User user : UserFixtures.users(size)) {
+      Document document = new Document()
+        .append("_id", new ObjectId(user._id))
+        .append("name", user.name)
+        .append("age", user.age)
+        .append("company", user.company)
+        .append("email", user.email)
+        .append("avatar", user.avatar)
+        .append("role", user.role);
+      documents.add(new RawBsonDocument(document, codec));
+    }
+  }
+
+  @Benchmark
+  public int decodeThenEncode() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mapper.writeToOutputStream(documents.stream().map(raw -> {
+      Document document = raw.decode(codec);
+      document.put("_id", document.getObjectId("_id").toHexString());
+      return document;
+    }), out);
+    return out.size();
+  }
+
+  @Benchmark
+  public int transcode() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    rawBsonJson.writeArray(documents.iterator(), out);
+    return out.size();
+  }
+}
@@ -0,0 +1,59 @@
+package umm3601.user;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.http.Representations;
+
+/**
+ * Benchmarks for serializing lists of `User`s in each of the formats a
+ * client can ask for (see `Representations`), to compare the binary
+ * formats' encoding cost with JSON's.
+ *
+ * The size of each serialized list is printed when each trial starts, so
+ * the payload sizes can be compared, too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@SuppressWarnings({"MagicNumber", "VisibilityModifier"})
+public class UserRepresentationBenchmark {
+
+  // JMH sets these (so they can't be private) to each of these values in turn.
+  @Param({"100", "1000", "10000"})
+  public int size;
+
+  @Param({"JSON", "CBOR", "SMILE", "MSGPACK"})
+  public Representations.Format format;
+
+  private Representations representations;
+  private List<User> users;
+
+  @Setup
+  public void setup() {
+    representations = new Representations();
+    users = UserFixtures.users(size);
+    System.out.println(size + " users as " + format + ": "
+      + representations.serialize(format, users).length + " bytes");
+  }
+
+  @Benchmark
+  public byte[] serialize() {
+    return representations.serialize(format, users);
+  }
+}
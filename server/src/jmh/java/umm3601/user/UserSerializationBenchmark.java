@@ -0,0 +1,59 @@
+package umm3601.user;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.javalin.json.JavalinJackson;
+
+/**
+ * Benchmarks for turning lists of `User`s into JSON with the same
+ * Jackson-based mapper Javalin uses for `ctx.json(…)`, both all at once
+ * (as a string) and streamed (as `ctx.writeJsonStream(…)` does).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@SuppressWarnings({"MagicNumber", "VisibilityModifier"})
+public class UserSerializationBenchmark {
+
+  // JMH sets this (so it can't be private) to each of these values in turn.
+  @Param({"10", "100", "1000", "10000"})
+  public int size;
+
+  private JavalinJackson mapper;
+  private List<User> users;
+
+  @Setup
+  public void setup() {
+    mapper = new JavalinJackson();
+    users = UserFixtures.users(size);
+  }
+
+  @Benchmark
+  public String toJsonString() {
+    return mapper.toJsonString(users, List.class);
+  }
+
+  @Benchmark
+  public int writeToOutputStream() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mapper.writeToOutputStream(users.stream(), out);
+    return out.size();
+  }
+}
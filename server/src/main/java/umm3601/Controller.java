@@ -1,6 +1,14 @@
 package umm3601;
 
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.client.model.IndexModel;
+
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+import umm3601.cache.CollectionVersion;
 
 /**
  * Interface for classes that can add routes to a Javalin server.
@@ -18,10 +26,16 @@ import io.javalin.Javalin;
  * allows us to add routes to the server without having to modify the `Server`,
  * and without having the server know about any specific controller implementations.
  *
- * Note that this interface definition is _complete_ and you shouldn't need to
- * add anything to it. You just need to make sure that any new controllers
- * you implement also implement this interface, providing their own `addRoutes()`
- * method.
+ * The only method a new controller has to implement is `addRoutes()`. The
+ * rest tell the server more about the controller's routes, so it can handle
+ * them better, and all have defaults that leave the routes to be handled as
+ * usual:
+ *   - `indexes()`: the indexes the controller's queries need.
+ *   - `readRoutes()`: which routes can read from replica set secondaries.
+ *   - `versionedRoutes()`: which routes only change when a collection does.
+ *   - `isLongRunning()` and `isUnpagedList()`: which requests admission
+ *     control should leave alone, or give a limit of their own.
+ * Override them as your controller needs them.
  */
 public interface Controller {
   /**
@@ -35,4 +49,90 @@ public interface Controller {
    * @param server The Javalin server to add routes to
    */
   void addRoutes(Javalin server);
+
+  /**
+   * The indexes this controller's queries need, by collection name.
+   *
+   * The server creates any of these that don't already exist when it starts
+   * (see `IndexManager`), so a new deployment, or a new query, never ends up
+   * scanning a whole collection just because nobody remembered to create an
+   * index by hand.
+   *
+   * Controllers whose queries don't need any indexes (beyond the one MongoDB
+   * always has on `_id`) don't need to override this.
+   *
+   * @return the indexes each collection needs
+   */
+  default Map<String, List<IndexModel>> indexes() {
+    return Map.of();
+  }
+
+  /**
+   * The kinds of reads this controller's `GET` routes do, by path (e.g.,
+   * `/api/users`), so the server can send lists that can be a little out of
+   * date to the secondaries (see `ReadRouting`).
+   *
+   * Routes that aren't listed read from the primary, so controllers only
+   * need to override this to spread their reads across a replica set.
+   *
+   * @return the kind of reads each route does
+   */
+  default Map<String, ReadRouting.Reads> readRoutes() {
+    return Map.of();
+  }
+
+  /**
+   * The `GET` routes whose responses only change when a collection does, by
+   * path (e.g., `/api/users`), with that collection's version.
+   *
+   * The server gives these responses ETags made from the version, and
+   * answers requests from clients that already have the current version
+   * with a `304 Not Modified` before the route's handler runs, so they cost
+   * neither a query nor any serializing (see `ETags.checkVersion`). They
+   * always read from the primary, so a response is never older than the
+   * version it's tagged with (see `ReadRouting.route`).
+   *
+   * Routes that aren't listed are handled as usual, so controllers only
+   * need to override this to answer conditional requests for free.
+   *
+   * @return the version each route's responses depend on
+   */
+  default Map<String, CollectionVersion> versionedRoutes() {
+    return Map.of();
+  }
+
+  /**
+   * Whether `ctx` is a request that's slow by design (e.g., a bulk import,
+   * or an export streamed straight from the database), rather than slow
+   * because the server is busy.
+   *
+   * Admission control (see `Server.useAdmissionControl`) lets these through
+   * without limiting or counting them, so they don't drag down the
+   * concurrency limit (and get cheap requests turned away) just by being
+   * slow. That leaves them unprotected, so keep this to requests that are
+   * rare, and that someone has asked for on purpose.
+   *
+   * @param ctx the request
+   * @return `true` if the request is expected to take a long time
+   */
+  default boolean isLongRunning(Context ctx) {
+    return false;
+  }
+
+  /**
+   * Whether `ctx` asks for a list of everything that matches, rather than
+   * a page of it.
+   *
+   * These are ordinary traffic, so admission control still limits them,
+   * but they take longer than other requests however quiet the server is.
+   * The server can give them a limit of their own (see
+   * `Server.useListAdmissionControl`), so they don't drag down the limit
+   * for everything else.
+   *
+   * @param ctx the request
+   * @return `true` if the request is for an unpaged list
+   */
+  default boolean isUnpagedList(Context ctx) {
+    return false;
+  }
 }
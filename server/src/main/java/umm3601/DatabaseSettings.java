@@ -0,0 +1,51 @@
+package umm3601;
+
+import java.time.Duration;
+
+/**
+ * The tunable settings for our connection to MongoDB: the size of the
+ * driver's connection pool, how long to wait for a connection from it,
+ * socket timeouts, and the replica set (if any) we're connecting to.
+ *
+ * The right values depend on the deployment (how many server instances
+ * share the database, how slow the slowest queries are, etc.), so `Main`
+ * reads them from environment variables. `DRIVER_DEFAULTS` are the values
+ * the MongoDB driver uses if you don't set anything.
+ *
+ * @param maxPoolSize the most connections the pool will open at once
+ * @param minPoolSize the number of connections the pool keeps open even when idle
+ * @param maxWaitTime how long a request waits for a free connection before
+ *   giving up; this is what turns a starved pool into errors instead of
+ *   ever-growing latency
+ * @param maxConnectionIdleTime how long a connection can sit unused before
+ *   it's closed; zero means forever
+ * @param connectTimeout how long to wait when opening a new connection
+ * @param readTimeout how long to wait for MongoDB to answer; zero means forever
+ * @param replicaSet the name of the replica set to connect to, or `null`
+ *   to connect to a single server
+ */
+public record DatabaseSettings(
+  int maxPoolSize,
+  int minPoolSize,
+  Duration maxWaitTime,
+  Duration maxConnectionIdleTime,
+  Duration connectTimeout,
+  Duration readTimeout,
+  String replicaSet) {
+
+  private static final int DEFAULT_MAX_POOL_SIZE = 100;
+  private static final long DEFAULT_MAX_WAIT_SECONDS = 120;
+  private static final long DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+
+  /**
+   * The settings the MongoDB driver uses by default.
+   */
+  public static final DatabaseSettings DRIVER_DEFAULTS = new DatabaseSettings(
+    DEFAULT_MAX_POOL_SIZE,
+    0,
+    Duration.ofSeconds(DEFAULT_MAX_WAIT_SECONDS),
+    Duration.ZERO,
+    Duration.ofSeconds(DEFAULT_CONNECT_TIMEOUT_SECONDS),
+    Duration.ZERO,
+    null);
+}
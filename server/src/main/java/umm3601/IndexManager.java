@@ -0,0 +1,87 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+
+/**
+ * Creates the indexes controllers declare (see `Controller.indexes`).
+ *
+ * Creating an index that already exists (with the same keys and options)
+ * is a no-op, so this is safe to do every time the server starts; on an
+ * existing deployment it costs one quick round trip per collection.
+ *
+ * Creating an index on a big collection can take a while, but MongoDB
+ * builds indexes without locking the collection for the whole build, so
+ * the collection stays usable in the meantime.
+ */
+public class IndexManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndexManager.class);
+
+  // The error codes MongoDB responds with when there's already an index with
+  // the same name but different options, or the same keys but a different
+  // name or options.
+  static final int INDEX_OPTIONS_CONFLICT = 85;
+  static final int INDEX_KEY_SPECS_CONFLICT = 86;
+
+  private final MongoDatabase database;
+
+  /**
+   * Construct an index manager.
+   *
+   * @param database the database containing the collections to index
+   */
+  public IndexManager(MongoDatabase database) {
+    this.database = database;
+  }
+
+  /**
+   * Create any of the indexes `controller` declares that don't already exist.
+   *
+   * If an index can't be created because it conflicts with one that was
+   * created some other way (e.g., by hand, with different options), that's
+   * logged as an error rather than stopping the server; the old index is
+   * probably still better than nothing. Any other failure is thrown.
+   *
+   * @param controller the controller whose indexes to create
+   * @return the names of the declared indexes that now exist
+   */
+  public List<String> ensureIndexes(Controller controller) {
+    return ensureIndexes(controller.getClass().getSimpleName(), controller.indexes());
+  }
+
+  /**
+   * Create any of `indexes` that don't already exist, as `ensureIndexes`
+   * does for a controller's.
+   *
+   * @param owner what needs the indexes, for the log
+   * @param indexes the indexes to create, by collection name
+   * @return the names of the indexes that now exist
+   */
+  public List<String> ensureIndexes(String owner, Map<String, List<IndexModel>> indexes) {
+    List<String> names = new ArrayList<>();
+    for (Map.Entry<String, List<IndexModel>> collection : indexes.entrySet()) {
+      if (collection.getValue().isEmpty()) {
+        continue;
+      }
+      try {
+        names.addAll(database.getCollection(collection.getKey()).createIndexes(collection.getValue()));
+      } catch (MongoCommandException e) {
+        if (e.getErrorCode() != INDEX_OPTIONS_CONFLICT && e.getErrorCode() != INDEX_KEY_SPECS_CONFLICT) {
+          throw e;
+        }
+        LOGGER.error("Couldn't create the indexes {} needs on {}, since they conflict with existing indexes; "
+          + "drop the existing indexes and restart to create them", owner, collection.getKey(), e);
+      }
+    }
+    return names;
+  }
+}
@@ -1,33 +1,243 @@
 package umm3601;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.mongodb.client.MongoClient;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.ConnectionPoolListener;
 import com.mongodb.client.MongoDatabase;
 
+import umm3601.http.AdmissionControl;
+import umm3601.http.Compression;
+import umm3601.metrics.MetricsController;
+import umm3601.metrics.MetricsSource;
+import umm3601.metrics.PoolMetrics;
+import umm3601.metrics.RouteMetrics;
+import umm3601.metrics.SlowQueryProfiler;
+import umm3601.todo.TodoController;
 import umm3601.user.UserController;
 
 public class Main {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
+
+  // The requests a training run (see `trainAndExit`) sends the server, each
+  // `TRAINING_ROUNDS` times. These should cover the code paths real traffic
+  // takes, so the classes they need end up in the CDS archive.
+  private static final List<String> TRAINING_PATHS = List.of(
+    "/api/users",
+    "/api/users?company=OHM&fields=name,company",
+    "/api/users?limit=10",
+    "/api/users/stats",
+    "/api/todos",
+    "/api/todos?owner=Fry&sortby=category",
+    "/api/todos?contains=the",
+    "/api/metrics");
+  private static final int TRAINING_ROUNDS = 3;
+
   public static void main(String[] args) {
     // Get the MongoDB address and database name from environment variables and
-    // if they aren't set, use the defaults of "localhost" and "dev".
-    String mongoAddr = Main.getEnvOrDefault("MONGO_ADDR", "localhost");
-    String databaseName = Main.getEnvOrDefault("MONGO_DB", "dev");
+    // if they aren't set, use the defaults of "localhost" and "dev". To use a
+    // replica set, set `MONGO_REPLICA_SET` to its name and `MONGO_ADDR` to a
+    // comma-separated list of (some of) its members.
+    String mongoAddr = getMongoAddr();
+    String databaseName = getDatabaseName();
+
+    // Get the MongoDB connection pool and socket settings from environment
+    // variables. If they aren't set, use the MongoDB driver's defaults.
+    DatabaseSettings databaseSettings = getDatabaseSettings();
+
+    // Keeps count of what the MongoDB connection pool is doing, so it can be
+    // served from `/api/metrics/pool`.
+    PoolMetrics poolMetrics = new PoolMetrics();
+    // Keeps the latency, status code, and response size of every request,
+    // by route, so they can be served from `/api/metrics`.
+    RouteMetrics routeMetrics = new RouteMetrics();
+    // Explains (and logs the plans of) queries that take longer than
+    // `SLOW_QUERY_MS`. Only `SLOW_QUERY_SAMPLE_RATE` (between 0 and 1) of
+    // queries are kept track of, to keep the overhead down.
+    SlowQueryProfiler slowQueries = new SlowQueryProfiler(
+      Duration.ofMillis(Long.parseLong(getEnvOrDefault("SLOW_QUERY_MS", "100"))),
+      Double.parseDouble(getEnvOrDefault("SLOW_QUERY_SAMPLE_RATE", "1.0")));
 
     // Set up the MongoDB client
-    MongoClient mongoClient = Server.configureDatabase(mongoAddr);
+    MongoClient mongoClient = Server.configureDatabase(mongoAddr, databaseSettings, poolMetrics, slowQueries);
+    slowQueries.attach(mongoClient);
     // Get the database
     MongoDatabase database = mongoClient.getDatabase(databaseName);
 
+    // Response compression settings. Higher levels trade CPU for bandwidth.
+    Compression compression = new Compression(
+      Integer.parseInt(getEnvOrDefault("COMPRESSION_GZIP_LEVEL", "6")),
+      Integer.parseInt(getEnvOrDefault("COMPRESSION_ZSTD_LEVEL", "3")),
+      Integer.parseInt(getEnvOrDefault("COMPRESSION_MIN_SIZE", "1500")));
+
+    // Limits how many requests the server works on at once, turning away
+    // the excess with a `503` (unless `SERVER_ADMISSION_CONTROL=false`). The
+    // limit starts at the initial concurrency and adapts between the minimum
+    // and maximum, backing off when requests take longer than the target
+    // latency. Unpaged lists, which take longer, get a limit (and target
+    // latency) of their own. Requests that are slow by design (like bulk
+    // imports) aren't limited, or counted.
+    boolean admissionControlEnabled = Boolean.parseBoolean(getEnvOrDefault("SERVER_ADMISSION_CONTROL", "true"));
+    AdmissionControl admissionControl = new AdmissionControl(
+      Integer.parseInt(getEnvOrDefault("ADMISSION_MIN_CONCURRENCY", "10")),
+      Integer.parseInt(getEnvOrDefault("ADMISSION_INITIAL_CONCURRENCY", "50")),
+      Integer.parseInt(getEnvOrDefault("ADMISSION_MAX_CONCURRENCY", "200")),
+      Duration.ofMillis(Long.parseLong(getEnvOrDefault("ADMISSION_TARGET_LATENCY_MS", "500"))),
+      Integer.parseInt(getEnvOrDefault("ADMISSION_MAX_QUEUE", "100")),
+      Duration.ofMillis(Long.parseLong(getEnvOrDefault("ADMISSION_MAX_WAIT_MS", "250"))));
+    AdmissionControl listAdmissionControl = new AdmissionControl(
+      Integer.parseInt(getEnvOrDefault("ADMISSION_LIST_MIN_CONCURRENCY", "2")),
+      Integer.parseInt(getEnvOrDefault("ADMISSION_LIST_INITIAL_CONCURRENCY", "10")),
+      Integer.parseInt(getEnvOrDefault("ADMISSION_LIST_MAX_CONCURRENCY", "50")),
+      Duration.ofMillis(Long.parseLong(getEnvOrDefault("ADMISSION_LIST_TARGET_LATENCY_MS", "2000"))),
+      Integer.parseInt(getEnvOrDefault("ADMISSION_MAX_QUEUE", "100")),
+      Duration.ofMillis(Long.parseLong(getEnvOrDefault("ADMISSION_MAX_WAIT_MS", "250"))));
+    listAdmissionControl.useName("list");
+
     // The implementations of `Controller` used for the server. These will presumably
     // be one or more controllers, each of which implements the `Controller` interface.
     // You'll add your own controllers in `getControllers` as you create them.
-    final Controller[] controllers = Main.getControllers(database);
+    final Controller[] controllers = admissionControlEnabled
+      ? Main.getControllers(
+        database, compression, poolMetrics, routeMetrics, slowQueries, admissionControl, listAdmissionControl)
+      : Main.getControllers(database, compression, poolMetrics, routeMetrics, slowQueries);
 
     // Construct the server
     Server server = new Server(mongoClient, controllers);
+    server.useRouteMetrics(routeMetrics);
+    server.useCompression(compression);
+    if (admissionControlEnabled) {
+      server.useAdmissionControl(admissionControl);
+      server.useListAdmissionControl(listAdmissionControl);
+    }
+    // Setting `SERVER_VIRTUAL_THREADS=true` makes the server handle each
+    // request on its own (cheap) virtual thread.
+    server.useVirtualThreads(Boolean.parseBoolean(getEnvOrDefault("SERVER_VIRTUAL_THREADS", "false")));
+
+    // List reads (see `Controller.readRoutes`) go to secondaries that are no
+    // more than `MONGO_MAX_STALENESS_SECONDS` behind the primary, if there
+    // are any, unless `MONGO_LIST_READ_PREFERENCE` says otherwise (e.g.,
+    // `primary`). Everything else reads from the primary.
+    server.useReadRouting(ReadRouting.of(
+      getEnvOrDefault("MONGO_LIST_READ_PREFERENCE", "secondaryPreferred"),
+      Duration.ofSeconds(Long.parseLong(getEnvOrDefault("MONGO_MAX_STALENESS_SECONDS", "90")))));
+
+    // Make sure the indexes the controllers' queries need exist.
+    server.ensureIndexes(database);
 
     // Start the server
     server.startServer();
+    LOGGER.info("Server ready {}ms after the JVM started", ManagementFactory.getRuntimeMXBean().getUptime());
+
+    // Setting `SERVER_TRAINING_RUN=true` sends the server some typical
+    // requests and then exits, which is how the `cdsArchive` Gradle task
+    // (and the Docker image build) record the classes the server uses.
+    if (Boolean.parseBoolean(getEnvOrDefault("SERVER_TRAINING_RUN", "false"))) {
+      trainAndExit();
+    }
+  }
+
+  /**
+   * Send the server each of the `TRAINING_PATHS`, then exit.
+   *
+   * Run with `-XX:ArchiveClassesAtExit=FILE`, this records every class the
+   * server loaded (for starting up and for handling typical requests) in a
+   * class-data-sharing (CDS) archive. Starting the server again with
+   * `-XX:SharedArchiveFile=FILE` maps those classes straight in from the
+   * archive instead of finding, reading, verifying, and parsing each of
+   * them, which takes a good chunk off the time it takes to start serving.
+   *
+   * Failed requests aren't a problem, since they still load most of the
+   * classes that successful ones do, so they're just logged.
+   */
+  private static void trainAndExit() {
+    HttpClient client = HttpClient.newHttpClient();
+    for (int round = 0; round < TRAINING_ROUNDS; round++) {
+      for (String path : TRAINING_PATHS) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + Server.SERVER_PORT + path))
+          .header("Accept-Encoding", "gzip, zstd")
+          .build();
+        try {
+          HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+          LOGGER.info("Training request {} got {}", path, response.statusCode());
+        } catch (IOException e) {
+          LOGGER.warn("Training request {} failed", path, e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    // The shutdown hooks stop the server and close the database connection;
+    // the CDS archive is written once they're done.
+    System.exit(0);
+  }
+
+  /**
+   * Connect to the database server the server uses, with the same settings
+   * (see `getDatabaseSettings`). This is for the tools that work on the
+   * server's database from outside it, like `SeedLoader` and the avatar
+   * backfill; the server itself also listens to what the client does.
+   *
+   * @return The MongoDB client object
+   */
+  public static MongoClient connectToDatabase() {
+    return Server.configureDatabase(getMongoAddr(), getDatabaseSettings(),
+      new ConnectionPoolListener() { }, new CommandListener() { });
+  }
+
+  /**
+   * Get the address of the MongoDB server (or the comma-separated addresses
+   * of replica set members) from `MONGO_ADDR`, or "localhost" if it's not set.
+   *
+   * @return The address of the MongoDB server
+   */
+  static String getMongoAddr() {
+    return getEnvOrDefault("MONGO_ADDR", "localhost");
+  }
+
+  /**
+   * Get the name of the database from `MONGO_DB`, or "dev" if it's not set.
+   *
+   * @return The name of the database
+   */
+  public static String getDatabaseName() {
+    return getEnvOrDefault("MONGO_DB", "dev");
+  }
+
+  /**
+   * Get the MongoDB connection pool and socket settings, and the name of the
+   * replica set (if any), from environment variables, using the MongoDB
+   * driver's defaults for any that aren't set.
+   *
+   * @return The settings to connect to MongoDB with
+   */
+  static DatabaseSettings getDatabaseSettings() {
+    DatabaseSettings defaults = DatabaseSettings.DRIVER_DEFAULTS;
+    return new DatabaseSettings(
+      Integer.parseInt(getEnvOrDefault("MONGO_MAX_POOL_SIZE", String.valueOf(defaults.maxPoolSize()))),
+      Integer.parseInt(getEnvOrDefault("MONGO_MIN_POOL_SIZE", String.valueOf(defaults.minPoolSize()))),
+      getMillisEnvOrDefault("MONGO_MAX_WAIT_MS", defaults.maxWaitTime()),
+      getMillisEnvOrDefault("MONGO_MAX_IDLE_MS", defaults.maxConnectionIdleTime()),
+      getMillisEnvOrDefault("MONGO_CONNECT_TIMEOUT_MS", defaults.connectTimeout()),
+      getMillisEnvOrDefault("MONGO_READ_TIMEOUT_MS", defaults.readTimeout()),
+      getEnvOrDefault("MONGO_REPLICA_SET", null));
   }
 
   /**
@@ -38,10 +248,23 @@ public class Main {
    *
    * @return The value of the environment variable, or the default value if it's not set
    */
-  static String getEnvOrDefault(String envName, String defaultValue) {
+  public static String getEnvOrDefault(String envName, String defaultValue) {
     return System.getenv().getOrDefault(envName, defaultValue);
   }
 
+  /**
+   * Get a duration, given in milliseconds, from an environment variable, or
+   * return a default value if it's not set.
+   *
+   * @param envName The name of the environment variable to get
+   * @param defaultValue The default value to use if the environment variable isn't set
+   *
+   * @return The duration in the environment variable, or the default value if it's not set
+   */
+  static Duration getMillisEnvOrDefault(String envName, Duration defaultValue) {
+    return Duration.ofMillis(Long.parseLong(getEnvOrDefault(envName, String.valueOf(defaultValue.toMillis()))));
+  }
+
   /**
    * Get the implementations of `Controller` used for the server.
    *
@@ -51,18 +274,128 @@ public class Main {
    *
    * @param database The MongoDB database object used by the controllers
    *               to access the database.
+   * @param compression The settings for compressing cached responses.
+   * @param poolMetrics The MongoDB connection pool metrics served by the
+   *               metrics controller.
+   * @param otherMetrics Any other metrics (per-route requests, slow
+   *               queries, etc.) served by the metrics controller.
    * @return An array of implementations of `Controller` for the server.
    */
-  static Controller[] getControllers(MongoDatabase database) {
+  static Controller[] getControllers(
+      MongoDatabase database, Compression compression, PoolMetrics poolMetrics, MetricsSource... otherMetrics) {
+    // Setting up a controller can mean waiting on MongoDB, so we set them
+    // all up at once, each on its own virtual thread, rather than one after
+    // the other.
+    UserController userController;
+    TodoController todoController;
+    try (ExecutorService setup = Executors.newVirtualThreadPerTaskExecutor()) {
+      CompletableFuture<UserController> users = CompletableFuture.supplyAsync(
+        () -> getUserController(database, compression), setup);
+      CompletableFuture<TodoController> todos = CompletableFuture.supplyAsync(
+        () -> getTodoController(database), setup);
+      userController = users.join();
+      todoController = todos.join();
+    }
+
     Controller[] controllers = new Controller[] {
       // You would add additional controllers here, as you create them,
       // although you need to make sure that each of your new controllers implements
       // the `Controller` interface.
       //
       // You can also remove this UserController once you don't need it.
-      new UserController(database)
+      userController,
+      todoController,
+      new MetricsController(poolMetrics, withAvatarMetrics(otherMetrics, userController))
     };
     return controllers;
   }
 
+  /**
+   * @param otherMetrics the metrics passed to `getControllers`
+   * @param userController the user controller
+   * @return `otherMetrics`, with the user controller's avatar metrics added
+   */
+  private static MetricsSource[] withAvatarMetrics(MetricsSource[] otherMetrics, UserController userController) {
+    MetricsSource[] metrics = Arrays.copyOf(otherMetrics, otherMetrics.length + 1);
+    metrics[otherMetrics.length] = userController.avatarMetrics();
+    return metrics;
+  }
+
+  /**
+   * Construct and configure the controller for users.
+   *
+   * @param database The MongoDB database containing the users.
+   * @param compression The settings for compressing cached responses.
+   * @return The user controller.
+   */
+  private static UserController getUserController(MongoDatabase database, Compression compression) {
+    UserController userController = new UserController(database);
+    userController.useCompression(compression);
+    // Setting `USERS_STREAM_RESULTS=true` makes `GET /api/users` stream its
+    // results straight from the database cursor to the response.
+    userController.useStreaming(Boolean.parseBoolean(getEnvOrDefault("USERS_STREAM_RESULTS", "false")));
+    // Setting `USERS_RAW_BSON=true` makes `GET /api/users` write its JSON
+    // straight from the BSON MongoDB sends, without going through `User`s.
+    userController.useRawBson(Boolean.parseBoolean(getEnvOrDefault("USERS_RAW_BSON", "false")));
+    // Setting `USERS_ASYNC=true` runs `GET /api/users` requests on virtual
+    // threads, freeing the server's request threads while they wait on MongoDB.
+    if (Boolean.parseBoolean(getEnvOrDefault("USERS_ASYNC", "false"))) {
+      userController.useAsyncExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+    // Answer `GET /api/users` requests from clients that already have the
+    // current list with a 304, without a query, unless `USERS_ETAGS=false`.
+    if (Boolean.parseBoolean(getEnvOrDefault("USERS_ETAGS", "true"))) {
+      userController.enableVersionTags();
+    }
+    // Identical `GET /api/users` requests that arrive at the same time share
+    // one query, unless `USERS_COALESCE_REQUESTS=false`.
+    userController.useRequestCoalescing(Boolean.parseBoolean(getEnvOrDefault("USERS_COALESCE_REQUESTS", "true")));
+    // `POST /api/users/bulk` inserts `USERS_IMPORT_BATCH_SIZE` users at a time.
+    userController.useImportBatchSize(Integer.parseInt(getEnvOrDefault("USERS_IMPORT_BATCH_SIZE", "1000")));
+    // Recompute the counts served by `GET /api/users/stats` every
+    // `USERS_STATS_REFRESH_SECONDS` (and when the users change) in the
+    // background. Zero means only recompute them when they're requested.
+    long userStatsRefresh = Long.parseLong(getEnvOrDefault("USERS_STATS_REFRESH_SECONDS", "60"));
+    if (userStatsRefresh > 0) {
+      userController.enableStatsRefresh(Duration.ofSeconds(userStatsRefresh));
+    }
+    // Cache up to `USERS_CACHE_SIZE` recent `GET /api/users` responses for
+    // `USERS_CACHE_TTL_SECONDS` each. Responses over 256KB aren't cached, so
+    // the default 64 holds at most 16MB (plus compressed copies). A size of
+    // zero turns the cache off.
+    int userCacheSize = Integer.parseInt(getEnvOrDefault("USERS_CACHE_SIZE", "64"));
+    if (userCacheSize > 0) {
+      long userCacheTtl = Long.parseLong(getEnvOrDefault("USERS_CACHE_TTL_SECONDS", "30"));
+      userController.enableResultCache(userCacheSize, Duration.ofSeconds(userCacheTtl));
+    }
+    return userController;
+  }
+
+  /**
+   * Construct and configure the controller for todos.
+   *
+   * @param database The MongoDB database containing the todos.
+   * @return The todo controller.
+   */
+  private static TodoController getTodoController(MongoDatabase database) {
+    TodoController todoController = new TodoController(database);
+    // Answer `GET /api/todos` requests from clients that already have the
+    // current list with a 304, without a query, unless `TODOS_ETAGS=false`.
+    if (Boolean.parseBoolean(getEnvOrDefault("TODOS_ETAGS", "true"))) {
+      todoController.enableVersionTags();
+    }
+    // Answer `GET /api/todos?contains=...` from an in-memory index of the
+    // words in each todo, unless `TODOS_TEXT_INDEX=false`. The index is
+    // built in the background, so this doesn't hold up startup. Queries
+    // matching more than `TODOS_TEXT_INDEX_MAX_MATCHES` todos don't use it.
+    if (Boolean.parseBoolean(getEnvOrDefault("TODOS_TEXT_INDEX", "true"))) {
+      int maxMatches = Integer.parseInt(getEnvOrDefault("TODOS_TEXT_INDEX_MAX_MATCHES", "10000"));
+      todoController.enableTextIndex(maxMatches).exceptionally(e -> {
+        LOGGER.warn("Couldn't build the todo text index, so `contains` queries will read every todo", e);
+        return null;
+      });
+    }
+    return todoController;
+  }
+
 }
@@ -0,0 +1,143 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * Decides which members of a MongoDB replica set each route reads from.
+ *
+ * By default every read goes to the primary, so the secondaries sit idle
+ * (apart from replicating) while the primary does all the work. Most of our
+ * reads are lists (of users, of todos) that don't need to reflect a write
+ * from a moment ago, so they can just as well be answered by a secondary
+ * that's slightly behind. Other reads do need to see the client's own
+ * writes (e.g., reading something back straight after changing it), and
+ * those have to go to the primary.
+ *
+ * Each controller declares which kind of reads its routes do (see
+ * `Controller.readRoutes`), and `Server` uses `route` to tag each request
+ * to those routes with the read preference to use. Controllers then run
+ * their queries on `forRequest(ctx, collection)`. Routes that aren't
+ * declared (and requests with no tag, as in tests with a mock `Context`)
+ * read from the primary, as before.
+ *
+ * Read preferences only matter when we're connected to a replica set
+ * (see `DatabaseSettings.replicaSet`); a standalone server answers
+ * everything itself.
+ */
+public class ReadRouting {
+
+  /**
+   * The kinds of reads a route can do.
+   */
+  public enum Reads {
+    /**
+     * Reads that have to see every write that's been acknowledged, which
+     * means reading from the primary.
+     */
+    READ_YOUR_WRITES,
+    /**
+     * Reads (like lists) that can be a little out of date, and so can be
+     * spread across the secondaries.
+     */
+    LIST
+  }
+
+  // The request attribute holding the read preference for the request.
+  static final String ATTRIBUTE = "umm3601.readPreference";
+
+  /**
+   * Read everything from the primary.
+   */
+  public static final ReadRouting PRIMARY_ONLY = new ReadRouting(ReadPreference.primary());
+
+  private final ReadPreference listPreference;
+
+  /**
+   * Construct a read routing.
+   *
+   * @param listPreference the read preference for `LIST` reads
+   */
+  public ReadRouting(ReadPreference listPreference) {
+    this.listPreference = listPreference;
+  }
+
+  /**
+   * Construct a read routing from the name of the read preference for
+   * `LIST` reads (e.g., `secondaryPreferred`).
+   *
+   * Anything but `primary` reads from secondaries, which can be behind the
+   * primary; `maxStaleness` is how far behind a secondary can be before we
+   * stop reading from it. MongoDB won't accept less than 90 seconds.
+   *
+   * @param listPreference the name of the read preference for `LIST` reads
+   * @param maxStaleness how far behind the primary a secondary we read from can be
+   * @return the read routing
+   * @throws IllegalArgumentException if `listPreference` isn't the name of a read preference
+   */
+  public static ReadRouting of(String listPreference, Duration maxStaleness) {
+    if (ReadPreference.primary().getName().equals(listPreference)) {
+      return PRIMARY_ONLY;
+    }
+    return new ReadRouting(
+      ReadPreference.valueOf(listPreference, List.of(), maxStaleness.toSeconds(), TimeUnit.SECONDS));
+  }
+
+  /**
+   * @param reads the kind of reads
+   * @return the read preference for that kind of reads
+   */
+  public ReadPreference preferenceFor(Reads reads) {
+    return reads == Reads.LIST ? listPreference : ReadPreference.primary();
+  }
+
+  /**
+   * Tag each `GET` request to one of `controller`'s routes (see
+   * `Controller.readRoutes`) with the read preference for the kind of
+   * reads it does.
+   *
+   * Versioned routes (see `Controller.versionedRoutes`) always read from
+   * the primary, whatever they declare. Their responses go out with an ETag
+   * made from the collection's current version, and a secondary that's
+   * behind could answer with a list from before that version. The client
+   * would then be told its stale copy is current until the next change.
+   *
+   * @param server the Javalin server the controller's routes are added to
+   * @param controller the controller
+   */
+  public void route(Javalin server, Controller controller) {
+    Set<String> versioned = controller.versionedRoutes().keySet();
+    for (Map.Entry<String, Reads> route : controller.readRoutes().entrySet()) {
+      Reads reads = versioned.contains(route.getKey()) ? Reads.READ_YOUR_WRITES : route.getValue();
+      ReadPreference preference = preferenceFor(reads);
+      server.before(route.getKey(), ctx -> {
+        if (ctx.method() == HandlerType.GET) {
+          ctx.attribute(ATTRIBUTE, preference);
+        }
+      });
+    }
+  }
+
+  /**
+   * Get the version of `collection` that reads as the request should.
+   *
+   * @param <T> the type of the collection's documents
+   * @param ctx a Javalin HTTP context
+   * @param collection a collection
+   * @return `collection`, with the request's read preference, if it has one
+   */
+  public static <T> MongoCollection<T> forRequest(Context ctx, MongoCollection<T> collection) {
+    ReadPreference preference = ctx.attribute(ATTRIBUTE);
+    return preference == null ? collection : collection.withReadPreference(preference);
+  }
+}
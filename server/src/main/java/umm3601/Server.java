@@ -1,24 +1,47 @@
 package umm3601;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.ConnectionPoolListener;
 
 import org.bson.UuidRepresentation;
 
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
 import io.javalin.http.InternalServerErrorResponse;
 
+import umm3601.cache.CollectionVersion;
+import umm3601.http.AdmissionControl;
+import umm3601.http.Compression;
+import umm3601.http.ETags;
+import umm3601.http.Representations;
+import umm3601.metrics.RouteMetrics;
+
 /**
  * The class used to configure and start a Javalin server.
  */
 public class Server {
 
   // The port that the server should run on.
-  private static final int SERVER_PORT = 4567;
+  static final int SERVER_PORT = 4567;
+
+  // Requests for paths that start with this are never turned away by
+  // admission control.
+  static final String UNLIMITED_PATH_PREFIX = "/api/metrics";
 
   // The `mongoClient` field is used to access the MongoDB
   private final MongoClient mongoClient;
@@ -27,6 +50,30 @@ public class Server {
   // for the server. This is used to add routes to the server.
   private Controller[] controllers;
 
+  // Whether Javalin handles each request on its own virtual thread
+  // (`true`) or on its usual pool of platform threads (`false`).
+  private boolean virtualThreads = false;
+
+  // Where per-route request metrics are recorded, or `null` if they aren't.
+  private RouteMetrics routeMetrics = null;
+
+  // How responses are compressed, or `null` to leave it up to Javalin.
+  private Compression compression = null;
+
+  // Limits how many requests are worked on at once, or `null` if there's no limit.
+  private AdmissionControl admissionControl = null;
+
+  // Limits how many unpaged lists are worked on at once, or `null` if
+  // they're limited along with everything else.
+  private AdmissionControl listAdmissionControl = null;
+
+  // Which replica set members each route reads from, or `null` to read
+  // everything from the primary.
+  private ReadRouting readRouting = null;
+
+  // The formats (JSON, CBOR, etc.) controllers can send responses in.
+  private final Representations representations = new Representations();
+
   /**
    * Construct a `Server` object that we'll use (via `startServer()`) to configure
    * and start the server.
@@ -44,6 +91,105 @@ public class Server {
     this.controllers = Arrays.copyOf(controllers, controllers.length);
   }
 
+  /**
+   * Turn handling requests on virtual threads on or off.
+   *
+   * By default Javalin (really Jetty, the web server underneath it) handles
+   * requests on a fixed-size pool of ordinary "platform" threads. Our
+   * controllers use the synchronous MongoDB driver, so each request holds on
+   * to its thread while it waits for the database, and under heavy load we
+   * can run out of threads long before we run out of CPU or database capacity.
+   *
+   * Virtual threads (new in Java 21) are very cheap, and a virtual thread that
+   * is blocked waiting on I/O doesn't tie up an OS thread, so with this turned
+   * on the number of requests we can have waiting on MongoDB at once is
+   * limited by MongoDB (and the driver's connection pool), not by threads.
+   *
+   * This has to be called before `startServer()`.
+   *
+   * @param enabled `true` to handle requests on virtual threads
+   */
+  public void useVirtualThreads(boolean enabled) {
+    this.virtualThreads = enabled;
+  }
+
+  /**
+   * Record the latency, status code, and response size of every request in
+   * `routeMetrics`.
+   *
+   * This has to be called before `startServer()`.
+   *
+   * @param routeMetrics where to record the metrics
+   */
+  public void useRouteMetrics(RouteMetrics routeMetrics) {
+    this.routeMetrics = routeMetrics;
+  }
+
+  /**
+   * Compress responses according to `compression`.
+   *
+   * Responses are zstd'ed for clients that prefer it (see
+   * `Compression.zstdCompress`), and otherwise Javalin gzips them (at
+   * `compression.gzipLevel()`) for clients that accept gzip, once the body
+   * reaches `compression.minSize()` bytes. Responses that are already
+   * compressed (like the cached ones from `CachedResponse`) are left alone.
+   *
+   * This has to be called before `startServer()`.
+   *
+   * @param compression the compression settings
+   */
+  public void useCompression(Compression compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Limit how many requests are worked on at once with `admissionControl`,
+   * turning away the ones over the limit with a `503 Service Unavailable`
+   * rather than letting them pile up.
+   *
+   * Requests for metrics (`/api/metrics...`) are never turned away, so we
+   * can still see what's going on when the server is overloaded. Nor are
+   * requests a controller says are slow by design (see
+   * `Controller.isLongRunning`); they'd only teach the limit that the
+   * server is overloaded when it isn't.
+   *
+   * This has to be called before `startServer()`.
+   *
+   * @param admissionControl the admission control to use
+   */
+  public void useAdmissionControl(AdmissionControl admissionControl) {
+    this.admissionControl = admissionControl;
+  }
+
+  /**
+   * Limit how many unpaged lists (see `Controller.isUnpagedList`) are
+   * worked on at once with `listAdmissionControl`, instead of the admission
+   * control everything else uses. Lists of everything that matches take
+   * longer than other requests, so they get a limit (and target latency)
+   * of their own, rather than dragging down the limit for cheap requests.
+   *
+   * This only has an effect along with `useAdmissionControl`, and has to be
+   * called before `startServer()`.
+   *
+   * @param listAdmissionControl the admission control to use for unpaged lists
+   */
+  public void useListAdmissionControl(AdmissionControl listAdmissionControl) {
+    this.listAdmissionControl = listAdmissionControl;
+  }
+
+  /**
+   * Route each controller's reads according to `readRouting` (see
+   * `Controller.readRoutes`), so reads that can be a little out of date can
+   * be answered by the replica set's secondaries.
+   *
+   * This has to be called before `startServer()`.
+   *
+   * @param readRouting the read routing to use
+   */
+  public void useReadRouting(ReadRouting readRouting) {
+    this.readRouting = readRouting;
+  }
+
   /**
    * Setup the MongoDB database connection.
    *
@@ -53,17 +199,48 @@ public class Server {
    * (`localhost`). If you're running the server on Digital Ocean using our setup
    * script, this will connect to the production database running on server.
    *
-   * This sets both the `mongoClient` and `database` fields
-   * so they can be used when setting up the Javalin server.
-   * @param mongoAddr The address of the MongoDB server
+   * The driver keeps a pool of connections to MongoDB, and every database
+   * operation has to check one out of the pool. If they're all in use,
+   * the operation waits (for up to `maxWaitTime`) for one to be checked
+   * back in. `poolListener` is told about every checkout, so we can see
+   * when that waiting, rather than MongoDB itself, is what's slowing us down.
+   * Likewise, `commandListener` is told about every command sent to MongoDB,
+   * so we can see which queries are slow, and why.
+   *
+   * When `settings` names a replica set, we connect to it as one (through
+   * whichever of its members are in `mongoAddr`), so reads can be sent to
+   * its secondaries (see `useReadRouting`).
+   *
+   * @param mongoAddr The address of the MongoDB server, or a comma-separated
+   *   list of the addresses of replica set members
+   * @param settings The connection pool and socket settings to use
+   * @param poolListener Told about everything the connection pool does
+   * @param commandListener Told about every command sent to MongoDB
    *
    * @return The MongoDB client object
    */
-  static MongoClient configureDatabase(String mongoAddr) {
+  static MongoClient configureDatabase(
+      String mongoAddr, DatabaseSettings settings, ConnectionPoolListener poolListener,
+      CommandListener commandListener) {
     // Setup the MongoDB client object with the information we set earlier
     MongoClient mongoClient = MongoClients.create(MongoClientSettings
       .builder()
-      .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      .applyToClusterSettings(builder -> {
+        builder.hosts(Arrays.stream(mongoAddr.split(",")).map(host -> new ServerAddress(host.trim())).toList());
+        if (settings.replicaSet() != null) {
+          builder.requiredReplicaSetName(settings.replicaSet());
+        }
+      })
+      .applyToConnectionPoolSettings(builder -> builder
+        .maxSize(settings.maxPoolSize())
+        .minSize(settings.minPoolSize())
+        .maxWaitTime(settings.maxWaitTime().toMillis(), TimeUnit.MILLISECONDS)
+        .maxConnectionIdleTime(settings.maxConnectionIdleTime().toMillis(), TimeUnit.MILLISECONDS)
+        .addConnectionPoolListener(poolListener))
+      .applyToSocketSettings(builder -> builder
+        .connectTimeout(settings.connectTimeout().toMillis(), TimeUnit.MILLISECONDS)
+        .readTimeout(settings.readTimeout().toMillis(), TimeUnit.MILLISECONDS))
+      .addCommandListener(commandListener)
       // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
       // a non-standard way. This option says to use the standard encoding.
       // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
@@ -86,6 +263,27 @@ public class Server {
     javalin.start(SERVER_PORT);
   }
 
+  /**
+   * Create the indexes each of the controllers needs (see
+   * `Controller.indexes`) in `database`, unless they already exist.
+   *
+   * Each controller's indexes are created on their own virtual thread, so
+   * the (mostly waiting) round trips to MongoDB happen all at once rather
+   * than one after another.
+   *
+   * @param database the database the controllers use
+   */
+  void ensureIndexes(MongoDatabase database) {
+    IndexManager indexManager = new IndexManager(database);
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<CompletableFuture<List<String>>> created = new ArrayList<>();
+      for (Controller controller : controllers) {
+        created.add(CompletableFuture.supplyAsync(() -> indexManager.ensureIndexes(controller), executor));
+      }
+      created.forEach(CompletableFuture::join);
+    }
+  }
+
   /**
    * Configure the Javalin server. This includes
    *
@@ -95,6 +293,15 @@ public class Server {
    *   JVM is shut down.
    * - Setting up a handler for uncaught exceptions to return an HTTP 500
    *   error.
+   * - Handling requests on virtual threads, if that's been turned on
+   *   with `useVirtualThreads`.
+   * - Recording metrics for every request, if that's been turned on
+   *   with `useRouteMetrics`.
+   * - Compressing responses, if that's been set up with `useCompression`.
+   * - Limiting how many requests are worked on at once, if that's been set
+   *   up with `useAdmissionControl`.
+   * - Letting controllers send responses in whichever format (JSON, CBOR,
+   *   etc.) each client asks for (see `Representations`).
    *
    * @return The Javalin server instance
    */
@@ -112,10 +319,59 @@ public class Server {
      * `http://localhost:4567/api` shows all of the available endpoints and
      * what HTTP methods they use. (Replace `localhost` and `4567` with whatever server
      * and  port you're actually using, if they are different.)
+     *
+     * `useVirtualThreads` makes Jetty run each request on a new virtual
+     * thread instead of one from its pool of platform threads.
      */
-    Javalin server = Javalin.create(config ->
-      config.bundledPlugins.enableRouteOverview("/api")
-    );
+    Javalin server = Javalin.create(config -> {
+      config.bundledPlugins.enableRouteOverview("/api");
+      config.useVirtualThreads = virtualThreads;
+      if (routeMetrics != null || admissionControl != null) {
+        // The request logger is called once the response has been sent, so
+        // this sees the whole time taken by every request.
+        config.requestLogger.http((ctx, executionTimeMs) -> {
+          if (admissionControl != null) {
+            admissionControl.finish(ctx);
+          }
+          if (listAdmissionControl != null) {
+            listAdmissionControl.finish(ctx);
+          }
+          if (routeMetrics != null) {
+            routeMetrics.finish(ctx, executionTimeMs);
+          }
+        });
+      }
+      if (compression != null) {
+        config.http.gzipOnlyCompression(compression.gzipLevel());
+      }
+    });
+
+    // Don't bother compressing bodies that are too small to benefit, and
+    // zstd the rest for the clients that prefer it (Javalin only gzips).
+    if (compression != null) {
+      server.before(ctx -> ctx.minSizeForCompression(compression.minSize()));
+      server.after(compression::zstdCompress);
+    }
+
+    // Note when each request starts, so we know how long it took.
+    if (routeMetrics != null) {
+      server.before(routeMetrics::start);
+    }
+
+    // Controllers use `Representations.write` to send their responses in
+    // the format the client asks for (in its `Accept` header).
+    server.before(representations::attach);
+
+    // Wait for (or be refused) a slot to work on the request in. This comes
+    // after noting the start time, so the time spent waiting counts.
+    if (admissionControl != null) {
+      server.before(ctx -> {
+        AdmissionControl admission = admissionControlFor(ctx);
+        if (admission != null) {
+          admission.admit(ctx);
+        }
+      });
+    }
 
     // Configure the MongoDB client and the Javalin server to shut down gracefully.
     configureShutdowns(server);
@@ -170,7 +426,53 @@ public class Server {
     // Add the routes for each of the implementations of `Controller` in the
     // `controllers` array.
     for (Controller controller : controllers) {
+      // Tag requests with their read preference before they get to the
+      // controller's handlers.
+      if (readRouting != null) {
+        readRouting.route(server, controller);
+      }
+      checkVersions(server, controller);
       controller.addRoutes(server);
     }
   }
+
+  /**
+   * @param ctx the request
+   * @return the admission control `ctx` has to be admitted by, or `null`
+   *   if it isn't limited: requests for metrics, and requests any of the
+   *   controllers says are slow by design (see `Controller.isLongRunning`)
+   */
+  private AdmissionControl admissionControlFor(Context ctx) {
+    if (ctx.path().startsWith(UNLIMITED_PATH_PREFIX)) {
+      return null;
+    }
+    boolean unpagedList = false;
+    for (Controller controller : controllers) {
+      if (controller.isLongRunning(ctx)) {
+        return null;
+      }
+      unpagedList = unpagedList || controller.isUnpagedList(ctx);
+    }
+    return unpagedList && listAdmissionControl != null ? listAdmissionControl : admissionControl;
+  }
+
+  /**
+   * Answer `GET` requests to each of `controller`'s versioned routes (see
+   * `Controller.versionedRoutes`) from clients that already have the
+   * current version with a `304 Not Modified`, without running the route's
+   * handler.
+   *
+   * @param server The Javalin server instance
+   * @param controller the controller
+   */
+  private static void checkVersions(Javalin server, Controller controller) {
+    for (Map.Entry<String, CollectionVersion> route : controller.versionedRoutes().entrySet()) {
+      CollectionVersion version = route.getValue();
+      server.before(route.getKey(), ctx -> {
+        if (ctx.method() == HandlerType.GET && ETags.checkVersion(ctx, version.current())) {
+          ctx.skipRemainingHandlers();
+        }
+      });
+    }
+  }
 }
@@ -0,0 +1,26 @@
+package umm3601.cache;
+
+/**
+ * A snapshot of the counters kept by a `ResultCache`.
+ *
+ * The hit ratio is `hits / (hits + misses)`. Lots of evictions with a low
+ * hit ratio suggests the cache is too small for the number of distinct
+ * queries it sees; lots of expirations suggests the TTL is too short.
+ *
+ * @param hits the number of lookups that found a usable value
+ * @param misses the number of lookups that didn't
+ * @param evictions the number of entries thrown out to make room for new ones
+ * @param expirations the number of entries thrown out because they were too old
+ * @param invalidations the number of times the whole cache was invalidated
+ * @param size the number of entries currently in the cache
+ * @param maxEntries the maximum number of entries the cache will hold
+ */
+public record CacheStats(
+  long hits,
+  long misses,
+  long evictions,
+  long expirations,
+  long invalidations,
+  int size,
+  int maxEntries) {
+}
@@ -0,0 +1,191 @@
+package umm3601.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+
+/**
+ * Watches a MongoDB collection for changes on a background thread, and
+ * tells interested parties (caches, indexes, etc.) when it changes.
+ *
+ * This uses MongoDB change streams, which are only available when MongoDB
+ * is running as a replica set. (A single-node replica set is fine; see
+ * `mongod --replSet`.) On a standalone server the watcher logs a warning
+ * and stops, so anything relying on it has to fall back on something
+ * else, like a time-to-live.
+ *
+ * If the change stream is lost (say the connection to the database drops),
+ * we can't know what changed while it was down, so the watcher calls `onGap`
+ * before trying again (and again once the stream is back). That's the cue to
+ * throw away or rebuild anything that was derived from the collection.
+ */
+public class ChangeStreamWatcher implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChangeStreamWatcher.class);
+
+  // The error code MongoDB responds with when change streams aren't
+  // supported, i.e., when it isn't running as a replica set.
+  static final int CHANGE_STREAMS_NOT_SUPPORTED = 40573;
+
+  // How long to wait on the server for a change before checking whether
+  // we've been closed.
+  private static final long MAX_AWAIT_MILLIS = 1000;
+
+  // How long to wait before trying again after losing the change stream.
+  private static final long RETRY_DELAY_MILLIS = 5000;
+
+  private final MongoCollection<Document> collection;
+  private final FullDocument fullDocument;
+  private final Consumer<ChangeStreamDocument<Document>> onChange;
+  private final Runnable onGap;
+  private final Thread thread;
+
+  private volatile boolean closed = false;
+  private volatile boolean watching = false;
+
+  /**
+   * Construct a watcher for `collection` that only needs to know that
+   * something changed, not what it changed to. It doesn't start watching
+   * until `start()` is called.
+   *
+   * @param collection the collection to watch
+   * @param onChange called (on the watcher's thread) with each change
+   * @param onGap called (on the watcher's thread) when changes may have been missed
+   */
+  public ChangeStreamWatcher(
+      MongoCollection<Document> collection,
+      Consumer<ChangeStreamDocument<Document>> onChange,
+      Runnable onGap) {
+    this(collection, FullDocument.DEFAULT, onChange, onGap);
+  }
+
+  /**
+   * Construct a watcher for `collection`. It doesn't start watching until
+   * `start()` is called.
+   *
+   * With `FullDocument.UPDATE_LOOKUP`, each update comes with the whole
+   * updated document, not just the changed fields. That costs the server a
+   * lookup per update, so only ask for it if `onChange` uses the document.
+   *
+   * @param collection the collection to watch
+   * @param fullDocument whether changes should include the full document
+   * @param onChange called (on the watcher's thread) with each change
+   * @param onGap called (on the watcher's thread) when changes may have been missed
+   */
+  public ChangeStreamWatcher(
+      MongoCollection<Document> collection,
+      FullDocument fullDocument,
+      Consumer<ChangeStreamDocument<Document>> onChange,
+      Runnable onGap) {
+    this.collection = collection;
+    this.fullDocument = fullDocument;
+    this.onChange = onChange;
+    this.onGap = onGap;
+    this.thread = new Thread(this::run, "change-stream-" + collection.getNamespace().getCollectionName());
+    // A daemon thread won't keep the JVM alive after the server stops.
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Start watching the collection.
+   */
+  public void start() {
+    thread.start();
+  }
+
+  /**
+   * @return `true` if the change stream is currently open, so changes
+   *   to the collection will be reported
+   */
+  public boolean isWatching() {
+    return watching;
+  }
+
+  /**
+   * @return `true` if the watcher's thread is still running; it stops when
+   *   the watcher is closed or if change streams aren't supported
+   */
+  public boolean isRunning() {
+    return thread.isAlive();
+  }
+
+  /**
+   * Stop watching the collection, waiting (briefly) for the watcher's thread to finish.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      thread.join(MAX_AWAIT_MILLIS + RETRY_DELAY_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    boolean recovering = false;
+    while (!closed) {
+      try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = collection.watch()
+          .fullDocument(fullDocument)
+          .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS)
+          .cursor()) {
+        watching = true;
+        if (recovering) {
+          // Anything could have changed between losing the old stream and opening this one.
+          onGap.run();
+          recovering = false;
+        }
+        while (!closed) {
+          ChangeStreamDocument<Document> change = cursor.tryNext();
+          if (change != null) {
+            onChange.accept(change);
+          }
+        }
+      } catch (MongoCommandException e) {
+        if (e.getErrorCode() == CHANGE_STREAMS_NOT_SUPPORTED) {
+          LOGGER.warn("Change streams aren't supported by this MongoDB deployment, so changes to {} won't be seen",
+            collection.getNamespace());
+          return;
+        }
+        recovering = recover(e);
+      } catch (MongoException e) {
+        recovering = recover(e);
+      } finally {
+        watching = false;
+      }
+    }
+  }
+
+  /**
+   * Deal with losing the change stream: report the gap, then wait a bit
+   * before trying again.
+   *
+   * @param e the exception that lost us the change stream
+   * @return `true` if we should try to open the stream again
+   */
+  private boolean recover(MongoException e) {
+    if (closed) {
+      return false;
+    }
+    LOGGER.warn("Lost the change stream on {}; retrying in {}ms", collection.getNamespace(), RETRY_DELAY_MILLIS, e);
+    onGap.run();
+    try {
+      Thread.sleep(RETRY_DELAY_MILLIS);
+    } catch (InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      closed = true;
+      return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,77 @@
+package umm3601.cache;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+
+/**
+ * A version for a MongoDB collection that changes whenever the collection
+ * does, so we can tell whether something built from the collection (like a
+ * response a client already has a copy of) is still current without
+ * querying the collection again.
+ *
+ * The version counts the changes a `ChangeStreamWatcher` sees. It also
+ * changes whenever the change stream is lost (since we can't know what
+ * we missed), and it starts from a random value, so a version from before
+ * the server restarted (or from another server) never matches a current one.
+ *
+ * The version is only known while the change stream is open. Without it
+ * (e.g., on a standalone MongoDB server, which doesn't have change streams)
+ * `current()` is `null`, and nothing should be assumed to be current.
+ *
+ * Changes are seen a moment after they're made, so something built just
+ * before a change can briefly still look current.
+ */
+public class CollectionVersion implements AutoCloseable {
+
+  private final String instance = Long.toHexString(new SecureRandom().nextLong());
+  private final AtomicLong changes = new AtomicLong();
+  private final ChangeStreamWatcher watcher;
+
+  /**
+   * Construct a version for `collection`. It isn't known until `start()`
+   * is called (and the change stream is open).
+   *
+   * @param collection the collection to track the version of
+   */
+  public CollectionVersion(MongoCollection<Document> collection) {
+    this.watcher = new ChangeStreamWatcher(collection, change -> changes.incrementAndGet(), changes::incrementAndGet);
+  }
+
+  /**
+   * Start watching the collection for changes.
+   */
+  public void start() {
+    watcher.start();
+  }
+
+  /**
+   * @return the collection's current version, or `null` if it isn't known
+   *   because the collection's change stream isn't open
+   */
+  public String current() {
+    if (!watcher.isWatching()) {
+      return null;
+    }
+    return instance + '-' + changes.get();
+  }
+
+  /**
+   * @return `true` if the watcher is still running (or trying to); it stops
+   *   when closed, or if change streams aren't supported
+   */
+  public boolean isRunning() {
+    return watcher.isRunning();
+  }
+
+  /**
+   * Stop watching the collection.
+   */
+  @Override
+  public void close() {
+    watcher.close();
+  }
+}
@@ -0,0 +1,213 @@
+package umm3601.cache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A small, size-bounded, in-process cache of query results.
+ *
+ * Entries are evicted in least-recently-used (LRU) order once the cache
+ * holds `maxEntries` of them, and are treated as missing once they are
+ * older than the time-to-live (TTL). The whole cache can also be thrown
+ * away with `invalidateAll()`, which is what we do when the underlying
+ * collection changes.
+ *
+ * The cache keeps running counts of hits, misses, evictions, expirations,
+ * and invalidations (see `stats()`) so we can tell whether it's the right
+ * size for the traffic it sees.
+ *
+ * @param <K> the type of the cache keys
+ * @param <V> the type of the cached values
+ */
+public class ResultCache<K, V> {
+
+  // The usual `LinkedHashMap` defaults.
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final LongSupplier clock;
+
+  // A `LinkedHashMap` in "access order" keeps its entries ordered from least
+  // to most recently used, which is exactly what we need for LRU eviction.
+  // All access to it is guarded by `this`.
+  private final LinkedHashMap<K, Entry<V>> entries;
+
+  // Bumped every time the cache is invalidated. A value loaded before an
+  // invalidation might be stale, so we don't store it if this has changed
+  // while the value was being loaded.
+  private long generation = 0;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+
+  /**
+   * Construct a cache.
+   *
+   * @param maxEntries the maximum number of entries to keep
+   * @param ttl how long an entry can be used for after it was stored
+   */
+  public ResultCache(int maxEntries, Duration ttl) {
+    this(maxEntries, ttl, System::nanoTime);
+  }
+
+  /**
+   * Construct a cache that gets the current time from `clock`. This is
+   * mostly useful for testing expiration without having to wait around.
+   *
+   * @param maxEntries the maximum number of entries to keep
+   * @param ttl how long an entry can be used for after it was stored
+   * @param clock the source of the current time, in nanoseconds
+   */
+  ResultCache(int maxEntries, Duration ttl, LongSupplier clock) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("A result cache must be able to hold at least one entry");
+    }
+    this.maxEntries = maxEntries;
+    this.ttlNanos = ttl.toNanos();
+    this.clock = clock;
+    this.entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+        boolean full = size() > ResultCache.this.maxEntries;
+        if (full) {
+          evictions.increment();
+        }
+        return full;
+      }
+    };
+  }
+
+  /**
+   * Get the value cached for `key`.
+   *
+   * @param key the key to look up
+   * @return the cached value, or `null` if there isn't one (or it has expired)
+   */
+  public synchronized V get(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    if (clock.getAsLong() - entry.storedAt >= ttlNanos) {
+      entries.remove(key);
+      expirations.increment();
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.value;
+  }
+
+  /**
+   * Store `value` in the cache under `key`, evicting the least recently
+   * used entry if the cache is full.
+   *
+   * @param key the key to store the value under
+   * @param value the value to store
+   */
+  public synchronized void put(K key, V value) {
+    entries.put(key, new Entry<>(value, clock.getAsLong()));
+  }
+
+  /**
+   * Get the value cached for `key`, loading (and caching) it with `loader`
+   * if it isn't already in the cache.
+   *
+   * The loader runs without holding the cache's lock, so a slow database
+   * query for one key doesn't hold up lookups of other keys. If the cache is
+   * invalidated while the loader is running, the loaded value is still
+   * returned but isn't cached, since it may already be out of date.
+   *
+   * @param key the key to look up
+   * @param loader computes the value if it isn't cached
+   * @return the cached or newly loaded value
+   */
+  public V getOrLoad(K key, Supplier<V> loader) {
+    return getOrLoad(key, loader, value -> true);
+  }
+
+  /**
+   * Get the value cached for `key`, loading it with `loader` if it isn't
+   * already in the cache, and caching it if `worthCaching` says to (e.g.,
+   * if it isn't too big).
+   *
+   * @param key the key to look up
+   * @param loader computes the value if it isn't cached
+   * @param worthCaching whether a newly loaded value should be cached
+   * @return the cached or newly loaded value
+   */
+  public V getOrLoad(K key, Supplier<V> loader, Predicate<? super V> worthCaching) {
+    long loadGeneration;
+    synchronized (this) {
+      V cached = get(key);
+      if (cached != null) {
+        return cached;
+      }
+      loadGeneration = generation;
+    }
+    V loaded = loader.get();
+    synchronized (this) {
+      if (loadGeneration == generation && worthCaching.test(loaded)) {
+        put(key, loaded);
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Throw away everything in the cache. This is called whenever the data
+   * the cache was built from changes.
+   */
+  public synchronized void invalidateAll() {
+    entries.clear();
+    generation++;
+    invalidations.increment();
+  }
+
+  /**
+   * @return the number of entries currently in the cache
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return a snapshot of the cache's counters
+   */
+  public CacheStats stats() {
+    return new CacheStats(
+      hits.sum(),
+      misses.sum(),
+      evictions.sum(),
+      expirations.sum(),
+      invalidations.sum(),
+      size(),
+      maxEntries);
+  }
+
+  /**
+   * A cached value, along with when it was stored.
+   *
+   * @param <V> the type of the cached value
+   */
+  private static final class Entry<V> {
+    private final V value;
+    private final long storedAt;
+
+    Entry(V value, long storedAt) {
+      this.value = value;
+      this.storedAt = storedAt;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package umm3601.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Makes concurrent requests for the same thing share a single load.
+ *
+ * When a popular page loads, lots of clients can ask for exactly the same
+ * thing at exactly the same moment. Rather than each of them sending the
+ * same query to the database, the first one to ask runs the query, and
+ * everyone who asks for the same key while it's running waits for it and
+ * gets the same result (or the same exception). That keeps the load on the
+ * database down to one query per distinct key, however many clients there
+ * are.
+ *
+ * Unlike a `ResultCache`, nothing is kept once the load finishes, so a
+ * result is never older than the request that gets it. (A request that
+ * joins a load in progress gets a result that was being computed when it
+ * arrived, just as if it had run the query itself.) The two work well
+ * together: the cache answers repeated requests, and this keeps a crowd of
+ * requests that all miss the cache at once from all running the query.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the loaded values
+ */
+public class SingleFlight<K, V> {
+
+  // The loads in progress, by key.
+  private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  private final LongAdder loads = new LongAdder();
+  private final LongAdder shared = new LongAdder();
+
+  /**
+   * Get the value for `key`, either by waiting for a load of it that's
+   * already in progress, or by loading it with `loader` (on this thread).
+   *
+   * @param key the key to load the value for
+   * @param loader loads the value if there's no load in progress
+   * @return the loaded value
+   */
+  public V load(K key, Supplier<V> loader) {
+    CompletableFuture<V> flight = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+    if (existing != null) {
+      shared.increment();
+      return await(existing);
+    }
+
+    loads.increment();
+    try {
+      V value = loader.get();
+      flight.complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      // Anyone who asks from here on starts a new load.
+      inFlight.remove(key, flight);
+    }
+  }
+
+  /**
+   * Wait for someone else's load, rethrowing anything it threw as is.
+   *
+   * @param flight the load in progress
+   * @return the loaded value
+   */
+  private static <V> V await(CompletableFuture<V> flight) {
+    try {
+      return flight.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof Error cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @return the number of loads run
+   */
+  public long loads() {
+    return loads.sum();
+  }
+
+  /**
+   * @return the number of requests that got the result of someone else's load
+   */
+  public long shared() {
+    return shared.sum();
+  }
+
+  /**
+   * @return the number of loads in progress
+   */
+  public int inFlight() {
+    return inFlight.size();
+  }
+}
@@ -0,0 +1,305 @@
+package umm3601.http;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+
+import umm3601.metrics.MetricsSource;
+import umm3601.metrics.PrometheusWriter;
+
+/**
+ * Limits how many requests the server works on at once, and turns away
+ * (with a quick `503 Service Unavailable`) the ones it can't get to soon.
+ *
+ * Left to itself, an overloaded server accepts every request and queues
+ * the ones it can't get to yet, without limit. Every request then waits
+ * behind all the ones before it, latency climbs for everyone, clients time
+ * out and retry, and things only get worse. It's better to do the requests
+ * we can well and tell the rest, straight away, to try again shortly
+ * (`Retry-After`).
+ *
+ * The limit adapts to how the server (really, MongoDB) is coping, using
+ * AIMD (additive increase, multiplicative decrease), the same scheme TCP
+ * uses to find how fast it can send:
+ *   - When a request takes longer than `targetLatency` or fails with a
+ *     server error, we're doing too much at once, so the limit is cut by
+ *     `BACKOFF_RATIO`.
+ *   - When a request is quick and we're using at least half the limit,
+ *     there may be room for more, so the limit goes up by one.
+ * The limit starts at `initialLimit`, and stays between `minLimit` and
+ * `maxLimit`.
+ *
+ * Requests over the limit wait in a short queue (at most `maxQueue` of
+ * them, for at most `maxWait`) for a slot to free up, which smooths over
+ * bursts without letting the queue become the problem.
+ *
+ * `Server` calls `admit` before every request and `finish` once its
+ * response has been sent. Lists of everything that matches (see
+ * `Controller.isUnpagedList`) are slower than other requests, however
+ * quiet the server is, so the server can give them an admission control
+ * of their own, with its own limit and target latency, rather than have
+ * them drag down the limit for everything else. Requests that are slow
+ * by design (see `Controller.isLongRunning`), like bulk imports, aren't
+ * limited at all: their latency says nothing about whether the server is
+ * overloaded.
+ */
+public class AdmissionControl implements MetricsSource {
+
+  // The request attribute holding the time (from `System.nanoTime()`) a
+  // request was admitted. Requests without it weren't admitted, so they
+  // don't have a slot to give back.
+  static final String ADMITTED_ATTRIBUTE = "umm3601.http.admittedAt";
+
+  // How much the limit is cut by when requests are too slow.
+  static final double BACKOFF_RATIO = 0.9;
+
+  // How long we tell rejected clients to wait (in the `Retry-After`
+  // header) before trying again.
+  static final String RETRY_AFTER = "Retry-After";
+  static final int RETRY_AFTER_SECONDS = 1;
+
+  private static final int SERVER_ERROR = 500;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long targetLatencyNanos;
+  private final int maxQueue;
+  private final long maxWaitNanos;
+
+  // All of these are guarded by `lock`.
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition slotFreed = lock.newCondition();
+  private double limit;
+  private int inFlight = 0;
+  private int queued = 0;
+
+  private final LongAdder admitted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  // The request attribute holding the time this admitted the request, and
+  // the prefix of this one's metrics. These change with `useName`.
+  private String admittedAttribute = ADMITTED_ATTRIBUTE;
+  private String metricsPrefix = "http_admission";
+
+  /**
+   * Construct an admission control whose limit starts at the minimum.
+   *
+   * @param minLimit the lowest the concurrency limit can go (and where it starts)
+   * @param maxLimit the highest the concurrency limit can go
+   * @param targetLatency how long requests can take before we take it as
+   *   a sign we're overloaded
+   * @param maxQueue the most requests that can wait for a slot at once
+   * @param maxWait the longest a request waits for a slot before it's rejected
+   */
+  public AdmissionControl(int minLimit, int maxLimit, Duration targetLatency, int maxQueue, Duration maxWait) {
+    this(minLimit, minLimit, maxLimit, targetLatency, maxQueue, maxWait);
+  }
+
+  /**
+   * Construct an admission control.
+   *
+   * @param minLimit the lowest the concurrency limit can go
+   * @param initialLimit where the concurrency limit starts
+   * @param maxLimit the highest the concurrency limit can go
+   * @param targetLatency how long requests can take before we take it as
+   *   a sign we're overloaded
+   * @param maxQueue the most requests that can wait for a slot at once
+   * @param maxWait the longest a request waits for a slot before it's rejected
+   */
+  public AdmissionControl(
+      int minLimit, int initialLimit, int maxLimit, Duration targetLatency, int maxQueue, Duration maxWait) {
+    if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit) {
+      throw new IllegalArgumentException(
+        "The concurrency limits must be positive, and the initial one between the minimum and the maximum");
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.targetLatencyNanos = targetLatency.toNanos();
+    this.maxQueue = maxQueue;
+    this.maxWaitNanos = maxWait.toNanos();
+    this.limit = initialLimit;
+  }
+
+  /**
+   * Name this admission control, so it can be told apart from the server's
+   * other one (see `Server.useListAdmissionControl`). Its metrics are named
+   * `http_NAME_admission_...`, and the requests it admits are only given
+   * back to it.
+   *
+   * @param name the name, e.g., `list`
+   */
+  public void useName(String name) {
+    this.admittedAttribute = ADMITTED_ATTRIBUTE + "." + name;
+    this.metricsPrefix = "http_" + name + "_admission";
+  }
+
+  /**
+   * Let a request in, waiting for a slot if need be, or reject it with a
+   * `503 Service Unavailable`. This is meant to be used as a `before`
+   * handler for every request that should be limited.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws ServiceUnavailableResponse if the request isn't admitted
+   */
+  public void admit(Context ctx) {
+    if (!tryAcquire()) {
+      ctx.header(RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS));
+      throw new ServiceUnavailableResponse("The server is too busy right now; try again shortly");
+    }
+    ctx.attribute(admittedAttribute, System.nanoTime());
+  }
+
+  /**
+   * Give back a finished request's slot, and adjust the limit according to
+   * how it went. This is meant to be called from Javalin's request logger,
+   * which is called once the response has been written (including
+   * responses that are streamed or finished asynchronously).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void finish(Context ctx) {
+    Long admittedAt = ctx.attribute(admittedAttribute);
+    if (admittedAt != null) {
+      release(System.nanoTime() - admittedAt, ctx.statusCode() >= SERVER_ERROR);
+    }
+  }
+
+  /**
+   * Take a slot, waiting (in the queue) for one if they're all in use.
+   *
+   * @return `true` if we got a slot, `false` if the queue was full or we
+   *   waited too long
+   */
+  boolean tryAcquire() {
+    lock.lock();
+    try {
+      // Nobody gets to jump the queue.
+      if (queued == 0 && inFlight < (int) limit) {
+        return admitted();
+      }
+      if (queued >= maxQueue) {
+        return rejected();
+      }
+      queued++;
+      try {
+        long remainingNanos = maxWaitNanos;
+        while (inFlight >= (int) limit) {
+          if (remainingNanos <= 0) {
+            return rejected();
+          }
+          remainingNanos = slotFreed.awaitNanos(remainingNanos);
+        }
+        return admitted();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return rejected();
+      } finally {
+        queued--;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean admitted() {
+    inFlight++;
+    admitted.increment();
+    return true;
+  }
+
+  private boolean rejected() {
+    rejected.increment();
+    return false;
+  }
+
+  /**
+   * Give back a slot, and adjust the limit.
+   *
+   * @param latencyNanos how long the request took, once admitted
+   * @param failed whether the request failed with a server error
+   */
+  void release(long latencyNanos, boolean failed) {
+    lock.lock();
+    try {
+      if (failed || latencyNanos > targetLatencyNanos) {
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+      } else if (inFlight * 2 >= limit) {
+        limit = Math.min(maxLimit, limit + 1);
+      }
+      inFlight--;
+      // The limit may have gone up, freeing more than one slot.
+      slotFreed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the current concurrency limit
+   */
+  public int limit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of requests being worked on
+   */
+  public int inFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of requests waiting for a slot
+   */
+  public int queued() {
+    lock.lock();
+    try {
+      return queued;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of requests admitted so far
+   */
+  public long admittedCount() {
+    return admitted.sum();
+  }
+
+  /**
+   * @return the number of requests rejected so far
+   */
+  public long rejectedCount() {
+    return rejected.sum();
+  }
+
+  @Override
+  public void writeMetrics(PrometheusWriter writer) {
+    writer
+      .metric(metricsPrefix + "_limit", "gauge", "How many requests the server currently works on at once.")
+      .sample(metricsPrefix + "_limit", limit())
+      .metric(metricsPrefix + "_in_flight", "gauge", "Requests currently being worked on.")
+      .sample(metricsPrefix + "_in_flight", inFlight())
+      .metric(metricsPrefix + "_queued", "gauge", "Requests currently waiting to be worked on.")
+      .sample(metricsPrefix + "_queued", queued())
+      .metric(metricsPrefix + "_admitted_total", "counter", "Requests admitted.")
+      .sample(metricsPrefix + "_admitted_total", admittedCount())
+      .metric(metricsPrefix + "_rejected_total", "counter", "Requests turned away (503) because the server was busy.")
+      .sample(metricsPrefix + "_rejected_total", rejectedCount());
+  }
+}
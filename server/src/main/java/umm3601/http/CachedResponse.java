@@ -0,0 +1,206 @@
+package umm3601.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * A fully serialized response body, along with the headers that go with
+ * it, that can be stored (in a `ResultCache`, say) and written out again
+ * as many times as we like without redoing the query or the serialization.
+ *
+ * Each cached response has an ETag, computed once when the response is
+ * built, so repeated requests from a client that already has the current
+ * version get a bodyless `304 Not Modified` (see `ETags`).
+ *
+ * A cached response can also be sent compressed (see `Compression`). Each
+ * compressed version is only computed the first time a client asks for
+ * it, and is then kept along with the response, so a hot response is
+ * compressed once rather than on every request.
+ */
+public class CachedResponse {
+
+  private final byte[] body;
+  private final String contentType;
+  private final Map<String, String> headers;
+  private final String etag;
+
+  // The compressed versions of `body` that have been asked for so far.
+  private final Map<Compression.Encoding, byte[]> compressed = new ConcurrentHashMap<>();
+
+  /**
+   * Construct a cached response.
+   *
+   * @param body the serialized response body
+   * @param contentType the content type of `body`
+   * @param headers any additional headers to send with the body
+   */
+  public CachedResponse(byte[] body, String contentType, Map<String, String> headers) {
+    // Defensive copies, so nobody can change a cached response out from under us.
+    this.body = Arrays.copyOf(body, body.length);
+    this.contentType = contentType;
+    this.headers = new LinkedHashMap<>(headers);
+    this.etag = ETags.of(this.body);
+  }
+
+  /**
+   * Serialize `value` to JSON, using the same JSON mapper Javalin would use
+   * for `ctx.json(value)`, and wrap it up as a cached response.
+   *
+   * @param ctx the Javalin HTTP context the value is being served for
+   * @param value the value to serialize
+   * @param headers any additional headers to send with the body
+   * @return the serialized response
+   */
+  public static CachedResponse json(Context ctx, Object value, Map<String, String> headers) {
+    String json = ctx.jsonMapper().toJsonString(value, value.getClass());
+    return new CachedResponse(json.getBytes(StandardCharsets.UTF_8), ContentType.JSON, headers);
+  }
+
+  /**
+   * Serialize `value` in the format the client prefers (see
+   * `Representations`), and wrap it up as a cached response.
+   *
+   * The response is only good for requests that would pick the same
+   * format, so anything caching it needs to key it on
+   * `Representations.formatFor(ctx)` as well.
+   *
+   * @param ctx the Javalin HTTP context the value is being served for
+   * @param value the value to serialize
+   * @param headers any additional headers to send with the body
+   * @return the serialized response
+   */
+  public static CachedResponse of(Context ctx, Object value, Map<String, String> headers) {
+    Representations representations = Representations.of(ctx);
+    if (representations == null) {
+      return json(ctx, value, headers);
+    }
+    Map<String, String> negotiatedHeaders = negotiated(headers);
+    Representations.Format format = Representations.formatFor(ctx);
+    if (format == Representations.Format.JSON) {
+      return json(ctx, value, negotiatedHeaders);
+    }
+    return new CachedResponse(representations.serialize(format, value), format.mediaType(), negotiatedHeaders);
+  }
+
+  /**
+   * Wrap up JSON that's already been serialized (e.g., by `RawBsonJson`)
+   * as a cached response. Callers should only do this when
+   * `Representations.formatFor(ctx)` says the client wants JSON, and key
+   * the response on that, as for `of`.
+   *
+   * @param ctx the Javalin HTTP context the JSON is being served for
+   * @param json the JSON, as UTF-8 bytes
+   * @param headers any additional headers to send with the body
+   * @return the response
+   */
+  public static CachedResponse ofJson(Context ctx, byte[] json, Map<String, String> headers) {
+    return new CachedResponse(
+      json, ContentType.JSON, Representations.of(ctx) == null ? headers : negotiated(headers));
+  }
+
+  // The body depends on `Accept`, so caches between us and the client need
+  // to take it into account.
+  private static Map<String, String> negotiated(Map<String, String> headers) {
+    Map<String, String> negotiatedHeaders = new LinkedHashMap<>(headers);
+    negotiatedHeaders.put(Header.VARY, Header.ACCEPT);
+    return negotiatedHeaders;
+  }
+
+  /**
+   * @return a copy of the serialized response body
+   */
+  public byte[] body() {
+    return Arrays.copyOf(body, body.length);
+  }
+
+  /**
+   * @return the length of the serialized response body, in bytes (without
+   *   copying it, unlike `body()`)
+   */
+  public int length() {
+    return body.length;
+  }
+
+  /**
+   * @return the content type of the response body
+   */
+  public String contentType() {
+    return contentType;
+  }
+
+  /**
+   * @return the ETag of the response body
+   */
+  public String etag() {
+    return etag;
+  }
+
+  /**
+   * Write this response (headers, content type, body, and a 200 OK status) to `ctx`.
+   *
+   * If the client already has this version of the response (according to its
+   * `If-None-Match` header), this just sends a `304 Not Modified` instead.
+   *
+   * @param ctx the Javalin HTTP context to write the response to
+   */
+  public void writeTo(Context ctx) {
+    headers.forEach(ctx::header);
+    if (ETags.notModified(ctx, etag)) {
+      return;
+    }
+    ctx.contentType(contentType);
+    ctx.result(body);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Write this response to `ctx`, compressed in whichever way the client
+   * prefers (according to its `Accept-Encoding` header).
+   *
+   * Small bodies (under `compression.minSize()`) and clients that don't
+   * accept any coding we support get the uncompressed body.
+   *
+   * @param ctx the Javalin HTTP context to write the response to
+   * @param compression the compression settings, or `null` to not compress
+   */
+  public void writeTo(Context ctx, Compression compression) {
+    if (compression == null || body.length < compression.minSize()) {
+      writeTo(ctx);
+      return;
+    }
+    // The body depends on `Accept-Encoding` (as well as anything the
+    // response already varies on), so caches between us and the client
+    // need to take it into account.
+    String vary = headers.containsKey(Header.VARY)
+      ? headers.get(Header.VARY) + ", " + Header.ACCEPT_ENCODING
+      : Header.ACCEPT_ENCODING;
+    Compression.Encoding encoding = Compression.negotiate(ctx.header(Header.ACCEPT_ENCODING));
+    if (encoding == Compression.Encoding.IDENTITY) {
+      writeTo(ctx);
+      ctx.header(Header.VARY, vary);
+      return;
+    }
+
+    headers.forEach(ctx::header);
+    ctx.header(Header.VARY, vary);
+    // Each coding of the body is a different "representation", so it needs its own ETag.
+    if (ETags.notModified(ctx, ETags.forEncoding(etag, encoding.token()))) {
+      return;
+    }
+    byte[] encoded = compressed.computeIfAbsent(encoding, coding -> compression.compress(body, coding));
+    ctx.header(Header.CONTENT_ENCODING, encoding.token());
+    // The body is already compressed, so Javalin shouldn't compress it (again).
+    ctx.minSizeForCompression(Integer.MAX_VALUE);
+    ctx.contentType(contentType);
+    ctx.result(encoded);
+    ctx.status(HttpStatus.OK);
+  }
+}
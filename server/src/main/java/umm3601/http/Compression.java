@@ -0,0 +1,232 @@
+package umm3601.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.luben.zstd.Zstd;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+/**
+ * Our response compression settings, and the code to pick and apply a
+ * compression format ("content coding") for a response.
+ *
+ * Clients list the codings they understand in the `Accept-Encoding` request
+ * header, e.g., `gzip, deflate, br, zstd`. We support zstd, which compresses
+ * about as well as gzip at a fraction of the CPU cost, and gzip, which every
+ * client understands. Bodies smaller than `minSize` aren't worth compressing:
+ * the savings would be lost in the noise of the headers.
+ *
+ * Javalin only does gzip, so responses are zstd'ed here: cached ones by
+ * `CachedResponse` (which keeps the compressed copy), and everything else
+ * by `zstdCompress`, once it's been built.
+ *
+ * Higher levels compress better but use more CPU, so they're configurable.
+ * gzip levels go from 1 (fastest) to 9 (smallest); zstd levels go from 1 to
+ * 22, with 3 (its default) already smaller than gzip's best.
+ */
+public class Compression {
+
+  /**
+   * The content codings we can produce, in the order we prefer them.
+   */
+  public enum Encoding {
+    ZSTD("zstd"),
+    GZIP("gzip"),
+    IDENTITY("identity");
+
+    private final String token;
+
+    Encoding(String token) {
+      this.token = token;
+    }
+
+    /**
+     * @return the name of this coding in `Accept-Encoding` and `Content-Encoding` headers
+     */
+    public String token() {
+      return token;
+    }
+  }
+
+  private final int gzipLevel;
+  private final int zstdLevel;
+  private final int minSize;
+
+  /**
+   * Construct a set of compression settings.
+   *
+   * @param gzipLevel the gzip compression level, from 1 to 9
+   * @param zstdLevel the zstd compression level, from 1 to 22
+   * @param minSize the smallest response body (in bytes) worth compressing
+   */
+  public Compression(int gzipLevel, int zstdLevel, int minSize) {
+    this.gzipLevel = gzipLevel;
+    this.zstdLevel = zstdLevel;
+    this.minSize = minSize;
+  }
+
+  /**
+   * @return the gzip compression level
+   */
+  public int gzipLevel() {
+    return gzipLevel;
+  }
+
+  /**
+   * @return the smallest response body (in bytes) worth compressing
+   */
+  public int minSize() {
+    return minSize;
+  }
+
+  /**
+   * Pick the coding to use for a response, based on the request's
+   * `Accept-Encoding` header.
+   *
+   * Each coding in the header can have a "quality" (e.g., `gzip;q=0.5`),
+   * where `q=0` means "never send me this". We pick the supported coding
+   * with the highest quality, preferring zstd over gzip when they're tied.
+   * `*` stands for any coding the header doesn't mention.
+   *
+   * @param acceptEncoding the `Accept-Encoding` header, or `null` if there isn't one
+   * @return the coding to use, which is `IDENTITY` (no compression) if the
+   *   client doesn't accept any coding we support
+   */
+  public static Encoding negotiate(String acceptEncoding) {
+    if (acceptEncoding == null || acceptEncoding.isBlank()) {
+      return Encoding.IDENTITY;
+    }
+    Encoding best = Encoding.IDENTITY;
+    double bestQuality = 0;
+    for (Encoding encoding : Encoding.values()) {
+      if (encoding == Encoding.IDENTITY) {
+        continue;
+      }
+      double quality = quality(acceptEncoding, encoding.token());
+      // Strictly greater, so ties go to the coding we prefer (the earlier one).
+      if (quality > bestQuality) {
+        best = encoding;
+        bestQuality = quality;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Find the quality an `Accept-Encoding` header gives a coding.
+   *
+   * @param acceptEncoding the `Accept-Encoding` header
+   * @param token the coding's name
+   * @return its quality (0 if the header doesn't accept it)
+   */
+  private static double quality(String acceptEncoding, String token) {
+    double wildcardQuality = 0;
+    for (String entry : acceptEncoding.split(",")) {
+      String[] parts = entry.split(";");
+      String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      double quality = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            quality = Double.parseDouble(param.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      if (name.equals(token)) {
+        return quality;
+      }
+      if (name.equals("*")) {
+        wildcardQuality = quality;
+      }
+    }
+    return wildcardQuality;
+  }
+
+  /**
+   * Compress a response body.
+   *
+   * @param body the body to compress
+   * @param encoding the coding to compress it with
+   * @return the compressed body (or `body` itself, for `IDENTITY`)
+   */
+  public byte[] compress(byte[] body, Encoding encoding) {
+    switch (encoding) {
+      case ZSTD:
+        return Zstd.compress(body, zstdLevel);
+      case GZIP:
+        return gzip(body);
+      default:
+        return body;
+    }
+  }
+
+  /**
+   * Compress a response that's been built in full (with `ctx.result`) with
+   * zstd, if the client prefers that. This is meant to be used as an
+   * `after` handler.
+   *
+   * Responses for clients that prefer gzip are left for Javalin to gzip,
+   * and so are responses that are already compressed (like `CachedResponse`
+   * ones), small ones (under `minSize`), and ones that were streamed rather
+   * than built (which have no result left to compress).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void zstdCompress(Context ctx) {
+    if (ctx.res().getHeader(Header.CONTENT_ENCODING) != null
+        || negotiate(ctx.header(Header.ACCEPT_ENCODING)) != Encoding.ZSTD) {
+      return;
+    }
+    InputStream result = ctx.resultInputStream();
+    if (result == null) {
+      return;
+    }
+    byte[] body;
+    try {
+      body = result.readAllBytes();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (body.length < minSize) {
+      // Put back what we read.
+      ctx.result(body);
+      return;
+    }
+    String vary = ctx.res().getHeader(Header.VARY);
+    ctx.header(Header.VARY, vary == null ? Header.ACCEPT_ENCODING : vary + ", " + Header.ACCEPT_ENCODING);
+    ctx.header(Header.CONTENT_ENCODING, Encoding.ZSTD.token());
+    // The body is already compressed, so Javalin shouldn't gzip it too.
+    ctx.minSizeForCompression(Integer.MAX_VALUE);
+    ctx.result(compress(body, Encoding.ZSTD));
+  }
+
+  private byte[] gzip(byte[] body) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+    try (GZIPOutputStream gzip = new LeveledGzipOutputStream(out, gzipLevel)) {
+      gzip.write(body);
+    } catch (IOException e) {
+      // Writing to a `ByteArrayOutputStream` can't actually fail.
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  // `GZIPOutputStream` always uses the default compression level, but lets
+  // subclasses change the level of its `Deflater`.
+  private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+    LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+      super(out);
+      def.setLevel(level);
+    }
+  }
+}
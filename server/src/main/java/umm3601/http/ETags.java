@@ -0,0 +1,165 @@
+package umm3601.http;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Support for entity tags (ETags) and conditional GET requests.
+ *
+ * An ETag is a short "version tag" for a response body. When a client that
+ * already has a copy of a response asks for it again, it sends that copy's
+ * ETag in an `If-None-Match` header. If the tag still matches, we can answer
+ * with an empty `304 Not Modified` instead of sending the whole body again.
+ * Browsers do this on their own for responses that have an ETag and a
+ * `Cache-Control: no-cache` header, so the client code doesn't need to change.
+ *
+ * The cheapest ETags are ones we know before doing any of the work of
+ * producing a response. A route whose responses only change when a
+ * collection does can list that collection's `CollectionVersion` in its
+ * controller's `versionedRoutes()`, and the server checks conditional
+ * requests for it against the version (with `checkVersion`) before the
+ * controller's handler even runs.
+ *
+ * Otherwise, a `Controller` can call `notModified(ctx, etag)` before sending
+ * a response. `CachedResponse` does this for you, computing the ETag once
+ * (from the body) when the response is cached.
+ */
+public final class ETags {
+
+  // Tells browsers they can keep a copy of the response, but have to check
+  // with us (using the ETag) before reusing it.
+  static final String REVALIDATE = "no-cache";
+
+  // The request attribute holding the ETag `checkVersion` gave the response.
+  static final String VERSION_ATTRIBUTE = "umm3601.versionETag";
+
+  private ETags() {
+    // This is a utility class, so there's no reason to construct one.
+  }
+
+  /**
+   * Compute a (strong) ETag for a response body.
+   *
+   * @param body the response body
+   * @return the ETag, including the surrounding quotes
+   */
+  public static String of(byte[] body) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      return '"' + HexFormat.of().formatHex(digest.digest(body)) + '"';
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support MD5, so this can't happen.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Get the ETag for a compressed version of a response body, given the
+   * ETag of the uncompressed body.
+   *
+   * A strong ETag identifies the exact bytes sent, so a gzipped body needs
+   * a different ETag from the same body sent uncompressed (or zstd'ed).
+   *
+   * @param etag the ETag of the uncompressed body, including quotes
+   * @param encoding the content coding, e.g., `gzip`
+   * @return the ETag of the compressed body, including quotes
+   */
+  public static String forEncoding(String etag, String encoding) {
+    return etag.substring(0, etag.length() - 1) + '-' + encoding + '"';
+  }
+
+  /**
+   * Set the response's `ETag`, and check whether the client already has
+   * the current version of the response.
+   *
+   * If the client's `If-None-Match` header matches `etag`, this sets the
+   * response status to `304 Not Modified` and the caller shouldn't send
+   * a body.
+   *
+   * If the response already has an ETag from `checkVersion`, that's left
+   * alone (the client's copy wasn't current, or we wouldn't have got this
+   * far), so the client is sent the tag it'll be asked about next time.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param etag the ETag of the current version of the response
+   * @return `true` if the client's copy is current and we've responded with a 304
+   */
+  public static boolean notModified(Context ctx, String etag) {
+    if (ctx.attribute(VERSION_ATTRIBUTE) != null) {
+      return false;
+    }
+    return respond(ctx, etag);
+  }
+
+  /**
+   * Check whether the client already has the current version of a response
+   * that only changes when the data it's built from does, before doing any
+   * of the work of building it.
+   *
+   * This gives the response an ETag made from `version` (e.g., a
+   * `CollectionVersion`) and the request's query string and format (which
+   * pick out which response it is). It's a weak ETag, since the same
+   * version can be sent compressed or not. If the client's `If-None-Match`
+   * header matches it, this sets the response status to `304 Not Modified`
+   * and the response shouldn't be built.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param version the version of the data the response is built from, or
+   *   `null` if it isn't known, in which case the response doesn't get an
+   *   ETag here
+   * @return `true` if the client's copy is current and we've responded with a 304
+   */
+  public static boolean checkVersion(Context ctx, String version) {
+    if (version == null) {
+      return false;
+    }
+    String request = ctx.queryString() + "|" + Representations.formatFor(ctx);
+    String etag = "W/\"" + version + '-' + Integer.toHexString(request.hashCode()) + '"';
+    ctx.attribute(VERSION_ATTRIBUTE, etag);
+    return respond(ctx, etag);
+  }
+
+  private static boolean respond(Context ctx, String etag) {
+    ctx.header(Header.ETAG, etag);
+    ctx.header(Header.CACHE_CONTROL, REVALIDATE);
+    if (matches(ctx.header(Header.IF_NONE_MATCH), etag)) {
+      ctx.status(HttpStatus.NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Does an `If-None-Match` header match an ETag?
+   *
+   * The header can be `*` (which matches anything) or a comma-separated
+   * list of ETags. `If-None-Match` uses "weak comparison", so a `W/`
+   * prefix on either tag is ignored.
+   *
+   * @param ifNoneMatch the value of the `If-None-Match` header, or `null` if there isn't one
+   * @param etag the ETag to compare against
+   * @return `true` if the header matches the ETag
+   */
+  static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String target = stripWeak(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      if (tag.equals("*") || stripWeak(tag).equals(target)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripWeak(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+}
@@ -0,0 +1,302 @@
+package umm3601.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.json.JavalinJackson;
+
+/**
+ * Writes documents straight from MongoDB's wire format (BSON, as
+ * `RawBsonDocument`s) as JSON, without turning them into Java objects
+ * first.
+ *
+ * The usual path for a list of users decodes each document into a `User`
+ * (MongoJack) and then encodes that as JSON (Jackson): two full mapping
+ * passes, and a `User` plus a `String` per field for every document. Here
+ * we walk each document's bytes once and hand the values to a Jackson
+ * generator as we find them. Strings are copied across as the UTF-8 bytes
+ * they already are, field names are looked up in a small per-call table
+ * rather than decoded, and ObjectIds are written from a reused buffer, so
+ * there's next to nothing allocated per document.
+ *
+ * The JSON is what Jackson writes for the decoded `Document` once its
+ * `_id` is a hex string (see `UserController.withHexId`), with the fields
+ * in the order they're stored. (Any other ObjectIds are written as hex
+ * strings too, rather than as Jackson's idea of an ObjectId object.)
+ * Documents holding types we don't transcode (dates, binary data,
+ * decimals, and the like) are decoded and written the usual way instead,
+ * so they still come out right, just not as fast.
+ */
+public class RawBsonJson {
+
+  private static final HexFormat HEX = HexFormat.of();
+  private static final int OBJECT_ID_BYTES = 12;
+
+  // For reading BSON's (little-endian) numbers straight out of a byte array.
+  private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  // How many distinct field names we remember per call. Users only have a
+  // handful, so this is plenty; names beyond it are still written, just
+  // decoded each time.
+  private static final int MAX_FIELD_NAMES = 64;
+
+  // Javalin's default mapper, so the JSON is written exactly as `ctx.json` would.
+  private final ObjectMapper mapper = JavalinJackson.defaultMapper();
+
+  private final DocumentCodec documentCodec = new DocumentCodec();
+
+  /**
+   * Write `documents` to `out` as a JSON array, one at a time as the
+   * iterator produces them (so a database cursor is never held in memory
+   * all at once).
+   *
+   * @param documents the documents to write
+   * @param out where to write them
+   */
+  public void writeArray(Iterator<RawBsonDocument> documents, OutputStream out) {
+    try (JsonGenerator generator = mapper.createGenerator(out)) {
+      Transcoder transcoder = new Transcoder(generator);
+      generator.writeStartArray();
+      while (documents.hasNext()) {
+        transcoder.writeDocument(documents.next());
+      }
+      generator.writeEndArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Write `documents` as a JSON array.
+   *
+   * @param documents the documents to write
+   * @return the JSON, as UTF-8 bytes
+   */
+  public byte[] toJsonBytes(Iterator<RawBsonDocument> documents) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeArray(documents, out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Walks the bytes of documents and writes their values to a generator.
+   * It keeps a table of the field names it has seen, and a buffer for
+   * ObjectIds, so it's meant for one call's worth of documents (on one
+   * thread).
+   */
+  private final class Transcoder {
+    private final JsonGenerator generator;
+    private final byte[][] nameBytes = new byte[MAX_FIELD_NAMES][];
+    private final SerializableString[] names = new SerializableString[MAX_FIELD_NAMES];
+    private int nameCount = 0;
+    private final char[] hex = new char[OBJECT_ID_BYTES * 2];
+
+    Transcoder(JsonGenerator generator) {
+      this.generator = generator;
+    }
+
+    void writeDocument(RawBsonDocument document) throws IOException {
+      ByteBuffer buffer = document.getByteBuffer().asNIO();
+      byte[] bytes;
+      int start;
+      if (buffer.hasArray()) {
+        bytes = buffer.array();
+        start = buffer.arrayOffset() + buffer.position();
+      } else {
+        bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        start = 0;
+      }
+
+      if (isTranscodable(bytes, start)) {
+        writeDocument(bytes, start, false);
+      } else {
+        Document decoded = document.decode(documentCodec);
+        if (decoded.get("_id") instanceof ObjectId id) {
+          decoded.put("_id", id.toHexString());
+        }
+        generator.writeObject(decoded);
+      }
+    }
+
+    /**
+     * Write the (embedded) document or array starting at `start`.
+     *
+     * @return the index just past it
+     */
+    private int writeDocument(byte[] bytes, int start, boolean isArray) throws IOException {
+      int end = start + readInt(bytes, start) - 1;
+      if (isArray) {
+        generator.writeStartArray();
+      } else {
+        generator.writeStartObject();
+      }
+      int i = start + Integer.BYTES;
+      while (i < end) {
+        byte type = bytes[i++];
+        int nameEnd = endOfName(bytes, i);
+        // Array elements are stored with their indexes as names, which JSON doesn't need.
+        if (!isArray) {
+          generator.writeFieldName(fieldName(bytes, i, nameEnd));
+        }
+        i = writeValue(bytes, nameEnd + 1, type);
+      }
+      if (isArray) {
+        generator.writeEndArray();
+      } else {
+        generator.writeEndObject();
+      }
+      // Skip the document's trailing zero byte.
+      return end + 1;
+    }
+
+    /**
+     * Write the value (of BSON type `type`) starting at `start`.
+     *
+     * @return the index just past it
+     */
+    private int writeValue(byte[] bytes, int start, byte type) throws IOException {
+      // `isTranscodable` keeps documents with any other types away from here.
+      switch (BsonType.findByValue(type)) {
+        case DOUBLE:
+          generator.writeNumber(Double.longBitsToDouble(readLong(bytes, start)));
+          return start + Long.BYTES;
+        case STRING:
+          // The length includes the trailing zero byte, which isn't part of the string.
+          int length = readInt(bytes, start);
+          generator.writeUTF8String(bytes, start + Integer.BYTES, length - 1);
+          return start + Integer.BYTES + length;
+        case DOCUMENT:
+          return writeDocument(bytes, start, false);
+        case ARRAY:
+          return writeDocument(bytes, start, true);
+        case OBJECT_ID:
+          for (int i = 0; i < OBJECT_ID_BYTES; i++) {
+            hex[2 * i] = HEX.toHighHexDigit(bytes[start + i]);
+            hex[2 * i + 1] = HEX.toLowHexDigit(bytes[start + i]);
+          }
+          generator.writeString(hex, 0, hex.length);
+          return start + OBJECT_ID_BYTES;
+        case BOOLEAN:
+          generator.writeBoolean(bytes[start] != 0);
+          return start + 1;
+        case NULL:
+          generator.writeNull();
+          return start;
+        case INT32:
+          generator.writeNumber(readInt(bytes, start));
+          return start + Integer.BYTES;
+        case INT64:
+          generator.writeNumber(readLong(bytes, start));
+          return start + Long.BYTES;
+        default:
+          throw new IllegalStateException("Can't transcode BSON type " + type);
+      }
+    }
+
+    /**
+     * Get the field name whose UTF-8 bytes are `bytes[from]` up to
+     * `bytes[to]`, from the table if we've seen it before.
+     */
+    private SerializableString fieldName(byte[] bytes, int from, int to) {
+      for (int i = 0; i < nameCount; i++) {
+        if (Arrays.equals(nameBytes[i], 0, nameBytes[i].length, bytes, from, to)) {
+          return names[i];
+        }
+      }
+      SerializedString name = new SerializedString(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+      if (nameCount < MAX_FIELD_NAMES) {
+        nameBytes[nameCount] = Arrays.copyOfRange(bytes, from, to);
+        names[nameCount] = name;
+        nameCount++;
+      }
+      return name;
+    }
+  }
+
+  /**
+   * Check that the (embedded) document starting at `start` only holds
+   * types that `Transcoder` knows how to write.
+   */
+  static boolean isTranscodable(byte[] bytes, int start) {
+    int end = start + readInt(bytes, start) - 1;
+    int i = start + Integer.BYTES;
+    while (i < end) {
+      BsonType type = BsonType.findByValue(bytes[i++]);
+      i = endOfName(bytes, i) + 1;
+      if (type == null) {
+        // Not a type this version of the driver knows about, even.
+        return false;
+      }
+      switch (type) {
+        case DOUBLE:
+        case INT64:
+          i += Long.BYTES;
+          break;
+        case STRING:
+          i += Integer.BYTES + readInt(bytes, i);
+          break;
+        case DOCUMENT:
+        case ARRAY:
+          if (!isTranscodable(bytes, i)) {
+            return false;
+          }
+          i += readInt(bytes, i);
+          break;
+        case OBJECT_ID:
+          i += OBJECT_ID_BYTES;
+          break;
+        case BOOLEAN:
+          i += 1;
+          break;
+        case NULL:
+          break;
+        case INT32:
+          i += Integer.BYTES;
+          break;
+        default:
+          return false;
+      }
+    }
+    return true;
+  }
+
+  // Field names are stored as zero-terminated UTF-8.
+  private static int endOfName(byte[] bytes, int start) {
+    int end = start;
+    while (bytes[end] != 0) {
+      end++;
+    }
+    return end;
+  }
+
+  private static int readInt(byte[] bytes, int start) {
+    return (int) INT.get(bytes, start);
+  }
+
+  private static long readLong(byte[] bytes, int start) {
+    return (long) LONG.get(bytes, start);
+  }
+}
@@ -0,0 +1,301 @@
+package umm3601.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.json.JavalinJackson;
+
+/**
+ * The formats we can send response bodies in, and the code to pick one
+ * for a request (based on its `Accept` header) and write a body in it.
+ *
+ * JSON is the default, and is what browsers (and people) want. Other
+ * services that call us don't need to be able to read the response, and
+ * would rather not pay to parse JSON (nor would we rather pay to produce
+ * it), so they can ask for one of the binary formats instead:
+ *   - CBOR (`application/cbor`), a standard (RFC 8949) binary JSON,
+ *   - Smile (`application/x-jackson-smile`), Jackson's own binary JSON,
+ *     which also avoids repeating field names, and
+ *   - MessagePack (`application/msgpack`).
+ * All of them hold the same data as the JSON would; they're all written
+ * by Jackson, from the same annotations.
+ *
+ * `Server` attaches a `Representations` to every request, and controllers
+ * use `write` (instead of `ctx.json`) to send their bodies. Without one
+ * attached (as in tests with a mock `Context`), everything is JSON, and is
+ * written with `ctx.json` exactly as before.
+ */
+public class Representations {
+
+  // The request attribute holding the `Representations` for the request.
+  static final String ATTRIBUTE = "umm3601.http.representations";
+
+  /**
+   * The formats we can produce, in the order we prefer them when the
+   * client likes several equally (e.g., when it accepts anything).
+   */
+  public enum Format {
+    JSON(ContentType.JSON),
+    CBOR("application/cbor"),
+    SMILE("application/x-jackson-smile"),
+    MSGPACK("application/msgpack");
+
+    private final String mediaType;
+
+    Format(String mediaType) {
+      this.mediaType = mediaType;
+    }
+
+    /**
+     * @return the name of this format in `Accept` and `Content-Type` headers
+     */
+    public String mediaType() {
+      return mediaType;
+    }
+
+    private JsonFactory factory() {
+      switch (this) {
+        case CBOR:
+          return new CBORFactory();
+        case SMILE:
+          return new SmileFactory();
+        case MSGPACK:
+          return new MessagePackFactory();
+        default:
+          return new JsonFactory();
+      }
+    }
+  }
+
+  private final Map<Format, ObjectMapper> mappers = new EnumMap<>(Format.class);
+
+  /**
+   * Construct the representations. JSON is written with Javalin's default
+   * mapper, as `ctx.json` does; the other formats get their own mappers,
+   * with the same Jackson modules (the ones on the classpath) registered.
+   */
+  public Representations() {
+    for (Format format : Format.values()) {
+      mappers.put(format, format == Format.JSON
+        ? JavalinJackson.defaultMapper()
+        : new ObjectMapper(format.factory()).findAndRegisterModules());
+    }
+  }
+
+  /**
+   * Attach these representations to a request, so `write` and friends can
+   * find them. This is meant to be used as a `before` handler for every
+   * request.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void attach(Context ctx) {
+    ctx.attribute(ATTRIBUTE, this);
+  }
+
+  /**
+   * Pick the format to use for a response, based on the request's `Accept`
+   * header.
+   *
+   * Like `Accept-Encoding`, each media range in the header can have a
+   * quality (e.g., `application/cbor;q=0.5`). We pick the format with the
+   * highest quality, preferring them in `Format` order when they're tied,
+   * so a client that accepts JSON at all (including through a wildcard,
+   * like browsers do) gets JSON unless it says it prefers something else.
+   *
+   * @param accept the `Accept` header, or `null` if there isn't one
+   * @return the format to use; `JSON` if the client doesn't accept any
+   *   format we support (it's the most useful thing to send)
+   */
+  public static Format negotiate(String accept) {
+    if (accept == null || accept.isBlank()) {
+      return Format.JSON;
+    }
+    Format best = Format.JSON;
+    double bestQuality = 0;
+    for (Format format : Format.values()) {
+      double quality = quality(accept, format.mediaType());
+      // Strictly greater, so ties go to the format we prefer (the earlier one).
+      if (quality > bestQuality) {
+        best = format;
+        bestQuality = quality;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Find the quality an `Accept` header gives a media type. The most
+   * specific media range that matches wins, so `application/cbor;q=0`
+   * rules out CBOR even if the header also accepts any type.
+   *
+   * @param accept the `Accept` header
+   * @param mediaType the media type (e.g., `application/cbor`)
+   * @return its quality (0 if the header doesn't accept it)
+   */
+  private static double quality(String accept, String mediaType) {
+    String typeRange = mediaType.substring(0, mediaType.indexOf('/')) + "/*";
+    double typeQuality = -1;
+    double wildcardQuality = -1;
+    for (String entry : accept.split(",")) {
+      String[] parts = entry.split(";");
+      String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      double quality = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            quality = Double.parseDouble(param.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      if (name.equals(mediaType)) {
+        return quality;
+      }
+      if (name.equals(typeRange)) {
+        typeQuality = quality;
+      } else if (name.equals("*/*")) {
+        wildcardQuality = quality;
+      }
+    }
+    return Math.max(0, typeQuality >= 0 ? typeQuality : wildcardQuality);
+  }
+
+  /**
+   * Get the representations attached to a request (see `attach`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the attached representations, or `null` if there aren't any
+   */
+  public static Representations of(Context ctx) {
+    return ctx.attribute(ATTRIBUTE);
+  }
+
+  /**
+   * Get the format a response to `ctx` should use.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the format the client prefers, or `JSON` if there aren't any
+   *   representations attached to the request
+   */
+  public static Format formatFor(Context ctx) {
+    return of(ctx) == null ? Format.JSON : negotiate(ctx.header(Header.ACCEPT));
+  }
+
+  /**
+   * Set the body of the response to `value`, in the format the client
+   * prefers. This is what controllers use instead of `ctx.json(value)`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param value the value to send
+   */
+  public static void write(Context ctx, Object value) {
+    Representations representations = of(ctx);
+    if (representations == null) {
+      ctx.json(value);
+      return;
+    }
+    // The body depends on `Accept`, so caches between us and the client
+    // need to take it into account.
+    ctx.header(Header.VARY, Header.ACCEPT);
+    Format format = negotiate(ctx.header(Header.ACCEPT));
+    if (format == Format.JSON) {
+      ctx.json(value);
+      return;
+    }
+    ctx.contentType(format.mediaType());
+    ctx.result(representations.serialize(format, value));
+  }
+
+  /**
+   * Set the body of the response to JSON that's already been serialized
+   * (e.g., by `RawBsonJson`). Callers should only do this when `formatFor`
+   * says the client wants JSON.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param json the JSON, as UTF-8 bytes
+   */
+  public static void writeJson(Context ctx, byte[] json) {
+    if (of(ctx) != null) {
+      ctx.header(Header.VARY, Header.ACCEPT);
+    }
+    ctx.contentType(ContentType.JSON);
+    ctx.result(json);
+  }
+
+  /**
+   * Write the values in `values` to the response as an array, one at a
+   * time as the stream produces them, in the format the client prefers.
+   * This is what controllers use instead of `ctx.writeJsonStream(values)`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param values the values to send
+   */
+  public static void writeStream(Context ctx, Stream<?> values) {
+    Representations representations = of(ctx);
+    Format format = formatFor(ctx);
+    if (representations != null) {
+      ctx.header(Header.VARY, Header.ACCEPT);
+    }
+    if (format == Format.JSON) {
+      ctx.writeJsonStream(values);
+      return;
+    }
+    ctx.contentType(format.mediaType());
+    representations.writeArray(format, values.iterator(), ctx.outputStream());
+  }
+
+  /**
+   * Serialize `value` in `format`.
+   *
+   * @param format the format to serialize it in
+   * @param value the value to serialize
+   * @return the serialized value
+   */
+  public byte[] serialize(Format format, Object value) {
+    try {
+      return mappers.get(format).writeValueAsBytes(value);
+    } catch (IOException e) {
+      // Only values Jackson can't serialize end up here, and those would
+      // have failed as JSON, too.
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Serialize the values from `values`, one at a time, as an array in
+   * `format`, straight to `out`.
+   *
+   * @param format the format to serialize them in
+   * @param values the values to serialize
+   * @param out where to write them
+   */
+  void writeArray(Format format, Iterator<?> values, OutputStream out) {
+    try (SequenceWriter writer = mappers.get(format).writer().writeValuesAsArray(out)) {
+      while (values.hasNext()) {
+        writer.write(values.next());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
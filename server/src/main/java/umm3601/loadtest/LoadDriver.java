@@ -0,0 +1,235 @@
+package umm3601.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import umm3601.metrics.LatencyHistogram;
+import umm3601.seed.SeedGenerator;
+
+/**
+ * Sends the server a stream of requests, to see how many it can handle and
+ * how quickly, with `UserQueryMix`'s mix of `/api/users` filters. Run it
+ * with `./gradlew loadTest`, against a server with plenty of users (see
+ * `SeedGenerator`).
+ *
+ * There are two ways to send the requests, which answer different questions:
+ *   - A _closed loop_ (`closedLoop`) has a fixed number of clients, each of
+ *     which sends a request as soon as its last one is answered. That finds
+ *     the most requests per second the server can handle, but as the server
+ *     slows down the clients slow down with it, so it understates how long
+ *     requests take under a given load.
+ *   - An _open loop_ (`openLoop`) sends requests at a fixed rate, however
+ *     long the server takes to answer them, as lots of independent users
+ *     would. Each request's latency is measured from when it was _due_ to
+ *     be sent, so if the driver itself falls behind, that counts against
+ *     the server too, rather than quietly lowering the load (the
+ *     "coordinated omission" that makes closed loops look better than they
+ *     are). That shows how long requests take at a given rate.
+ *
+ * Latencies are only recorded for successful (2xx) responses, so fast
+ * errors (e.g., 503s from `AdmissionControl`) don't flatter them; errors are
+ * counted separately.
+ */
+public class LoadDriver {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LoadDriver.class);
+
+  private static final int FIRST_ERROR_STATUS = 400;
+  private static final double P50 = 0.5;
+  private static final double P99 = 0.99;
+  private static final double P999 = 0.999;
+  private static final double PERCENT = 100;
+
+  private final HttpClient client;
+  private final URI server;
+  private final UserQueryMix queries;
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  // Replaced at the start of each run.
+  private LatencyHistogram latencies;
+
+  /**
+   * Construct a load driver.
+   *
+   * @param client the client to send requests with
+   * @param server the server to send them to (e.g., `http://localhost:4567`)
+   * @param queries the requests to send
+   */
+  public LoadDriver(HttpClient client, URI server, UserQueryMix queries) {
+    this.client = client;
+    this.server = server;
+    this.queries = queries;
+  }
+
+  /**
+   * Send requests from `clients` clients, each sending its next request as
+   * soon as its last one is answered, for `duration`.
+   *
+   * @param clients the number of clients
+   * @param duration how long to keep sending requests
+   * @return how the server coped
+   */
+  public LoadReport closedLoop(int clients, Duration duration) {
+    if (clients <= 0) {
+      throw new IllegalArgumentException("There must be at least one client");
+    }
+    reset();
+    long start = System.nanoTime();
+    long end = start + duration.toNanos();
+    try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < clients; i++) {
+        UserQueryMix clientQueries = queries.split();
+        threads.execute(() -> {
+          while (System.nanoTime() < end && !Thread.currentThread().isInterrupted()) {
+            send(clientQueries.next(), System.nanoTime());
+          }
+        });
+      }
+    }
+    return report(start);
+  }
+
+  /**
+   * Send `requestsPerSecond` requests a second, evenly spaced, for
+   * `duration`, each on its own virtual thread, however many are still
+   * waiting for an answer.
+   *
+   * @param requestsPerSecond the rate to send requests at
+   * @param duration how long to keep sending requests
+   * @return how the server coped
+   */
+  public LoadReport openLoop(double requestsPerSecond, Duration duration) {
+    if (requestsPerSecond <= 0) {
+      throw new IllegalArgumentException("The request rate must be positive");
+    }
+    reset();
+    long interval = Math.max(1, Math.round(Duration.ofSeconds(1).toNanos() / requestsPerSecond));
+    long start = System.nanoTime();
+    long end = start + duration.toNanos();
+    try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+      // Requests are due at fixed times from the start, so a late one
+      // doesn't push back all the ones after it.
+      for (long due = start; due < end && !Thread.currentThread().isInterrupted(); due += interval) {
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        String path = queries.next();
+        long dueAt = due;
+        threads.execute(() -> send(path, dueAt));
+      }
+    }
+    return report(start);
+  }
+
+  private void reset() {
+    latencies = new LatencyHistogram();
+    requests.reset();
+    errors.reset();
+  }
+
+  /**
+   * Send one request, and record how it went.
+   *
+   * @param path the path (and query string) of the request
+   * @param startNanos when the request's latency is measured from
+   */
+  private void send(String path, long startNanos) {
+    HttpRequest request = HttpRequest.newBuilder(server.resolve(path)).GET().build();
+    try {
+      HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+      long latency = System.nanoTime() - startNanos;
+      if (response.statusCode() >= FIRST_ERROR_STATUS) {
+        errors.increment();
+      } else {
+        latencies.record(latency);
+      }
+    } catch (IOException e) {
+      errors.increment();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    requests.increment();
+  }
+
+  private LoadReport report(long startNanos) {
+    return new LoadReport(
+      requests.sum(),
+      errors.sum(),
+      Duration.ofNanos(System.nanoTime() - startNanos),
+      Duration.ofNanos(latencies.percentileNanos(P50)),
+      Duration.ofNanos(latencies.percentileNanos(P99)),
+      Duration.ofNanos(latencies.percentileNanos(P999)),
+      Duration.ofNanos(latencies.maxNanos()));
+  }
+
+  /**
+   * Put a running server under load, and log how it copes.
+   *
+   * How is set with environment variables:
+   *   - `LOAD_SERVER`: the server to send requests to (by default, one
+   *     running locally)
+   *   - `LOAD_MODE`: `closed` (the default) or `open`
+   *   - `LOAD_CLIENTS`: the number of clients in a closed loop
+   *   - `LOAD_RATE`: the requests per second in an open loop
+   *   - `LOAD_DURATION_SECONDS`: how long to send requests for, after
+   *     `LOAD_WARMUP_SECONDS` of warming the server up (whose results are
+   *     thrown away)
+   *   - `SEED_COMPANIES`: how many companies the users were generated with
+   *     (see `SeedGenerator`), so the requests look for companies that exist
+   *
+   * @param args ignored
+   */
+  public static void main(String[] args) {
+    URI server = URI.create(getEnvOrDefault("LOAD_SERVER", "http://localhost:4567"));
+    String mode = getEnvOrDefault("LOAD_MODE", "closed");
+    int clients = Integer.parseInt(getEnvOrDefault("LOAD_CLIENTS", "32"));
+    double rate = Double.parseDouble(getEnvOrDefault("LOAD_RATE", "500"));
+    Duration duration = Duration.ofSeconds(Long.parseLong(getEnvOrDefault("LOAD_DURATION_SECONDS", "30")));
+    Duration warmup = Duration.ofSeconds(Long.parseLong(getEnvOrDefault("LOAD_WARMUP_SECONDS", "10")));
+    int companies = Integer.parseInt(getEnvOrDefault("SEED_COMPANIES", "1000"));
+
+    HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    LoadDriver driver = new LoadDriver(client, server,
+      new UserQueryMix(SeedGenerator.companyNames(companies), System.nanoTime()));
+    boolean open = mode.equals("open");
+    if (!open && !mode.equals("closed")) {
+      throw new IllegalArgumentException("LOAD_MODE must be `closed` or `open`, not " + mode);
+    }
+
+    LOGGER.info("Warming up {} for {}s", server, warmup.toSeconds());
+    if (open) {
+      driver.openLoop(rate, warmup);
+    } else {
+      driver.closedLoop(clients, warmup);
+    }
+    LOGGER.info("Sending {} for {}s",
+      open ? rate + " requests/s" : "requests from " + clients + " clients", duration.toSeconds());
+    LoadReport report = open ? driver.openLoop(rate, duration) : driver.closedLoop(clients, duration);
+    LOGGER.info("{} requests, {} errors ({}%), {} requests/s; latency p50 {}ms, p99 {}ms, p99.9 {}ms, max {}ms",
+      report.requests(), report.errors(), String.format("%.2f", report.errorRate() * PERCENT),
+      Math.round(report.throughput()), millis(report.p50()), millis(report.p99()), millis(report.p999()),
+      millis(report.max()));
+  }
+
+  private static String millis(Duration duration) {
+    return String.format("%.2f", duration.toNanos() / (double) Duration.ofMillis(1).toNanos());
+  }
+
+  private static String getEnvOrDefault(String envName, String defaultValue) {
+    return System.getenv().getOrDefault(envName, defaultValue);
+  }
+}
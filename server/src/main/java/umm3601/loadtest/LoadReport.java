@@ -0,0 +1,34 @@
+package umm3601.loadtest;
+
+import java.time.Duration;
+
+/**
+ * What a `LoadDriver` run did, and how the server coped.
+ *
+ * @param requests the number of requests that got a response (of any status)
+ *   or failed outright
+ * @param errors how many of those got an error status (4xx or 5xx) or failed
+ *   outright (e.g., the connection was refused)
+ * @param elapsed how long the run took
+ * @param p50 the median latency of the successful requests
+ * @param p99 the 99th percentile latency of the successful requests
+ * @param p999 the 99.9th percentile latency of the successful requests
+ * @param max the largest latency of the successful requests
+ */
+public record LoadReport(long requests, long errors, Duration elapsed, Duration p50, Duration p99, Duration p999,
+    Duration max) {
+
+  /**
+   * @return the number of successful requests per second
+   */
+  public double throughput() {
+    return elapsed.isZero() ? 0 : (requests - errors) / (elapsed.toNanos() / (double) Duration.ofSeconds(1).toNanos());
+  }
+
+  /**
+   * @return the fraction of the requests that were errors (from zero to one)
+   */
+  public double errorRate() {
+    return requests == 0 ? 0 : errors / (double) requests;
+  }
+}
@@ -0,0 +1,119 @@
+package umm3601.loadtest;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Makes up `/api/users` requests with a mix of the filters clients use,
+ * for `LoadDriver` to send.
+ *
+ * Each request is one of these, with the chances given:
+ *   - 15%: every user, a page at a time (`limit`)
+ *   - 30%: users at a company, matched by prefix (the default)
+ *   - 15%: users at a company, matched exactly
+ *   - 15%: users of an age
+ *   - 15%: users of an age at a company
+ *   - 5%: users whose company contains some text, which can't use an index
+ *   - 5%: just some fields of users at a company (`fields`)
+ *
+ * Companies are picked evenly from the ones `SeedGenerator` makes up, so
+ * some requests are for one of the few big companies, and return lots of
+ * users, and most are for one of the many small ones.
+ */
+public class UserQueryMix {
+
+  private static final String API_USERS = "/api/users";
+
+  // The kinds of requests above.
+  private enum Kind {
+    ALL_PAGED, COMPANY_PREFIX, COMPANY_EXACT, AGE, AGE_AND_COMPANY, COMPANY_CONTAINS, COMPANY_FIELDS
+  }
+
+  // The running totals of the chances of each `Kind` of request, in order.
+  private static final double[] CUMULATIVE_CHANCES = {0.15, 0.45, 0.60, 0.75, 0.90, 0.95, 1.0};
+  private static final Kind[] KINDS = Kind.values();
+
+  private static final int PAGE_SIZE = 100;
+  private static final int MIN_AGE = 18;
+  private static final int MAX_AGE = 70;
+  private static final int PREFIX_LENGTH = 3;
+  private static final int CONTAINS_LENGTH = 4;
+
+  private final List<String> companies;
+  private final SplittableRandom random;
+
+  /**
+   * Construct a query mix.
+   *
+   * @param companies the companies to look for users at
+   * @param seed the seed for the random number generator; the same seed
+   *   always makes the same requests
+   */
+  public UserQueryMix(List<String> companies, long seed) {
+    if (companies.isEmpty()) {
+      throw new IllegalArgumentException("There must be at least one company to look for");
+    }
+    this.companies = List.copyOf(companies);
+    this.random = new SplittableRandom(seed);
+  }
+
+  /**
+   * Make up another request.
+   *
+   * Each thread sending requests should have its own query mix (see
+   * `split`), since they aren't thread-safe.
+   *
+   * @return the path and query string of the request (e.g.,
+   *   `/api/users?company=OHM`)
+   */
+  public String next() {
+    double chance = random.nextDouble();
+    int kind = 0;
+    while (kind < KINDS.length - 1 && chance >= CUMULATIVE_CHANCES[kind]) {
+      kind++;
+    }
+    String company = companies.get(random.nextInt(companies.size()));
+    switch (KINDS[kind]) {
+      case ALL_PAGED:
+        return API_USERS + "?limit=" + PAGE_SIZE;
+      case COMPANY_PREFIX:
+        return API_USERS + "?company=" + encode(company.substring(0, Math.min(PREFIX_LENGTH, company.length())));
+      case COMPANY_EXACT:
+        return API_USERS + "?company=" + encode(company) + "&companyMatch=exact";
+      case AGE:
+        return API_USERS + "?age=" + age();
+      case AGE_AND_COMPANY:
+        return API_USERS + "?age=" + age() + "&company=" + encode(company) + "&companyMatch=exact";
+      case COMPANY_CONTAINS:
+        return API_USERS + "?company=" + encode(somePartOf(company)) + "&companyMatch=contains";
+      default:
+        return API_USERS + "?company=" + encode(company) + "&companyMatch=exact&fields=name,company";
+    }
+  }
+
+  private int age() {
+    return random.nextInt(MIN_AGE, MAX_AGE + 1);
+  }
+
+  private String somePartOf(String company) {
+    if (company.length() <= CONTAINS_LENGTH) {
+      return company;
+    }
+    int start = random.nextInt(company.length() - CONTAINS_LENGTH + 1);
+    return company.substring(start, start + CONTAINS_LENGTH);
+  }
+
+  /**
+   * @return a new query mix, with the same companies and its own random
+   *   numbers, for another thread
+   */
+  public UserQueryMix split() {
+    return new UserQueryMix(companies, random.nextLong());
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,117 @@
+package umm3601.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies, from which we can estimate
+ * percentiles (p50, p90, p99, etc.).
+ *
+ * Rather than keep every latency, we count how many fall into each of a
+ * fixed set of buckets. The buckets grow geometrically (each is 20% wider
+ * than the one before), from 1µs up to a minute, so about a hundred of them
+ * cover everything from a cache hit to a request that's about to time out,
+ * and a percentile estimated from them is never off by more than 20%.
+ *
+ * Recording a latency is a binary search over the bucket bounds plus a
+ * couple of atomic increments, so it's cheap enough to do on every request,
+ * and many threads can record at once without ever blocking each other.
+ */
+public class LatencyHistogram {
+
+  private static final long SMALLEST_BOUND_NANOS = 1_000;
+  private static final long LARGEST_BOUND_NANOS = 60_000_000_000L;
+  private static final double GROWTH = 1.2;
+
+  // The upper bounds (inclusive, in nanoseconds) of each bucket. There's
+  // one more bucket than there are bounds, for anything over a minute.
+  private static final long[] BOUNDS = bucketBounds();
+
+  private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+  private static long[] bucketBounds() {
+    int bucketCount = (int) Math.ceil(Math.log((double) LARGEST_BOUND_NANOS / SMALLEST_BOUND_NANOS) / Math.log(GROWTH));
+    long[] bounds = new long[bucketCount + 1];
+    for (int i = 0; i < bounds.length; i++) {
+      bounds[i] = Math.round(SMALLEST_BOUND_NANOS * Math.pow(GROWTH, i));
+    }
+    return bounds;
+  }
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos the latency, in nanoseconds
+   */
+  public void record(long nanos) {
+    long latency = Math.max(0, nanos);
+    int bucket = Arrays.binarySearch(BOUNDS, latency);
+    // A negative result means the latency fell between two bounds, and
+    // encodes the index of the first bound larger than it.
+    counts.incrementAndGet(bucket >= 0 ? bucket : -bucket - 1);
+    count.increment();
+    sumNanos.add(latency);
+    maxNanos.accumulate(latency);
+  }
+
+  /**
+   * @return the number of latencies recorded
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * @return the total of all the latencies recorded, in nanoseconds
+   */
+  public long sumNanos() {
+    return sumNanos.sum();
+  }
+
+  /**
+   * @return the largest latency recorded, in nanoseconds
+   */
+  public long maxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * Estimate a percentile of the recorded latencies.
+   *
+   * The estimate is the upper bound of the bucket the percentile falls in
+   * (or the largest recorded latency, if that's smaller), so it's never
+   * lower than the true value, and never more than 20% higher.
+   *
+   * @param quantile the percentile wanted, as a fraction (e.g., 0.99 for p99)
+   * @return the estimated latency, in nanoseconds, or zero if nothing has
+   *   been recorded
+   */
+  public long percentileNanos(double quantile) {
+    // Latencies can be recorded while we're reading the counts, so we
+    // total the buckets themselves rather than trusting `count`.
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BOUNDS.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(BOUNDS[i], maxNanos());
+      }
+    }
+    return maxNanos();
+  }
+}
@@ -0,0 +1,81 @@
+package umm3601.metrics;
+
+import java.util.List;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+import umm3601.Controller;
+import umm3601.http.Representations;
+
+/**
+ * Controller that serves the server's operational metrics.
+ */
+public class MetricsController implements Controller {
+
+  private static final String API_METRICS = "/api/metrics";
+  private static final String API_POOL_METRICS = "/api/metrics/pool";
+
+  private final PoolMetrics poolMetrics;
+
+  // Everything whose metrics are included in `GET /api/metrics`.
+  private final List<MetricsSource> sources;
+
+  /**
+   * Construct a controller for metrics.
+   *
+   * @param poolMetrics the metrics for the MongoDB connection pool
+   * @param otherSources any other metrics to include in `GET /api/metrics`
+   */
+  public MetricsController(PoolMetrics poolMetrics, MetricsSource... otherSources) {
+    this.poolMetrics = poolMetrics;
+    this.sources = List.of(otherSources);
+  }
+
+  /**
+   * Set the body of the response to be all of our metrics, in the
+   * Prometheus text format, so Prometheus (or anything else that
+   * understands that format) can scrape them.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getMetrics(Context ctx) {
+    PrometheusWriter writer = new PrometheusWriter();
+    for (MetricsSource source : sources) {
+      source.writeMetrics(writer);
+    }
+    poolMetrics.writeMetrics(writer);
+
+    ctx.contentType(PrometheusWriter.CONTENT_TYPE);
+    ctx.result(writer.toString());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the JSON body of the response to be the MongoDB connection pool counters.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getPoolMetrics(Context ctx) {
+    Representations.write(ctx, poolMetrics.stats());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Sets up routes for the metrics endpoints.
+   *
+   * These endpoints are:
+   *   - `GET /api/metrics`
+   *      - Get all the metrics, in the Prometheus text format
+   *   - `GET /api/metrics/pool`
+   *      - Get the MongoDB connection pool counters
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_METRICS, this::getMetrics);
+    server.get(API_POOL_METRICS, this::getPoolMetrics);
+  }
+}
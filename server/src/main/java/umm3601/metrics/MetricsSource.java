@@ -0,0 +1,13 @@
+package umm3601.metrics;
+
+/**
+ * Something that has metrics to include in `GET /api/metrics`.
+ */
+public interface MetricsSource {
+  /**
+   * Write this source's metrics, in the Prometheus text format.
+   *
+   * @param writer the writer to write the metrics to
+   */
+  void writeMetrics(PrometheusWriter writer);
+}
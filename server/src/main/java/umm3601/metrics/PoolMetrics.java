@@ -0,0 +1,172 @@
+package umm3601.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolClearedEvent;
+import com.mongodb.event.ConnectionPoolClosedEvent;
+import com.mongodb.event.ConnectionPoolCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * Keeps live counts of what the MongoDB driver's connection pool is doing.
+ *
+ * The driver calls these methods (on whatever thread is using the pool)
+ * as connections are opened, checked out, checked back in, and closed.
+ * They're called on every database operation, so they only update
+ * atomic counters and never block.
+ *
+ * The driver keeps a pool per server it talks to (so one per member of a
+ * replica set), all reporting here; the counts are for all of them together.
+ */
+public class PoolMetrics implements ConnectionPoolListener, MetricsSource {
+
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+  private static final double MILLIS_PER_SECOND = 1_000.0;
+
+  private final AtomicInteger checkedOut = new AtomicInteger();
+  private final AtomicInteger peakCheckedOut = new AtomicInteger();
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final AtomicInteger openConnections = new AtomicInteger();
+  // The maximum size of each server's pool. Pools are only created and
+  // closed as servers come and go, so this is rarely written to.
+  private final Map<ServerId, Integer> maxSizes = new ConcurrentHashMap<>();
+
+  private final LongAdder checkouts = new LongAdder();
+  private final LongAdder poolClears = new LongAdder();
+  private final LongAdder totalWaitNanos = new LongAdder();
+  private final LongAccumulator maxWaitNanos = new LongAccumulator(Long::max, 0);
+
+  // One counter per failure reason, all created up front so recording a
+  // failure never has to modify the map.
+  private final Map<ConnectionCheckOutFailedEvent.Reason, LongAdder> checkoutFailures =
+    new EnumMap<>(ConnectionCheckOutFailedEvent.Reason.class);
+
+  /**
+   * Construct a set of (zeroed) pool metrics.
+   */
+  public PoolMetrics() {
+    for (ConnectionCheckOutFailedEvent.Reason reason : ConnectionCheckOutFailedEvent.Reason.values()) {
+      checkoutFailures.put(reason, new LongAdder());
+    }
+  }
+
+  @Override
+  public void connectionPoolCreated(ConnectionPoolCreatedEvent event) {
+    maxSizes.put(event.getServerId(), event.getSettings().getMaxSize());
+  }
+
+  @Override
+  public void connectionPoolClosed(ConnectionPoolClosedEvent event) {
+    maxSizes.remove(event.getServerId());
+  }
+
+  @Override
+  public void connectionPoolCleared(ConnectionPoolClearedEvent event) {
+    poolClears.increment();
+  }
+
+  @Override
+  public void connectionCreated(ConnectionCreatedEvent event) {
+    openConnections.incrementAndGet();
+  }
+
+  @Override
+  public void connectionClosed(ConnectionClosedEvent event) {
+    openConnections.decrementAndGet();
+  }
+
+  @Override
+  public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+    waiting.incrementAndGet();
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    waiting.decrementAndGet();
+    int nowCheckedOut = checkedOut.incrementAndGet();
+    peakCheckedOut.accumulateAndGet(nowCheckedOut, Math::max);
+    checkouts.increment();
+    long waitNanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    totalWaitNanos.add(waitNanos);
+    maxWaitNanos.accumulate(waitNanos);
+  }
+
+  @Override
+  public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+    waiting.decrementAndGet();
+    checkoutFailures.get(event.getReason()).increment();
+    // Only successful checkouts count towards the average wait (which is
+    // divided by them), but a failed one can still be the longest.
+    maxWaitNanos.accumulate(event.getElapsedTime(TimeUnit.NANOSECONDS));
+  }
+
+  @Override
+  public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    checkedOut.decrementAndGet();
+  }
+
+  /**
+   * Get a snapshot of the pool counters.
+   *
+   * The counters are read one at a time while the pool carries on being
+   * used, so they may be very slightly out of step with each other.
+   *
+   * @return the current pool counters
+   */
+  public PoolStats stats() {
+    long checkoutCount = checkouts.sum();
+    Map<String, Long> failures = new LinkedHashMap<>();
+    checkoutFailures.forEach((reason, count) -> failures.put(reason.name(), count.sum()));
+    double averageWaitMillis = checkoutCount == 0 ? 0 : totalWaitNanos.sum() / NANOS_PER_MILLI / checkoutCount;
+    return new PoolStats(
+      checkedOut.get(),
+      peakCheckedOut.get(),
+      waiting.get(),
+      openConnections.get(),
+      maxSizes.values().stream().mapToInt(Integer::intValue).sum(),
+      checkoutCount,
+      failures,
+      averageWaitMillis,
+      maxWaitNanos.get() / NANOS_PER_MILLI,
+      poolClears.sum());
+  }
+
+  @Override
+  public void writeMetrics(PrometheusWriter writer) {
+    PoolStats stats = stats();
+    writer
+      .metric("mongodb_pool_checked_out", "gauge", "MongoDB connections currently in use.")
+      .sample("mongodb_pool_checked_out", stats.checkedOut())
+      .metric("mongodb_pool_checked_out_peak", "gauge", "The most MongoDB connections that have been in use at once.")
+      .sample("mongodb_pool_checked_out_peak", stats.peakCheckedOut())
+      .metric("mongodb_pool_waiting", "gauge", "Requests currently waiting for a MongoDB connection.")
+      .sample("mongodb_pool_waiting", stats.waiting())
+      .metric("mongodb_pool_open_connections", "gauge", "MongoDB connections currently open.")
+      .sample("mongodb_pool_open_connections", stats.openConnections())
+      .metric("mongodb_pool_max_size", "gauge", "The most MongoDB connections the pools will open.")
+      .sample("mongodb_pool_max_size", stats.maxSize())
+      .metric("mongodb_pool_checkouts_total", "counter", "MongoDB connections successfully checked out.")
+      .sample("mongodb_pool_checkouts_total", stats.checkouts())
+      .metric("mongodb_pool_checkout_wait_seconds_max", "gauge", "The longest wait for a MongoDB connection.")
+      .sample("mongodb_pool_checkout_wait_seconds_max", stats.maxWaitMillis() / MILLIS_PER_SECOND)
+      .metric("mongodb_pool_clears_total", "counter", "Times the MongoDB connection pool was cleared.")
+      .sample("mongodb_pool_clears_total", stats.poolClears())
+      .metric("mongodb_pool_checkout_failures_total", "counter", "Failed MongoDB connection checkouts, by reason.");
+    stats.checkoutFailures().forEach((reason, count) ->
+      writer.sample("mongodb_pool_checkout_failures_total", count, "reason", reason));
+  }
+}
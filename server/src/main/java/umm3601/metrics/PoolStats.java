@@ -0,0 +1,36 @@
+package umm3601.metrics;
+
+import java.util.Map;
+
+/**
+ * A snapshot of the counters kept by `PoolMetrics`.
+ *
+ * If `checkedOut` sits at `maxSize` with requests `waiting`, the pool is
+ * starved: requests are queueing for connections rather than for MongoDB.
+ * A growing `averageWaitMillis` or any `checkoutFailures` with the reason
+ * `TIMEOUT` tell the same story after the fact.
+ *
+ * @param checkedOut the number of connections currently in use
+ * @param peakCheckedOut the most connections that have been in use at once
+ * @param waiting the number of requests currently waiting for a connection
+ * @param openConnections the number of connections currently open (in use or idle)
+ * @param maxSize the most connections the pools (one per server) will open between them
+ * @param checkouts the number of connections successfully checked out
+ * @param checkoutFailures the number of failed checkouts, by reason
+ * @param averageWaitMillis the average time a successful checkout waited
+ * @param maxWaitMillis the longest time a checkout (successful or not) waited
+ * @param poolClears the number of times the pool was cleared (e.g., because
+ *   the server went away)
+ */
+public record PoolStats(
+  int checkedOut,
+  int peakCheckedOut,
+  int waiting,
+  int openConnections,
+  int maxSize,
+  long checkouts,
+  Map<String, Long> checkoutFailures,
+  double averageWaitMillis,
+  double maxWaitMillis,
+  long poolClears) {
+}
@@ -0,0 +1,81 @@
+package umm3601.metrics;
+
+/**
+ * Builds up metrics in the Prometheus text exposition format, e.g.,
+ *
+ * ```
+ * # HELP http_server_requests_total Requests handled, by route and status.
+ * # TYPE http_server_requests_total counter
+ * http_server_requests_total{method="GET",route="/api/users",status="200"} 1027
+ * ```
+ *
+ * See https://prometheus.io/docs/instrumenting/exposition_formats/
+ */
+public class PrometheusWriter {
+
+  /**
+   * The content type Prometheus expects for the text format.
+   */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final StringBuilder out = new StringBuilder();
+
+  /**
+   * Start a metric by writing its `HELP` and `TYPE` lines. These should be
+   * written once for each metric, before all of its samples.
+   *
+   * @param name the metric name
+   * @param type the metric type: `counter`, `gauge`, `summary`, etc.
+   * @param help a description of the metric
+   * @return this writer
+   */
+  public PrometheusWriter metric(String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    return this;
+  }
+
+  /**
+   * Write a single sample (value) of a metric.
+   *
+   * @param name the metric name
+   * @param value the value
+   * @param labels the sample's labels, as name/value pairs (e.g., `"route", "/api/users"`)
+   * @return this writer
+   */
+  public PrometheusWriter sample(String name, double value, String... labels) {
+    out.append(name);
+    if (labels.length > 0) {
+      out.append('{');
+      for (int i = 0; i + 1 < labels.length; i += 2) {
+        if (i > 0) {
+          out.append(',');
+        }
+        out.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+      }
+      out.append('}');
+    }
+    out.append(' ').append(formatValue(value)).append('\n');
+    return this;
+  }
+
+  private static String escapeLabelValue(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static String formatValue(double value) {
+    // Counts and other whole numbers read better without a trailing `.0`.
+    if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < Long.MAX_VALUE) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  /**
+   * @return everything written so far
+   */
+  @Override
+  public String toString() {
+    return out.toString();
+  }
+}
@@ -0,0 +1,179 @@
+package umm3601.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.server.Response;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+/**
+ * Per-route request metrics: how many requests each route handles, how
+ * long they take (as a `LatencyHistogram`), what status codes they return,
+ * and how many bytes they send back.
+ *
+ * `Server` calls `start` before every request and `finish` once the
+ * response has been sent. Metrics are kept per route *pattern* (e.g.,
+ * `/api/users/{id}`), not per actual path, so the number of things we
+ * track stays small no matter what clients ask for.
+ */
+public class RouteMetrics implements MetricsSource {
+
+  // The request attribute holding the time (from `System.nanoTime()`) a request started.
+  static final String START_ATTRIBUTE = "umm3601.metrics.requestStart";
+
+  // The route recorded for requests that didn't match any route (i.e., 404s).
+  static final String UNMATCHED_ROUTE = "unmatched";
+
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final float NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final Map<RouteKey, RouteStats> routes = new ConcurrentHashMap<>();
+
+  // The method and route pattern that identify a route. Records give us
+  // `equals` and `hashCode`, and sort nicely in the output.
+  private record RouteKey(String method, String route) implements Comparable<RouteKey> {
+    @Override
+    public int compareTo(RouteKey other) {
+      int byRoute = route.compareTo(other.route);
+      return byRoute != 0 ? byRoute : method.compareTo(other.method);
+    }
+  }
+
+  // Everything we keep for a single route. All of it can be updated by many
+  // threads at once without locking.
+  private static final class RouteStats {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder responseBytes = new LongAdder();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Note the time a request started. This is meant to be used as a
+   * `before` handler for every request.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void start(Context ctx) {
+    ctx.attribute(START_ATTRIBUTE, System.nanoTime());
+  }
+
+  /**
+   * Record a finished request. This is meant to be used as Javalin's
+   * request logger, which is called once the response has been written
+   * (including responses that are streamed or finished asynchronously,
+   * which an `after` handler would miss part of).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param executionTimeMs Javalin's measure of how long the request took,
+   *   used only if `start` wasn't called for it
+   */
+  public void finish(Context ctx, Float executionTimeMs) {
+    Long startNanos = ctx.attribute(START_ATTRIBUTE);
+    long latencyNanos = startNanos != null
+      ? System.nanoTime() - startNanos
+      : (long) (executionTimeMs * NANOS_PER_MILLI);
+    record(
+      ctx.method().name(),
+      routeOf(ctx),
+      ctx.statusCode(),
+      latencyNanos,
+      responseBytes(ctx));
+  }
+
+  /**
+   * Get the route pattern a request matched.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the route pattern, or `UNMATCHED_ROUTE` if the request didn't match one
+   */
+  private static String routeOf(Context ctx) {
+    String route;
+    try {
+      route = ctx.endpointHandlerPath();
+    } catch (IllegalStateException e) {
+      // Javalin won't say, if the request never got past the `before` handlers.
+      return UNMATCHED_ROUTE;
+    }
+    return route == null || route.isEmpty() ? UNMATCHED_ROUTE : route;
+  }
+
+  /**
+   * Work out how many bytes of response body were sent.
+   *
+   * Jetty counts the bytes it actually writes, which works for every kind of
+   * response (including streamed and compressed ones). If we aren't running
+   * in Jetty we fall back on the `Content-Length` header, if there is one.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the number of bytes sent, or zero if we can't tell
+   */
+  private static long responseBytes(Context ctx) {
+    if (ctx.res() instanceof Response jettyResponse) {
+      return jettyResponse.getHttpChannel().getBytesWritten();
+    }
+    String contentLength = ctx.res().getHeader(Header.CONTENT_LENGTH);
+    if (contentLength == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(contentLength);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Record a finished request.
+   *
+   * @param method the HTTP method (`GET`, `POST`, etc.)
+   * @param route the route pattern the request matched
+   * @param status the response's status code
+   * @param latencyNanos how long the request took, in nanoseconds
+   * @param bytes the size of the response body, in bytes
+   */
+  void record(String method, String route, int status, long latencyNanos, long bytes) {
+    RouteStats stats = routes.computeIfAbsent(new RouteKey(method, route), key -> new RouteStats());
+    stats.latency.record(latencyNanos);
+    stats.responseBytes.add(bytes);
+    stats.statuses.computeIfAbsent(status, code -> new LongAdder()).increment();
+  }
+
+  @Override
+  public void writeMetrics(PrometheusWriter writer) {
+    // Sorting the routes keeps the output stable from one scrape to the next.
+    Map<RouteKey, RouteStats> sorted = new TreeMap<>(routes);
+
+    writer.metric("http_server_requests_total", "counter", "Requests handled, by route and status code.");
+    sorted.forEach((key, stats) -> new TreeMap<>(stats.statuses).forEach((status, count) ->
+      writer.sample("http_server_requests_total", count.sum(),
+        "method", key.method(), "route", key.route(), "status", String.valueOf(status))));
+
+    writer.metric("http_server_request_duration_seconds", "summary",
+      "Time taken to handle requests, by route. Quantiles are estimated, and may be up to 20% high.");
+    sorted.forEach((key, stats) -> {
+      for (double quantile : QUANTILES) {
+        writer.sample("http_server_request_duration_seconds",
+          stats.latency.percentileNanos(quantile) / NANOS_PER_SECOND,
+          "method", key.method(), "route", key.route(), "quantile", String.valueOf(quantile));
+      }
+      writer.sample("http_server_request_duration_seconds_sum", stats.latency.sumNanos() / NANOS_PER_SECOND,
+        "method", key.method(), "route", key.route());
+      writer.sample("http_server_request_duration_seconds_count", stats.latency.count(),
+        "method", key.method(), "route", key.route());
+    });
+
+    writer.metric("http_server_request_duration_seconds_max", "gauge", "The slowest request, by route.");
+    sorted.forEach((key, stats) -> writer.sample("http_server_request_duration_seconds_max",
+      stats.latency.maxNanos() / NANOS_PER_SECOND, "method", key.method(), "route", key.route()));
+
+    writer.metric("http_server_response_size_bytes_total", "counter", "Response body bytes sent, by route.");
+    sorted.forEach((key, stats) -> writer.sample("http_server_response_size_bytes_total",
+      stats.responseBytes.sum(), "method", key.method(), "route", key.route()));
+  }
+}
@@ -0,0 +1,365 @@
+package umm3601.metrics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import umm3601.cache.ResultCache;
+
+/**
+ * Watches the queries the server sends MongoDB, and when one is slow, asks
+ * MongoDB to `explain` how it ran it and logs the plan.
+ *
+ * Plans that scan a whole collection (`COLLSCAN`) or sort in memory
+ * (`SORT`, or an aggregation `$sort` that couldn't use an index) are logged
+ * as warnings, since those almost always mean a missing index. That way
+ * missing indexes show up in the logs (and in the metrics) while a
+ * collection is still small enough for them not to hurt much.
+ *
+ * To keep the cost down:
+ *   - Only a fraction of queries (`sampleRate`) are kept track of, since we
+ *     have to copy each one in case it turns out to be slow.
+ *   - Each distinct "shape" of query (the same query with different
+ *     values) is explained at most once every `EXPLAIN_COOLDOWN`.
+ *   - Explains run on a background thread, one at a time, and are dropped
+ *     if too many are waiting.
+ */
+public class SlowQueryProfiler implements CommandListener, MetricsSource {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryProfiler.class);
+
+  // The commands we know how to explain.
+  static final Set<String> EXPLAINABLE = Set.of("find", "aggregate", "count", "distinct");
+
+  // Fields the driver adds to commands that aren't part of the query.
+  private static final Set<String> SESSION_FIELDS = Set.of("lsid", "txnNumber", "autocommit", "startTransaction");
+
+  // How long to wait before explaining a query with the same shape again.
+  static final Duration EXPLAIN_COOLDOWN = Duration.ofMinutes(1);
+  private static final int MAX_REMEMBERED_SHAPES = 1000;
+
+  // How many explains can be waiting to run before we start dropping them.
+  private static final int MAX_WAITING_EXPLAINS = 16;
+
+  private static final String COLLECTION_SCAN = "COLLSCAN";
+  private static final String IN_MEMORY_SORT = "SORT";
+  private static final String AGGREGATION_SORT = "$sort";
+
+  private final long thresholdNanos;
+  private final double sampleRate;
+  private final Executor explainer;
+
+  // The client to run explains with; explains aren't run until it's set.
+  private volatile MongoClient client = null;
+
+  // The (sampled) commands that are running, by request ID, so we have
+  // them to hand if they turn out to be slow.
+  private final Map<Integer, RunningCommand> running = new ConcurrentHashMap<>();
+
+  // The shapes of the queries explained recently.
+  private final ResultCache<String, Boolean> recentlyExplained =
+    new ResultCache<>(MAX_REMEMBERED_SHAPES, EXPLAIN_COOLDOWN);
+
+  private final LongAdder slowQueries = new LongAdder();
+  private final LongAdder explains = new LongAdder();
+  private final LongAdder collectionScans = new LongAdder();
+  private final LongAdder inMemorySorts = new LongAdder();
+
+  /**
+   * Construct a profiler.
+   *
+   * @param threshold how long a query has to take to count as slow
+   * @param sampleRate the fraction (0 to 1) of queries to keep track of
+   */
+  public SlowQueryProfiler(Duration threshold, double sampleRate) {
+    this(threshold, sampleRate, explainExecutor());
+  }
+
+  /**
+   * Construct a profiler that runs its explains on `explainer`.
+   *
+   * @param threshold how long a query has to take to count as slow
+   * @param sampleRate the fraction (0 to 1) of queries to keep track of
+   * @param explainer where to run explains
+   */
+  SlowQueryProfiler(Duration threshold, double sampleRate, Executor explainer) {
+    this.thresholdNanos = threshold.toNanos();
+    this.sampleRate = sampleRate;
+    this.explainer = explainer;
+  }
+
+  /**
+   * A single (daemon) thread, with a short queue that drops explains when
+   * it's full. Explaining every slow query while the database is struggling
+   * would only make things worse.
+   *
+   * @return the executor for explains
+   */
+  private static Executor explainExecutor() {
+    return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_WAITING_EXPLAINS),
+      runnable -> {
+        Thread thread = new Thread(runnable, "slow-query-explainer");
+        thread.setDaemon(true);
+        return thread;
+      },
+      new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  /**
+   * Start explaining slow queries using `mongoClient`. (The client has to
+   * be created with this profiler as a command listener, so this can't be
+   * done in the constructor.)
+   *
+   * @param mongoClient the client to run explains with
+   */
+  public void attach(MongoClient mongoClient) {
+    this.client = mongoClient;
+  }
+
+  @Override
+  public void commandStarted(CommandStartedEvent event) {
+    if (!EXPLAINABLE.contains(event.getCommandName())) {
+      return;
+    }
+    if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+      return;
+    }
+    // The event's command is only good for the duration of this call, so we need a copy.
+    running.put(event.getRequestId(), new RunningCommand(event.getDatabaseName(), event.getCommand().clone()));
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    RunningCommand command = running.remove(event.getRequestId());
+    if (!EXPLAINABLE.contains(event.getCommandName())) {
+      return;
+    }
+    long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    if (nanos < thresholdNanos) {
+      return;
+    }
+    slowQueries.increment();
+    if (command == null || client == null) {
+      return;
+    }
+    String shape = command.database() + " " + shapeOf(command.command()).toJson();
+    synchronized (recentlyExplained) {
+      if (recentlyExplained.get(shape) != null) {
+        return;
+      }
+      recentlyExplained.put(shape, Boolean.TRUE);
+    }
+    explainer.execute(() -> explain(command, nanos));
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    running.remove(event.getRequestId());
+  }
+
+  /**
+   * Explain a slow query, and log (and count) what we find.
+   *
+   * @param command the slow query
+   * @param nanos how long it took
+   */
+  private void explain(RunningCommand command, long nanos) {
+    Document explanation;
+    try {
+      explanation = client.getDatabase(command.database()).runCommand(
+        new Document("explain", queryOf(command.command())).append("verbosity", "queryPlanner"));
+    } catch (MongoException e) {
+      LOGGER.debug("Couldn't explain a slow query", e);
+      return;
+    }
+    explains.increment();
+
+    List<String> stages = stagesOf(explanation);
+    boolean collectionScan = stages.contains(COLLECTION_SCAN);
+    boolean inMemorySort = stages.contains(IN_MEMORY_SORT) || stages.contains(AGGREGATION_SORT);
+    if (collectionScan) {
+      collectionScans.increment();
+    }
+    if (inMemorySort) {
+      inMemorySorts.increment();
+    }
+
+    String query = queryOf(command.command()).toJson();
+    long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+    if (collectionScan || inMemorySort) {
+      LOGGER.warn("Slow query ({}ms){}{} on {}: {}; plan stages: {}; explanation: {}",
+        millis,
+        collectionScan ? " scanned a whole collection (COLLSCAN)" : "",
+        inMemorySort ? " sorted in memory" : "",
+        command.database(), query, stages, explanation.toJson());
+    } else {
+      LOGGER.info("Slow query ({}ms) on {}: {}; plan stages: {}", millis, command.database(), query, stages);
+    }
+  }
+
+  /**
+   * Get a command as we'd want to explain it, without the fields the
+   * driver adds for its own purposes (`$db`, `lsid`, etc.).
+   *
+   * @param command a command as sent by the driver
+   * @return the query part of it
+   */
+  static BsonDocument queryOf(BsonDocument command) {
+    BsonDocument query = new BsonDocument();
+    for (Map.Entry<String, BsonValue> field : command.entrySet()) {
+      if (!field.getKey().startsWith("$") && !SESSION_FIELDS.contains(field.getKey())) {
+        query.put(field.getKey(), field.getValue());
+      }
+    }
+    return query;
+  }
+
+  /**
+   * Get the "shape" of a command: the command with all of its values
+   * (e.g., the `age` in `{age: 37}`) replaced with `1`, so queries that
+   * only differ in their values have the same shape.
+   *
+   * @param command a command as sent by the driver
+   * @return its shape
+   */
+  static BsonDocument shapeOf(BsonDocument command) {
+    BsonDocument shape = new BsonDocument();
+    for (Map.Entry<String, BsonValue> field : queryOf(command).entrySet()) {
+      // The collection name isn't a value; it's part of the shape.
+      boolean keep = field.getKey().equals(command.getFirstKey());
+      shape.put(field.getKey(), keep ? field.getValue() : skeletonOf(field.getValue()));
+    }
+    return shape;
+  }
+
+  private static BsonValue skeletonOf(BsonValue value) {
+    if (value.isDocument()) {
+      BsonDocument skeleton = new BsonDocument();
+      value.asDocument().forEach((key, fieldValue) -> skeleton.put(key, skeletonOf(fieldValue)));
+      return skeleton;
+    }
+    if (value.isArray()) {
+      BsonArray skeleton = new BsonArray();
+      value.asArray().forEach(element -> skeleton.add(skeletonOf(element)));
+      return skeleton;
+    }
+    return new BsonInt32(1);
+  }
+
+  /**
+   * Get the names of all the stages in an explanation's winning plan(s),
+   * along with the names of any aggregation stages (like `$sort`) that
+   * MongoDB runs after the query itself.
+   *
+   * The structure of an explanation depends on the command, the MongoDB
+   * version, and which query engine ran it, so rather than trying to
+   * follow it exactly, we look for every `stage` inside a `winningPlan`.
+   *
+   * @param explanation the result of an `explain`
+   * @return the stage names, in the order we found them
+   */
+  static List<String> stagesOf(Document explanation) {
+    List<String> stages = new ArrayList<>();
+    collectStages(explanation, false, stages);
+    if (explanation.get("stages") instanceof List<?> aggregationStages) {
+      for (Object stage : aggregationStages) {
+        if (stage instanceof Document document && !document.isEmpty()) {
+          stages.add(document.keySet().iterator().next());
+        }
+      }
+    }
+    return stages;
+  }
+
+  private static void collectStages(Object value, boolean inWinningPlan, List<String> stages) {
+    if (value instanceof Document document) {
+      for (Map.Entry<String, Object> field : document.entrySet()) {
+        if (inWinningPlan && field.getKey().equals("stage") && field.getValue() instanceof String stage) {
+          stages.add(stage);
+        } else {
+          collectStages(field.getValue(), inWinningPlan || field.getKey().equals("winningPlan"), stages);
+        }
+      }
+    } else if (value instanceof List<?> list) {
+      for (Object element : list) {
+        collectStages(element, inWinningPlan, stages);
+      }
+    }
+  }
+
+  /**
+   * @return the number of slow queries seen
+   */
+  public long slowQueries() {
+    return slowQueries.sum();
+  }
+
+  /**
+   * @return the number of slow queries that were explained
+   */
+  public long explains() {
+    return explains.sum();
+  }
+
+  /**
+   * @return the number of explained slow queries that scanned a whole collection
+   */
+  public long collectionScans() {
+    return collectionScans.sum();
+  }
+
+  /**
+   * @return the number of explained slow queries that sorted in memory
+   */
+  public long inMemorySorts() {
+    return inMemorySorts.sum();
+  }
+
+  @Override
+  public void writeMetrics(PrometheusWriter writer) {
+    writer
+      .metric("mongodb_slow_queries_total", "counter", "MongoDB queries that took longer than the slow threshold.")
+      .sample("mongodb_slow_queries_total", slowQueries())
+      .metric("mongodb_slow_query_explains_total", "counter", "Slow MongoDB queries that were explained.")
+      .sample("mongodb_slow_query_explains_total", explains())
+      .metric("mongodb_slow_query_collection_scans_total", "counter",
+        "Explained slow MongoDB queries that scanned a whole collection.")
+      .sample("mongodb_slow_query_collection_scans_total", collectionScans())
+      .metric("mongodb_slow_query_in_memory_sorts_total", "counter",
+        "Explained slow MongoDB queries that sorted their results in memory.")
+      .sample("mongodb_slow_query_in_memory_sorts_total", inMemorySorts());
+  }
+
+  /**
+   * A command that's running, and the database it's running in.
+   *
+   * @param database the name of the database
+   * @param command a copy of the command
+   */
+  private record RunningCommand(String database, BsonDocument command) {
+  }
+}
@@ -0,0 +1,301 @@
+package umm3601.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory inverted index for finding documents that contain words.
+ *
+ * Each document's text is split into words ("tokens"), and for each token
+ * we keep a "posting list" of the documents that contain it. Finding the
+ * documents that contain all the words in a query is then just a matter of
+ * intersecting a few posting lists, which takes time proportional to the
+ * size of the (shortest) lists involved, not the number of documents.
+ *
+ * To keep the posting lists compact, documents are numbered (with
+ * "ordinals") in the order they're added, and posting lists are sorted
+ * `int` arrays of ordinals rather than collections of ids. New documents
+ * always get the next ordinal, so adding one just appends to the end of
+ * the relevant lists.
+ *
+ * Changing or removing a document marks its old ordinal as dead rather than
+ * searching every list for it; dead ordinals are skipped when searching, and
+ * are squeezed out of the lists once they make up half the index.
+ *
+ * Searches can run concurrently with each other; changes wait for searches
+ * in progress to finish (and vice versa).
+ */
+public class InvertedIndex {
+
+  // Don't bother compacting tiny indexes.
+  private static final int MIN_DEAD_TO_COMPACT = 1024;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final Map<String, PostingList> postings = new HashMap<>();
+  private final List<String> idsByOrdinal = new ArrayList<>();
+  private final Map<String, Integer> ordinalsById = new HashMap<>();
+  private final BitSet dead = new BitSet();
+  private int deadCount = 0;
+
+  /**
+   * Split text into the (distinct, lowercased) words it contains.
+   *
+   * A word is a run of letters and/or digits, so punctuation and
+   * whitespace separate words and are otherwise ignored.
+   *
+   * @param text the text to split up
+   * @return the distinct words in `text`, in the order they first appear
+   */
+  public static Set<String> tokenize(String text) {
+    Set<String> tokens = new LinkedHashSet<>();
+    if (text == null) {
+      return tokens;
+    }
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (inWord && start < 0) {
+        start = i;
+      } else if (!inWord && start >= 0) {
+        tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Add a document to the index, replacing any earlier version of it.
+   *
+   * @param id the document's id
+   * @param text the document's text
+   */
+  public void put(String id, String text) {
+    lock.writeLock().lock();
+    try {
+      removeLocked(id);
+      int ordinal = idsByOrdinal.size();
+      idsByOrdinal.add(id);
+      ordinalsById.put(id, ordinal);
+      for (String token : tokenize(text)) {
+        postings.computeIfAbsent(token, t -> new PostingList()).add(ordinal);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove a document from the index, if it's there.
+   *
+   * @param id the document's id
+   */
+  public void remove(String id) {
+    lock.writeLock().lock();
+    try {
+      removeLocked(id);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void removeLocked(String id) {
+    Integer ordinal = ordinalsById.remove(id);
+    if (ordinal == null) {
+      return;
+    }
+    dead.set(ordinal);
+    deadCount++;
+    if (deadCount >= MIN_DEAD_TO_COMPACT && deadCount * 2 >= idsByOrdinal.size()) {
+      compact();
+    }
+  }
+
+  /**
+   * Renumber the live documents, and drop the dead ones from every
+   * posting list. Renumbering keeps the relative order of the ordinals,
+   * so the lists stay sorted.
+   */
+  private void compact() {
+    int[] remap = new int[idsByOrdinal.size()];
+    List<String> liveIds = new ArrayList<>(idsByOrdinal.size() - deadCount);
+    for (int ordinal = 0; ordinal < remap.length; ordinal++) {
+      if (dead.get(ordinal)) {
+        remap[ordinal] = -1;
+      } else {
+        remap[ordinal] = liveIds.size();
+        ordinalsById.put(idsByOrdinal.get(ordinal), liveIds.size());
+        liveIds.add(idsByOrdinal.get(ordinal));
+      }
+    }
+    postings.values().removeIf(list -> list.remap(remap) == 0);
+    idsByOrdinal.clear();
+    idsByOrdinal.addAll(liveIds);
+    dead.clear();
+    deadCount = 0;
+  }
+
+  /**
+   * Throw everything out of the index.
+   */
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      postings.clear();
+      idsByOrdinal.clear();
+      ordinalsById.clear();
+      dead.clear();
+      deadCount = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of documents in the index
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return ordinalsById.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Find the documents that contain every word in `query`.
+   *
+   * @param query the words to look for
+   * @return the ids of the matching documents, in the order they were
+   *   (last) added; if `query` has no words in it, there are no matches
+   */
+  public List<String> search(String query) {
+    return search(query, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Find (at most `maxMatches` of) the documents that contain every word in
+   * `query`.
+   *
+   * @param query the words to look for
+   * @param maxMatches the most matches to return
+   * @return the ids of the first `maxMatches` matching documents, in the
+   *   order they were (last) added; if `query` has no words in it, there are
+   *   no matches
+   */
+  public List<String> search(String query, int maxMatches) {
+    Set<String> tokens = tokenize(query);
+    if (tokens.isEmpty()) {
+      return List.of();
+    }
+
+    lock.readLock().lock();
+    try {
+      List<PostingList> lists = new ArrayList<>(tokens.size());
+      for (String token : tokens) {
+        PostingList list = postings.get(token);
+        if (list == null) {
+          // Nothing contains this word, so nothing contains all of them.
+          return List.of();
+        }
+        lists.add(list);
+      }
+      // Start from the shortest list, so every step has as little to do as possible.
+      lists.sort(Comparator.comparingInt(PostingList::size));
+
+      int[] matches = Arrays.copyOf(lists.get(0).ordinals, lists.get(0).size);
+      int matchCount = matches.length;
+      for (int i = 1; i < lists.size() && matchCount > 0; i++) {
+        matchCount = lists.get(i).retainAll(matches, matchCount);
+      }
+
+      List<String> ids = new ArrayList<>(Math.min(matchCount, maxMatches));
+      for (int i = 0; i < matchCount && ids.size() < maxMatches; i++) {
+        if (!dead.get(matches[i])) {
+          ids.add(idsByOrdinal.get(matches[i]));
+        }
+      }
+      return ids;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * A sorted list of document ordinals, stored in a (growable) `int` array.
+   */
+  private static final class PostingList {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] ordinals = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    int size() {
+      return size;
+    }
+
+    // Ordinals are handed out in increasing order, so appending keeps the list sorted.
+    void add(int ordinal) {
+      if (size == ordinals.length) {
+        ordinals = Arrays.copyOf(ordinals, size * 2);
+      }
+      ordinals[size++] = ordinal;
+    }
+
+    /**
+     * Keep only the `candidates` that are also in this list.
+     *
+     * Each candidate is found with a binary search of the part of this
+     * list after the previous one, so when there are only a few candidates
+     * this skips over most of a long list without looking at it.
+     *
+     * @param candidates sorted ordinals; the survivors are moved to the front
+     * @param count the number of candidates
+     * @return the number of candidates that survived
+     */
+    int retainAll(int[] candidates, int count) {
+      int kept = 0;
+      int from = 0;
+      for (int i = 0; i < count && from < size; i++) {
+        int found = Arrays.binarySearch(ordinals, from, size, candidates[i]);
+        if (found >= 0) {
+          candidates[kept++] = candidates[i];
+          from = found + 1;
+        } else {
+          from = -found - 1;
+        }
+      }
+      return kept;
+    }
+
+    /**
+     * Renumber the ordinals in this list, dropping the ones that map to -1.
+     *
+     * @param remap the new number for each old ordinal
+     * @return the number of ordinals left
+     */
+    int remap(int[] remap) {
+      int kept = 0;
+      for (int i = 0; i < size; i++) {
+        int ordinal = remap[ordinals[i]];
+        if (ordinal >= 0) {
+          ordinals[kept++] = ordinal;
+        }
+      }
+      size = kept;
+      return kept;
+    }
+  }
+}
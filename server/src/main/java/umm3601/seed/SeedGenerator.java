@@ -0,0 +1,313 @@
+package umm3601.seed;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.SequencedSet;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import umm3601.user.AvatarService;
+
+/**
+ * Makes up as many users and todos as we like, shaped like the ones in
+ * `database/seed/users.json` and `todos.json`, so we can see how the
+ * server behaves with millions of them rather than a few hundred.
+ *
+ * The values are spread the way real data tends to be, rather than evenly:
+ *   - A few companies have most of the users, and there's a long tail of
+ *     companies with only a handful each (their sizes follow Zipf's law).
+ *     That matters, since a `company` filter on a big company returns far
+ *     more users than one on a small company.
+ *   - Ages cluster around the early thirties (like the seed users, who are
+ *     23 to 40), but range from 18 to 70.
+ *   - Most users are viewers, fewer are editors, and fewer still admins.
+ *   - Todos belong to a fixed number of owners, each with roughly the same
+ *     number of todos, and have one of the same four categories as the
+ *     seed todos, with about half of them done.
+ *
+ * Everything comes from one seeded random number generator, so the same
+ * seed always makes the same data, and runs on different commits can be
+ * compared on identical data.
+ *
+ * The files are written a document per line, in extended JSON, which
+ * `SeedLoader` (`./gradlew seed`) and `mongoimport` both read.
+ */
+public class SeedGenerator {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeedGenerator.class);
+
+  // The companies in `users.json`, which the generated ones start with.
+  private static final List<String> SEED_COMPANIES = List.of(
+    "OHMNET", "NIQUENT", "MOMENTIA", "DATAGENE", "SURELOGIC", "VINCH", "RECOGNIA", "ESCENTA", "KINETICUT");
+  // Made-up company names are two of these run together (e.g., "QUANTBIT").
+  private static final String[] COMPANY_PARTS = {
+    "OHM", "NET", "DATA", "GENE", "SURE", "LOGIC", "VIN", "RECOG", "CENTA", "KINETIC", "QUANT", "BIT", "ZEN",
+    "TRON", "OPTI", "CORE", "NEXA", "FLUX", "VERA", "SYN", "AERO", "MATRIX", "PULSE", "LUMEN"
+  };
+  // How skewed company sizes are: the nth biggest company has about 1/n^s
+  // as many users as the biggest.
+  private static final double COMPANY_SKEW = 1.0;
+
+  private static final String[] FIRST_NAMES = {
+    "Connie", "Lynn", "Roseann", "Leta", "Kitty", "Marie", "Merrill", "Barry", "Blanche", "Dawn", "Fry",
+    "Roberta", "Workman", "Pat", "Sam", "Kim", "Chris", "Jamie", "Alex", "Jordan", "Taylor", "Morgan", "Casey",
+    "Riley", "Avery", "Quinn", "Drew", "Robin", "Jesse", "Sky"
+  };
+  private static final String[] LAST_NAMES = {
+    "Stewart", "Ferguson", "Roberson", "Clayton", "Terry", "Benson", "Mcguire", "Hayes", "Garner", "Ortiz",
+    "Nguyen", "Patel", "Kim", "Larsen", "Olson", "Johnson", "Smith", "Lee", "Garcia", "Martin", "Brown",
+    "Davis", "Miller", "Wilson", "Moore", "Anderson", "Thomas", "Jackson", "White", "Harris"
+  };
+
+  private static final double MEAN_AGE = 31;
+  private static final double AGE_DEVIATION = 6;
+  private static final int MIN_AGE = 18;
+  private static final int MAX_AGE = 70;
+
+  // Roles, and the chance of each (which add up to one).
+  private static final String[] ROLES = {"viewer", "editor", "admin"};
+  private static final double[] ROLE_WEIGHTS = {0.5, 0.3, 0.2};
+
+  // The categories in `todos.json`, which are (about) equally common there.
+  private static final String[] CATEGORIES = {"homework", "groceries", "software design", "video games"};
+  // About 48% of the seed todos are done.
+  private static final double DONE_CHANCE = 0.48;
+
+  private static final String[] BODY_WORDS = {
+    "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do", "eiusmod",
+    "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua", "enim", "ad", "minim", "veniam",
+    "quis", "nostrud", "exercitation", "ullamco", "laboris", "nisi", "aliquip", "ex", "ea", "commodo", "consequat"
+  };
+  private static final int MIN_BODY_WORDS = 8;
+  private static final int MAX_BODY_WORDS = 24;
+
+  // Generated `_id`s are like `ObjectId`s made at this time (in seconds
+  // since the epoch), one after another, so they're in the order the
+  // documents were made, like real ones, but the same on every run.
+  private static final int ID_TIMESTAMP = 1_700_000_000;
+  private static final int OBJECT_ID_BYTES = 12;
+
+  // Enough for every distinct email we generate to be hashed only once.
+  private static final int AVATAR_MEMO_SIZE = 100_000;
+
+  private final SplittableRandom random;
+  private final List<String> companies;
+  private final double[] companyCumulativeWeights;
+  private final List<String> owners;
+  private final AvatarService avatarService = new AvatarService(AVATAR_MEMO_SIZE);
+  private long nextId;
+
+  /**
+   * Construct a seed generator.
+   *
+   * @param seed the seed for the random number generator; the same seed
+   *   always generates the same data
+   * @param companyCount the number of different companies users work for
+   * @param ownerCount the number of different owners todos have
+   */
+  public SeedGenerator(long seed, int companyCount, int ownerCount) {
+    if (companyCount <= 0 || ownerCount <= 0) {
+      throw new IllegalArgumentException("There must be at least one company and one owner");
+    }
+    this.random = new SplittableRandom(seed);
+    this.companies = companyNames(companyCount);
+    this.companyCumulativeWeights = zipfCumulativeWeights(companyCount, COMPANY_SKEW);
+    this.owners = ownerNames(ownerCount);
+  }
+
+  /**
+   * Make up `count` company names: the ones in `users.json`, and then
+   * combinations of `COMPANY_PARTS`, biggest company first.
+   *
+   * @param count the number of names
+   * @return the names, which are all different
+   */
+  public static List<String> companyNames(int count) {
+    SequencedSet<String> names = new LinkedHashSet<>(SEED_COMPANIES.subList(0, Math.min(count, SEED_COMPANIES.size())));
+    int parts = COMPANY_PARTS.length;
+    int pairs = parts * parts;
+    for (int i = 0; names.size() < count; i++) {
+      String name = COMPANY_PARTS[i % parts] + COMPANY_PARTS[i / parts % parts];
+      // Once we run out of pairs of parts, number them.
+      names.add(i < pairs ? name : name + (i / pairs));
+    }
+    return new ArrayList<>(names);
+  }
+
+  /**
+   * Make up `count` owner names: first names, and then first names with a
+   * number on the end once we run out.
+   */
+  private static List<String> ownerNames(int count) {
+    List<String> names = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String name = FIRST_NAMES[i % FIRST_NAMES.length];
+      names.add(i < FIRST_NAMES.length ? name : name + (i / FIRST_NAMES.length));
+    }
+    return names;
+  }
+
+  /**
+   * The running totals of the weights 1/1^s, 1/2^s, ..., 1/n^s, divided
+   * by the total so the last is one.
+   */
+  private static double[] zipfCumulativeWeights(int n, double exponent) {
+    double[] cumulative = new double[n];
+    double total = 0;
+    for (int rank = 1; rank <= n; rank++) {
+      total += 1 / Math.pow(rank, exponent);
+      cumulative[rank - 1] = total;
+    }
+    for (int i = 0; i < n; i++) {
+      cumulative[i] /= total;
+    }
+    return cumulative;
+  }
+
+  /**
+   * Pick an index, at random, with the chances given by running totals.
+   */
+  private int pick(double[] cumulativeWeights) {
+    int index = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+    // A negative result encodes where the value would be inserted, which is
+    // the first running total that's bigger than it.
+    return Math.min(index >= 0 ? index : -index - 1, cumulativeWeights.length - 1);
+  }
+
+  private ObjectId nextId() {
+    return new ObjectId(ByteBuffer.allocate(OBJECT_ID_BYTES).putInt(ID_TIMESTAMP).putLong(nextId++).array());
+  }
+
+  private <T> T pick(T[] values) {
+    return values[random.nextInt(values.length)];
+  }
+
+  /**
+   * @return a made-up user, with all the fields the ones in `users.json` have
+   */
+  public Document user() {
+    String first = pick(FIRST_NAMES);
+    String last = pick(LAST_NAMES);
+    String company = companies.get(pick(companyCumulativeWeights));
+    String email = (first + last).toLowerCase(Locale.ROOT) + "@" + company.toLowerCase(Locale.ROOT) + ".com";
+    int age = (int) Math.round(MEAN_AGE + AGE_DEVIATION * gaussian());
+    return new Document("_id", nextId())
+      .append("name", first + " " + last)
+      .append("age", Math.clamp(age, MIN_AGE, MAX_AGE))
+      .append("company", company)
+      .append("email", email)
+      .append("role", role())
+      .append("avatar", avatarService.avatarFor(email));
+  }
+
+  private String role() {
+    double value = random.nextDouble();
+    for (int i = 0; i < ROLES.length - 1; i++) {
+      value -= ROLE_WEIGHTS[i];
+      if (value < 0) {
+        return ROLES[i];
+      }
+    }
+    return ROLES[ROLES.length - 1];
+  }
+
+  /**
+   * A standard normal random number (by the Box-Muller transform, since
+   * `SplittableRandom` doesn't make them itself).
+   */
+  private double gaussian() {
+    return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+  }
+
+  /**
+   * @return a made-up todo, with all the fields the ones in `todos.json` have
+   */
+  public Document todo() {
+    return new Document("_id", nextId())
+      .append("owner", owners.get(random.nextInt(owners.size())))
+      .append("status", random.nextDouble() < DONE_CHANCE)
+      .append("body", body())
+      .append("category", pick(CATEGORIES));
+  }
+
+  private String body() {
+    int words = random.nextInt(MIN_BODY_WORDS, MAX_BODY_WORDS + 1);
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < words; i++) {
+      String word = pick(BODY_WORDS);
+      if (i == 0) {
+        body.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+      } else {
+        body.append(' ').append(word);
+      }
+    }
+    return body.append('.').toString();
+  }
+
+  /**
+   * Write `count` made-up documents to `file`, one per line, in extended JSON.
+   *
+   * @param file the file to write (which is replaced, if it's already there)
+   * @param count the number of documents
+   * @param documents makes each document (e.g., `this::user`)
+   * @throws IOException if the file can't be written
+   */
+  public void write(Path file, long count, Supplier<Document> documents) throws IOException {
+    try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for (long i = 0; i < count; i++) {
+        out.write(documents.get().toJson());
+        out.newLine();
+      }
+    }
+  }
+
+  /**
+   * Write made-up `users.json` and `todos.json` to the directory given as
+   * the only argument (`./gradlew generateSeed` passes `build/seed`), ready
+   * for `./gradlew seed -PseedDir=build/seed` to load.
+   *
+   * How much is made is set with environment variables: `SEED_USERS` and
+   * `SEED_TODOS` (how many of each), `SEED_COMPANIES` and `SEED_OWNERS`
+   * (how many different companies and todo owners), and `SEED_RANDOM_SEED`.
+   *
+   * @param args the directory to write the seed files to
+   * @throws IOException if the files can't be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      throw new IllegalArgumentException("Usage: SeedGenerator OUTPUT_DIRECTORY");
+    }
+    long users = Long.parseLong(getEnvOrDefault("SEED_USERS", "1000000"));
+    long todos = Long.parseLong(getEnvOrDefault("SEED_TODOS", "3000000"));
+    int companyCount = Integer.parseInt(getEnvOrDefault("SEED_COMPANIES", "1000"));
+    int ownerCount = Integer.parseInt(getEnvOrDefault("SEED_OWNERS", "1000"));
+    long seed = Long.parseLong(getEnvOrDefault("SEED_RANDOM_SEED", "3601"));
+
+    Path directory = Files.createDirectories(Path.of(args[0]));
+    SeedGenerator generator = new SeedGenerator(seed, companyCount, ownerCount);
+    long start = System.nanoTime();
+    generator.write(directory.resolve("users.json"), users, generator::user);
+    generator.write(directory.resolve("todos.json"), todos, generator::todo);
+    LOGGER.info("Wrote {} users and {} todos to {} in {}ms",
+      users, todos, directory, (System.nanoTime() - start) / Duration.ofMillis(1).toNanos());
+  }
+
+  private static String getEnvOrDefault(String envName, String defaultValue) {
+    return System.getenv().getOrDefault(envName, defaultValue);
+  }
+}
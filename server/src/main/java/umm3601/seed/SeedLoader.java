@@ -0,0 +1,349 @@
+package umm3601.seed;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.json.JsonReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.InsertManyOptions;
+
+import umm3601.IndexManager;
+import umm3601.Main;
+import umm3601.todo.TodoController;
+import umm3601.user.UserController;
+
+/**
+ * Loads seed data (like `database/seed/*.json`) into MongoDB: what
+ * `database/mongoseed.sh` does with `mongoimport`, but quicker, and without
+ * needing MongoDB's command line tools. Run it with `./gradlew seed`.
+ *
+ * Each file is loaded into the collection with the same name (so
+ * `users.json` goes into `users`), and holds either a JSON array of
+ * documents (as `mongoimport --jsonArray` expects) or a document per line
+ * (as plain `mongoimport` expects), in MongoDB's extended JSON (so
+ * `_id`s can be written as `{"$oid": "..."}`). What makes it quicker:
+ *   - Files are parsed as they're read, a document at a time (by the BSON
+ *     library's `JsonReader`), so a file is never held in memory in full,
+ *     however big it is.
+ *   - Documents are inserted in batches, with unordered `insertMany`s, of
+ *     which up to `insertsInFlight` per collection are sent at once (on
+ *     virtual threads) while the next batch is parsed.
+ *   - All the collections are loaded at once.
+ *   - Indexes (see `Controller.indexes`) are only created once everything
+ *     is loaded. Building an index over a full collection in one go is much
+ *     cheaper than updating it for every insert.
+ */
+public class SeedLoader {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeedLoader.class);
+
+  private static final String JSON_EXTENSION = ".json";
+
+  private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+
+  private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+  private final MongoDatabase database;
+  private final int batchSize;
+  private final int insertsInFlight;
+
+  /**
+   * Construct a seed loader.
+   *
+   * @param database the database to load the seed data into
+   * @param batchSize the number of documents to send to MongoDB per `insertMany`
+   * @param insertsInFlight the most `insertMany`s per collection to have
+   *   waiting on MongoDB at once
+   */
+  public SeedLoader(MongoDatabase database, int batchSize, int insertsInFlight) {
+    if (batchSize <= 0 || insertsInFlight <= 0) {
+      throw new IllegalArgumentException("The batch size and the number of inserts in flight must be positive");
+    }
+    this.database = database;
+    this.batchSize = batchSize;
+    this.insertsInFlight = insertsInFlight;
+  }
+
+  /**
+   * Load each of `files` into its collection, without creating any indexes.
+   *
+   * @param files the seed files
+   * @return what was loaded, and how long it took
+   */
+  public SeedReport load(List<Path> files) {
+    return load(files, Map.of());
+  }
+
+  /**
+   * Load each of `files` into its collection, and then create `indexes`.
+   *
+   * Documents MongoDB won't insert (e.g., because of a duplicate `_id`) are
+   * logged, counted, and skipped. Anything else that goes wrong (e.g., a
+   * file that isn't valid JSON) stops the load, and is thrown.
+   *
+   * @param files the seed files
+   * @param indexes the indexes to create, by collection name (e.g.
+   *   `UserController.INDEXES`)
+   * @return what was loaded, and how long it took
+   */
+  public SeedReport load(List<Path> files, Map<String, List<IndexModel>> indexes) {
+    long loadStart = System.nanoTime();
+    List<SeedReport.CollectionReport> collections = new ArrayList<>();
+    try (ExecutorService loaders = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<CompletableFuture<SeedReport.CollectionReport>> loads = new ArrayList<>();
+      for (Path file : files) {
+        loads.add(CompletableFuture.supplyAsync(() -> loadFile(file), loaders));
+      }
+      for (CompletableFuture<SeedReport.CollectionReport> load : loads) {
+        collections.add(await(load));
+      }
+    }
+    Duration loadTime = Duration.ofNanos(System.nanoTime() - loadStart);
+
+    long indexStart = System.nanoTime();
+    new IndexManager(database).ensureIndexes(SeedLoader.class.getSimpleName(), indexes);
+    Duration indexTime = Duration.ofNanos(System.nanoTime() - indexStart);
+
+    return new SeedReport(collections, loadTime, indexTime);
+  }
+
+  /**
+   * Load one seed file into its collection.
+   *
+   * @param file the seed file
+   * @return what was loaded
+   */
+  SeedReport.CollectionReport loadFile(Path file) {
+    String name = collectionName(file);
+    MongoCollection<Document> collection = database.getCollection(name);
+    long start = System.nanoTime();
+    AtomicLong inserted = new AtomicLong();
+    AtomicLong failed = new AtomicLong();
+    // Each batch takes a permit while it's being inserted, so there are at
+    // most `insertsInFlight` of them (and one being parsed) at once.
+    Semaphore permits = new Semaphore(insertsInFlight);
+    List<CompletableFuture<Void>> inserts = new ArrayList<>();
+
+    try (BufferedReader json = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor()) {
+      Iterator<Document> documents = startsWithArray(json) ? arrayDocuments(json) : lineDocuments(json);
+      List<Document> batch = new ArrayList<>(batchSize);
+      while (documents.hasNext()) {
+        batch.add(documents.next());
+        if (batch.size() == batchSize) {
+          inserts.add(insert(collection, batch, permits, writers, inserted, failed));
+          batch = new ArrayList<>(batchSize);
+        }
+      }
+      if (!batch.isEmpty()) {
+        inserts.add(insert(collection, batch, permits, writers, inserted, failed));
+      }
+      inserts.forEach(SeedLoader::await);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Couldn't read " + file, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while loading " + file, e);
+    }
+
+    SeedReport.CollectionReport report = new SeedReport.CollectionReport(
+      name, inserted.get(), failed.get(), Duration.ofNanos(System.nanoTime() - start));
+    LOGGER.info("Loaded {} documents into {} in {}ms ({} documents/s)",
+      report.inserted(), name, report.loadTime().toMillis(), Math.round(report.documentsPerSecond()));
+    return report;
+  }
+
+  /**
+   * Check whether `json` holds an array (rather than documents one after
+   * another), without consuming any of it.
+   *
+   * @param json the seed file
+   * @return `true` if the first thing in it (other than whitespace) is `[`
+   * @throws IOException if the file can't be read
+   */
+  private static boolean startsWithArray(BufferedReader json) throws IOException {
+    int next;
+    do {
+      json.mark(1);
+      next = json.read();
+    } while (next != -1 && Character.isWhitespace(next));
+    json.reset();
+    return next == '[';
+  }
+
+  /**
+   * Parse the documents in a JSON array, one at a time, as they're needed.
+   *
+   * @param json the seed file, holding a JSON array
+   * @return the documents in the array
+   */
+  private static Iterator<Document> arrayDocuments(Reader json) {
+    JsonReader reader = new JsonReader(json);
+    reader.readBsonType();
+    reader.readStartArray();
+    return new Iterator<>() {
+      private boolean hasNext = reader.readBsonType() != BsonType.END_OF_DOCUMENT;
+
+      @Override
+      public boolean hasNext() {
+        return hasNext;
+      }
+
+      @Override
+      public Document next() {
+        if (!hasNext) {
+          throw new NoSuchElementException();
+        }
+        Document document = DOCUMENT_CODEC.decode(reader, DecoderContext.builder().build());
+        hasNext = reader.readBsonType() != BsonType.END_OF_DOCUMENT;
+        return document;
+      }
+    };
+  }
+
+  /**
+   * Parse documents written one per line (as `mongoimport` writes them),
+   * one at a time, as they're needed. Blank lines are skipped.
+   *
+   * @param json the seed file, holding a document per line
+   * @return the documents
+   */
+  private static Iterator<Document> lineDocuments(BufferedReader json) {
+    return json.lines()
+      .filter(line -> !line.isBlank())
+      .map(line -> DOCUMENT_CODEC.decode(new JsonReader(line), DecoderContext.builder().build()))
+      .iterator();
+  }
+
+  /**
+   * Insert a batch of documents on one of the `writers`, once there's a
+   * permit for it.
+   *
+   * @return the insert
+   * @throws InterruptedException if we're interrupted while waiting for a permit
+   */
+  private static CompletableFuture<Void> insert(
+      MongoCollection<Document> collection, List<Document> batch, Semaphore permits, ExecutorService writers,
+      AtomicLong inserted, AtomicLong failed) throws InterruptedException {
+    permits.acquire();
+    return CompletableFuture.runAsync(() -> {
+      try {
+        collection.insertMany(batch, UNORDERED);
+        inserted.addAndGet(batch.size());
+      } catch (MongoBulkWriteException e) {
+        inserted.addAndGet(e.getWriteResult().getInsertedCount());
+        failed.addAndGet(e.getWriteErrors().size());
+        LOGGER.warn("Couldn't insert {} documents into {}, e.g., {}",
+          e.getWriteErrors().size(), collection.getNamespace().getCollectionName(),
+          e.getWriteErrors().get(0).getMessage());
+      } finally {
+        permits.release();
+      }
+    }, writers);
+  }
+
+  /**
+   * Wait for a load or insert to finish, rethrowing whatever it failed with.
+   */
+  private static <T> T await(CompletableFuture<T> task) {
+    try {
+      return task.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @param file a seed file
+   * @return the name of the collection it's loaded into: its name, without `.json`
+   */
+  static String collectionName(Path file) {
+    String name = file.getFileName().toString();
+    return name.endsWith(JSON_EXTENSION) ? name.substring(0, name.length() - JSON_EXTENSION.length()) : name;
+  }
+
+  /**
+   * Find the seed files in `directory`: all of its `.json` files, in name order.
+   *
+   * @param directory the directory holding the seed files
+   * @return the seed files
+   * @throws IOException if the directory can't be read
+   */
+  static List<Path> seedFiles(Path directory) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + JSON_EXTENSION)) {
+      entries.forEach(files::add);
+    }
+    files.sort(null);
+    return files;
+  }
+
+  /**
+   * Drop the database and load the seed files in the directory given as
+   * the only argument (`./gradlew seed` passes `database/seed`) into it, as
+   * `database/mongoseed.sh` does.
+   *
+   * The database is the one the server uses, connected to with the same
+   * settings (see `Main.connectToDatabase`). `SEED_BATCH_SIZE` and
+   * `SEED_INSERTS_IN_FLIGHT` tune how the documents are sent to MongoDB.
+   *
+   * @param args the directory holding the seed files
+   * @throws IOException if the seed files can't be read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      throw new IllegalArgumentException("Usage: SeedLoader SEED_DIRECTORY");
+    }
+    String databaseName = Main.getDatabaseName();
+    int batchSize = Integer.parseInt(Main.getEnvOrDefault("SEED_BATCH_SIZE", "1000"));
+    int insertsInFlight = Integer.parseInt(Main.getEnvOrDefault("SEED_INSERTS_IN_FLIGHT", "4"));
+
+    try (MongoClient mongoClient = Main.connectToDatabase()) {
+      MongoDatabase database = mongoClient.getDatabase(databaseName);
+      LOGGER.info("Dropping database {}", databaseName);
+      database.drop();
+
+      // The indexes the server would create on startup (see `Main.getControllers`).
+      Map<String, List<IndexModel>> indexes = new HashMap<>(UserController.INDEXES);
+      indexes.putAll(TodoController.INDEXES);
+      SeedReport report = new SeedLoader(database, batchSize, insertsInFlight).load(
+        seedFiles(Path.of(args[0])), indexes);
+      LOGGER.info("Loaded {} documents ({} failed) in {}ms ({} documents/s); created indexes in {}ms",
+        report.inserted(), report.failed(), report.loadTime().toMillis(), Math.round(report.documentsPerSecond()),
+        report.indexTime().toMillis());
+    }
+  }
+}
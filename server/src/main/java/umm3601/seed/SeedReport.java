@@ -0,0 +1,59 @@
+package umm3601.seed;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * What a `SeedLoader` loaded, and how long it took.
+ *
+ * @param collections what was loaded into each collection
+ * @param loadTime how long loading all the collections took, altogether
+ * @param indexTime how long creating the indexes took, once everything was loaded
+ */
+public record SeedReport(List<SeedReport.CollectionReport> collections, Duration loadTime, Duration indexTime) {
+
+  /**
+   * What was loaded into one collection.
+   *
+   * @param collection the name of the collection
+   * @param inserted the number of documents inserted
+   * @param failed the number of documents MongoDB wouldn't insert (e.g.,
+   *   because of a duplicate `_id`)
+   * @param loadTime how long loading the collection took
+   */
+  public record CollectionReport(String collection, long inserted, long failed, Duration loadTime) {
+
+    /**
+     * @return the number of documents inserted per second
+     */
+    public double documentsPerSecond() {
+      return SeedReport.perSecond(inserted, loadTime);
+    }
+  }
+
+  /**
+   * @return the total number of documents inserted
+   */
+  public long inserted() {
+    return collections.stream().mapToLong(CollectionReport::inserted).sum();
+  }
+
+  /**
+   * @return the total number of documents MongoDB wouldn't insert
+   */
+  public long failed() {
+    return collections.stream().mapToLong(CollectionReport::failed).sum();
+  }
+
+  /**
+   * @return the number of documents inserted per second, over all the collections
+   */
+  public double documentsPerSecond() {
+    return perSecond(inserted(), loadTime);
+  }
+
+  private static double perSecond(long count, Duration time) {
+    // Anything that took no measurable time was as fast as we can tell.
+    return time.isZero() ? count : count / (time.toNanos() / (double) Duration.ofSeconds(1).toNanos());
+  }
+}
@@ -0,0 +1,39 @@
+package umm3601.todo;
+
+import org.mongojack.Id;
+import org.mongojack.ObjectId;
+
+// Like `User`, the fields here are public (and `_id` starts with an
+// underscore) because MongoJack reads and writes them directly, so we
+// have to suppress the CheckStyle warnings about that.
+@SuppressWarnings({"VisibilityModifier"})
+public class Todo {
+
+  @ObjectId @Id
+  @SuppressWarnings({"MemberName"})
+  public String _id;
+
+  public String owner;
+  public boolean status;
+  public String body;
+  public String category;
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof Todo)) {
+      return false;
+    }
+    Todo other = (Todo) obj;
+    return _id.equals(other._id);
+  }
+
+  @Override
+  public int hashCode() {
+    return _id.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return owner + ": " + body;
+  }
+}
@@ -0,0 +1,506 @@
+package umm3601.todo;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+
+import umm3601.Controller;
+import umm3601.ReadRouting;
+import umm3601.cache.ChangeStreamWatcher;
+import umm3601.cache.CollectionVersion;
+import umm3601.http.Representations;
+import umm3601.search.InvertedIndex;
+
+/**
+ * Controller that manages requests for info about todos.
+ */
+public class TodoController implements Controller {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TodoController.class);
+
+  // The collection todos are kept in.
+  static final String TODOS = "todos";
+
+  private static final String API_TODOS = "/api/todos";
+  static final String OWNER_KEY = "owner";
+  static final String STATUS_KEY = "status";
+  static final String CATEGORY_KEY = "category";
+  static final String SORT_BY_KEY = "sortby";
+  static final String SORT_ORDER_KEY = "sortorder";
+  static final String LIMIT_KEY = "limit";
+  static final String CONTAINS_KEY = "contains";
+  static final String BODY_KEY = "body";
+
+  // The `status` query parameter is `complete` or `incomplete`, which
+  // are stored in the database as `true` and `false`.
+  static final String STATUS_COMPLETE = "complete";
+  static final String STATUS_INCOMPLETE = "incomplete";
+
+  // The fields todos can be sorted by. These are exactly the fields that
+  // lead one of our indexes, so every sort can be answered from an index.
+  static final Set<String> SORT_FIELDS = Set.of("_id", OWNER_KEY, STATUS_KEY, CATEGORY_KEY);
+
+  static final int MAX_LIMIT = 1000;
+
+  // Compound indexes that, between them, have every combination of the
+  // `owner`, `status`, and `category` filters as a prefix:
+  //   - owner; owner + category; owner + category + status
+  //   - category; category + status
+  //   - status; status + owner
+  // MongoDB can use an index for equality filters on any prefix of its
+  // fields, so every filter we support is answered from an index, never
+  // by scanning the whole collection. Each field also leads one of the
+  // indexes, so sorting by it alone doesn't need a scan either.
+  // These are public so tools (like `SeedLoader`) can create them without
+  // a controller.
+  public static final Map<String, List<IndexModel>> INDEXES = Map.of(TODOS, List.of(
+    new IndexModel(Indexes.ascending(OWNER_KEY, CATEGORY_KEY, STATUS_KEY)),
+    new IndexModel(Indexes.ascending(CATEGORY_KEY, STATUS_KEY)),
+    new IndexModel(Indexes.ascending(STATUS_KEY, OWNER_KEY))));
+
+  // Text indexes are built on their own virtual thread.
+  private static final Executor INDEX_BUILDER = runnable -> Thread.ofVirtual().name("todo-text-index").start(runnable);
+
+  private final JacksonMongoCollection<Todo> todoCollection;
+
+  // The same collection, but as plain BSON documents, for building and
+  // maintaining the text index.
+  private final MongoCollection<Document> todoDocuments;
+
+  // An index of the words in each todo's body, used to answer `contains`
+  // queries. This is `null` until turned on with `enableTextIndex` (and
+  // until the index has been built).
+  private volatile InvertedIndex textIndex = null;
+
+  // The index being built to replace `textIndex`, if there is one. Changes
+  // to todos are applied to it as well as to `textIndex`, so it isn't
+  // missing any when it's swapped in. Guarded by `this`.
+  private InvertedIndex nextTextIndex = null;
+
+  // The most todos a `contains` query is answered from the text index for.
+  // A query matching more than that (e.g., for a common word) would turn
+  // into a huge `_id` condition (which MongoDB won't even accept past 16MB),
+  // so it's answered without the index instead.
+  private int maxIndexedMatches;
+
+  // Changes whenever the todos do, so conditional `getTodos` requests can
+  // be answered without a query. This is `null` unless turned on with
+  // `enableVersionTags`.
+  private CollectionVersion todosVersion = null;
+
+  // Keeps `textIndex` up to date as todos change.
+  private ChangeStreamWatcher textIndexUpdater = null;
+
+  /**
+   * Construct a controller for todos.
+   *
+   * @param database the database containing todo data
+   */
+  public TodoController(MongoDatabase database) {
+    todoCollection = JacksonMongoCollection.builder().build(
+      database,
+      TODOS,
+      Todo.class,
+      UuidRepresentation.STANDARD);
+    todoDocuments = database.getCollection(TODOS);
+  }
+
+  /**
+   * @return the indexes the todos collection needs (see `INDEXES`)
+   */
+  @Override
+  public Map<String, List<IndexModel>> indexes() {
+    return INDEXES;
+  }
+
+  /**
+   * Lists of todos can be a little out of date, so they can be read from
+   * secondaries.
+   *
+   * @return the kind of reads each route does
+   */
+  @Override
+  public Map<String, ReadRouting.Reads> readRoutes() {
+    return Map.of(API_TODOS, ReadRouting.Reads.LIST);
+  }
+
+  /**
+   * Lists of todos only change when the todos do, once version tags are
+   * turned on with `enableVersionTags`.
+   *
+   * @return the version each route's responses depend on
+   */
+  @Override
+  public Map<String, CollectionVersion> versionedRoutes() {
+    return todosVersion == null ? Map.of() : Map.of(API_TODOS, todosVersion);
+  }
+
+  /**
+   * @param ctx the request
+   * @return `true` if `ctx` asks for a list of todos without a `limit`
+   */
+  @Override
+  public boolean isUnpagedList(Context ctx) {
+    return ctx.method() == HandlerType.GET
+      && API_TODOS.equals(ctx.path())
+      && !ctx.queryParamMap().containsKey(LIMIT_KEY);
+  }
+
+  /**
+   * Keep track of the todos collection's version (see `CollectionVersion`),
+   * so the server can answer conditional `GET /api/todos` requests from
+   * clients that already have the current list with a `304 Not Modified`,
+   * without running the query (see `versionedRoutes`).
+   *
+   * Like the text index, this relies on MongoDB change streams; on a
+   * standalone server requests are answered as usual.
+   */
+  public void enableVersionTags() {
+    if (todosVersion != null) {
+      todosVersion.close();
+    }
+    todosVersion = new CollectionVersion(todoDocuments);
+    todosVersion.start();
+  }
+
+  /**
+   * Build an in-memory index of the words in every todo's body, and keep it
+   * up to date as todos change, so `contains` queries don't have to scan
+   * every todo.
+   *
+   * Without the index, a `contains` query is a case-insensitive regular
+   * expression match on `body`, which MongoDB can only answer by reading
+   * every todo. With it, we look up the todos containing each word in memory
+   * and hand MongoDB their `_id`s, which it looks up in the `_id` index.
+   *
+   * Keeping the index up to date relies on MongoDB change streams, which
+   * need MongoDB to be running as a replica set. On a standalone server
+   * the index reflects the todos as they were when it was built.
+   *
+   * Building the index means reading every todo, so it's done in the
+   * background rather than holding up the server's startup. Until it's
+   * built, `contains` queries are answered without it.
+   *
+   * The index is only worth using for words that aren't in too many todos;
+   * `contains` queries matching more than `maxMatches` todos are answered
+   * without it.
+   *
+   * @param maxMatches the most todos a `contains` query is answered from
+   *   the index for
+   * @return a future that completes once the index is built and in use
+   */
+  public CompletableFuture<Void> enableTextIndex(int maxMatches) {
+    maxIndexedMatches = maxMatches;
+    if (textIndexUpdater != null) {
+      textIndexUpdater.close();
+    }
+    // Start watching before building the index, so changes made while
+    // we're building it aren't lost. If the change stream is ever lost,
+    // we can't know what we missed, so we rebuild the index from scratch.
+    // The index needs each updated todo's new body, so ask for whole documents.
+    textIndexUpdater = new ChangeStreamWatcher(
+      todoDocuments,
+      FullDocument.UPDATE_LOOKUP,
+      this::applyChange,
+      this::rebuildAfterGap);
+    textIndexUpdater.start();
+    return CompletableFuture.runAsync(this::rebuildTextIndex, INDEX_BUILDER);
+  }
+
+  /**
+   * Build a new text index from the todos in the database, and then swap it
+   * in for the old one (if any).
+   *
+   * `contains` queries go on using the old index until the new one is
+   * complete, rather than seeing a partly built one. Changes made while it's
+   * being built are applied to both.
+   */
+  void rebuildTextIndex() {
+    InvertedIndex index = new InvertedIndex();
+    synchronized (this) {
+      nextTextIndex = index;
+    }
+    boolean built = false;
+    try (MongoCursor<Document> todos = todoDocuments.find().projection(Projections.include(BODY_KEY)).iterator()) {
+      while (todos.hasNext()) {
+        Document todo = todos.next();
+        index.put(idOf(todo.get("_id")), todo.getString(BODY_KEY));
+      }
+      built = true;
+    } finally {
+      synchronized (this) {
+        // If another rebuild started while this one was running, leave it to that one.
+        if (nextTextIndex == index) {
+          if (built) {
+            textIndex = index;
+          }
+          nextTextIndex = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Rebuild the text index after the change stream was lost. If the
+   * database can't be reached (which is likely why the stream was lost),
+   * the old index is kept; the watcher tries again once the stream is back.
+   */
+  private void rebuildAfterGap() {
+    try {
+      rebuildTextIndex();
+    } catch (MongoException e) {
+      LOGGER.warn("Couldn't rebuild the todo text index; it may be out of date until the next try", e);
+    }
+  }
+
+  /**
+   * Update the text index, and the one being built to replace it (if any),
+   * to reflect a change to a todo.
+   *
+   * @param change the change to the todos collection
+   */
+  private synchronized void applyChange(ChangeStreamDocument<Document> change) {
+    if (textIndex != null) {
+      applyChange(textIndex, change);
+    }
+    if (nextTextIndex != null) {
+      applyChange(nextTextIndex, change);
+    }
+  }
+
+  /**
+   * Update a text index to reflect a change to a todo.
+   *
+   * @param index the index to update
+   * @param change the change to the todos collection
+   */
+  static void applyChange(InvertedIndex index, ChangeStreamDocument<Document> change) {
+    OperationType operation = change.getOperationType();
+    if (operation == OperationType.DELETE) {
+      index.remove(idOf(change.getDocumentKey().get("_id")));
+    } else if (change.getFullDocument() != null) {
+      // Inserts, replacements, and updates all come with the (new) full todo.
+      Document todo = change.getFullDocument();
+      index.put(idOf(todo.get("_id")), todo.getString(BODY_KEY));
+    }
+  }
+
+  /**
+   * Get the hex string for a todo's `_id`, whether it comes as an
+   * `ObjectId` (from a `Document`) or a BSON value (from a change stream's
+   * document key).
+   *
+   * @param id the `_id`
+   * @return its hex string
+   */
+  private static String idOf(Object id) {
+    if (id instanceof ObjectId objectId) {
+      return objectId.toHexString();
+    }
+    if (id instanceof BsonObjectId bsonObjectId) {
+      return bsonObjectId.getValue().toHexString();
+    }
+    return String.valueOf(id);
+  }
+
+  /**
+   * Set the JSON body of the response to be a list of all the todos returned from the database
+   * that match any requested filters and ordering
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodos(Context ctx) {
+    FindIterable<Todo> todos = ReadRouting.forRequest(ctx, todoCollection)
+      .find(constructFilter(ctx))
+      .sort(constructSortingOrder(ctx));
+    if (ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      todos = todos.limit(limit(ctx));
+    }
+
+    ArrayList<Todo> matchingTodos = todos.into(new ArrayList<>());
+
+    Representations.write(ctx, matchingTodos);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Construct a Bson filter document to use in the `find` method based on the
+   * query parameters from the context.
+   *
+   * The `owner`, `status`, and `category` query parameters are all exact
+   * matches, so they're equality conditions that MongoDB answers from
+   * our compound indexes.
+   *
+   * The `contains` query parameter matches todos whose body contains every
+   * word in it. If the text index is on (and the words aren't in too many
+   * todos), that becomes an `_id` condition (answered from the `_id` index);
+   * otherwise it's a regular expression match on `body` (which means
+   * reading every todo).
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   *    used to construct the filter
+   * @return a Bson filter document that can be used in the `find` method
+   *   to filter the database collection of todos
+   */
+  Bson constructFilter(Context ctx) {
+    List<Bson> filters = new ArrayList<>();
+
+    if (ctx.queryParamMap().containsKey(OWNER_KEY)) {
+      filters.add(eq(OWNER_KEY, ctx.queryParam(OWNER_KEY)));
+    }
+    if (ctx.queryParamMap().containsKey(STATUS_KEY)) {
+      filters.add(eq(STATUS_KEY, parseStatus(ctx.queryParam(STATUS_KEY))));
+    }
+    if (ctx.queryParamMap().containsKey(CATEGORY_KEY)) {
+      filters.add(eq(CATEGORY_KEY, ctx.queryParam(CATEGORY_KEY)));
+    }
+    if (ctx.queryParamMap().containsKey(CONTAINS_KEY)) {
+      filters.add(containsFilter(ctx.queryParam(CONTAINS_KEY)));
+    }
+
+    return filters.isEmpty() ? new Document() : and(filters);
+  }
+
+  /**
+   * Construct the filter for the `contains` query parameter.
+   *
+   * @param contains the words todos have to contain
+   * @return a Bson filter that matches todos containing all of those words
+   */
+  private Bson containsFilter(String contains) {
+    Set<String> words = InvertedIndex.tokenize(contains);
+    if (words.isEmpty()) {
+      // Every todo contains all of no words.
+      return new Document();
+    }
+    InvertedIndex index = textIndex;
+    if (index != null) {
+      // Ask for one more than we'll use, to find out if there are too many.
+      List<String> matches = index.search(contains, maxIndexedMatches + 1);
+      if (matches.size() <= maxIndexedMatches) {
+        List<ObjectId> ids = new ArrayList<>(matches.size());
+        for (String id : matches) {
+          // All our todos have `ObjectId`s, but that isn't something MongoDB enforces.
+          if (ObjectId.isValid(id)) {
+            ids.add(new ObjectId(id));
+          }
+        }
+        return in("_id", ids);
+      }
+    }
+    List<Bson> wordFilters = new ArrayList<>();
+    for (String word : words) {
+      // `\b` so we match whole words, like the text index does.
+      Pattern pattern = Pattern.compile("\\b" + Pattern.quote(word) + "\\b", Pattern.CASE_INSENSITIVE);
+      wordFilters.add(regex(BODY_KEY, pattern));
+    }
+    return and(wordFilters);
+  }
+
+  private static boolean parseStatus(String status) {
+    if (STATUS_COMPLETE.equals(status)) {
+      return true;
+    }
+    if (STATUS_INCOMPLETE.equals(status)) {
+      return false;
+    }
+    throw new BadRequestResponse("The requested todo status wasn't legal; it should be "
+      + STATUS_COMPLETE + " or " + STATUS_INCOMPLETE + "; you provided " + status);
+  }
+
+  /**
+   * Construct a Bson sorting document to use in the `sort` method based on the
+   * `sortby` and `sortorder` query parameters.
+   *
+   * Without a `sortby` we sort by `_id`, which keeps the order stable and
+   * means even an unfiltered query walks an index rather than the collection.
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   *   used to construct the sorting order
+   * @return a Bson sorting document that can be used in the `sort` method
+   */
+  Bson constructSortingOrder(Context ctx) {
+    String sortBy = ctx.queryParamMap().containsKey(SORT_BY_KEY) ? ctx.queryParam(SORT_BY_KEY) : "_id";
+    if (!SORT_FIELDS.contains(sortBy)) {
+      throw new BadRequestResponse("The requested sort field wasn't legal; it should be one of "
+        + String.join(", ", new TreeSet<>(SORT_FIELDS)) + "; you provided " + sortBy);
+    }
+    String sortOrder = ctx.queryParamMap().containsKey(SORT_ORDER_KEY) ? ctx.queryParam(SORT_ORDER_KEY) : "asc";
+    switch (sortOrder) {
+      case "asc":
+        return Sorts.ascending(sortBy);
+      case "desc":
+        return Sorts.descending(sortBy);
+      default:
+        throw new BadRequestResponse("The requested sort order wasn't legal; it should be asc or desc; you provided "
+          + sortOrder);
+    }
+  }
+
+  private int limit(Context ctx) {
+    return ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+      .check(it -> it > 0, "The limit must be greater than zero; you provided " + ctx.queryParam(LIMIT_KEY))
+      .check(it -> it <= MAX_LIMIT,
+        "The limit must be at most " + MAX_LIMIT + "; you provided " + ctx.queryParam(LIMIT_KEY))
+      .get();
+  }
+
+  /**
+   * Sets up routes for the `todo` collection endpoints.
+   *
+   * These endpoints are:
+   *   - `GET /api/todos?owner=STRING&status=STRING&category=STRING`
+   *      - List todos, filtered using query parameters
+   *      - `owner`, `status` (`complete` or `incomplete`), and `category`
+   *        are optional, exact-match filters
+   *      - `sortby` (`owner`, `status`, or `category`) and `sortorder`
+   *        (`asc` or `desc`) are optional
+   *      - `limit` is an optional maximum number of todos to return
+   *      - `contains` is an optional list of words that the todos' bodies
+   *        must all contain
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_TODOS, this::getTodos);
+  }
+}
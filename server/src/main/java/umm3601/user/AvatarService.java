@@ -0,0 +1,237 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.or;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+import umm3601.Main;
+import umm3601.cache.CacheStats;
+import umm3601.cache.ResultCache;
+import umm3601.metrics.MetricsSource;
+import umm3601.metrics.PrometheusWriter;
+
+/**
+ * Works out users' (Gravatar) avatar URLs, and fills in the avatars of
+ * users that don't have one.
+ *
+ * A Gravatar URL is built from the MD5 hash of the (trimmed, lowercased)
+ * email address. We hash a lot of emails when importing users, so the
+ * hashing is written to do as little work as possible:
+ *   - Each thread reuses its own `MessageDigest` rather than looking one up
+ *     (which is surprisingly slow) for every email.
+ *   - The hash is turned into hex with a lookup table, rather than with a
+ *     `String.format` (which parses its format string every time) per byte.
+ *   - Recently seen emails are remembered, so asking for the same avatar
+ *     again doesn't hash anything at all. How well that's working is in
+ *     `GET /api/metrics`.
+ *
+ * Filling in missing avatars (`backfill`) rewrites every user without one,
+ * so it isn't something the server does on request; run it with
+ * `./gradlew backfillAvatars`.
+ */
+public class AvatarService implements MetricsSource {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AvatarService.class);
+
+  private static final String GRAVATAR_URL = "https://gravatar.com/avatar/";
+  private static final String IDENTICON = "?d=identicon";
+
+  // The URL of the "mystery person" avatar, for users we can't hash an email for.
+  static final String MYSTERY_PERSON_AVATAR = GRAVATAR_URL + "?d=mp";
+
+  private static final String EMAIL_KEY = "email";
+  private static final String AVATAR_KEY = "avatar";
+
+  // Each byte of a hash becomes two of these.
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final int LOW_NIBBLE = 0x0F;
+  private static final int NIBBLE_BITS = 4;
+
+  // `MessageDigest`s aren't thread-safe, but they can be reset and reused,
+  // so each thread gets its own.
+  private static final ThreadLocal<MessageDigest> MD5_DIGESTS = new ThreadLocal<>();
+
+  // A user's avatar only depends on their email, so remembered avatars
+  // never go out of date.
+  private static final Duration NEVER_EXPIRES = Duration.ofNanos(Long.MAX_VALUE);
+
+  private final ResultCache<String, String> avatars;
+
+  /**
+   * Construct an avatar service.
+   *
+   * @param memoSize the number of recently seen emails to remember the avatars for
+   */
+  public AvatarService(int memoSize) {
+    this.avatars = new ResultCache<>(memoSize, NEVER_EXPIRES);
+  }
+
+  /**
+   * Compute the MD5 hash of a string, lowercased, as 32 hex digits.
+   *
+   * @param str the string to hash
+   * @return the hash, in (lowercase) hex
+   * @throws NoSuchAlgorithmException if this JVM can't do MD5 (which the
+   *   Java spec says can't happen, but the API insists we deal with)
+   */
+  static String md5Hex(String str) throws NoSuchAlgorithmException {
+    MessageDigest digest = MD5_DIGESTS.get();
+    if (digest == null) {
+      digest = MessageDigest.getInstance("MD5");
+      MD5_DIGESTS.set(digest);
+    }
+    // `digest()` resets the digest, ready for the next string.
+    byte[] hash = digest.digest(str.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    return toHex(hash);
+  }
+
+  /**
+   * Turn bytes into (lowercase) hex, two digits per byte.
+   *
+   * @param bytes the bytes
+   * @return the hex
+   */
+  static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[2 * i] = HEX_DIGITS[(bytes[i] >> NIBBLE_BITS) & LOW_NIBBLE];
+      hex[2 * i + 1] = HEX_DIGITS[bytes[i] & LOW_NIBBLE];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * Get the avatar URL for an email address.
+   *
+   * @param email the email address
+   * @return the Gravatar identicon URL for that email, or the "mystery
+   *   person" avatar if there's no email to hash
+   */
+  public String avatarFor(String email) {
+    if (email == null || email.isBlank()) {
+      return MYSTERY_PERSON_AVATAR;
+    }
+    // Gravatar hashes the trimmed, lowercased email, so `Pat@Example.com `
+    // and `pat@example.com` get the same avatar (and share a memo entry).
+    String normalized = email.trim().toLowerCase(Locale.ROOT);
+    return avatars.getOrLoad(normalized, () -> {
+      try {
+        return GRAVATAR_URL + md5Hex(normalized) + IDENTICON;
+      } catch (NoSuchAlgorithmException e) {
+        return MYSTERY_PERSON_AVATAR;
+      }
+    });
+  }
+
+  /**
+   * @return the counters for the memo of recently seen emails
+   */
+  public CacheStats memoStats() {
+    return avatars.stats();
+  }
+
+  @Override
+  public void writeMetrics(PrometheusWriter writer) {
+    CacheStats stats = memoStats();
+    writer
+      .metric("avatar_memo_hits_total", "counter", "Avatar lookups answered from the memo of recent emails.")
+      .sample("avatar_memo_hits_total", stats.hits())
+      .metric("avatar_memo_misses_total", "counter", "Avatar lookups that had to hash the email.")
+      .sample("avatar_memo_misses_total", stats.misses())
+      .metric("avatar_memo_evictions_total", "counter", "Emails forgotten to make room for newer ones.")
+      .sample("avatar_memo_evictions_total", stats.evictions())
+      .metric("avatar_memo_entries", "gauge", "Emails currently remembered.")
+      .sample("avatar_memo_entries", stats.size());
+  }
+
+  /**
+   * Fill in the `avatar` of every user in `users` that doesn't have one.
+   *
+   * Rather than updating users one at a time (one round trip to MongoDB
+   * each), we send the updates in batches of `batchSize` as unordered bulk
+   * writes, which MongoDB can apply in parallel. We only fetch the `_id`
+   * and `email` of the users that need avatars, and the cursor fetches them
+   * in batches of the same size.
+   *
+   * @param users the users collection, as plain BSON documents
+   * @param batchSize the number of updates to send to MongoDB at once
+   * @return the number of users whose avatars were filled in
+   */
+  public long backfill(MongoCollection<Document> users, int batchSize) {
+    Bson missingAvatar = or(eq(AVATAR_KEY, null), eq(AVATAR_KEY, ""));
+    List<WriteModel<Document>> batch = new ArrayList<>(batchSize);
+    long updated = 0;
+
+    try (MongoCursor<Document> cursor = users
+        .find(missingAvatar)
+        .projection(Projections.include(EMAIL_KEY))
+        .batchSize(batchSize)
+        .iterator()) {
+      while (cursor.hasNext()) {
+        Document user = cursor.next();
+        batch.add(new UpdateOneModel<>(
+          // Only update users that still don't have an avatar, in case
+          // someone has given them one since we found them.
+          and(eq("_id", user.get("_id")), missingAvatar),
+          Updates.set(AVATAR_KEY, avatarFor(user.getString(EMAIL_KEY)))));
+        if (batch.size() >= batchSize) {
+          updated += writeBatch(users, batch);
+        }
+      }
+    }
+    updated += writeBatch(users, batch);
+    return updated;
+  }
+
+  private static long writeBatch(MongoCollection<Document> users, List<WriteModel<Document>> batch) {
+    if (batch.isEmpty()) {
+      return 0;
+    }
+    long modified = users.bulkWrite(batch, new BulkWriteOptions().ordered(false)).getModifiedCount();
+    batch.clear();
+    return modified;
+  }
+
+  /**
+   * Fill in the avatars of all the users in the database that don't have
+   * one. Run it with `./gradlew backfillAvatars`; it connects to the same
+   * database as the server, with the same settings (see `Main.connectToDatabase`).
+   *
+   * The server's cached lists of users (if it caches them) only see the
+   * new avatars once they're invalidated by the users' change stream, or
+   * expire.
+   *
+   * @param args ignored
+   */
+  public static void main(String[] args) {
+    int batchSize = Integer.parseInt(Main.getEnvOrDefault("AVATAR_BACKFILL_BATCH_SIZE", "1000"));
+
+    try (MongoClient mongoClient = Main.connectToDatabase()) {
+      MongoCollection<Document> users = mongoClient.getDatabase(Main.getDatabaseName()).getCollection("users");
+      long updated = new AvatarService(UserController.AVATAR_MEMO_SIZE).backfill(users, batchSize);
+      LOGGER.info("Filled in the avatars of {} users", updated);
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package umm3601.user;
+
+import java.util.List;
+
+/**
+ * What happened when a batch of users was imported by `UserImporter`.
+ *
+ * @param lines the number of non-blank lines read
+ * @param inserted the number of users inserted
+ * @param failed the number of lines that weren't inserted
+ * @param errors why (some of) the failed lines weren't inserted, in line
+ *   order; at most `UserImporter.MAX_REPORTED_ERRORS` of them
+ * @param errorsTruncated `true` if there were more errors than are in `errors`
+ */
+public record ImportReport(long lines, long inserted, long failed, List<LineError> errors, boolean errorsTruncated) {
+
+  /**
+   * Why a line wasn't imported.
+   *
+   * @param line the (1-based) line number in the upload
+   * @param message what was wrong with it
+   */
+  public record LineError(long line, String message) {
+  }
+}
@@ -2,53 +2,459 @@ package umm3601.user;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
 import static com.mongodb.client.model.Filters.regex;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
 
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 
 import io.javalin.Javalin;
 
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
 
 import umm3601.Controller;
+import umm3601.ReadRouting;
+import umm3601.cache.ChangeStreamWatcher;
+import umm3601.cache.CollectionVersion;
+import umm3601.cache.ResultCache;
+import umm3601.cache.SingleFlight;
+import umm3601.http.CachedResponse;
+import umm3601.http.Compression;
+import umm3601.http.RawBsonJson;
+import umm3601.http.Representations;
+import umm3601.metrics.MetricsSource;
 
 /**
  * Controller that manages requests for info about users.
  */
 public class UserController implements Controller {
 
+  // The collection users are kept in.
+  static final String USERS = "users";
+
   private static final String API_USERS = "/api/users";
+  private static final String API_USER_CACHE = "/api/users/cache";
+  private static final String API_USER_BULK = "/api/users/bulk";
+  private static final String API_USER_STATS = "/api/users/stats";
   static final String AGE_KEY = "age";
   static final String COMPANY_KEY = "company";
+  static final String LIMIT_KEY = "limit";
+  static final String AFTER_KEY = "after";
+  static final String COMPANY_MATCH_KEY = "companyMatch";
+  static final String FIELDS_KEY = "fields";
+
+  // The user fields a client can ask for with the `fields` query parameter.
+  static final Set<String> USER_FIELDS = Set.of("_id", "name", "age", "company", "email", "avatar", "role");
+
+  // The ways a `company` query parameter can be matched against users' companies.
+  static final String MATCH_EXACT = "exact";
+  static final String MATCH_PREFIX = "prefix";
+  static final String MATCH_CONTAINS = "contains";
+
+  // A "secondary strength" collation compares strings ignoring case (but not
+  // accents), so "ohmnet" and "OHMNET" are equal. We use it both on our
+  // queries and on the `company` index, which is what lets MongoDB answer
+  // case-insensitive company queries from the index.
+  static final Collation CASE_INSENSITIVE = Collation.builder()
+    .locale("en")
+    .collationStrength(CollationStrength.SECONDARY)
+    .build();
+
+  // The indexes the users collection needs: a case-insensitive index on
+  // `company`, so company lookups don't have to scan the whole collection.
+  // These are public so tools (like `SeedLoader`) can create them without
+  // a controller.
+  public static final Map<String, List<IndexModel>> INDEXES = Map.of(USERS, List.of(
+    new IndexModel(Indexes.ascending(COMPANY_KEY), new IndexOptions().collation(CASE_INSENSITIVE))));
+
+  // The response header used to hand the client the cursor for the next page.
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  static final int REASONABLE_AGE_LIMIT = 150;
+
+  // Page sizes used when a client asks for a page (via `limit` and/or `after`).
+  static final int DEFAULT_PAGE_SIZE = 100;
+  static final int MAX_PAGE_SIZE = 1000;
+
+  // How many recently seen emails the avatar service remembers avatars for.
+  static final int AVATAR_MEMO_SIZE = 10_000;
+
+  // The biggest (serialized) `getUsers` response the result cache keeps, so
+  // a full cache holds at most `maxEntries` times this (plus the responses'
+  // compressed copies, which are smaller).
+  static final int MAX_CACHED_RESPONSE_BYTES = 256 * 1024;
 
-  private static final int REASONABLE_AGE_LIMIT = 150;
+  // How many users a bulk import sends to MongoDB per `insertMany`, unless
+  // changed with `useImportBatchSize`.
+  static final int DEFAULT_IMPORT_BATCH_SIZE = 1000;
+
+  // How old the user stats can get before they're recomputed, unless
+  // changed with `enableStatsRefresh`.
+  static final Duration DEFAULT_STATS_MAX_AGE = Duration.ofMinutes(1);
 
   private final JacksonMongoCollection<User> userCollection;
 
+  // The same collection, but as plain BSON documents, for things (like
+  // watching for changes) that don't need to turn documents into `User`s.
+  private final MongoCollection<Document> userDocuments;
+
+  private final AvatarService avatarService = new AvatarService(AVATAR_MEMO_SIZE);
+
+  // A cache of serialized `getUsers` responses, keyed on the query that
+  // produced them. This is `null` unless turned on with `enableResultCache`.
+  private ResultCache<String, CachedResponse> resultCache = null;
+
+  // Throws away everything in `resultCache` whenever the users change.
+  private ChangeStreamWatcher cacheInvalidator = null;
+
+  // Changes whenever the users do, so conditional `getUsers` requests can
+  // be answered without a query. This is `null` unless turned on with
+  // `enableVersionTags`.
+  private CollectionVersion usersVersion = null;
+
+  // Lets concurrent identical `getUsers` requests share one query (and one
+  // serialized response). This is `null` unless turned on with
+  // `useRequestCoalescing`.
+  private SingleFlight<String, CachedResponse> inFlightQueries = null;
+
+  // Whether `getUsers` writes each user to the response as the database
+  // cursor produces it (`true`), or collects all the matching users into
+  // a list before serializing them (`false`, the default).
+  private boolean streamResults = false;
+
+  // Whether `getUsers` writes JSON straight from the documents' BSON
+  // (`true`), rather than going through `User`s (`false`, the default).
+  private boolean rawBsonResults = false;
+  private final RawBsonJson rawBsonJson = new RawBsonJson();
+
+  // Where `getUsers` requests are run when they're handled asynchronously
+  // (see `useAsyncExecutor`). This is `null` (the default) if they're run
+  // on the server's request thread.
+  private Executor asyncExecutor = null;
+
+  // How cached `getUsers` responses are compressed, or `null` if they aren't.
+  private Compression compression = null;
+
+  // How many users a bulk import sends to MongoDB per `insertMany`.
+  private int importBatchSize = DEFAULT_IMPORT_BATCH_SIZE;
+
+  // The materialized user counts served by `GET /api/users/stats`.
+  private UserStatsService userStats;
+
+  // The last user counts served, and their serialized forms (in each
+  // format that's been asked for), so we only serialize each version of
+  // the counts once.
+  private UserStats servedStats = null;
+  private final Map<Representations.Format, CachedResponse> servedStatsResponses =
+    new EnumMap<>(Representations.Format.class);
+
   /**
    * Construct a controller for users.
    *
    * @param database the database containing user data
    */
   public UserController(MongoDatabase database) {
-    userCollection = JacksonMongoCollection.builder().build(
+    this(
+      JacksonMongoCollection.builder().build(
         database,
-        "users",
+        USERS,
         User.class,
-        UuidRepresentation.STANDARD);
+        UuidRepresentation.STANDARD),
+      database.getCollection(USERS));
+  }
+
+  /**
+   * Construct a controller for users from the collections it uses.
+   *
+   * This is package-private so that tests and benchmarks can hand the
+   * controller stand-in collections instead of ones backed by a real database.
+   *
+   * @param userCollection the users collection, as `User`s
+   * @param userDocuments the same collection, as plain BSON documents
+   */
+  UserController(JacksonMongoCollection<User> userCollection, MongoCollection<Document> userDocuments) {
+    this.userCollection = userCollection;
+    this.userDocuments = userDocuments;
+    this.userStats = new UserStatsService(userDocuments, DEFAULT_STATS_MAX_AGE);
+  }
+
+  /**
+   * @return the indexes the users collection needs (see `INDEXES`)
+   */
+  @Override
+  public Map<String, List<IndexModel>> indexes() {
+    return INDEXES;
+  }
+
+  /**
+   * Lists of users can be a little out of date (they're cached for a while
+   * anyway), so they can be read from secondaries.
+   *
+   * @return the kind of reads each route does
+   */
+  @Override
+  public Map<String, ReadRouting.Reads> readRoutes() {
+    return Map.of(API_USERS, ReadRouting.Reads.LIST);
+  }
+
+  /**
+   * Lists of users only change when the users do, once version tags are
+   * turned on with `enableVersionTags`.
+   *
+   * @return the version each route's responses depend on
+   */
+  @Override
+  public Map<String, CollectionVersion> versionedRoutes() {
+    return usersVersion == null ? Map.of() : Map.of(API_USERS, usersVersion);
+  }
+
+  /**
+   * Bulk imports are slow by design, and so are unpaged lists of users once
+   * streaming is turned on (see `useStreaming`), since they're exports of
+   * however many users match, sent as fast as the client takes them.
+   *
+   * @param ctx the request
+   * @return `true` if `ctx` is one of those
+   */
+  @Override
+  public boolean isLongRunning(Context ctx) {
+    if (ctx.method() == HandlerType.POST) {
+      return API_USER_BULK.equals(ctx.path());
+    }
+    return streamResults && isUnpagedList(ctx);
+  }
+
+  /**
+   * @param ctx the request
+   * @return `true` if `ctx` asks for all the matching users, rather than a page of them
+   */
+  @Override
+  public boolean isUnpagedList(Context ctx) {
+    return ctx.method() == HandlerType.GET && API_USERS.equals(ctx.path()) && !isPageRequest(ctx);
+  }
+
+  /**
+   * Turn streaming of `getUsers` results on or off.
+   *
+   * When streaming is on, each matching user is serialized and written to the
+   * response as soon as the database cursor hands it to us, using chunked
+   * transfer encoding. That means we never hold the whole result set in
+   * memory (once as `User` objects and again as one big JSON string), so
+   * heap use stays flat no matter how many users match, and the client
+   * starts receiving data sooner.
+   *
+   * @param enabled `true` to stream results, `false` to collect them into a list first
+   */
+  public void useStreaming(boolean enabled) {
+    this.streamResults = enabled;
+  }
+
+  /**
+   * Turn the raw BSON fast path for `getUsers` on or off.
+   *
+   * Normally each matching document is decoded into a `User` (by MongoJack)
+   * only to be encoded again as JSON (by Jackson). With this on, `getUsers`
+   * asks MongoDB for `RawBsonDocument`s, which are just the bytes off the
+   * wire, and transcodes those bytes directly to JSON (see `RawBsonJson`),
+   * which skips both mapping passes and allocates next to nothing per user.
+   *
+   * The JSON holds the same users, with `_id`s as hex strings as usual, but
+   * with each user's fields as they're stored in MongoDB: in stored order,
+   * and without `null`s for fields a user doesn't have. Clients that ask for
+   * a binary format (see `Representations`) still go through `User`s.
+   *
+   * @param enabled `true` to transcode results from BSON
+   */
+  public void useRawBson(boolean enabled) {
+    this.rawBsonResults = enabled;
+  }
+
+  /**
+   * Run `getUsers` requests on `executor` instead of on the server's request thread.
+   *
+   * The MongoDB driver we use is synchronous, so a request thread that runs a
+   * query sits blocked until MongoDB answers. With an executor of virtual
+   * threads (`Executors.newVirtualThreadPerTaskExecutor()`) the request
+   * thread is handed back to the server straight away, and each waiting query
+   * only ties up a cheap virtual thread rather than an OS thread. That lets
+   * thousands of slow queries be in flight at once without thousands of OS
+   * threads.
+   *
+   * This isn't needed if the server itself is already running requests on
+   * virtual threads (see `Server.useVirtualThreads`).
+   *
+   * @param executor the executor to run requests on, or `null` to run them
+   *   on the request thread
+   */
+  public void useAsyncExecutor(Executor executor) {
+    this.asyncExecutor = executor;
+  }
+
+  /**
+   * Compress cached `getUsers` responses using `compression`.
+   *
+   * Each cached response keeps its compressed versions, so a popular
+   * response is compressed once rather than on every request.
+   *
+   * @param compression the compression settings, or `null` to not compress
+   *   cached responses
+   */
+  public void useCompression(Compression compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Set how many users a bulk import (`POST /api/users/bulk`) sends to
+   * MongoDB per `insertMany`.
+   *
+   * Bigger batches mean fewer round trips to MongoDB, but more memory per
+   * import in progress (two batches' worth).
+   *
+   * @param batchSize the number of users per batch
+   */
+  public void useImportBatchSize(int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("An import batch must hold at least one user");
+    }
+    this.importBatchSize = batchSize;
+  }
+
+  /**
+   * Recompute the user stats (`GET /api/users/stats`) in the background,
+   * every `interval` and shortly after the users change, so requests for
+   * them never have to wait on MongoDB.
+   *
+   * Without this the stats are only recomputed when they're requested and
+   * are more than `DEFAULT_STATS_MAX_AGE` old.
+   *
+   * @param interval how often to recompute the stats
+   */
+  public void enableStatsRefresh(Duration interval) {
+    UserStatsService refreshed = new UserStatsService(userDocuments, interval);
+    refreshed.start();
+    userStats.close();
+    userStats = refreshed;
+  }
+
+  /**
+   * Turn on the (in-process) cache of `getUsers` results.
+   *
+   * Most of our traffic is the same handful of queries over and over, so
+   * keeping the serialized responses to recent queries around saves both
+   * the trip to the database and the work of turning the results into JSON.
+   *
+   * Cached responses are thrown away when
+   *   - the cache is full and they're the least recently used,
+   *   - they're older than `ttl`, or
+   *   - the users collection changes. This relies on MongoDB change streams,
+   *     which need MongoDB to be running as a replica set; on a standalone
+   *     server the `ttl` is the only thing limiting how stale results can be.
+   *
+   * Responses bigger than `MAX_CACHED_RESPONSE_BYTES` (once serialized)
+   * aren't cached, so the cache never holds more than `maxEntries` of
+   * those, whether they're pages or all the matching users. Requests for
+   * all the matching users aren't cached at all once streaming is turned
+   * on (see `useStreaming`), since they're streamed rather than built in
+   * memory.
+   *
+   * @param maxEntries the maximum number of responses to cache
+   * @param ttl how long a cached response can be used for
+   */
+  public void enableResultCache(int maxEntries, Duration ttl) {
+    if (cacheInvalidator != null) {
+      cacheInvalidator.close();
+    }
+    ResultCache<String, CachedResponse> cache = new ResultCache<>(maxEntries, ttl);
+    cacheInvalidator = new ChangeStreamWatcher(userDocuments, change -> cache.invalidateAll(), cache::invalidateAll);
+    cacheInvalidator.start();
+    resultCache = cache;
+  }
+
+  /**
+   * Keep track of the users collection's version (see `CollectionVersion`),
+   * so the server can answer conditional `GET /api/users` requests from
+   * clients that already have the current list with a `304 Not Modified`,
+   * without running the query (see `versionedRoutes`).
+   *
+   * This relies on MongoDB change streams, which need MongoDB to be running
+   * as a replica set; on a standalone server the version is never known, so
+   * requests are answered as usual.
+   */
+  public void enableVersionTags() {
+    if (usersVersion != null) {
+      usersVersion.close();
+    }
+    usersVersion = new CollectionVersion(userDocuments);
+    usersVersion.start();
+  }
+
+  /**
+   * Turn coalescing of identical concurrent `getUsers` requests on or off.
+   *
+   * When lots of clients send exactly the same query at once (say, when a
+   * popular page loads), only the first of them runs it; the rest wait for
+   * it to finish and get the same serialized response (see `SingleFlight`).
+   * Requests are the same if they have the same filter from
+   * `constructFilter`, page size, and fields (the same key as the result
+   * cache uses), however their query parameters happen to be written.
+   *
+   * This works the same whether or not the requests are for a page, so a
+   * crowd of unpaged `GET /api/users?company=OHMNET` requests shares one
+   * query too. The shared response is built in memory, but it's only kept
+   * while the query runs (see `SingleFlight`); whether it's kept after that
+   * is up to the result cache. The exception is requests for all the
+   * matching users once streaming is turned on (see `useStreaming`), which
+   * are streamed to each client rather than built in memory.
+   *
+   * @param enabled `true` to coalesce identical concurrent requests
+   */
+  public void useRequestCoalescing(boolean enabled) {
+    this.inFlightQueries = enabled ? new SingleFlight<>() : null;
   }
 
   /**
@@ -59,38 +465,449 @@ public class UserController implements Controller {
    */
   public void getUsers(Context ctx) {
     Bson combinedFilter = constructFilter(ctx);
+    // A page size of zero means the client wants all the matching users.
+    int pageSize = isPageRequest(ctx) ? pageSize(ctx) : 0;
+    // An empty list of fields means the client wants all the fields.
+    List<String> fields = requestedFields(ctx);
+
+    // Identical requests share one query (while it runs) or a cached
+    // response, whatever the paging, unless they're to be streamed.
+    boolean streamed = pageSize == 0 && streamResults;
+    ResultCache<String, CachedResponse> cache = streamed ? null : resultCache;
+    SingleFlight<String, CachedResponse> flights = streamed ? null : inFlightQueries;
+    if (cache != null || flights != null) {
+      // The serialized response is only good for clients that want the
+      // same format.
+      String key = cacheKey(combinedFilter, pageSize, fields) + "|format=" + Representations.formatFor(ctx);
+      Supplier<CachedResponse> query = () -> bufferUsers(ctx, combinedFilter, pageSize, fields);
+      Supplier<CachedResponse> load = flights == null ? query : () -> flights.load(key, query);
+      CachedResponse response = cache == null
+        ? load.get()
+        : cache.getOrLoad(key, load, cached -> cached.length() <= MAX_CACHED_RESPONSE_BYTES);
+      response.writeTo(ctx, compression);
+      return;
+    }
+
+    if (usesRawBson(ctx)) {
+      writeRawUsers(ctx, combinedFilter, pageSize, fields);
+      return;
+    }
+
+    if (pageSize > 0) {
+      getUserPage(ctx, combinedFilter, pageSize, fields);
+      return;
+    }
+
+    if (streamResults) {
+      streamUsers(ctx, combinedFilter, fields);
+      return;
+    }
 
     // All three of the find, sort, and into steps happen "in parallel" inside the
     // database system. So MongoDB is going to find the users with the specified
     // properties, return those sorted in the specified manner, and put the
     // results into an initially empty ArrayList.
-    ArrayList<User> matchingUsers = userCollection
-      .find(combinedFilter)
-      .into(new ArrayList<>());
+    ArrayList<Object> matchingUsers = new ArrayList<>();
+    findMatching(ctx, combinedFilter, 0, fields).into(matchingUsers);
 
     // Set the JSON body of the response to be the list of users returned by the database.
     // According to the Javalin documentation (https://javalin.io/documentation#context),
     // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingUsers);
+    Representations.write(ctx, matchingUsers);
 
     // Explicitly set the context status to OK
     ctx.status(HttpStatus.OK);
   }
 
+  /**
+   * Handle a `getUsers` request on the `asyncExecutor`.
+   *
+   * `ctx.future` tells Javalin the response will be finished later, when
+   * the future completes, so the request thread is free in the meantime.
+   * Anything `getUsers` throws (e.g., a `BadRequestResponse`) completes the
+   * future exceptionally, and Javalin handles it just as if it had been
+   * thrown on the request thread.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  private void getUsersAsync(Context ctx) {
+    ctx.future(() -> CompletableFuture.runAsync(() -> getUsers(ctx), asyncExecutor));
+  }
+
+  /**
+   * Set the JSON body of the response to be a single page of the users
+   * that match `filter`.
+   *
+   * Pages are ordered by `_id`, and `constructFilter` turns the `after`
+   * cursor into an `_id > …` condition, so each page is a bounded range scan
+   * of the `_id` index that picks up right where the previous page stopped.
+   * That makes page 1000 no more expensive than page 1, unlike `skip`,
+   * which has to walk past every document it skips.
+   *
+   * If the page is full there may be more users, so we send the cursor for
+   * the next page back in the `X-Next-Cursor` header. The body is still just
+   * a list of users, so clients that don't care about paging are unaffected.
+   *
+   * Pages are bounded by `MAX_PAGE_SIZE`, so we don't bother streaming them.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param filter the filter used to select the users to return
+   * @param pageSize the maximum number of users to return
+   * @param fields the user fields to return, or an empty list for all of them
+   */
+  private void getUserPage(Context ctx, Bson filter, int pageSize, List<String> fields) {
+    ArrayList<Object> page = new ArrayList<>();
+    findMatching(ctx, filter, pageSize, fields).into(page);
+
+    String nextCursor = nextCursor(page, pageSize);
+    if (nextCursor != null) {
+      ctx.header(NEXT_CURSOR_HEADER, nextCursor);
+    }
+
+    Representations.write(ctx, page);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Find the users that match `filter`.
+   *
+   * If the client asked for specific `fields`, we have MongoDB send back just
+   * those fields (a "projection"), and hand the resulting BSON documents
+   * straight to the JSON serializer rather than turning each of them into a
+   * (mostly empty) `User`. That saves both decoding and encoding work, and
+   * makes the response smaller.
+   *
+   * @param ctx the request the users are for, which decides where they're read from
+   * @param filter the filter used to select the users to return
+   * @param pageSize the maximum number of users to return, in `_id` order,
+   *   or zero for all of them (in whatever order MongoDB finds them)
+   * @param fields the user fields to return, or an empty list for all of them
+   * @return the (not yet executed) query; its results are `User`s if all
+   *   fields were requested, and `Document`s otherwise
+   */
+  private MongoIterable<?> findMatching(Context ctx, Bson filter, int pageSize, List<String> fields) {
+    if (fields.isEmpty()) {
+      return findUsers(ctx, filter, pageSize);
+    }
+
+    return find(ctx, userDocuments, filter, pageSize)
+      .projection(Projections.include(fields))
+      .map(UserController::withHexId);
+  }
+
+  /**
+   * Find the users that match `filter`, as raw BSON (see `useRawBson`),
+   * with the same projection and paging as `findMatching`.
+   *
+   * @param ctx the request the users are for, which decides where they're read from
+   * @param filter the filter used to select the users to return
+   * @param pageSize the maximum number of users to return, in `_id` order,
+   *   or zero for all of them
+   * @param fields the user fields to return, or an empty list for all of them
+   * @return the (not yet executed) query
+   */
+  private FindIterable<RawBsonDocument> findRaw(Context ctx, Bson filter, int pageSize, List<String> fields) {
+    FindIterable<RawBsonDocument> documents =
+      find(ctx, userDocuments.withDocumentClass(RawBsonDocument.class), filter, pageSize);
+    if (!fields.isEmpty()) {
+      documents = documents.projection(Projections.include(fields));
+    }
+    return documents;
+  }
+
+  /**
+   * @param ctx a Javalin HTTP context
+   * @return whether the response to `ctx` should be transcoded from raw BSON
+   */
+  private boolean usesRawBson(Context ctx) {
+    return rawBsonResults && Representations.formatFor(ctx) == Representations.Format.JSON;
+  }
+
+  /**
+   * Write the users matching `filter` as JSON transcoded straight from
+   * their BSON (see `useRawBson`).
+   *
+   * As on the usual path, a full page gets the next page's cursor in the
+   * `X-Next-Cursor` header, and (when streaming is on) unpaged results are
+   * written as the database cursor produces them.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param filter the filter used to select the users to return
+   * @param pageSize the maximum number of users to return, or zero for all of them
+   * @param fields the user fields to return, or an empty list for all of them
+   */
+  private void writeRawUsers(Context ctx, Bson filter, int pageSize, List<String> fields) {
+    if (pageSize == 0 && streamResults) {
+      try (MongoCursor<RawBsonDocument> cursor = findRaw(ctx, filter, 0, fields).iterator()) {
+        ctx.status(HttpStatus.OK);
+        if (Representations.of(ctx) != null) {
+          ctx.header(Header.VARY, Header.ACCEPT);
+        }
+        ctx.contentType(ContentType.JSON);
+        rawBsonJson.writeArray(cursor, ctx.outputStream());
+      }
+      return;
+    }
+
+    ArrayList<RawBsonDocument> users = findRaw(ctx, filter, pageSize, fields).into(new ArrayList<>());
+    if (pageSize > 0) {
+      String nextCursor = nextCursor(users, pageSize);
+      if (nextCursor != null) {
+        ctx.header(NEXT_CURSOR_HEADER, nextCursor);
+      }
+    }
+    Representations.writeJson(ctx, rawBsonJson.toJsonBytes(users.iterator()));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Replace a document's ObjectId `_id` with its hex string, which is how
+   * `_id`s appear in the JSON for a full `User`.
+   *
+   * @param document a (projected) user document from the database
+   * @return the same document, with its `_id` (if any) as a hex string
+   */
+  private static Document withHexId(Document document) {
+    Object id = document.get("_id");
+    if (id instanceof ObjectId objectId) {
+      document.put("_id", objectId.toHexString());
+    }
+    return document;
+  }
+
+  /**
+   * Get the cursor for the page after `page`.
+   *
+   * @param page a page of users, as returned by `findMatching` or `findRaw`
+   * @param pageSize the page size that was asked for
+   * @return the cursor for the next page, or `null` if the page wasn't full
+   *   (so there can't be a next page)
+   */
+  private String nextCursor(List<?> page, int pageSize) {
+    if (page.size() < pageSize) {
+      return null;
+    }
+    Object last = page.get(page.size() - 1);
+    String id;
+    if (last instanceof User user) {
+      id = user._id;
+    } else if (last instanceof RawBsonDocument raw) {
+      id = raw.getObjectId("_id").getValue().toHexString();
+    } else {
+      id = ((Document) last).getString("_id");
+    }
+    return encodeCursor(id);
+  }
+
+  /**
+   * Run a `getUsers` query and serialize the results (and any paging
+   * header) into a response we can cache.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param filter the filter used to select the users to return
+   * @param pageSize the maximum number of users to return, or zero for all of them
+   * @param fields the user fields to return, or an empty list for all of them
+   * @return the serialized response
+   */
+  private CachedResponse bufferUsers(Context ctx, Bson filter, int pageSize, List<String> fields) {
+    Map<String, String> headers = new HashMap<>();
+    if (usesRawBson(ctx)) {
+      ArrayList<RawBsonDocument> users = findRaw(ctx, filter, pageSize, fields).into(new ArrayList<>());
+      if (pageSize > 0) {
+        String nextCursor = nextCursor(users, pageSize);
+        if (nextCursor != null) {
+          headers.put(NEXT_CURSOR_HEADER, nextCursor);
+        }
+      }
+      return CachedResponse.ofJson(ctx, rawBsonJson.toJsonBytes(users.iterator()), headers);
+    }
+    ArrayList<Object> users = new ArrayList<>();
+    findMatching(ctx, filter, pageSize, fields).into(users);
+    if (pageSize > 0) {
+      String nextCursor = nextCursor(users, pageSize);
+      if (nextCursor != null) {
+        headers.put(NEXT_CURSOR_HEADER, nextCursor);
+      }
+    }
+    return CachedResponse.of(ctx, users, headers);
+  }
+
+  /**
+   * Build the result cache key for a `getUsers` query.
+   *
+   * The filter from `constructFilter` already captures everything about
+   * which users match (including the `after` paging cursor), in a normal
+   * form, so the key is just its JSON plus the page size and the (sorted)
+   * list of requested fields.
+   *
+   * @param filter the filter from `constructFilter`
+   * @param pageSize the page size, or zero if there's no limit
+   * @param fields the fields from `requestedFields`
+   * @return the cache key
+   */
+  static String cacheKey(Bson filter, int pageSize, List<String> fields) {
+    return filter.toBsonDocument().toJson() + "|limit=" + pageSize + "|fields=" + String.join(",", fields);
+  }
+
+  /**
+   * Set the JSON body of the response to be the result cache's counters
+   * (hits, misses, evictions, etc.) so we can tell if it's sized sensibly.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getCacheStats(Context ctx) {
+    if (resultCache == null) {
+      throw new NotFoundResponse("The user result cache isn't enabled");
+    }
+    Representations.write(ctx, resultCache.stats());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the JSON body of the response to counts of users by company, role,
+   * and age range (see `UserStats`).
+   *
+   * The counts are materialized by a `UserStatsService`, so this doesn't
+   * query MongoDB (unless the counts need recomputing), and clients that
+   * already have the current counts get a `304 Not Modified`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUserStats(Context ctx) {
+    statsResponse(ctx, userStats.current()).writeTo(ctx, compression);
+  }
+
+  /**
+   * Get the serialized form of `stats` in the format the client wants,
+   * serializing them if we haven't already.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param stats the current user counts
+   * @return the serialized user counts
+   */
+  private synchronized CachedResponse statsResponse(Context ctx, UserStats stats) {
+    if (stats != servedStats) {
+      servedStatsResponses.clear();
+      servedStats = stats;
+    }
+    return servedStatsResponses.computeIfAbsent(
+      Representations.formatFor(ctx), format -> CachedResponse.of(ctx, stats, Map.of()));
+  }
+
+  /**
+   * @return the metrics for the avatars worked out for imported users, to
+   *   include in `GET /api/metrics`
+   */
+  public MetricsSource avatarMetrics() {
+    return avatarService;
+  }
+
+  /**
+   * Import the users in the request body, which is newline-delimited JSON
+   * (one user per line), and set the JSON body of the response to a report
+   * of what was imported and what wasn't (and why).
+   *
+   * The body is read as it arrives rather than all at once, so uploads of
+   * any size can be imported (see `UserImporter`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws IOException if the request body can't be read
+   */
+  public void importUsers(Context ctx) throws IOException {
+    UserImporter importer = new UserImporter(userDocuments, avatarService, importBatchSize);
+    ImportReport report = importer.importNdjson(ctx.bodyInputStream());
+    if (report.inserted() > 0 && resultCache != null) {
+      resultCache.invalidateAll();
+    }
+    Representations.write(ctx, report);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Write the users matching `filter` to the response as a JSON array,
+   * one user at a time as the database cursor produces them.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param filter the filter used to select the users to return
+   * @param fields the user fields to return, or an empty list for all of them
+   */
+  private void streamUsers(Context ctx, Bson filter, List<String> fields) {
+    // The try-with-resources makes sure the cursor (and the server-side
+    // resources that go with it) are released even if the client goes
+    // away part way through the response.
+    try (MongoCursor<?> cursor = findMatching(ctx, filter, 0, fields).iterator()) {
+      Stream<?> users = StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED),
+        false);
+
+      // The status has to be set before we start writing the body, since
+      // the headers go out with the first chunk.
+      ctx.status(HttpStatus.OK);
+      // This walks the stream with a Jackson generator (like
+      // `ctx.writeJsonStream`), writing each element straight to the
+      // response's output stream.
+      Representations.writeStream(ctx, users);
+    }
+  }
+
+  /**
+   * Find the users that match `filter`, as `User`s.
+   *
+   * @param ctx the request the users are for, which decides where they're read from
+   * @param filter the filter used to select users
+   * @param pageSize the maximum number of users to return, in `_id` order,
+   *   or zero for all of them
+   * @return the (not yet executed) query for those users
+   */
+  FindIterable<User> findUsers(Context ctx, Bson filter, int pageSize) {
+    return find(ctx, userCollection, filter, pageSize);
+  }
+
+  /**
+   * Start the query for the users in `collection` that match `filter`.
+   *
+   * Queries on `company` need to use the same case-insensitive collation as
+   * the `company` index, otherwise MongoDB won't use that index for them.
+   * Other queries mustn't use it, though: the `_id` index uses the simple
+   * collation, so a collated query can't use it for the `_id` order of a
+   * page, and would sort every matching user in memory for each page
+   * instead.
+   *
+   * @param ctx the request the users are for, which decides where they're
+   *   read from and whether they're filtered by company
+   * @param collection the users collection, in the form the users should be returned in
+   * @param filter the filter used to select users
+   * @param pageSize the maximum number of users to return, in `_id` order,
+   *   or zero for all of them
+   * @return the (not yet executed) query for those users
+   */
+  private static <T> FindIterable<T> find(Context ctx, MongoCollection<T> collection, Bson filter, int pageSize) {
+    FindIterable<T> users = ReadRouting.forRequest(ctx, collection).find(filter);
+    if (ctx.queryParamMap().containsKey(COMPANY_KEY)) {
+      users = users.collation(CASE_INSENSITIVE);
+    }
+    if (pageSize > 0) {
+      users = users.sort(Sorts.ascending("_id")).limit(pageSize);
+    }
+    return users;
+  }
+
   /**
    * Construct a Bson filter document to use in the `find` method based on the
    * query parameters from the context.
    *
    * This checks for the presence of the `age`, `company`, and `role` query
    * parameters and constructs a filter document that will match users with
-   * the specified values for those fields.
+   * the specified values for those fields. If there's an `after` paging
+   * cursor it also restricts the results to users whose `_id` comes after
+   * the one encoded in the cursor.
    *
    * @param ctx a Javalin HTTP context, which contains the query parameters
    *    used to construct the filter
    * @return a Bson filter document that can be used in the `find` method
    *   to filter the database collection of users
    */
-  private Bson constructFilter(Context ctx) {
+  Bson constructFilter(Context ctx) {
     List<Bson> filters = new ArrayList<>(); // start with an empty list of filters
 
     if (ctx.queryParamMap().containsKey(AGE_KEY)) {
@@ -102,8 +919,10 @@ public class UserController implements Controller {
       filters.add(eq(AGE_KEY, targetAge));
     }
     if (ctx.queryParamMap().containsKey(COMPANY_KEY)) {
-      Pattern pattern = Pattern.compile(Pattern.quote(ctx.queryParam(COMPANY_KEY)), Pattern.CASE_INSENSITIVE);
-      filters.add(regex(COMPANY_KEY, pattern));
+      filters.add(companyFilter(ctx.queryParam(COMPANY_KEY), ctx.queryParam(COMPANY_MATCH_KEY)));
+    }
+    if (ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      filters.add(gt("_id", decodeCursor(ctx.queryParam(AFTER_KEY))));
     }
     // Combine the list of filters into a single filtering document.
     Bson combinedFilter = filters.isEmpty() ? new Document() : and(filters);
@@ -111,6 +930,125 @@ public class UserController implements Controller {
     return combinedFilter;
   }
 
+  /**
+   * Construct the filter for the `company` query parameter.
+   *
+   * By default we match companies that _start with_ the requested text, ignoring
+   * case. Both that and `exact` matching are expressed as equality or range
+   * conditions, which MongoDB can answer from the case-insensitive `company`
+   * index. `contains` matching needs an unanchored regular expression, which
+   * can't use the index and so scans every user; it's only used when a client
+   * explicitly asks for it with `companyMatch=contains`.
+   *
+   * @param company the requested company (or part of one)
+   * @param matchMode how to match it: `exact`, `prefix`, or `contains`;
+   *   `null` means `prefix`
+   * @return a Bson filter that matches users at that company
+   */
+  private Bson companyFilter(String company, String matchMode) {
+    String mode = matchMode == null ? MATCH_PREFIX : matchMode;
+    switch (mode) {
+      case MATCH_EXACT:
+        return eq(COMPANY_KEY, company);
+      case MATCH_PREFIX:
+        // Every string that starts with `company` sorts at or after `company`
+        // and before `company` followed by the largest possible character.
+        return and(gte(COMPANY_KEY, company), lt(COMPANY_KEY, company + Character.MAX_VALUE));
+      case MATCH_CONTAINS:
+        Pattern pattern = Pattern.compile(Pattern.quote(company), Pattern.CASE_INSENSITIVE);
+        return regex(COMPANY_KEY, pattern);
+      default:
+        throw new BadRequestResponse("The requested company match mode wasn't legal; it should be one of "
+          + MATCH_EXACT + ", " + MATCH_PREFIX + ", or " + MATCH_CONTAINS + "; you provided " + matchMode);
+    }
+  }
+
+  /**
+   * Get the list of user fields requested with the `fields` query parameter
+   * (e.g., `fields=name,company`).
+   *
+   * The list is sorted and has duplicates removed, so requests for the same
+   * set of fields produce the same list (and share a result cache entry).
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the requested fields, or an empty list if the client wants all of them
+   * @throws BadRequestResponse if the client asked for a field users don't have
+   */
+  private List<String> requestedFields(Context ctx) {
+    String requested = ctx.queryParam(FIELDS_KEY);
+    if (requested == null || requested.isBlank()) {
+      return List.of();
+    }
+    TreeSet<String> fields = new TreeSet<>();
+    for (String field : requested.split(",")) {
+      String trimmed = field.trim();
+      if (!USER_FIELDS.contains(trimmed)) {
+        throw new BadRequestResponse("The requested field wasn't a user field; it should be one of "
+          + new TreeSet<>(USER_FIELDS) + "; you provided " + trimmed);
+      }
+      fields.add(trimmed);
+    }
+    return List.copyOf(fields);
+  }
+
+  /**
+   * Does this request ask for a single page of results rather than
+   * every matching user?
+   *
+   * @param ctx a Javalin HTTP context
+   * @return `true` if either the `limit` or `after` query parameter is present
+   */
+  private boolean isPageRequest(Context ctx) {
+    return ctx.queryParamMap().containsKey(LIMIT_KEY) || ctx.queryParamMap().containsKey(AFTER_KEY);
+  }
+
+  /**
+   * Get the requested page size from the `limit` query parameter, or the
+   * default page size if there isn't one.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the number of users to put in the page
+   */
+  private int pageSize(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      return DEFAULT_PAGE_SIZE;
+    }
+    return ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+      .check(it -> it > 0, "The limit must be greater than zero; you provided " + ctx.queryParam(LIMIT_KEY))
+      .check(it -> it <= MAX_PAGE_SIZE,
+        "The limit must be at most " + MAX_PAGE_SIZE + "; you provided " + ctx.queryParam(LIMIT_KEY))
+      .get();
+  }
+
+  /**
+   * Turn a user's `_id` into the (opaque) cursor we hand back to clients.
+   *
+   * The cursor is just the 12 bytes of the ObjectId, base64url encoded. Clients
+   * shouldn't depend on that, though; they should just pass it back unchanged
+   * as the `after` query parameter.
+   *
+   * @param id the hex string `_id` of the last user in a page
+   * @return the cursor for the page that follows that user
+   */
+  static String encodeCursor(String id) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(new ObjectId(id).toByteArray());
+  }
+
+  /**
+   * Turn a cursor from `encodeCursor` back into the ObjectId it came from.
+   *
+   * @param cursor the cursor provided by the client
+   * @return the ObjectId encoded in the cursor
+   * @throws BadRequestResponse if the cursor isn't one we could have produced
+   */
+  static ObjectId decodeCursor(String cursor) {
+    try {
+      return new ObjectId(Base64.getUrlDecoder().decode(cursor));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("The requested `after` cursor wasn't a legal cursor; you provided " + cursor);
+    }
+  }
+
   /**
    * Utility function to generate an URI that points
    * at a unique avatar image based on a user's email.
@@ -139,17 +1077,13 @@ public class UserController implements Controller {
   /**
    * Utility function to generate the md5 hash for a given string
    *
+   * This uses `AvatarService`'s hashing, which reuses a digest per thread
+   * and builds the hex with a lookup table.
+   *
    * @param str the string to generate a md5 for
    */
   public String md5(String str) throws NoSuchAlgorithmException {
-    MessageDigest md = MessageDigest.getInstance("MD5");
-    byte[] hashInBytes = md.digest(str.toLowerCase().getBytes(StandardCharsets.UTF_8));
-
-    StringBuilder result = new StringBuilder();
-    for (byte b : hashInBytes) {
-      result.append(String.format("%02x", b));
-    }
-    return result.toString();
+    return AvatarService.md5Hex(str);
   }
 
   /**
@@ -163,6 +1097,17 @@ public class UserController implements Controller {
    *   - `GET /api/users?age=NUMBER&company=STRING&name=STRING`
    *      - List users, filtered using query parameters
    *      - `age`, `company`, and `name` are optional query parameters
+   *      - `companyMatch` is `prefix` (the default), `exact`, or `contains`
+   *      - `fields` is an optional comma-separated list of the user fields
+   *        to return (e.g., `fields=name,company`)
+   *      - `limit` and `after` are optional paging parameters; the cursor
+   *        for the next page comes back in the `X-Next-Cursor` header
+   *   - `GET /api/users/cache`
+   *      - Get the counters for the result cache
+   *   - `GET /api/users/stats`
+   *      - Get counts of users by company, role, and age range
+   *   - `POST /api/users/bulk`
+   *      - Import users from newline-delimited JSON, one user per line
    * GROUPS SHOULD CREATE THEIR OWN CONTROLLERS THAT IMPLEMENT THE
    * `Controller` INTERFACE FOR WHATEVER DATA THEY'RE WORKING WITH.
    * You'll then implement the `addRoutes` method for that controller,
@@ -175,7 +1120,19 @@ public class UserController implements Controller {
   @Override
   public void addRoutes(Javalin server) {
     // List users, filtered using query parameters
-    server.get(API_USERS, this::getUsers);
+    if (asyncExecutor == null) {
+      server.get(API_USERS, this::getUsers);
+    } else {
+      server.get(API_USERS, this::getUsersAsync);
+    }
+
+    // Result cache counters
+    server.get(API_USER_CACHE, this::getCacheStats);
+
+    // Counts of users by company, role, and age
+    server.get(API_USER_STATS, this::getUserStats);
 
+    // Import users in bulk
+    server.post(API_USER_BULK, this::importUsers);
   }
 }
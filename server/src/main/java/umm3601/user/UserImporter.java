@@ -0,0 +1,425 @@
+package umm3601.user;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+import org.bson.BSONException;
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+
+/**
+ * Imports users from newline-delimited JSON (NDJSON): one user, as a JSON
+ * object, per line. The objects look just like the ones in
+ * `database/seed/users.json`, so `_id`s can be given in extended JSON
+ * (`{"$oid": "..."}`), as a hex string, or left out for MongoDB to fill in.
+ * Users without an avatar get one generated from their email.
+ *
+ * The upload is read a line at a time and written to MongoDB in batches
+ * with `insertMany`, so memory use depends on the batch size rather than on
+ * the size of the upload:
+ *   - Lines longer than `MAX_LINE_LENGTH` are rejected without being held in
+ *     memory in full.
+ *   - At most two batches exist at once: the one being inserted (on a
+ *     virtual thread) and the one being parsed. Parsing the next batch while
+ *     the last one is in flight keeps both the CPU and MongoDB busy, which is
+ *     most of what makes `mongoimport` fast.
+ *   - Only the first `MAX_REPORTED_ERRORS` errors are kept for the report;
+ *     the rest are just counted.
+ *
+ * Batches are inserted with `ordered=false`, so one bad document (e.g., a
+ * duplicate `_id`) doesn't stop the rest of its batch being inserted, and
+ * MongoDB can insert the batch's documents in whatever order is fastest.
+ */
+public class UserImporter {
+
+  // Plenty for any reasonable user; much longer lines are almost certainly
+  // not users at all (or not NDJSON).
+  static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  static final int MAX_REPORTED_ERRORS = 1000;
+
+  static final Set<String> ROLES = Set.of("admin", "editor", "viewer");
+
+  // This only checks the basic shape of an email; the only way to really
+  // check one is to send it an email.
+  private static final Pattern EMAIL = Pattern.compile("^[^@\\s]+@[^@\\s]+$");
+
+  private static final String ID_KEY = "_id";
+  private static final String AGE_KEY = "age";
+  private static final String EMAIL_KEY = "email";
+  private static final String ROLE_KEY = "role";
+  private static final String AVATAR_KEY = "avatar";
+
+  private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+
+  // Each batch is inserted on its own virtual thread, which spends nearly
+  // all of its time waiting on MongoDB.
+  private static final Executor WRITERS = runnable -> Thread.ofVirtual().name("user-import").start(runnable);
+
+  private final MongoCollection<Document> userDocuments;
+  private final AvatarService avatarService;
+  private final int batchSize;
+
+  /**
+   * Construct an importer.
+   *
+   * @param userDocuments the users collection to insert into
+   * @param avatarService works out avatars for users that don't have one
+   * @param batchSize the number of users to send to MongoDB per `insertMany`
+   */
+  public UserImporter(MongoCollection<Document> userDocuments, AvatarService avatarService, int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("An import batch must hold at least one user");
+    }
+    this.userDocuments = userDocuments;
+    this.avatarService = avatarService;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Import the users in an NDJSON upload. Blank lines are ignored.
+   *
+   * Bad lines (ones that aren't valid users, or that MongoDB won't insert)
+   * are skipped and reported; everything else is inserted.
+   *
+   * @param ndjson the upload; it's read to the end, but not closed
+   * @return what was imported, and what wasn't (and why)
+   * @throws IOException if the upload can't be read
+   */
+  public ImportReport importNdjson(InputStream ndjson) throws IOException {
+    LineReader lines = new LineReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8));
+    Tally tally = new Tally();
+    Batch batch = new Batch(batchSize);
+    CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+
+    for (String line = lines.next(); line != null; line = lines.next()) {
+      if (!lines.truncated() && line.isBlank()) {
+        continue;
+      }
+      tally.read();
+      if (lines.truncated()) {
+        tally.fail(lines.number(), "The line is longer than " + MAX_LINE_LENGTH + " characters");
+        continue;
+      }
+      try {
+        batch.add(parseUser(line), lines.number());
+      } catch (IllegalArgumentException e) {
+        tally.fail(lines.number(), e.getMessage());
+        continue;
+      }
+      if (batch.isFull()) {
+        inFlight = insertAfter(inFlight, batch, tally);
+        batch = new Batch(batchSize);
+      }
+    }
+    if (!batch.isEmpty()) {
+      inFlight = insertAfter(inFlight, batch, tally);
+    }
+    await(inFlight);
+
+    return tally.report();
+  }
+
+  /**
+   * Wait for the batch that's being inserted (if any) to finish, and then
+   * start inserting `batch`.
+   *
+   * @param inFlight the insert that's currently running
+   * @param batch the batch to insert next
+   * @param tally where to count the inserted (and failed) users
+   * @return the insert of `batch`
+   */
+  private CompletableFuture<Void> insertAfter(CompletableFuture<Void> inFlight, Batch batch, Tally tally) {
+    await(inFlight);
+    return CompletableFuture.runAsync(() -> insert(batch, tally), WRITERS);
+  }
+
+  /**
+   * Wait for an insert to finish, rethrowing whatever it failed with.
+   *
+   * @param insert the insert to wait for
+   */
+  private static void await(CompletableFuture<Void> insert) {
+    try {
+      insert.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Insert a batch of users.
+   *
+   * Failures of individual users (e.g., a duplicate `_id`) are counted and
+   * reported against the line the user came from. Anything else (e.g., losing
+   * the connection to MongoDB) is thrown, since the rest of the upload would
+   * just fail the same way.
+   *
+   * @param batch the batch to insert
+   * @param tally where to count the inserted (and failed) users
+   */
+  private void insert(Batch batch, Tally tally) {
+    try {
+      userDocuments.insertMany(batch.documents, UNORDERED);
+      tally.inserted(batch.documents.size());
+    } catch (MongoBulkWriteException e) {
+      tally.inserted(e.getWriteResult().getInsertedCount());
+      for (BulkWriteError error : e.getWriteErrors()) {
+        tally.fail(batch.lines[error.getIndex()], error.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Turn a line of NDJSON into a user document, ready to insert.
+   *
+   * The checks here are the same ones we'd make on a single new user.
+   *
+   * @param line the line
+   * @return the user, with an ObjectId `_id` (if it had one) and an avatar
+   * @throws IllegalArgumentException if the line isn't a valid user
+   */
+  Document parseUser(String line) {
+    Document user;
+    try {
+      user = Document.parse(line);
+    } catch (JsonParseException | BSONException e) {
+      throw new IllegalArgumentException("The line isn't a JSON object: " + e.getMessage());
+    }
+
+    for (String field : user.keySet()) {
+      if (!UserController.USER_FIELDS.contains(field)) {
+        throw new IllegalArgumentException("Users don't have a `" + field + "` field");
+      }
+    }
+
+    Object id = user.get(ID_KEY);
+    if (id instanceof String hex) {
+      if (!ObjectId.isValid(hex)) {
+        throw new IllegalArgumentException("A user's _id must be an ObjectId; you provided " + hex);
+      }
+      user.put(ID_KEY, new ObjectId(hex));
+    } else if (id != null && !(id instanceof ObjectId)) {
+      throw new IllegalArgumentException("A user's _id must be an ObjectId; you provided " + id);
+    }
+
+    requireText(user, "name");
+    requireText(user, UserController.COMPANY_KEY);
+
+    Object age = user.get(AGE_KEY);
+    if (!(age instanceof Integer years) || years <= 0 || years >= UserController.REASONABLE_AGE_LIMIT) {
+      throw new IllegalArgumentException("A user's age must be a whole number greater than zero and less than "
+        + UserController.REASONABLE_AGE_LIMIT + "; you provided " + age);
+    }
+
+    String email = requireText(user, EMAIL_KEY);
+    if (!EMAIL.matcher(email).matches()) {
+      throw new IllegalArgumentException("A user's email must be a legal email address; you provided " + email);
+    }
+
+    String role = requireText(user, ROLE_KEY);
+    if (!ROLES.contains(role)) {
+      throw new IllegalArgumentException("A user's role must be one of " + ROLES + "; you provided " + role);
+    }
+
+    Object avatar = user.get(AVATAR_KEY);
+    if (avatar == null || avatar instanceof String text && text.isBlank()) {
+      user.put(AVATAR_KEY, avatarService.avatarFor(email));
+    } else if (!(avatar instanceof String)) {
+      throw new IllegalArgumentException("A user's avatar must be a string; you provided " + avatar);
+    }
+
+    return user;
+  }
+
+  /**
+   * Get a required, non-blank string field of a user.
+   *
+   * @param user the user
+   * @param field the name of the field
+   * @return the field's value
+   * @throws IllegalArgumentException if the user doesn't have the field, or it's blank
+   */
+  private static String requireText(Document user, String field) {
+    if (!(user.get(field) instanceof String value) || value.isBlank()) {
+      throw new IllegalArgumentException("A user must have a non-empty " + field);
+    }
+    return value;
+  }
+
+  /**
+   * A batch of users to insert, and the line each of them came from.
+   */
+  private static final class Batch {
+    private final List<Document> documents;
+    private final long[] lines;
+
+    Batch(int capacity) {
+      this.documents = new ArrayList<>(capacity);
+      this.lines = new long[capacity];
+    }
+
+    void add(Document user, long line) {
+      lines[documents.size()] = line;
+      documents.add(user);
+    }
+
+    boolean isFull() {
+      return documents.size() == lines.length;
+    }
+
+    boolean isEmpty() {
+      return documents.isEmpty();
+    }
+  }
+
+  /**
+   * The running counts for an import.
+   *
+   * This is updated both by the thread reading the upload and by the
+   * threads inserting batches, so all access to it is synchronized.
+   */
+  private static final class Tally {
+    private long lines = 0;
+    private long inserted = 0;
+    private long failed = 0;
+
+    // The errors for the earliest lines, by line number. Errors don't
+    // arrive in line order (a batch's insert errors arrive after the parse
+    // errors for the next batch), so we keep the lowest-numbered ones.
+    private final TreeMap<Long, String> errors = new TreeMap<>();
+
+    synchronized void read() {
+      lines++;
+    }
+
+    synchronized void inserted(long count) {
+      inserted += count;
+    }
+
+    synchronized void fail(long line, String message) {
+      failed++;
+      errors.put(line, message);
+      if (errors.size() > MAX_REPORTED_ERRORS) {
+        errors.pollLastEntry();
+      }
+    }
+
+    synchronized ImportReport report() {
+      List<ImportReport.LineError> lineErrors = new ArrayList<>(errors.size());
+      for (Map.Entry<Long, String> error : errors.entrySet()) {
+        lineErrors.add(new ImportReport.LineError(error.getKey(), error.getValue()));
+      }
+      return new ImportReport(lines, inserted, failed, lineErrors, failed > errors.size());
+    }
+  }
+
+  /**
+   * Reads lines (ending in `\n` or `\r\n`) of at most `MAX_LINE_LENGTH`
+   * characters. Unlike `BufferedReader.readLine`, a very long line can't
+   * run us out of memory; it's just cut short, and flagged as `truncated`.
+   */
+  private static final class LineReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    private final StringBuilder line = new StringBuilder();
+    private boolean truncated = false;
+    private long number = 0;
+
+    LineReader(Reader reader) {
+      this.reader = reader;
+    }
+
+    /**
+     * @return the next line, without its line ending, or `null` if there
+     *   aren't any more
+     * @throws IOException if the upload can't be read
+     */
+    String next() throws IOException {
+      line.setLength(0);
+      truncated = false;
+      boolean started = false;
+      while (true) {
+        if (position == limit) {
+          position = 0;
+          limit = reader.read(buffer);
+          if (limit < 0) {
+            limit = 0;
+            return started ? finish() : null;
+          }
+          continue;
+        }
+        started = true;
+        int start = position;
+        while (position < limit && buffer[position] != '\n') {
+          position++;
+        }
+        append(start, position);
+        if (position < limit) {
+          // Skip the `\n`.
+          position++;
+          return finish();
+        }
+      }
+    }
+
+    /**
+     * @return `true` if the last line was longer than `MAX_LINE_LENGTH`
+     */
+    boolean truncated() {
+      return truncated;
+    }
+
+    /**
+     * @return the (1-based) line number of the last line
+     */
+    long number() {
+      return number;
+    }
+
+    private void append(int start, int end) {
+      int room = MAX_LINE_LENGTH - line.length();
+      if (end - start > room) {
+        line.append(buffer, start, room);
+        truncated = true;
+      } else {
+        line.append(buffer, start, end - start);
+      }
+    }
+
+    private String finish() {
+      number++;
+      int length = line.length();
+      if (length > 0 && line.charAt(length - 1) == '\r') {
+        line.setLength(length - 1);
+      }
+      return line.toString();
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package umm3601.user;
+
+import java.util.Map;
+
+/**
+ * Counts of users, broken down a few different ways, as served by
+ * `GET /api/users/stats`.
+ *
+ * The company and role counts are ordered from the most to the least
+ * common; the age ranges are in age order.
+ *
+ * @param total the total number of users
+ * @param companies the number of users at each company
+ * @param roles the number of users with each role
+ * @param ages the number of users in each age range (e.g., `20-29`)
+ * @param computedAt when these counts were computed (as an ISO-8601 instant)
+ */
+public record UserStats(
+  long total,
+  Map<String, Long> companies,
+  Map<String, Long> roles,
+  Map<String, Long> ages,
+  String computedAt) {
+}
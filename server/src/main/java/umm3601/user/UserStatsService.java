@@ -0,0 +1,271 @@
+package umm3601.user;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BucketOptions;
+import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.Sorts;
+
+import umm3601.cache.ChangeStreamWatcher;
+
+/**
+ * Keeps a materialized copy of the user counts served by
+ * `GET /api/users/stats` (see `UserStats`).
+ *
+ * All the counts come from a single `$facet` aggregation, so MongoDB reads
+ * the users once for all of them, and only the (small) counts come back
+ * over the wire. The result is kept in memory, so serving it costs nothing
+ * like a query, let alone downloading every user.
+ *
+ * The counts are recomputed
+ *   - when they're older than the refresh interval, and
+ *   - once `start()` has been called, in the background: every refresh
+ *     interval, and shortly after the users collection changes. (The
+ *     latter relies on MongoDB change streams, so on a standalone server
+ *     the refresh interval is all there is.) Changes that come in quick
+ *     succession (e.g., a bulk import) only cause a single refresh.
+ */
+public class UserStatsService implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(UserStatsService.class);
+
+  // The boundaries of the age ranges we count users in. Each range
+  // includes its lower boundary but not its upper one.
+  static final List<Integer> AGE_BOUNDARIES = List.of(0, 20, 30, 40, 50, 60, 70, UserController.REASONABLE_AGE_LIMIT);
+
+  // What we count users under when they're missing a field, or (for age)
+  // when it's outside all the age ranges.
+  static final String UNKNOWN = "unknown";
+
+  // How long to wait after a change before refreshing, so a burst of
+  // changes gets just one refresh.
+  private static final long CHANGE_DELAY_MILLIS = 1000;
+
+  private static final String COUNT = "count";
+  private static final String TOTAL = "total";
+  private static final String COMPANIES = "companies";
+  private static final String ROLES = "roles";
+  private static final String AGES = "ages";
+
+  private static final List<Bson> PIPELINE = List.of(Aggregates.facet(
+    new Facet(TOTAL, Aggregates.count(COUNT)),
+    new Facet(COMPANIES, countsOf("$company")),
+    new Facet(ROLES, countsOf("$role")),
+    new Facet(AGES, Aggregates.bucket("$age", AGE_BOUNDARIES, new BucketOptions()
+      .defaultBucket(UNKNOWN)
+      .output(Accumulators.sum(COUNT, 1))))));
+
+  private final MongoCollection<Document> userDocuments;
+  private final Duration refreshInterval;
+
+  private volatile UserStats stats = null;
+  private volatile long computedAtNanos = 0;
+
+  // These are `null` until `start()` is called.
+  private volatile ScheduledExecutorService scheduler = null;
+  private ChangeStreamWatcher changeWatcher = null;
+
+  // Whether there's a refresh scheduled because of a change.
+  private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+
+  /**
+   * Construct a user stats service.
+   *
+   * @param userDocuments the users collection
+   * @param refreshInterval how old the counts can get before they're recomputed
+   */
+  public UserStatsService(MongoCollection<Document> userDocuments, Duration refreshInterval) {
+    this.userDocuments = userDocuments;
+    this.refreshInterval = refreshInterval;
+  }
+
+  /**
+   * Get the current user counts, computing them if there aren't any yet
+   * (or, if the service hasn't been started, if they're too old).
+   *
+   * @return the user counts
+   */
+  public UserStats current() {
+    UserStats current = stats;
+    if (current != null && (scheduler != null || !isOutOfDate())) {
+      return current;
+    }
+    return refreshIfOutOfDate();
+  }
+
+  /**
+   * Recompute the user counts.
+   *
+   * @return the new counts
+   */
+  public synchronized UserStats refresh() {
+    long startedAt = System.nanoTime();
+    Document facets = userDocuments.aggregate(PIPELINE).first();
+    UserStats fresh = toStats(facets, Instant.now());
+    stats = fresh;
+    computedAtNanos = startedAt;
+    return fresh;
+  }
+
+  /**
+   * Start refreshing the counts in the background, both every refresh
+   * interval and after the users collection changes. Requests then never
+   * wait for the counts to be recomputed (except for the very first time).
+   */
+  public synchronized void start() {
+    if (scheduler != null) {
+      return;
+    }
+    if (refreshInterval.isZero() || refreshInterval.isNegative()) {
+      throw new IllegalArgumentException("The user stats refresh interval must be positive");
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "user-stats");
+      // A daemon thread won't keep the JVM alive after the server stops.
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::refreshQuietly, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    changeWatcher = new ChangeStreamWatcher(userDocuments, change -> refreshSoon(), this::refreshSoon);
+    changeWatcher.start();
+  }
+
+  /**
+   * Stop refreshing the counts in the background.
+   */
+  @Override
+  public synchronized void close() {
+    if (changeWatcher != null) {
+      changeWatcher.close();
+      changeWatcher = null;
+    }
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  private boolean isOutOfDate() {
+    return System.nanoTime() - computedAtNanos >= refreshInterval.toNanos();
+  }
+
+  /**
+   * Recompute the counts, unless another thread did while we were waiting
+   * for the lock. This keeps a crowd of requests that all find the counts
+   * out of date from all recomputing them.
+   *
+   * @return the current counts
+   */
+  private synchronized UserStats refreshIfOutOfDate() {
+    UserStats current = stats;
+    if (current != null && (scheduler != null || !isOutOfDate())) {
+      return current;
+    }
+    return refresh();
+  }
+
+  /**
+   * Schedule a refresh for shortly from now, if there isn't one already.
+   */
+  private void refreshSoon() {
+    ScheduledExecutorService current = scheduler;
+    if (current != null && refreshPending.compareAndSet(false, true)) {
+      current.schedule(this::refreshQuietly, CHANGE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Refresh the counts in the background. A failure (e.g., MongoDB being
+   * unreachable for a bit, or a document the pipeline's results can't be
+   * read from) just leaves the old counts in place until the next refresh;
+   * letting any exception escape would stop the scheduler running this again.
+   */
+  private void refreshQuietly() {
+    refreshPending.set(false);
+    try {
+      refresh();
+    } catch (RuntimeException e) {
+      LOGGER.warn("Couldn't refresh the user stats; keeping the old ones", e);
+    }
+  }
+
+  /**
+   * The part of the pipeline that counts users by `field`, most common first.
+   *
+   * @param field the field to count users by (e.g., `$company`)
+   * @return the pipeline stages
+   */
+  private static List<Bson> countsOf(String field) {
+    return List.of(
+      Aggregates.group(field, Accumulators.sum(COUNT, 1)),
+      Aggregates.sort(Sorts.orderBy(Sorts.descending(COUNT), Sorts.ascending("_id"))));
+  }
+
+  /**
+   * Turn the result of the `$facet` aggregation into `UserStats`.
+   *
+   * @param facets the one document the aggregation produces
+   * @param computedAt when the aggregation was run
+   * @return the user counts
+   */
+  static UserStats toStats(Document facets, Instant computedAt) {
+    List<Document> total = facets.getList(TOTAL, Document.class);
+    return new UserStats(
+      total.isEmpty() ? 0 : count(total.get(0)),
+      countsByKey(facets.getList(COMPANIES, Document.class)),
+      countsByKey(facets.getList(ROLES, Document.class)),
+      countsByAge(facets.getList(AGES, Document.class)),
+      computedAt.toString());
+  }
+
+  private static Map<String, Long> countsByKey(List<Document> groups) {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (Document group : groups) {
+      Object key = group.get("_id");
+      counts.merge(key == null ? UNKNOWN : key.toString(), count(group), Long::sum);
+    }
+    return counts;
+  }
+
+  private static Map<String, Long> countsByAge(List<Document> buckets) {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (Document bucket : buckets) {
+      counts.put(ageRange(bucket.get("_id")), count(bucket));
+    }
+    return counts;
+  }
+
+  /**
+   * Get the name of an age range (e.g., `20-29`) from its `$bucket` `_id`.
+   *
+   * @param lowerBoundary the lower boundary of the range, or `UNKNOWN`
+   * @return the name of the range
+   */
+  static String ageRange(Object lowerBoundary) {
+    int index = AGE_BOUNDARIES.indexOf(lowerBoundary);
+    if (index < 0 || index + 1 >= AGE_BOUNDARIES.size()) {
+      return UNKNOWN;
+    }
+    return lowerBoundary + "-" + (AGE_BOUNDARIES.get(index + 1) - 1);
+  }
+
+  private static long count(Document group) {
+    return ((Number) group.get(COUNT)).longValue();
+  }
+}
@@ -0,0 +1,142 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+
+import io.javalin.Javalin;
+
+class IndexManagerSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private IndexManager indexManager;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    db.getCollection("widgets").drop();
+    db.getCollection("gadgets").drop();
+    indexManager = new IndexManager(db);
+  }
+
+  /**
+   * A controller that has no routes, just the given indexes.
+   *
+   * @param indexes the indexes the controller declares
+   * @return the controller
+   */
+  private static Controller controllerWith(Map<String, List<IndexModel>> indexes) {
+    return new Controller() {
+      @Override
+      public void addRoutes(Javalin server) {
+        // This controller only exists for its indexes.
+      }
+
+      @Override
+      public Map<String, List<IndexModel>> indexes() {
+        return indexes;
+      }
+    };
+  }
+
+  private static List<String> indexNames(String collection) {
+    List<String> names = new ArrayList<>();
+    for (Document index : db.getCollection(collection).listIndexes()) {
+      names.add(index.getString("name"));
+    }
+    return names;
+  }
+
+  @Test
+  void createsDeclaredIndexes() {
+    Controller controller = controllerWith(Map.of(
+      "widgets", List.of(new IndexModel(Indexes.ascending("size")), new IndexModel(Indexes.descending("color"))),
+      "gadgets", List.of(new IndexModel(Indexes.ascending("owner", "name")))));
+
+    List<String> created = indexManager.ensureIndexes(controller);
+
+    assertEquals(3, created.size());
+    assertTrue(indexNames("widgets").containsAll(List.of("size_1", "color_-1")));
+    assertTrue(indexNames("gadgets").contains("owner_1_name_1"));
+  }
+
+  @Test
+  void creatingIndexesAgainChangesNothing() {
+    Controller controller = controllerWith(Map.of("widgets", List.of(new IndexModel(Indexes.ascending("size")))));
+
+    indexManager.ensureIndexes(controller);
+    indexManager.ensureIndexes(controller);
+
+    assertEquals(List.of("_id_", "size_1"), indexNames("widgets"));
+  }
+
+  @Test
+  void controllersNeedNoIndexesByDefault() {
+    Controller controller = new Controller() {
+      @Override
+      public void addRoutes(Javalin server) {
+        // This controller doesn't need anything.
+      }
+    };
+
+    assertEquals(List.of(), indexManager.ensureIndexes(controller));
+    assertEquals(List.of(), indexManager.ensureIndexes(controllerWith(Map.of("widgets", List.of()))));
+  }
+
+  @Test
+  void leavesConflictingIndexesAlone() {
+    db.getCollection("widgets").createIndex(Indexes.ascending("size"), new IndexOptions().name("by_size"));
+    Controller controller = controllerWith(Map.of("widgets", List.of(new IndexModel(Indexes.ascending("size")))));
+
+    assertEquals(List.of(), indexManager.ensureIndexes(controller));
+    assertEquals(List.of("_id_", "by_size"), indexNames("widgets"));
+  }
+
+  @Test
+  void reportsOtherFailures() {
+    // There's no such thing as a "nonsense" index.
+    IndexModel nonsense = new IndexModel(new Document("size", "nonsense"));
+    Controller controller = controllerWith(Map.of("widgets", List.of(nonsense)));
+
+    assertThrows(MongoCommandException.class, () -> indexManager.ensureIndexes(controller));
+  }
+}
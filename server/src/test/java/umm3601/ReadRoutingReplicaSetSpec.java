@@ -0,0 +1,235 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.connection.ServerDescription;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
+
+import umm3601.cache.CollectionVersion;
+import umm3601.http.ETags;
+import umm3601.metrics.PoolMetrics;
+import umm3601.user.UserController;
+
+/**
+ * Tests that `ReadRouting` really does spread reads across a replica set,
+ * and that versioned lists aren't read from secondaries that are behind.
+ *
+ * These need a replica set with at least one secondary, so they only run
+ * when `MONGO_REPLICA_SET` is set. `./gradlew replicaSetTest` starts a local
+ * three-member one (with `database/replicaset.sh`), runs these against it,
+ * and stops it again.
+ */
+@EnabledIfEnvironmentVariable(named = "MONGO_REPLICA_SET", matches = ".+")
+@SuppressWarnings({ "MagicNumber" })
+class ReadRoutingReplicaSetSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  // Where each `find` was sent.
+  private static final Set<ServerAddress> FIND_SERVERS = ConcurrentHashMap.newKeySet();
+
+  // How long we're willing to wait for a change to be seen.
+  private static final long TIMEOUT_MILLIS = 10_000;
+
+  private static final ReadRouting ROUTING = ReadRouting.of("secondaryPreferred", Duration.ofSeconds(90));
+
+  @Mock
+  private Context ctx;
+
+  private UserController userController;
+
+  @BeforeAll
+  static void setupAll() {
+    DatabaseSettings defaults = DatabaseSettings.DRIVER_DEFAULTS;
+    DatabaseSettings settings = new DatabaseSettings(
+      defaults.maxPoolSize(),
+      defaults.minPoolSize(),
+      defaults.maxWaitTime(),
+      defaults.maxConnectionIdleTime(),
+      defaults.connectTimeout(),
+      defaults.readTimeout(),
+      System.getenv("MONGO_REPLICA_SET"));
+    CommandListener findListener = new CommandListener() {
+      @Override
+      public void commandStarted(CommandStartedEvent event) {
+        if (event.getCommandName().equals("find")) {
+          FIND_SERVERS.add(event.getConnectionDescription().getServerAddress());
+        }
+      }
+    };
+    mongoClient = Server.configureDatabase(
+      System.getenv().getOrDefault("MONGO_ADDR", "localhost"), settings, new PoolMetrics(), findListener);
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    // Wait for the users to get to all three members, so the secondaries
+    // have them too.
+    db.getCollection("users").drop();
+    db.getCollection("users").withWriteConcern(new WriteConcern(3)).insertMany(List.of(
+      new Document("name", "Chris").append("age", 25).append("company", "UMM"),
+      new Document("name", "Pat").append("age", 37).append("company", "IBM")));
+    userController = new UserController(db);
+    FIND_SERVERS.clear();
+  }
+
+  private static Set<ServerAddress> membersWhere(boolean primary) {
+    return mongoClient.getClusterDescription().getServerDescriptions().stream()
+      .filter(server -> server.isPrimary() == primary)
+      .map(ServerDescription::getAddress)
+      .collect(Collectors.toSet());
+  }
+
+  private void assertGotBothUsers() {
+    assertGotUsers(2);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void assertGotUsers(int count) {
+    ArgumentCaptor<ArrayList<Object>> usersCaptor = ArgumentCaptor.forClass(ArrayList.class);
+    verify(ctx).json(usersCaptor.capture());
+    assertEquals(count, usersCaptor.getValue().size());
+  }
+
+  @Test
+  void listReadsGoToSecondaries() {
+    when(ctx.<ReadPreference>attribute(ReadRouting.ATTRIBUTE))
+      .thenReturn(ROUTING.preferenceFor(ReadRouting.Reads.LIST));
+
+    userController.getUsers(ctx);
+
+    assertGotBothUsers();
+    assertFalse(FIND_SERVERS.isEmpty());
+    assertEquals(Set.of(), intersection(FIND_SERVERS, membersWhere(true)));
+  }
+
+  @Test
+  void otherReadsGoToThePrimary() {
+    when(ctx.<ReadPreference>attribute(ReadRouting.ATTRIBUTE))
+      .thenReturn(ROUTING.preferenceFor(ReadRouting.Reads.READ_YOUR_WRITES));
+
+    userController.getUsers(ctx);
+
+    assertGotBothUsers();
+    assertEquals(membersWhere(true), FIND_SERVERS);
+  }
+
+  @Test
+  void versionedListsAreNeverStale() throws Exception {
+    userController.enableVersionTags();
+    CollectionVersion version = userController.versionedRoutes().get("/api/users");
+    waitFor(() -> version.current() != null);
+
+    pauseReplication(true);
+    try {
+      // A write that the (paused) secondaries don't get.
+      String before = version.current();
+      db.getCollection("users").withWriteConcern(WriteConcern.W1)
+        .insertOne(new Document("name", "Sam").append("age", 41).append("company", "UMM"));
+      waitFor(() -> !before.equals(version.current()));
+
+      // Tag the request as the server would, then give it its version ETag
+      // and run the query.
+      Javalin server = mock(Javalin.class);
+      ROUTING.route(server, userController);
+      ArgumentCaptor<Handler> handlerCaptor = ArgumentCaptor.forClass(Handler.class);
+      verify(server).before(eq("/api/users"), handlerCaptor.capture());
+      when(ctx.method()).thenReturn(HandlerType.GET);
+      handlerCaptor.getValue().handle(ctx);
+      ArgumentCaptor<ReadPreference> preferenceCaptor = ArgumentCaptor.forClass(ReadPreference.class);
+      verify(ctx).attribute(eq(ReadRouting.ATTRIBUTE), preferenceCaptor.capture());
+      when(ctx.<ReadPreference>attribute(ReadRouting.ATTRIBUTE)).thenReturn(preferenceCaptor.getValue());
+
+      assertFalse(ETags.checkVersion(ctx, version.current()));
+      ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+      verify(ctx).header(eq(Header.ETAG), etagCaptor.capture());
+      userController.getUsers(ctx);
+
+      // The list sent with the new version's ETag has the new user in it ...
+      assertGotUsers(3);
+      // ... so answering a conditional GET with that ETag with a 304 is right.
+      Context conditional = mock(Context.class);
+      when(conditional.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+      assertTrue(ETags.checkVersion(conditional, version.current()));
+    } finally {
+      pauseReplication(false);
+      version.close();
+    }
+  }
+
+  /**
+   * Pause (or resume) replication to the secondaries, so they fall behind
+   * the primary. This needs the members to allow test commands (see
+   * `database/replicaset.sh`).
+   */
+  private static void pauseReplication(boolean paused) {
+    for (ServerAddress secondary : membersWhere(false)) {
+      try (MongoClient member = MongoClients.create(
+          "mongodb://" + secondary.getHost() + ":" + secondary.getPort() + "/?directConnection=true")) {
+        member.getDatabase("admin").runCommand(new Document("configureFailPoint", "stopReplProducer")
+          .append("mode", paused ? "alwaysOn" : "off"));
+      }
+    }
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  private static Set<ServerAddress> intersection(Set<ServerAddress> a, Set<ServerAddress> b) {
+    return a.stream().filter(b::contains).collect(Collectors.toSet());
+  }
+}
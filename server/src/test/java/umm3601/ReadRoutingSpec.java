@@ -0,0 +1,171 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.TaggableReadPreference;
+import com.mongodb.client.MongoCollection;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+
+import umm3601.cache.CollectionVersion;
+
+/**
+ * Tests for `ReadRouting`. These don't need a replica set; see
+ * `ReadRoutingReplicaSetSpec` for the tests that do.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ReadRoutingSpec {
+
+  private static final ReadRouting SECONDARY_PREFERRED = ReadRouting.of("secondaryPreferred", Duration.ofSeconds(90));
+
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  @Test
+  void listReadsUseTheListPreference() {
+    ReadPreference lists = SECONDARY_PREFERRED.preferenceFor(ReadRouting.Reads.LIST);
+
+    assertEquals("secondaryPreferred", lists.getName());
+    assertEquals(90L, ((TaggableReadPreference) lists).getMaxStaleness(TimeUnit.SECONDS));
+  }
+
+  @Test
+  void readYourWritesReadsUseThePrimary() {
+    assertEquals(ReadPreference.primary(), SECONDARY_PREFERRED.preferenceFor(ReadRouting.Reads.READ_YOUR_WRITES));
+  }
+
+  @Test
+  void primaryMeansPrimaryOnly() {
+    assertSame(ReadRouting.PRIMARY_ONLY, ReadRouting.of("primary", Duration.ofSeconds(90)));
+    assertEquals(ReadPreference.primary(), ReadRouting.PRIMARY_ONLY.preferenceFor(ReadRouting.Reads.LIST));
+  }
+
+  @Test
+  void rejectsUnknownPreferences() {
+    assertThrows(IllegalArgumentException.class, () -> ReadRouting.of("sometimes", Duration.ofSeconds(90)));
+  }
+
+  /**
+   * Route `controller`'s reads, and get the `before` handler added for `path`.
+   */
+  private static Handler routedHandler(Controller controller, String path) {
+    Javalin server = mock(Javalin.class);
+    SECONDARY_PREFERRED.route(server, controller);
+    ArgumentCaptor<Handler> handlerCaptor = ArgumentCaptor.forClass(Handler.class);
+    verify(server).before(eq(path), handlerCaptor.capture());
+    return handlerCaptor.getValue();
+  }
+
+  private static Controller listing(String path) {
+    return new Controller() {
+      @Override
+      public void addRoutes(Javalin server) {
+        // The routes themselves don't matter here.
+      }
+
+      @Override
+      public Map<String, ReadRouting.Reads> readRoutes() {
+        return Map.of(path, ReadRouting.Reads.LIST);
+      }
+    };
+  }
+
+  @Test
+  void tagsRequestsToDeclaredRoutes() throws Exception {
+    Handler handler = routedHandler(listing("/api/things"), "/api/things");
+    when(ctx.method()).thenReturn(HandlerType.GET);
+
+    handler.handle(ctx);
+
+    verify(ctx).attribute(ReadRouting.ATTRIBUTE, SECONDARY_PREFERRED.preferenceFor(ReadRouting.Reads.LIST));
+  }
+
+  @Test
+  void versionedRoutesReadFromThePrimary() throws Exception {
+    Controller versioned = new Controller() {
+      @Override
+      public void addRoutes(Javalin server) {
+        // The routes themselves don't matter here.
+      }
+
+      @Override
+      public Map<String, ReadRouting.Reads> readRoutes() {
+        return Map.of("/api/things", ReadRouting.Reads.LIST);
+      }
+
+      @Override
+      public Map<String, CollectionVersion> versionedRoutes() {
+        return Map.of("/api/things", mock(CollectionVersion.class));
+      }
+    };
+    Handler handler = routedHandler(versioned, "/api/things");
+    when(ctx.method()).thenReturn(HandlerType.GET);
+
+    handler.handle(ctx);
+
+    verify(ctx).attribute(ReadRouting.ATTRIBUTE, ReadPreference.primary());
+  }
+
+  @Test
+  void leavesWritesAlone() throws Exception {
+    Handler handler = routedHandler(listing("/api/things"), "/api/things");
+    when(ctx.method()).thenReturn(HandlerType.POST);
+
+    handler.handle(ctx);
+
+    verify(ctx, never()).attribute(eq(ReadRouting.ATTRIBUTE), any());
+  }
+
+  @Test
+  void undeclaredRoutesAreLeftAlone() {
+    Javalin server = mock(Javalin.class);
+    SECONDARY_PREFERRED.route(server, javalin -> {
+      // No routes, and no declared reads.
+    });
+
+    verify(server, never()).before(any(String.class), any(Handler.class));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void collectionsReadAsTheRequestSays() {
+    MongoCollection<Document> collection = mock(MongoCollection.class);
+    MongoCollection<Document> fromSecondaries = mock(MongoCollection.class);
+    ReadPreference lists = SECONDARY_PREFERRED.preferenceFor(ReadRouting.Reads.LIST);
+    when(collection.withReadPreference(lists)).thenReturn(fromSecondaries);
+
+    // Requests that weren't tagged read however the collection does.
+    assertSame(collection, ReadRouting.forRequest(ctx, collection));
+
+    when(ctx.<ReadPreference>attribute(ReadRouting.ATTRIBUTE)).thenReturn(lists);
+    assertSame(fromSecondaries, ReadRouting.forRequest(ctx, collection));
+  }
+}
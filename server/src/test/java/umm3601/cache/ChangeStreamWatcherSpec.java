@@ -0,0 +1,160 @@
+package umm3601.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+
+/**
+ * Tests for the `ChangeStreamWatcher`.
+ *
+ * Change streams only work if MongoDB is running as a replica set, which
+ * usually isn't the case on our development machines or in CI. So some of
+ * these tests only run against a replica set, and some only run against a
+ * standalone server. To run the replica set tests locally, start a
+ * single-node replica set, e.g.,
+ *
+ *   mongod --replSet rs0 --dbpath /tmp/rs0
+ *   mongosh --eval "rs.initiate()"
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ChangeStreamWatcherSpec {
+
+  // How long we're willing to wait for the watcher to do something.
+  private static final long TIMEOUT_MILLIS = 10_000;
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> things;
+  private AtomicInteger changes;
+  private AtomicInteger gaps;
+  private ChangeStreamWatcher watcher;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    things = db.getCollection("things");
+    things.drop();
+    changes = new AtomicInteger();
+    gaps = new AtomicInteger();
+    watcher = new ChangeStreamWatcher(things, change -> changes.incrementAndGet(), gaps::incrementAndGet);
+    watcher.start();
+    waitUntilSettled();
+  }
+
+  @AfterEach
+  void teardownEach() {
+    watcher.close();
+  }
+
+  /**
+   * Wait until the watcher has either opened its change stream, or
+   * given up because change streams aren't supported.
+   */
+  private void waitUntilSettled() {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!watcher.isWatching() && watcher.isRunning() && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+  }
+
+  @Test
+  void stopsQuietlyWithoutAReplicaSet() {
+    assumeFalse(watcher.isWatching(), "MongoDB is running as a replica set");
+
+    assertFalse(watcher.isRunning());
+    assertEquals(0, gaps.get());
+  }
+
+  @Test
+  void reportsChangesOnAReplicaSet() throws InterruptedException {
+    assumeTrue(watcher.isWatching(), "MongoDB isn't running as a replica set");
+
+    things.insertOne(new Document("name", "thing one"));
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (changes.get() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, changes.get());
+  }
+
+  @Test
+  void onlyLooksUpUpdatedDocumentsWhenAskedTo() throws InterruptedException {
+    assumeTrue(watcher.isWatching(), "MongoDB isn't running as a replica set");
+    watcher.close();
+
+    List<ChangeStreamDocument<Document>> updates = new CopyOnWriteArrayList<>();
+    try (ChangeStreamWatcher plain = new ChangeStreamWatcher(things, updates::add, () -> { });
+        ChangeStreamWatcher lookingUp = new ChangeStreamWatcher(
+          things, FullDocument.UPDATE_LOOKUP, updates::add, () -> { })) {
+      plain.start();
+      lookingUp.start();
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (!(plain.isWatching() && lookingUp.isWatching()) && System.currentTimeMillis() < deadline) {
+        Thread.onSpinWait();
+      }
+
+      things.insertOne(new Document("_id", "one").append("name", "thing one"));
+      updates.clear();
+      things.updateOne(new Document("_id", "one"), new Document("$set", new Document("name", "thing two")));
+      while (updates.size() < 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+    }
+
+    assertEquals(2, updates.size());
+    assertEquals(1, updates.stream().filter(update -> update.getFullDocument() == null).count());
+    assertEquals(1, updates.stream()
+      .filter(update -> update.getFullDocument() != null)
+      .filter(update -> "thing two".equals(update.getFullDocument().getString("name")))
+      .count());
+  }
+
+  @Test
+  void stopsWhenClosed() {
+    watcher.close();
+
+    assertFalse(watcher.isRunning());
+    assertFalse(watcher.isWatching());
+    assertEquals(0, gaps.get());
+  }
+}
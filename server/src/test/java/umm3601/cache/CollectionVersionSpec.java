@@ -0,0 +1,120 @@
+package umm3601.cache;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Arrays;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Tests for `CollectionVersion`. Like `ChangeStreamWatcherSpec`, some of
+ * these only run against a replica set, and some only against a standalone
+ * server.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class CollectionVersionSpec {
+
+  // How long we're willing to wait for the version to do something.
+  private static final long TIMEOUT_MILLIS = 10_000;
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> things;
+  private CollectionVersion version;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    things = db.getCollection("things");
+    things.drop();
+    version = new CollectionVersion(things);
+    version.start();
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (version.current() == null && version.isRunning() && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+  }
+
+  @AfterEach
+  void teardownEach() {
+    version.close();
+  }
+
+  @Test
+  void isUnknownWithoutAReplicaSet() {
+    assumeTrue(version.current() == null, "MongoDB is running as a replica set");
+
+    assertFalse(version.isRunning());
+    assertNull(version.current());
+  }
+
+  @Test
+  void changesWhenTheCollectionDoes() throws InterruptedException {
+    assumeTrue(version.current() != null, "MongoDB isn't running as a replica set");
+    String before = version.current();
+
+    things.insertOne(new Document("name", "thing one"));
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (before.equals(version.current()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertNotNull(version.current());
+    assertNotEquals(before, version.current());
+  }
+
+  @Test
+  void isUnknownOnceClosed() {
+    version.close();
+
+    assertFalse(version.isRunning());
+    assertNull(version.current());
+  }
+
+  @Test
+  void differentVersionsStartDifferently() {
+    assumeTrue(version.current() != null, "MongoDB isn't running as a replica set");
+
+    try (CollectionVersion other = new CollectionVersion(things)) {
+      other.start();
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (other.current() == null && System.currentTimeMillis() < deadline) {
+        Thread.onSpinWait();
+      }
+      assertNotEquals(version.current(), other.current());
+    }
+  }
+}
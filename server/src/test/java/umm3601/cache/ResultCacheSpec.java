@@ -0,0 +1,136 @@
+package umm3601.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the `ResultCache`.
+ *
+ * These use a fake clock (`now`) that only moves when we move it, so we can
+ * test expiration without actually waiting for anything to expire.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ResultCacheSpec {
+
+  private static final Duration TTL = Duration.ofSeconds(30);
+
+  private long now;
+  private ResultCache<String, String> cache;
+
+  @BeforeEach
+  void setupEach() {
+    now = 0;
+    cache = new ResultCache<>(2, TTL, () -> now);
+  }
+
+  @Test
+  void missingKeysAreMisses() {
+    assertNull(cache.get("a"));
+
+    CacheStats stats = cache.stats();
+    assertEquals(0, stats.hits());
+    assertEquals(1, stats.misses());
+    assertEquals(0, stats.size());
+    assertEquals(2, stats.maxEntries());
+  }
+
+  @Test
+  void storedValuesAreHits() {
+    cache.put("a", "apple");
+
+    assertEquals("apple", cache.get("a"));
+    assertEquals(1, cache.stats().hits());
+    assertEquals(0, cache.stats().misses());
+  }
+
+  @Test
+  void leastRecentlyUsedEntryIsEvicted() {
+    cache.put("a", "apple");
+    cache.put("b", "banana");
+    // Using "a" makes "b" the least recently used entry.
+    cache.get("a");
+    cache.put("c", "cherry");
+
+    assertEquals(2, cache.size());
+    assertEquals("apple", cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals("cherry", cache.get("c"));
+    assertEquals(1, cache.stats().evictions());
+  }
+
+  @Test
+  void entriesExpireAfterTheirTtl() {
+    cache.put("a", "apple");
+
+    now = TTL.toNanos() - 1;
+    assertEquals("apple", cache.get("a"));
+
+    now = TTL.toNanos();
+    assertNull(cache.get("a"));
+    assertEquals(1, cache.stats().expirations());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void invalidateAllEmptiesTheCache() {
+    cache.put("a", "apple");
+    cache.put("b", "banana");
+
+    cache.invalidateAll();
+
+    assertEquals(0, cache.size());
+    assertNull(cache.get("a"));
+    assertEquals(1, cache.stats().invalidations());
+  }
+
+  @Test
+  void getOrLoadOnlyLoadsOnAMiss() {
+    AtomicInteger loads = new AtomicInteger();
+    Supplier<String> loader = () -> {
+      loads.incrementAndGet();
+      return "apple";
+    };
+
+    assertEquals("apple", cache.getOrLoad("a", loader));
+    assertEquals("apple", cache.getOrLoad("a", loader));
+
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.stats().hits());
+    assertEquals(1, cache.stats().misses());
+  }
+
+  @Test
+  void getOrLoadOnlyCachesValuesWorthCaching() {
+    assertEquals("watermelon", cache.getOrLoad("w", () -> "watermelon", value -> value.length() < 6));
+    assertEquals("fig", cache.getOrLoad("f", () -> "fig", value -> value.length() < 6));
+
+    assertNull(cache.get("w"));
+    assertEquals("fig", cache.get("f"));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void valuesLoadedDuringAnInvalidationAreNotCached() {
+    // Simulate the collection changing while the value is being loaded.
+    String loaded = cache.getOrLoad("a", () -> {
+      cache.invalidateAll();
+      return "stale apple";
+    });
+
+    assertEquals("stale apple", loaded);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void cacheMustHoldSomething() {
+    assertThrows(IllegalArgumentException.class, () -> new ResultCache<String, String>(0, TTL));
+  }
+}
@@ -0,0 +1,131 @@
+package umm3601.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for `SingleFlight`.
+ *
+ * The concurrent tests hold the first load open (with a latch) until
+ * everyone else has asked for the same key, so we know they overlapped.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class SingleFlightSpec {
+
+  private static final int CLIENTS = 50;
+
+  private SingleFlight<String, String> flights;
+  private AtomicInteger loads;
+
+  @BeforeEach
+  void setupEach() {
+    flights = new SingleFlight<>();
+    loads = new AtomicInteger();
+  }
+
+  private String load(String value) {
+    loads.incrementAndGet();
+    return value;
+  }
+
+  /**
+   * Wait for `count` requests to be waiting on someone else's load.
+   */
+  private void awaitShared(long count) throws InterruptedException {
+    while (flights.shared() < count) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  void concurrentRequestsShareOneLoad() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<Future<String>> results = new ArrayList<>();
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      results.add(clients.submit(() -> flights.load("ohmnet", () -> {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        return load("OHMNET users");
+      })));
+      // Make sure the first request is the one doing the loading.
+      while (flights.inFlight() == 0) {
+        Thread.sleep(1);
+      }
+      for (int i = 1; i < CLIENTS; i++) {
+        results.add(clients.submit(() -> flights.load("ohmnet", () -> load("someone else's users"))));
+      }
+      awaitShared(CLIENTS - 1);
+      release.countDown();
+
+      // Everyone got the first request's result.
+      for (Future<String> result : results) {
+        assertEquals("OHMNET users", result.get());
+      }
+    }
+    assertEquals(1, loads.get());
+    assertEquals(1, flights.loads());
+    assertEquals(CLIENTS - 1, flights.shared());
+    assertEquals(0, flights.inFlight());
+  }
+
+  @Test
+  void differentKeysLoadSeparately() {
+    assertEquals("OHMNET users", flights.load("ohmnet", () -> load("OHMNET users")));
+    assertEquals("IBM users", flights.load("ibm", () -> load("IBM users")));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void finishedLoadsAreNotReused() {
+    // Unlike a cache, nothing is kept once a load is done.
+    flights.load("ohmnet", () -> load("OHMNET users"));
+    flights.load("ohmnet", () -> load("OHMNET users"));
+    assertEquals(2, loads.get());
+    assertEquals(0, flights.shared());
+    assertEquals(0, flights.inFlight());
+  }
+
+  @Test
+  void everyoneWaitingGetsTheFailure() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      Future<String> leader = clients.submit(() -> flights.load("ohmnet", () -> {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        throw new IllegalArgumentException("The database went away");
+      }));
+      while (flights.inFlight() == 0) {
+        Thread.sleep(1);
+      }
+      Future<String> follower = clients.submit(() -> flights.load("ohmnet", () -> load("OHMNET users")));
+      awaitShared(1);
+      release.countDown();
+
+      Exception leaderFailure = assertThrows(Exception.class, leader::get);
+      Exception followerFailure = assertThrows(Exception.class, follower::get);
+      assertEquals(IllegalArgumentException.class, leaderFailure.getCause().getClass());
+      assertEquals(IllegalArgumentException.class, followerFailure.getCause().getClass());
+    }
+    assertEquals(0, loads.get());
+
+    // A failed load isn't remembered either.
+    assertEquals("OHMNET users", flights.load("ohmnet", () -> load("OHMNET users")));
+  }
+}
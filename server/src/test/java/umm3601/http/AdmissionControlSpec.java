@@ -0,0 +1,250 @@
+package umm3601.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+
+import umm3601.metrics.PrometheusWriter;
+
+/**
+ * Tests for `AdmissionControl`.
+ *
+ * Requests are "finished" by hand with made-up latencies, so we control
+ * exactly how the limit moves.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class AdmissionControlSpec {
+
+  private static final Duration TARGET_LATENCY = Duration.ofMillis(100);
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SLOW = TimeUnit.SECONDS.toNanos(1);
+
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  private static AdmissionControl withoutQueue(int minLimit, int maxLimit) {
+    return new AdmissionControl(minLimit, maxLimit, TARGET_LATENCY, 0, Duration.ZERO);
+  }
+
+  /**
+   * Wait for `count` requests to be waiting for a slot.
+   */
+  private static void awaitQueued(AdmissionControl admission, int count) throws InterruptedException {
+    while (admission.queued() < count) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  void admitsRequestsUpToTheLimit() {
+    AdmissionControl admission = withoutQueue(2, 10);
+
+    assertTrue(admission.tryAcquire());
+    assertTrue(admission.tryAcquire());
+    assertFalse(admission.tryAcquire());
+
+    assertEquals(2, admission.inFlight());
+    assertEquals(2, admission.admittedCount());
+    assertEquals(1, admission.rejectedCount());
+  }
+
+  @Test
+  void queuedRequestsGetFreedSlots() throws Exception {
+    AdmissionControl admission = new AdmissionControl(1, 1, TARGET_LATENCY, 1, Duration.ofSeconds(10));
+    assertTrue(admission.tryAcquire());
+
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      Future<Boolean> queued = clients.submit(admission::tryAcquire);
+      awaitQueued(admission, 1);
+      admission.release(FAST, false);
+      assertTrue(queued.get());
+    }
+    assertEquals(0, admission.queued());
+    assertEquals(1, admission.inFlight());
+  }
+
+  @Test
+  void queuedRequestsGiveUpEventually() {
+    AdmissionControl admission = new AdmissionControl(1, 1, TARGET_LATENCY, 1, Duration.ofMillis(10));
+    assertTrue(admission.tryAcquire());
+
+    assertFalse(admission.tryAcquire());
+    assertEquals(0, admission.queued());
+    assertEquals(1, admission.rejectedCount());
+  }
+
+  @Test
+  void aFullQueueRejectsRightAway() throws Exception {
+    AdmissionControl admission = new AdmissionControl(1, 1, TARGET_LATENCY, 1, Duration.ofSeconds(10));
+    assertTrue(admission.tryAcquire());
+
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      Future<Boolean> queued = clients.submit(admission::tryAcquire);
+      awaitQueued(admission, 1);
+      // There's no room to wait, so this doesn't wait for the 10 seconds.
+      assertFalse(admission.tryAcquire());
+      admission.release(FAST, false);
+      assertTrue(queued.get());
+    }
+  }
+
+  @Test
+  void fastRequestsRaiseTheLimitWhenItsInUse() {
+    AdmissionControl admission = withoutQueue(4, 6);
+    for (int i = 0; i < 4; i++) {
+      admission.tryAcquire();
+    }
+    for (int i = 0; i < 4; i++) {
+      admission.release(FAST, false);
+    }
+    // It only goes up to the maximum.
+    assertEquals(6, admission.limit());
+  }
+
+  @Test
+  void aQuietServerKeepsItsLimit() {
+    AdmissionControl admission = withoutQueue(4, 100);
+    for (int i = 0; i < 10; i++) {
+      admission.tryAcquire();
+      admission.release(FAST, false);
+    }
+    // Only one request at a time doesn't tell us we could handle more.
+    assertEquals(4, admission.limit());
+  }
+
+  @Test
+  void slowOrFailedRequestsLowerTheLimit() {
+    AdmissionControl admission = withoutQueue(4, 6);
+    for (int i = 0; i < 4; i++) {
+      admission.tryAcquire();
+    }
+    for (int i = 0; i < 4; i++) {
+      admission.release(FAST, false);
+    }
+    assertEquals(6, admission.limit());
+
+    admission.tryAcquire();
+    admission.release(SLOW, false);
+    assertEquals(5, admission.limit());
+
+    admission.tryAcquire();
+    admission.release(FAST, true);
+    assertEquals(4, admission.limit());
+
+    // It only goes down to the minimum.
+    admission.tryAcquire();
+    admission.release(SLOW, false);
+    assertEquals(4, admission.limit());
+  }
+
+  @Test
+  void startsAtTheInitialLimit() {
+    AdmissionControl admission = new AdmissionControl(2, 5, 10, TARGET_LATENCY, 0, Duration.ZERO);
+    assertEquals(5, admission.limit());
+
+    // A slow request still brings it down from there.
+    admission.tryAcquire();
+    admission.release(SLOW, false);
+    assertEquals(4, admission.limit());
+  }
+
+  @Test
+  void theInitialLimitMustBeInRange() {
+    assertThrows(IllegalArgumentException.class,
+      () -> new AdmissionControl(2, 1, 10, TARGET_LATENCY, 0, Duration.ZERO));
+    assertThrows(IllegalArgumentException.class,
+      () -> new AdmissionControl(2, 11, 10, TARGET_LATENCY, 0, Duration.ZERO));
+  }
+
+  @Test
+  void rejectedRequestsGetA503AndRetryAfter() {
+    AdmissionControl admission = withoutQueue(1, 1);
+    admission.admit(ctx);
+    verify(ctx).attribute(eq(AdmissionControl.ADMITTED_ATTRIBUTE), any());
+
+    assertThrows(ServiceUnavailableResponse.class, () -> admission.admit(ctx));
+    verify(ctx).header(AdmissionControl.RETRY_AFTER, "1");
+  }
+
+  @Test
+  void finishedRequestsGiveBackTheirSlot() {
+    AdmissionControl admission = withoutQueue(2, 10);
+    admission.admit(ctx);
+    admission.admit(ctx);
+    when(ctx.<Long>attribute(AdmissionControl.ADMITTED_ATTRIBUTE)).thenReturn(System.nanoTime());
+    when(ctx.statusCode()).thenReturn(200);
+
+    admission.finish(ctx);
+    assertEquals(1, admission.inFlight());
+  }
+
+  @Test
+  void rejectedRequestsHaveNoSlotToGiveBack() {
+    AdmissionControl admission = withoutQueue(1, 1);
+    admission.admit(ctx);
+    // A request that wasn't admitted doesn't have the attribute.
+    when(ctx.<Long>attribute(AdmissionControl.ADMITTED_ATTRIBUTE)).thenReturn(null);
+
+    admission.finish(ctx);
+    assertEquals(1, admission.inFlight());
+  }
+
+  @Test
+  void namedAdmissionControlsOnlyTakeBackTheirOwnRequests() {
+    AdmissionControl requests = withoutQueue(2, 10);
+    AdmissionControl lists = withoutQueue(2, 10);
+    lists.useName("list");
+    lists.admit(ctx);
+    verify(ctx).attribute(eq(AdmissionControl.ADMITTED_ATTRIBUTE + ".list"), any());
+    when(ctx.<Long>attribute(AdmissionControl.ADMITTED_ATTRIBUTE + ".list")).thenReturn(System.nanoTime());
+    when(ctx.statusCode()).thenReturn(200);
+
+    requests.tryAcquire();
+    requests.finish(ctx);
+    assertEquals(1, requests.inFlight());
+    lists.finish(ctx);
+    assertEquals(0, lists.inFlight());
+
+    PrometheusWriter writer = new PrometheusWriter();
+    lists.writeMetrics(writer);
+    assertTrue(writer.toString().contains("http_list_admission_limit 2"));
+  }
+
+  @Test
+  void servesItsMetrics() {
+    AdmissionControl admission = withoutQueue(3, 10);
+    admission.tryAcquire();
+
+    PrometheusWriter writer = new PrometheusWriter();
+    admission.writeMetrics(writer);
+    String metrics = writer.toString();
+    assertTrue(metrics.contains("http_admission_limit 3"));
+    assertTrue(metrics.contains("http_admission_in_flight 1"));
+    assertTrue(metrics.contains("http_admission_queued 0"));
+    assertTrue(metrics.contains("http_admission_rejected_total 0"));
+  }
+}
@@ -0,0 +1,161 @@
+package umm3601.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+import io.javalin.json.JavalinJackson;
+
+class CachedResponseSpec {
+
+  // Big enough (at 2000 bytes) to be worth compressing with `COMPRESSION`.
+  private static final byte[] BIG_BODY = "[\"hello\"],".repeat(200).getBytes(StandardCharsets.UTF_8);
+  private static final Compression COMPRESSION = new Compression(6, 3, 1000);
+
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+  }
+
+  @Test
+  void serializesValuesAsJson() {
+    CachedResponse response = CachedResponse.json(ctx, List.of("a", "b"), Map.of());
+
+    assertEquals("[\"a\",\"b\"]", new String(response.body(), StandardCharsets.UTF_8));
+    assertEquals(ContentType.JSON, response.contentType());
+  }
+
+  @Test
+  void writesHeadersBodyAndStatus() {
+    byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+    CachedResponse response = new CachedResponse(body, ContentType.PLAIN, Map.of("X-Test", "yes"));
+
+    response.writeTo(ctx);
+
+    verify(ctx).header("X-Test", "yes");
+    verify(ctx).contentType(ContentType.PLAIN);
+    verify(ctx).result(body);
+    verify(ctx).status(HttpStatus.OK);
+  }
+
+  @Test
+  void bodyCannotBeChangedFromOutside() {
+    byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+    CachedResponse response = new CachedResponse(body, ContentType.PLAIN, Map.of());
+
+    body[0] = 'j';
+    response.body()[1] = 'a';
+
+    assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), response.body());
+    assertEquals(5, response.length());
+  }
+
+  @Test
+  void sendsNotModifiedIfTheClientIsCurrent() {
+    byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+    CachedResponse response = new CachedResponse(body, ContentType.PLAIN, Map.of("X-Test", "yes"));
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(response.etag());
+
+    response.writeTo(ctx);
+
+    verify(ctx).header("X-Test", "yes");
+    verify(ctx).header(Header.ETAG, response.etag());
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx, never()).result(any(byte[].class));
+  }
+
+  @Test
+  void compressesForClientsThatAcceptIt() throws IOException {
+    CachedResponse response = new CachedResponse(BIG_BODY, ContentType.JSON, Map.of());
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip, deflate");
+
+    response.writeTo(ctx, COMPRESSION);
+
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).header(Header.VARY, Header.ACCEPT_ENCODING);
+    verify(ctx).header(Header.CONTENT_ENCODING, "gzip");
+    verify(ctx).header(Header.ETAG, ETags.forEncoding(response.etag(), "gzip"));
+    verify(ctx).minSizeForCompression(Integer.MAX_VALUE);
+    verify(ctx).contentType(ContentType.JSON);
+    verify(ctx).result(bodyCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    try (GZIPInputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(bodyCaptor.getValue()))) {
+      assertArrayEquals(BIG_BODY, gunzip.readAllBytes());
+    }
+  }
+
+  @Test
+  void compressesEachCodingOnlyOnce() {
+    CachedResponse response = new CachedResponse(BIG_BODY, ContentType.JSON, Map.of());
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("zstd");
+
+    response.writeTo(ctx, COMPRESSION);
+    response.writeTo(ctx, COMPRESSION);
+
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx, times(2)).result(bodyCaptor.capture());
+    // Both requests were sent the very same (cached) compressed bytes.
+    assertSame(bodyCaptor.getAllValues().get(0), bodyCaptor.getAllValues().get(1));
+  }
+
+  @Test
+  void sendsSmallBodiesUncompressed() {
+    byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+    CachedResponse response = new CachedResponse(body, ContentType.PLAIN, Map.of());
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip");
+
+    response.writeTo(ctx, COMPRESSION);
+
+    verify(ctx, never()).header(Header.CONTENT_ENCODING, "gzip");
+    verify(ctx).result(body);
+  }
+
+  @Test
+  void sendsUncompressedBodiesToClientsThatDontAcceptCompression() {
+    CachedResponse response = new CachedResponse(BIG_BODY, ContentType.JSON, Map.of());
+
+    response.writeTo(ctx, COMPRESSION);
+
+    verify(ctx).header(Header.VARY, Header.ACCEPT_ENCODING);
+    verify(ctx).header(Header.ETAG, response.etag());
+    verify(ctx).result(BIG_BODY);
+  }
+
+  @Test
+  void sendsNotModifiedForCompressedVersionsTheClientHas() {
+    CachedResponse response = new CachedResponse(BIG_BODY, ContentType.JSON, Map.of());
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip");
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(ETags.forEncoding(response.etag(), "gzip"));
+
+    response.writeTo(ctx, COMPRESSION);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx, never()).result(any(byte[].class));
+  }
+}
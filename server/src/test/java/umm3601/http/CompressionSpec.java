@@ -0,0 +1,148 @@
+package umm3601.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.github.luben.zstd.Zstd;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import jakarta.servlet.http.HttpServletResponse;
+
+import umm3601.http.Compression.Encoding;
+
+@SuppressWarnings({ "MagicNumber" })
+class CompressionSpec {
+
+  private static final byte[] BODY = "{\"name\":\"Chris\",\"company\":\"UMM\"},"
+    .repeat(100)
+    .getBytes(StandardCharsets.UTF_8);
+
+  private final Compression compression = new Compression(6, 3, 1500);
+
+  @Test
+  void noHeaderMeansNoCompression() {
+    assertEquals(Encoding.IDENTITY, Compression.negotiate(null));
+    assertEquals(Encoding.IDENTITY, Compression.negotiate(" "));
+  }
+
+  @Test
+  void prefersZstdToGzip() {
+    assertEquals(Encoding.ZSTD, Compression.negotiate("gzip, deflate, br, zstd"));
+    assertEquals(Encoding.GZIP, Compression.negotiate("gzip, deflate, br"));
+    assertEquals(Encoding.IDENTITY, Compression.negotiate("deflate, br"));
+  }
+
+  @Test
+  void respectsQualities() {
+    assertEquals(Encoding.GZIP, Compression.negotiate("zstd;q=0.5, gzip"));
+    assertEquals(Encoding.GZIP, Compression.negotiate("zstd;q=0, gzip;q=0.1"));
+    assertEquals(Encoding.IDENTITY, Compression.negotiate("gzip;q=0"));
+    assertEquals(Encoding.IDENTITY, Compression.negotiate("gzip;q=nonsense"));
+  }
+
+  @Test
+  void handlesWildcardsAndCase() {
+    assertEquals(Encoding.ZSTD, Compression.negotiate("*"));
+    assertEquals(Encoding.GZIP, Compression.negotiate("*, zstd;q=0"));
+    assertEquals(Encoding.GZIP, Compression.negotiate("GZIP"));
+  }
+
+  @Test
+  void gzipsBodies() throws IOException {
+    byte[] gzipped = compression.compress(BODY, Encoding.GZIP);
+
+    assertTrue(gzipped.length < BODY.length / 5);
+    try (GZIPInputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+      assertArrayEquals(BODY, gunzip.readAllBytes());
+    }
+  }
+
+  @Test
+  void zstdsBodies() {
+    byte[] compressed = compression.compress(BODY, Encoding.ZSTD);
+
+    assertTrue(compressed.length < BODY.length / 5);
+    assertArrayEquals(BODY, Zstd.decompress(compressed, BODY.length));
+  }
+
+  @Test
+  void identityLeavesBodiesAlone() {
+    assertSame(BODY, compression.compress(BODY, Encoding.IDENTITY));
+  }
+
+  @Test
+  void higherGzipLevelsAreNoBigger() {
+    Compression fastest = new Compression(1, 1, 0);
+    Compression smallest = new Compression(9, 19, 0);
+
+    assertTrue(smallest.compress(BODY, Encoding.GZIP).length <= fastest.compress(BODY, Encoding.GZIP).length);
+    assertEquals(9, smallest.gzipLevel());
+    assertEquals(0, smallest.minSize());
+  }
+
+  private static Context liveResponse(String acceptEncoding, byte[] body) {
+    Context ctx = mock(Context.class);
+    when(ctx.res()).thenReturn(mock(HttpServletResponse.class));
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn(acceptEncoding);
+    when(ctx.resultInputStream()).thenReturn(body == null ? null : new ByteArrayInputStream(body));
+    return ctx;
+  }
+
+  @Test
+  void zstdsLiveResponsesForClientsThatPreferIt() {
+    Context ctx = liveResponse("gzip, zstd", BODY);
+
+    compression.zstdCompress(ctx);
+
+    ArgumentCaptor<byte[]> resultCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).result(resultCaptor.capture());
+    assertArrayEquals(BODY, Zstd.decompress(resultCaptor.getValue(), BODY.length));
+    verify(ctx).header(Header.CONTENT_ENCODING, "zstd");
+    verify(ctx).header(Header.VARY, Header.ACCEPT_ENCODING);
+    verify(ctx).minSizeForCompression(Integer.MAX_VALUE);
+  }
+
+  @Test
+  void leavesGzipToJavalin() {
+    Context ctx = liveResponse("gzip", BODY);
+
+    compression.zstdCompress(ctx);
+
+    verify(ctx, never()).resultInputStream();
+    verify(ctx, never()).result(any(byte[].class));
+  }
+
+  @Test
+  void leavesSmallStreamedAndCompressedResponsesAlone() {
+    byte[] small = "[]".getBytes(StandardCharsets.UTF_8);
+    Context smallResponse = liveResponse("zstd", small);
+    compression.zstdCompress(smallResponse);
+    verify(smallResponse).result(small);
+    verify(smallResponse, never()).header(Header.CONTENT_ENCODING, "zstd");
+
+    Context streamed = liveResponse("zstd", null);
+    compression.zstdCompress(streamed);
+    verify(streamed, never()).result(any(byte[].class));
+
+    Context compressed = liveResponse("zstd", BODY);
+    when(compressed.res().getHeader(Header.CONTENT_ENCODING)).thenReturn("gzip");
+    compression.zstdCompress(compressed);
+    verify(compressed, never()).result(any(byte[].class));
+  }
+}
@@ -0,0 +1,147 @@
+package umm3601.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+class ETagsSpec {
+
+  private static final String ETAG = ETags.of("hello".getBytes(StandardCharsets.UTF_8));
+
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  @Test
+  void etagsAreQuotedAndDependOnTheBody() {
+    assertTrue(ETAG.startsWith("\"") && ETAG.endsWith("\""));
+    assertEquals(ETAG, ETags.of("hello".getBytes(StandardCharsets.UTF_8)));
+    assertNotEquals(ETAG, ETags.of("jello".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  void compressedBodiesGetTheirOwnTags() {
+    String gzipTag = ETags.forEncoding(ETAG, "gzip");
+
+    assertTrue(gzipTag.startsWith(ETAG.substring(0, ETAG.length() - 1)) && gzipTag.endsWith("-gzip\""));
+    assertNotEquals(ETags.forEncoding(ETAG, "zstd"), gzipTag);
+    assertFalse(ETags.matches(ETAG, gzipTag));
+  }
+
+  @Test
+  void matchesExactTags() {
+    assertTrue(ETags.matches(ETAG, ETAG));
+    assertFalse(ETags.matches("\"something-else\"", ETAG));
+    assertFalse(ETags.matches(null, ETAG));
+  }
+
+  @Test
+  void matchesTagsInLists() {
+    assertTrue(ETags.matches("\"a\", " + ETAG + ", \"b\"", ETAG));
+    assertFalse(ETags.matches("\"a\", \"b\"", ETAG));
+  }
+
+  @Test
+  void matchesWeakTagsAndWildcards() {
+    assertTrue(ETags.matches("W/" + ETAG, ETAG));
+    assertTrue(ETags.matches("*", ETAG));
+  }
+
+  @Test
+  void respondsNotModifiedWhenTheClientIsCurrent() {
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(ETAG);
+
+    assertTrue(ETags.notModified(ctx, ETAG));
+
+    verify(ctx).header(Header.ETAG, ETAG);
+    verify(ctx).header(Header.CACHE_CONTROL, ETags.REVALIDATE);
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+  }
+
+  @Test
+  void versionTagsAreWeakAndDependOnTheRequest() {
+    when(ctx.queryString()).thenReturn("company=OHMNET");
+    assertFalse(ETags.checkVersion(ctx, "abc-1"));
+    ArgumentCaptor<String> tagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(Mockito.eq(Header.ETAG), tagCaptor.capture());
+    String tag = tagCaptor.getValue();
+    assertTrue(tag.startsWith("W/\"abc-1-"), tag);
+
+    Mockito.reset(ctx);
+    when(ctx.queryString()).thenReturn("company=IBM");
+    ETags.checkVersion(ctx, "abc-1");
+    verify(ctx).header(Mockito.eq(Header.ETAG), tagCaptor.capture());
+    assertNotEquals(tag, tagCaptor.getValue());
+  }
+
+  @Test
+  void respondsNotModifiedWhenTheClientHasTheCurrentVersion() {
+    ETags.checkVersion(ctx, "abc-1");
+    ArgumentCaptor<String> tagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(Mockito.eq(Header.ETAG), tagCaptor.capture());
+
+    Mockito.reset(ctx);
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(tagCaptor.getValue());
+    assertTrue(ETags.checkVersion(ctx, "abc-1"));
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+
+    // Once the version changes, the client's copy is out of date.
+    Mockito.reset(ctx);
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(tagCaptor.getValue());
+    assertFalse(ETags.checkVersion(ctx, "abc-2"));
+    verify(ctx, never()).status(any(HttpStatus.class));
+  }
+
+  @Test
+  void unknownVersionsGetNoTag() {
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn("*");
+
+    assertFalse(ETags.checkVersion(ctx, null));
+
+    verify(ctx, never()).header(Mockito.eq(Header.ETAG), any());
+    verify(ctx, never()).status(any(HttpStatus.class));
+  }
+
+  @Test
+  void versionTagsAreNotReplaced() {
+    when(ctx.attribute(ETags.VERSION_ATTRIBUTE)).thenReturn("W/\"abc-1-0\"");
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(ETAG);
+
+    assertFalse(ETags.notModified(ctx, ETAG));
+
+    verify(ctx, never()).header(Mockito.eq(Header.ETAG), any());
+    verify(ctx, never()).status(any(HttpStatus.class));
+  }
+
+  @Test
+  void doesNothingElseWhenTheClientIsOutOfDate() {
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn("\"stale\"");
+
+    assertFalse(ETags.notModified(ctx, ETAG));
+
+    verify(ctx).header(Header.ETAG, ETAG);
+    verify(ctx, never()).status(any(HttpStatus.class));
+  }
+}
@@ -0,0 +1,125 @@
+package umm3601.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.json.JavalinJackson;
+
+/**
+ * Tests for `RawBsonJson`.
+ *
+ * The JSON it writes should be exactly what Jackson writes for the same
+ * documents, decoded, with their `_id`s as hex strings.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RawBsonJsonSpec {
+
+  private final RawBsonJson rawBsonJson = new RawBsonJson();
+  private final ObjectMapper mapper = JavalinJackson.defaultMapper();
+
+  private static Document user(String name, int age) {
+    return new Document()
+      .append("_id", new ObjectId())
+      .append("name", name)
+      .append("age", age)
+      .append("company", "UMM")
+      .append("email", name.toLowerCase() + "@umm.edu")
+      .append("role", "viewer");
+  }
+
+  private static RawBsonDocument raw(Document document) {
+    return new RawBsonDocument(document, new DocumentCodec());
+  }
+
+  private String transcode(Document... documents) {
+    Iterator<RawBsonDocument> raw = List.of(documents).stream().map(RawBsonJsonSpec::raw).iterator();
+    return new String(rawBsonJson.toJsonBytes(raw), StandardCharsets.UTF_8);
+  }
+
+  private String viaJackson(Document... documents) throws Exception {
+    for (Document document : documents) {
+      document.put("_id", document.getObjectId("_id").toHexString());
+    }
+    return mapper.writeValueAsString(List.of(documents));
+  }
+
+  @Test
+  void writesUsersAsJackson() throws Exception {
+    Document chris = user("Chris", 25);
+    Document pat = user("Pat", 37);
+
+    String transcoded = transcode(chris, pat);
+
+    assertEquals(viaJackson(chris, pat), transcoded);
+  }
+
+  @Test
+  void writesAnEmptyArrayForNoDocuments() {
+    assertEquals("[]", transcode());
+  }
+
+  @Test
+  void writesEveryTranscodedType() throws Exception {
+    Document document = user("Jamie", 41)
+      .append("score", 2.5)
+      .append("visits", 12_345_678_901L)
+      .append("active", true)
+      .append("manager", null)
+      .append("tags", List.of("a", "b", List.of(1, 2)))
+      .append("address", new Document("city", "Morris").append("zip", 56267));
+
+    String transcoded = transcode(document);
+
+    assertEquals(viaJackson(document), transcoded);
+  }
+
+  @Test
+  void escapesStrings() throws Exception {
+    Document document = user("Zoë \"the\" \\ é中😀\n\t", 30);
+
+    String transcoded = transcode(document);
+
+    assertEquals(viaJackson(document), transcoded);
+  }
+
+  @Test
+  void writesNestedObjectIdsAsHex() throws Exception {
+    ObjectId managerId = new ObjectId();
+    Document document = user("Sam", 45).append("managerId", managerId);
+
+    String transcoded = transcode(document);
+
+    assertTrue(transcoded.contains("\"managerId\":\"" + managerId.toHexString() + "\""));
+  }
+
+  @Test
+  void fallsBackForOtherTypes() throws Exception {
+    Document document = user("Pat", 37)
+      .append("joined", new Date(0))
+      .append("balance", Decimal128.parse("12.50"));
+    RawBsonDocument raw = raw(document);
+    assertFalse(RawBsonJson.isTranscodable(raw.getByteBuffer().array(), 0));
+
+    String transcoded = new String(
+      rawBsonJson.toJsonBytes(List.of(raw).iterator()), StandardCharsets.UTF_8);
+
+    // It's written just as the decoded document would be.
+    Document decoded = raw.decode(new DocumentCodec());
+    assertEquals(viaJackson(decoded), transcoded);
+  }
+}
@@ -0,0 +1,201 @@
+package umm3601.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.json.JavalinJackson;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+import umm3601.http.Representations.Format;
+
+/**
+ * Tests for `Representations`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RepresentationsSpec {
+
+  private static final List<Map<String, Object>> USERS = List.of(
+    Map.of("name", "Chris", "age", 25, "company", "UMM"),
+    Map.of("name", "Pat", "age", 37, "company", "IBM"));
+
+  private static final Representations REPRESENTATIONS = new Representations();
+
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+  }
+
+  private void attach(String accept) {
+    when(ctx.<Representations>attribute(Representations.ATTRIBUTE)).thenReturn(REPRESENTATIONS);
+    when(ctx.header(Header.ACCEPT)).thenReturn(accept);
+  }
+
+  @Test
+  void jsonIsTheDefault() {
+    assertEquals(Format.JSON, Representations.negotiate(null));
+    assertEquals(Format.JSON, Representations.negotiate(""));
+    assertEquals(Format.JSON, Representations.negotiate("*/*"));
+    assertEquals(Format.JSON, Representations.negotiate("text/html, application/xhtml+xml, */*;q=0.8"));
+    // Nothing we can produce, so JSON is as good as anything.
+    assertEquals(Format.JSON, Representations.negotiate("text/csv"));
+  }
+
+  @Test
+  void clientsCanAskForBinaryFormats() {
+    assertEquals(Format.CBOR, Representations.negotiate("application/cbor"));
+    assertEquals(Format.SMILE, Representations.negotiate("application/x-jackson-smile"));
+    assertEquals(Format.MSGPACK, Representations.negotiate("application/msgpack"));
+  }
+
+  @Test
+  void theHighestQualityWins() {
+    assertEquals(Format.CBOR, Representations.negotiate("application/json;q=0.5, application/cbor"));
+    assertEquals(Format.JSON, Representations.negotiate("application/json, application/cbor;q=0.9"));
+    // Ties go to the format we prefer.
+    assertEquals(Format.CBOR, Representations.negotiate("application/msgpack, application/cbor"));
+    assertEquals(Format.JSON, Representations.negotiate("application/*"));
+  }
+
+  @Test
+  void theMostSpecificRangeWins() {
+    assertEquals(Format.CBOR, Representations.negotiate("application/json;q=0, */*"));
+    assertEquals(Format.CBOR, Representations.negotiate("application/json;q=0, application/*;q=0.5, */*"));
+    assertEquals(Format.MSGPACK,
+      Representations.negotiate("application/msgpack;q=0.2, application/*;q=0, */*"));
+  }
+
+  @Test
+  void eachFormatHoldsTheSameData() throws IOException {
+    assertEquals(USERS, read(new ObjectMapper(), REPRESENTATIONS.serialize(Format.JSON, USERS)));
+    assertEquals(USERS, read(new ObjectMapper(new CBORFactory()), REPRESENTATIONS.serialize(Format.CBOR, USERS)));
+    assertEquals(USERS, read(new ObjectMapper(new SmileFactory()), REPRESENTATIONS.serialize(Format.SMILE, USERS)));
+    assertEquals(USERS,
+      read(new ObjectMapper(new MessagePackFactory()), REPRESENTATIONS.serialize(Format.MSGPACK, USERS)));
+  }
+
+  private static List<?> read(ObjectMapper mapper, byte[] body) throws IOException {
+    return mapper.readValue(body, List.class);
+  }
+
+  @Test
+  void binaryFormatsAreSmallerThanJson() {
+    int json = REPRESENTATIONS.serialize(Format.JSON, USERS).length;
+    assertTrue(REPRESENTATIONS.serialize(Format.CBOR, USERS).length < json);
+    assertTrue(REPRESENTATIONS.serialize(Format.MSGPACK, USERS).length < json);
+  }
+
+  @Test
+  void withoutRepresentationsEverythingIsJson() {
+    when(ctx.header(Header.ACCEPT)).thenReturn("application/cbor");
+
+    Representations.write(ctx, USERS);
+
+    assertEquals(Format.JSON, Representations.formatFor(ctx));
+    verify(ctx).json(USERS);
+    verify(ctx, never()).header(Header.VARY, Header.ACCEPT);
+  }
+
+  @Test
+  void writesJsonWithCtxJson() {
+    attach("application/json");
+
+    Representations.write(ctx, USERS);
+
+    verify(ctx).json(USERS);
+    verify(ctx).header(Header.VARY, Header.ACCEPT);
+  }
+
+  @Test
+  void writesTheFormatTheClientAskedFor() throws IOException {
+    attach("application/cbor");
+
+    Representations.write(ctx, USERS);
+
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).header(Header.VARY, Header.ACCEPT);
+    verify(ctx).contentType("application/cbor");
+    verify(ctx).result(bodyCaptor.capture());
+    verify(ctx, never()).json(any());
+    assertEquals(USERS, read(new ObjectMapper(new CBORFactory()), bodyCaptor.getValue()));
+  }
+
+  @Test
+  void streamsTheFormatTheClientAskedFor() throws IOException {
+    attach("application/x-jackson-smile");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {
+        // Writes never block, so there's nothing to listen for.
+      }
+
+      @Override
+      public void write(int b) {
+        out.write(b);
+      }
+    });
+
+    Representations.writeStream(ctx, USERS.stream());
+
+    verify(ctx).contentType("application/x-jackson-smile");
+    verify(ctx, never()).writeJsonStream(any(Stream.class));
+    assertEquals(USERS, read(new ObjectMapper(new SmileFactory()), out.toByteArray()));
+  }
+
+  @Test
+  void cachedResponsesUseTheNegotiatedFormat() throws IOException {
+    attach("application/msgpack");
+
+    CachedResponse response = CachedResponse.of(ctx, USERS, Map.of("X-Test", "yes"));
+
+    assertEquals("application/msgpack", response.contentType());
+    assertEquals(USERS, read(new ObjectMapper(new MessagePackFactory()), response.body()));
+
+    // The response varies on both `Accept` and (once compression is in
+    // play) `Accept-Encoding`.
+    response.writeTo(ctx, new Compression(6, 3, 0));
+    verify(ctx).header(Header.VARY, Header.ACCEPT + ", " + Header.ACCEPT_ENCODING);
+    verify(ctx).header("X-Test", "yes");
+  }
+
+  @Test
+  void cachedResponsesWithoutRepresentationsAreJson() {
+    CachedResponse response = CachedResponse.of(ctx, USERS, Map.of());
+
+    assertEquals(ContentType.JSON, response.contentType());
+  }
+}
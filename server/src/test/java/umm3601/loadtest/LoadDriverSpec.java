@@ -0,0 +1,111 @@
+package umm3601.loadtest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests `LoadDriver` against a stand-in server (the JDK's own little HTTP
+ * server), which answers every tenth request with a 503.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class LoadDriverSpec {
+
+  private HttpServer server;
+  private final AtomicLong served = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private LoadDriver driver;
+
+  @BeforeEach
+  void setupEach() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/api/users", exchange -> {
+      boolean fail = served.incrementAndGet() % 10 == 0;
+      if (fail) {
+        failed.incrementAndGet();
+      }
+      exchange.sendResponseHeaders(fail ? 503 : 200, -1);
+      exchange.close();
+    });
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.start();
+
+    driver = new LoadDriver(
+      HttpClient.newHttpClient(),
+      URI.create("http://localhost:" + server.getAddress().getPort()),
+      new UserQueryMix(List.of("OHMNET", "NIQUENT", "SURELOGIC"), 1));
+  }
+
+  @AfterEach
+  void teardown() {
+    server.stop(0);
+  }
+
+  @Test
+  void closedLoopKeepsSendingRequests() {
+    LoadReport report = driver.closedLoop(4, Duration.ofMillis(500));
+
+    assertTrue(report.requests() > 0);
+    assertEquals(served.get(), report.requests());
+    assertEquals(failed.get(), report.errors());
+    assertEquals(failed.get() / (double) served.get(), report.errorRate(), 0.0001);
+    assertTrue(report.throughput() > 0);
+    assertTrue(report.p50().compareTo(report.p99()) <= 0);
+    assertTrue(report.p99().compareTo(report.p999()) <= 0);
+    assertTrue(report.p999().compareTo(report.max()) <= 0);
+  }
+
+  @Test
+  void openLoopSendsRequestsAtTheGivenRate() {
+    LoadReport report = driver.openLoop(200, Duration.ofMillis(500));
+
+    // 200 requests a second for half a second.
+    assertEquals(100, report.requests(), 5);
+    assertEquals(served.get(), report.requests());
+    assertEquals(failed.get(), report.errors());
+    assertTrue(report.p50().compareTo(report.max()) <= 0);
+  }
+
+  @Test
+  void eachRunIsReportedSeparately() {
+    driver.openLoop(200, Duration.ofMillis(200));
+    long first = served.get();
+
+    LoadReport report = driver.openLoop(200, Duration.ofMillis(200));
+
+    assertEquals(served.get() - first, report.requests());
+  }
+
+  @Test
+  void countsRequestsThatCantConnectAsErrors() {
+    server.stop(0);
+
+    LoadReport report = driver.closedLoop(1, Duration.ofMillis(100));
+
+    assertTrue(report.requests() > 0);
+    assertEquals(report.requests(), report.errors());
+    assertEquals(1.0, report.errorRate());
+    assertEquals(Duration.ZERO, report.p50());
+  }
+
+  @Test
+  void rejectsNoClientsOrNoRate() {
+    assertThrows(IllegalArgumentException.class, () -> driver.closedLoop(0, Duration.ofMillis(100)));
+    assertThrows(IllegalArgumentException.class, () -> driver.openLoop(0, Duration.ofMillis(100)));
+  }
+}
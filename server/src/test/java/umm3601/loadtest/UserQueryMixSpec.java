@@ -0,0 +1,72 @@
+package umm3601.loadtest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({ "MagicNumber" })
+class UserQueryMixSpec {
+
+  private static final List<String> COMPANIES = List.of("OHMNET", "NIQUENT", "SURELOGIC");
+
+  private static List<String> requests(UserQueryMix mix, int count) {
+    List<String> requests = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      requests.add(mix.next());
+    }
+    return requests;
+  }
+
+  @Test
+  void mixesFilters() {
+    List<String> requests = requests(new UserQueryMix(COMPANIES, 1), 1000);
+
+    assertTrue(requests.stream().allMatch(request -> request.startsWith("/api/users")));
+    assertTrue(requests.stream().anyMatch(request -> request.contains("limit=")));
+    assertTrue(requests.stream().anyMatch(request -> request.contains("age=") && !request.contains("company=")));
+    assertTrue(requests.stream().anyMatch(request -> request.contains("age=") && request.contains("company=")));
+    assertTrue(requests.stream().anyMatch(request -> request.contains("companyMatch=exact")));
+    assertTrue(requests.stream().anyMatch(request -> request.contains("companyMatch=contains")));
+    assertTrue(requests.stream().anyMatch(request -> request.contains("fields=")));
+    // Prefix matches (the default) don't say how they match.
+    assertTrue(requests.stream()
+      .anyMatch(request -> request.contains("company=") && !request.contains("companyMatch")));
+  }
+
+  @Test
+  void looksForTheGivenCompanies() {
+    Set<String> companies = new HashSet<>();
+    for (String request : requests(new UserQueryMix(COMPANIES, 1), 1000)) {
+      if (request.contains("companyMatch=exact")) {
+        companies.add(request.replaceAll(".*company=([A-Z]+).*", "$1"));
+      }
+    }
+
+    assertEquals(Set.copyOf(COMPANIES), companies);
+  }
+
+  @Test
+  void theSameSeedMakesTheSameRequests() {
+    assertEquals(requests(new UserQueryMix(COMPANIES, 7), 100), requests(new UserQueryMix(COMPANIES, 7), 100));
+  }
+
+  @Test
+  void splitsMakeDifferentRequests() {
+    UserQueryMix mix = new UserQueryMix(COMPANIES, 7);
+
+    assertNotEquals(requests(mix.split(), 100), requests(mix.split(), 100));
+  }
+
+  @Test
+  void rejectsNoCompanies() {
+    assertThrows(IllegalArgumentException.class, () -> new UserQueryMix(List.of(), 1));
+  }
+}
@@ -0,0 +1,99 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for `LatencyHistogram`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class LatencyHistogramSpec {
+
+  private LatencyHistogram histogram;
+
+  @BeforeEach
+  void setupEach() {
+    histogram = new LatencyHistogram();
+  }
+
+  @Test
+  void emptyHistogramsAreAllZeros() {
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.sumNanos());
+    assertEquals(0, histogram.maxNanos());
+    assertEquals(0, histogram.percentileNanos(0.5));
+  }
+
+  @Test
+  void keepsCountSumAndMax() {
+    histogram.record(1_000);
+    histogram.record(5_000);
+    histogram.record(3_000);
+
+    assertEquals(3, histogram.count());
+    assertEquals(9_000, histogram.sumNanos());
+    assertEquals(5_000, histogram.maxNanos());
+  }
+
+  @Test
+  void percentilesAreWithinTwentyPercent() {
+    // 1ms, 2ms, ..., 1000ms
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+
+    assertClose(TimeUnit.MILLISECONDS.toNanos(500), histogram.percentileNanos(0.5));
+    assertClose(TimeUnit.MILLISECONDS.toNanos(900), histogram.percentileNanos(0.9));
+    assertClose(TimeUnit.MILLISECONDS.toNanos(990), histogram.percentileNanos(0.99));
+    // p100 is just the max, which we know exactly.
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), histogram.percentileNanos(1.0));
+  }
+
+  private static void assertClose(long expected, long actual) {
+    assertTrue(actual >= expected, "Estimate " + actual + " was lower than " + expected);
+    assertTrue(actual <= expected * 1.2, "Estimate " + actual + " was more than 20% over " + expected);
+  }
+
+  @Test
+  void estimatesNeverExceedTheMax() {
+    histogram.record(1_234_567);
+
+    assertEquals(1_234_567, histogram.percentileNanos(0.5));
+  }
+
+  @Test
+  void handlesExtremeLatencies() {
+    histogram.record(-5);
+    histogram.record(0);
+    histogram.record(TimeUnit.MINUTES.toNanos(10));
+
+    assertEquals(3, histogram.count());
+    assertEquals(0, histogram.percentileNanos(0.5));
+    assertEquals(TimeUnit.MINUTES.toNanos(10), histogram.percentileNanos(1.0));
+  }
+
+  @Test
+  void canBeRecordedToFromManyThreadsAtOnce() throws InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      threads.add(Thread.ofVirtual().start(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          histogram.record(1_000);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(80_000, histogram.count());
+    assertEquals(80_000_000, histogram.sumNanos());
+  }
+}
@@ -0,0 +1,67 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests for the `MetricsController`.
+ */
+class MetricsControllerSpec {
+
+  private PoolMetrics poolMetrics;
+  private RouteMetrics routeMetrics;
+  private MetricsController metricsController;
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    poolMetrics = new PoolMetrics();
+    routeMetrics = new RouteMetrics();
+    metricsController = new MetricsController(poolMetrics, routeMetrics);
+    ctx = mock(Context.class);
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin mockServer = mock(Javalin.class);
+    metricsController.addRoutes(mockServer);
+    verify(mockServer, Mockito.atLeast(1)).get(any(), any());
+  }
+
+  @Test
+  void getsPoolMetrics() {
+    metricsController.getPoolMetrics(ctx);
+
+    ArgumentCaptor<PoolStats> statsCaptor = ArgumentCaptor.forClass(PoolStats.class);
+    verify(ctx).json(statsCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(poolMetrics.stats(), statsCaptor.getValue());
+  }
+
+  @Test
+  void getsAllMetricsForPrometheus() {
+    routeMetrics.record("GET", "/api/users", 200, 1_000_000, 100);
+
+    metricsController.getMetrics(ctx);
+
+    ArgumentCaptor<String> bodyCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).contentType(PrometheusWriter.CONTENT_TYPE);
+    verify(ctx).result(bodyCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    String body = bodyCaptor.getValue();
+    assertTrue(body.contains("http_server_requests_total{method=\"GET\",route=\"/api/users\",status=\"200\"} 1\n"));
+    assertTrue(body.contains("mongodb_pool_checked_out 0\n"));
+  }
+}
@@ -0,0 +1,192 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ConnectionPoolSettings;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolClearedEvent;
+import com.mongodb.event.ConnectionPoolClosedEvent;
+import com.mongodb.event.ConnectionPoolCreatedEvent;
+
+/**
+ * Tests for `PoolMetrics`.
+ *
+ * Most of these hand `PoolMetrics` the events the driver would, so we can
+ * control exactly what happens (and how long it takes). The last one
+ * checks that a real client actually calls it.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class PoolMetricsSpec {
+
+  private static final ServerId SERVER_ID = new ServerId(new ClusterId(), new ServerAddress("localhost"));
+  private static final ConnectionId CONNECTION_ID = new ConnectionId(SERVER_ID);
+
+  private PoolMetrics poolMetrics;
+
+  @BeforeEach
+  void setupEach() {
+    poolMetrics = new PoolMetrics();
+  }
+
+  private void checkOut(long operationId, long waitMillis) {
+    poolMetrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(SERVER_ID, operationId));
+    poolMetrics.connectionCheckedOut(
+      new ConnectionCheckedOutEvent(CONNECTION_ID, operationId, TimeUnit.MILLISECONDS.toNanos(waitMillis)));
+  }
+
+  @Test
+  void startsAtZero() {
+    PoolStats stats = poolMetrics.stats();
+    assertEquals(0, stats.checkedOut());
+    assertEquals(0, stats.waiting());
+    assertEquals(0, stats.checkouts());
+    assertEquals(0.0, stats.averageWaitMillis());
+    assertEquals(0L, stats.checkoutFailures().get("TIMEOUT"));
+  }
+
+  @Test
+  void recordsThePoolSize() {
+    poolMetrics.connectionPoolCreated(
+      new ConnectionPoolCreatedEvent(SERVER_ID, ConnectionPoolSettings.builder().maxSize(17).build()));
+
+    assertEquals(17, poolMetrics.stats().maxSize());
+  }
+
+  @Test
+  void addsUpThePoolSizesOfEveryServer() {
+    ServerId secondary = new ServerId(SERVER_ID.getClusterId(), new ServerAddress("localhost", 27018));
+    ServerId arbiter = new ServerId(SERVER_ID.getClusterId(), new ServerAddress("localhost", 27019));
+    ConnectionPoolSettings settings = ConnectionPoolSettings.builder().maxSize(10).build();
+    poolMetrics.connectionPoolCreated(new ConnectionPoolCreatedEvent(SERVER_ID, settings));
+    poolMetrics.connectionPoolCreated(new ConnectionPoolCreatedEvent(secondary, settings));
+    poolMetrics.connectionPoolCreated(new ConnectionPoolCreatedEvent(arbiter, settings));
+    poolMetrics.connectionPoolClosed(new ConnectionPoolClosedEvent(arbiter));
+
+    assertEquals(20, poolMetrics.stats().maxSize());
+  }
+
+  @Test
+  void countsCheckoutsAndWaits() {
+    checkOut(1, 2);
+    checkOut(2, 6);
+    // One more that's started, but is still waiting for a connection.
+    poolMetrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(SERVER_ID, 3));
+
+    PoolStats stats = poolMetrics.stats();
+    assertEquals(2, stats.checkedOut());
+    assertEquals(2, stats.peakCheckedOut());
+    assertEquals(1, stats.waiting());
+    assertEquals(2, stats.checkouts());
+    assertEquals(4.0, stats.averageWaitMillis(), 0.001);
+    assertEquals(6.0, stats.maxWaitMillis(), 0.001);
+  }
+
+  @Test
+  void checkInsFreeConnectionsButKeepThePeak() {
+    checkOut(1, 0);
+    checkOut(2, 0);
+    poolMetrics.connectionCheckedIn(new ConnectionCheckedInEvent(CONNECTION_ID, 1));
+    poolMetrics.connectionCheckedIn(new ConnectionCheckedInEvent(CONNECTION_ID, 2));
+    checkOut(3, 0);
+
+    PoolStats stats = poolMetrics.stats();
+    assertEquals(1, stats.checkedOut());
+    assertEquals(2, stats.peakCheckedOut());
+    assertEquals(3, stats.checkouts());
+  }
+
+  @Test
+  void countsFailuresByReason() {
+    poolMetrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(SERVER_ID, 1));
+    poolMetrics.connectionCheckOutFailed(new ConnectionCheckOutFailedEvent(
+      SERVER_ID, 1, ConnectionCheckOutFailedEvent.Reason.TIMEOUT, TimeUnit.MILLISECONDS.toNanos(120)));
+
+    PoolStats stats = poolMetrics.stats();
+    assertEquals(0, stats.waiting());
+    assertEquals(0, stats.checkedOut());
+    assertEquals(0, stats.checkouts());
+    assertEquals(1L, stats.checkoutFailures().get("TIMEOUT"));
+    assertEquals(0L, stats.checkoutFailures().get("POOL_CLOSED"));
+    // Failed checkouts count towards the longest wait, but not the average.
+    assertEquals(120.0, stats.maxWaitMillis(), 0.001);
+    assertEquals(0.0, stats.averageWaitMillis());
+  }
+
+  @Test
+  void averagesOnlyTheSuccessfulCheckoutsWaits() {
+    checkOut(1, 4);
+    poolMetrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(SERVER_ID, 2));
+    poolMetrics.connectionCheckOutFailed(new ConnectionCheckOutFailedEvent(
+      SERVER_ID, 2, ConnectionCheckOutFailedEvent.Reason.TIMEOUT, TimeUnit.MILLISECONDS.toNanos(120)));
+
+    PoolStats stats = poolMetrics.stats();
+    assertEquals(4.0, stats.averageWaitMillis(), 0.001);
+    assertEquals(120.0, stats.maxWaitMillis(), 0.001);
+  }
+
+  @Test
+  void countsOpenConnectionsAndClears() {
+    poolMetrics.connectionCreated(new ConnectionCreatedEvent(CONNECTION_ID));
+    poolMetrics.connectionCreated(new ConnectionCreatedEvent(CONNECTION_ID));
+    poolMetrics.connectionClosed(new ConnectionClosedEvent(CONNECTION_ID, ConnectionClosedEvent.Reason.STALE));
+    poolMetrics.connectionPoolCleared(new ConnectionPoolClearedEvent(SERVER_ID));
+
+    PoolStats stats = poolMetrics.stats();
+    assertEquals(1, stats.openConnections());
+    assertEquals(1, stats.poolClears());
+  }
+
+  @Test
+  void writesPrometheusMetrics() {
+    checkOut(1, 1500);
+    poolMetrics.connectionCheckOutFailed(new ConnectionCheckOutFailedEvent(
+      SERVER_ID, 2, ConnectionCheckOutFailedEvent.Reason.TIMEOUT, 0));
+
+    PrometheusWriter writer = new PrometheusWriter();
+    poolMetrics.writeMetrics(writer);
+    String text = writer.toString();
+
+    assertTrue(text.contains("mongodb_pool_checked_out 1\n"));
+    assertTrue(text.contains("mongodb_pool_checkouts_total 1\n"));
+    assertTrue(text.contains("mongodb_pool_checkout_wait_seconds_max 1.5\n"));
+    assertTrue(text.contains("mongodb_pool_checkout_failures_total{reason=\"TIMEOUT\"} 1\n"));
+  }
+
+  @Test
+  void seesARealClientsCheckouts() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    try (MongoClient mongoClient = MongoClients.create(MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .applyToConnectionPoolSettings(builder -> builder.maxSize(5).addConnectionPoolListener(poolMetrics))
+        .build())) {
+      mongoClient.getDatabase("test").runCommand(new Document("ping", 1));
+
+      PoolStats stats = poolMetrics.stats();
+      assertEquals(5, stats.maxSize());
+      assertTrue(stats.checkouts() >= 1);
+      assertTrue(stats.openConnections() >= 1);
+      // The ping is done, so its connection is back in the pool.
+      assertEquals(0, stats.checkedOut());
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for `PrometheusWriter`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class PrometheusWriterSpec {
+
+  @Test
+  void writesMetricsAndSamples() {
+    String text = new PrometheusWriter()
+      .metric("requests_total", "counter", "Requests handled.")
+      .sample("requests_total", 12, "route", "/api/users", "status", "200")
+      .sample("requests_total", 3)
+      .toString();
+
+    assertEquals("""
+      # HELP requests_total Requests handled.
+      # TYPE requests_total counter
+      requests_total{route="/api/users",status="200"} 12
+      requests_total 3
+      """, text);
+  }
+
+  @Test
+  void writesFractionsAsDecimals() {
+    assertEquals("latency 0.25\n", new PrometheusWriter().sample("latency", 0.25).toString());
+  }
+
+  @Test
+  void escapesLabelValues() {
+    String text = new PrometheusWriter().sample("odd", 1, "route", "a\"b\\c\nd").toString();
+
+    assertEquals("odd{route=\"a\\\"b\\\\c\\nd\"} 1\n", text);
+  }
+}
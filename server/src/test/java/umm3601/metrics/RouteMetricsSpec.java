@@ -0,0 +1,106 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Tests for `RouteMetrics`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RouteMetricsSpec {
+
+  private RouteMetrics routeMetrics;
+  private Context ctx;
+  private HttpServletResponse res;
+
+  @BeforeEach
+  void setupEach() {
+    routeMetrics = new RouteMetrics();
+    ctx = mock(Context.class);
+    res = mock(HttpServletResponse.class);
+    when(ctx.res()).thenReturn(res);
+    when(ctx.method()).thenReturn(HandlerType.GET);
+  }
+
+  private String metrics() {
+    PrometheusWriter writer = new PrometheusWriter();
+    routeMetrics.writeMetrics(writer);
+    return writer.toString();
+  }
+
+  @Test
+  void startNotesTheStartTime() {
+    routeMetrics.start(ctx);
+
+    verify(ctx).attribute(eq(RouteMetrics.START_ATTRIBUTE), any(Long.class));
+  }
+
+  @Test
+  void finishRecordsTheRequest() {
+    when(ctx.<Long>attribute(RouteMetrics.START_ATTRIBUTE)).thenReturn(System.nanoTime());
+    when(ctx.endpointHandlerPath()).thenReturn("/api/users/{id}");
+    when(ctx.statusCode()).thenReturn(200);
+    when(res.getHeader(Header.CONTENT_LENGTH)).thenReturn("42");
+
+    routeMetrics.finish(ctx, 1.5f);
+
+    String text = metrics();
+    String labels = "method=\"GET\",route=\"/api/users/{id}\"";
+    assertTrue(text.contains("http_server_requests_total{" + labels + ",status=\"200\"} 1\n"));
+    assertTrue(text.contains("http_server_request_duration_seconds_count{" + labels + "} 1\n"));
+    assertTrue(text.contains("http_server_response_size_bytes_total{" + labels + "} 42\n"));
+  }
+
+  @Test
+  void finishFallsBackOnJavalinsTiming() {
+    // No start time, and no content length.
+    when(ctx.endpointHandlerPath()).thenReturn("/api/users");
+    when(ctx.statusCode()).thenReturn(200);
+
+    routeMetrics.finish(ctx, 250f);
+
+    String text = metrics();
+    assertTrue(text.contains(
+      "http_server_request_duration_seconds_max{method=\"GET\",route=\"/api/users\"} 0.25\n"));
+    assertTrue(text.contains("http_server_response_size_bytes_total{method=\"GET\",route=\"/api/users\"} 0\n"));
+  }
+
+  @Test
+  void unmatchedRequestsShareARoute() {
+    when(ctx.statusCode()).thenReturn(404);
+    when(ctx.endpointHandlerPath()).thenReturn("");
+    routeMetrics.finish(ctx, 1f);
+    when(ctx.endpointHandlerPath()).thenThrow(new IllegalStateException());
+    routeMetrics.finish(ctx, 1f);
+
+    assertTrue(metrics().contains(
+      "http_server_requests_total{method=\"GET\",route=\"" + RouteMetrics.UNMATCHED_ROUTE + "\",status=\"404\"} 2\n"));
+  }
+
+  @Test
+  void countsEachStatusSeparately() {
+    routeMetrics.record("GET", "/api/users", 200, 1_000_000, 10);
+    routeMetrics.record("GET", "/api/users", 200, 2_000_000, 10);
+    routeMetrics.record("GET", "/api/users", 400, 500_000, 5);
+
+    String text = metrics();
+    assertTrue(text.contains("http_server_requests_total{method=\"GET\",route=\"/api/users\",status=\"200\"} 2\n"));
+    assertTrue(text.contains("http_server_requests_total{method=\"GET\",route=\"/api/users\",status=\"400\"} 1\n"));
+    assertTrue(text.contains("http_server_request_duration_seconds_count{method=\"GET\",route=\"/api/users\"} 3\n"));
+    assertTrue(text.contains(
+      "http_server_request_duration_seconds{method=\"GET\",route=\"/api/users\",quantile=\"0.99\"} 0.002\n"));
+    assertTrue(text.contains("http_server_response_size_bytes_total{method=\"GET\",route=\"/api/users\"} 25\n"));
+  }
+}
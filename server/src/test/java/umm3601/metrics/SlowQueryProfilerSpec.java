@@ -0,0 +1,177 @@
+package umm3601.metrics;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Tests for `SlowQueryProfiler`.
+ *
+ * Most of these check how it reads commands and explanations, using ones
+ * shaped like what the driver and MongoDB produce. The rest run queries
+ * with a real client, with the explains run right away (rather than in
+ * the background) so we can check what they found.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class SlowQueryProfilerSpec {
+
+  @Test
+  void leavesTheDriversFieldsOutOfExplains() {
+    BsonDocument command = BsonDocument.parse(
+      "{find: 'users', filter: {age: 37}, $db: 'test', lsid: {id: 1}, $clusterTime: {}}");
+    assertEquals(BsonDocument.parse("{find: 'users', filter: {age: 37}}"), SlowQueryProfiler.queryOf(command));
+  }
+
+  @Test
+  void queriesThatOnlyDifferInTheirValuesHaveTheSameShape() {
+    BsonDocument shape = SlowQueryProfiler.shapeOf(BsonDocument.parse(
+      "{find: 'users', filter: {age: 37, company: {$in: ['OHMNET', 'IBM']}}, sort: {name: 1}, $db: 'test'}"));
+    assertEquals(shape, SlowQueryProfiler.shapeOf(BsonDocument.parse(
+      "{find: 'users', filter: {age: 25, company: {$in: ['UMM', 'FUTURIS']}}, sort: {name: -1}, $db: 'test'}")));
+    // The collection and the fields are part of the shape.
+    assertNotEquals(shape, SlowQueryProfiler.shapeOf(BsonDocument.parse(
+      "{find: 'todos', filter: {age: 37, company: {$in: ['OHMNET', 'IBM']}}, sort: {name: 1}}")));
+    assertNotEquals(shape, SlowQueryProfiler.shapeOf(BsonDocument.parse(
+      "{find: 'users', filter: {age: 37}, sort: {name: 1}}")));
+  }
+
+  @Test
+  void findsTheStagesOfAFindPlan() {
+    Document explanation = Document.parse("""
+      {queryPlanner: {
+        winningPlan: {stage: 'SORT', inputStage: {stage: 'COLLSCAN'}},
+        rejectedPlans: [{stage: 'FETCH', inputStage: {stage: 'IXSCAN'}}]}}
+      """);
+    assertEquals(List.of("SORT", "COLLSCAN"), SlowQueryProfiler.stagesOf(explanation));
+  }
+
+  @Test
+  void findsTheStagesOfASlotBasedPlan() {
+    // The slot-based query engine nests the plan one level deeper.
+    Document explanation = Document.parse("""
+      {queryPlanner: {winningPlan: {
+        queryPlan: {stage: 'FETCH', inputStage: {stage: 'IXSCAN'}},
+        slotBasedPlan: {stages: '[1] cfilter ...'}}}}
+      """);
+    assertEquals(List.of("FETCH", "IXSCAN"), SlowQueryProfiler.stagesOf(explanation));
+  }
+
+  @Test
+  void findsTheStagesOfAnAggregation() {
+    Document explanation = Document.parse("""
+      {stages: [
+        {$cursor: {queryPlanner: {winningPlan: {stage: 'COLLSCAN'}}}},
+        {$sort: {sortKey: {name: 1}}}]}
+      """);
+    assertEquals(List.of("COLLSCAN", "$cursor", "$sort"), SlowQueryProfiler.stagesOf(explanation));
+  }
+
+  @Test
+  void servesItsCounts() {
+    PrometheusWriter writer = new PrometheusWriter();
+    new SlowQueryProfiler(Duration.ofMillis(100), 1).writeMetrics(writer);
+    String metrics = writer.toString();
+    assertTrue(metrics.contains("mongodb_slow_queries_total 0"));
+    assertTrue(metrics.contains("mongodb_slow_query_collection_scans_total 0"));
+    assertTrue(metrics.contains("mongodb_slow_query_in_memory_sorts_total 0"));
+  }
+
+  private static MongoClient clientFor(SlowQueryProfiler profiler) {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    MongoClient mongoClient = MongoClients.create(MongoClientSettings.builder()
+      .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      .addCommandListener(profiler)
+      .build());
+    profiler.attach(mongoClient);
+    return mongoClient;
+  }
+
+  private static MongoCollection<Document> thingsIn(MongoClient mongoClient) {
+    MongoCollection<Document> things = mongoClient.getDatabase("test").getCollection("slowQueryProfilerSpec");
+    things.drop();
+    List<Document> documents = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      documents.add(new Document("size", i % 3).append("name", "thing " + i));
+    }
+    things.insertMany(documents);
+    return things;
+  }
+
+  @Test
+  void explainsSlowQueries() {
+    // With a threshold of zero, every query is slow.
+    SlowQueryProfiler profiler = new SlowQueryProfiler(Duration.ZERO, 1, Runnable::run);
+    try (MongoClient mongoClient = clientFor(profiler)) {
+      MongoCollection<Document> things = thingsIn(mongoClient);
+      things.find(eq("size", 1)).sort(Sorts.ascending("name")).into(new ArrayList<>());
+
+      assertEquals(1, profiler.slowQueries());
+      assertEquals(1, profiler.explains());
+      // There's no index on either field.
+      assertEquals(1, profiler.collectionScans());
+      assertEquals(1, profiler.inMemorySorts());
+      things.drop();
+    }
+  }
+
+  @Test
+  void explainsEachShapeOfQueryOnce() {
+    SlowQueryProfiler profiler = new SlowQueryProfiler(Duration.ZERO, 1, Runnable::run);
+    try (MongoClient mongoClient = clientFor(profiler)) {
+      MongoCollection<Document> things = thingsIn(mongoClient);
+      things.find(eq("size", 1)).into(new ArrayList<>());
+      things.find(eq("size", 2)).into(new ArrayList<>());
+      things.find(eq("name", "thing 2")).into(new ArrayList<>());
+
+      assertEquals(3, profiler.slowQueries());
+      assertEquals(2, profiler.explains());
+      assertEquals(2, profiler.collectionScans());
+      assertEquals(0, profiler.inMemorySorts());
+      things.drop();
+    }
+  }
+
+  @Test
+  void leavesFastQueriesAlone() {
+    SlowQueryProfiler profiler = new SlowQueryProfiler(Duration.ofHours(1), 1, Runnable::run);
+    try (MongoClient mongoClient = clientFor(profiler)) {
+      MongoCollection<Document> things = thingsIn(mongoClient);
+      things.find(eq("size", 1)).into(new ArrayList<>());
+
+      assertEquals(0, profiler.slowQueries());
+      assertEquals(0, profiler.explains());
+      things.drop();
+    }
+  }
+
+  @Test
+  void onlyExplainsSampledQueries() {
+    // Nothing is sampled, so slow queries are counted but not explained.
+    SlowQueryProfiler profiler = new SlowQueryProfiler(Duration.ZERO, 0, Runnable::run);
+    try (MongoClient mongoClient = clientFor(profiler)) {
+      MongoCollection<Document> things = thingsIn(mongoClient);
+      things.find(eq("size", 1)).into(new ArrayList<>());
+
+      assertEquals(1, profiler.slowQueries());
+      assertEquals(0, profiler.explains());
+      things.drop();
+    }
+  }
+}
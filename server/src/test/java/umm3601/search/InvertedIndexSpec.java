@@ -0,0 +1,108 @@
+package umm3601.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the `InvertedIndex`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class InvertedIndexSpec {
+
+  private InvertedIndex index;
+
+  @BeforeEach
+  void setupEach() {
+    index = new InvertedIndex();
+    index.put("a", "Buy apples and pears");
+    index.put("b", "Buy more APPLES!");
+    index.put("c", "Read chapter 2, then buy pears.");
+  }
+
+  @Test
+  void tokenizesIntoDistinctLowercaseWords() {
+    assertEquals(Set.of("buy", "apples", "and", "pears"),
+      InvertedIndex.tokenize("Buy apples, and pears... and APPLES"));
+    assertEquals(Set.of("chapter", "2"), InvertedIndex.tokenize("  chapter-2 "));
+    assertEquals(Set.of(), InvertedIndex.tokenize("?!"));
+    assertEquals(Set.of(), InvertedIndex.tokenize(null));
+  }
+
+  @Test
+  void findsDocumentsContainingAWord() {
+    assertEquals(List.of("a", "b"), index.search("apples"));
+    assertEquals(List.of("a", "b", "c"), index.search("BUY"));
+    assertEquals(List.of(), index.search("bananas"));
+  }
+
+  @Test
+  void findsDocumentsContainingEveryWord() {
+    assertEquals(List.of("a", "c"), index.search("pears buy"));
+    assertEquals(List.of("a"), index.search("apples, pears"));
+    assertEquals(List.of(), index.search("apples chapter"));
+  }
+
+  @Test
+  void returnsAtMostTheGivenNumberOfMatches() {
+    assertEquals(List.of("a", "b"), index.search("buy", 2));
+    assertEquals(List.of("a", "b", "c"), index.search("buy", 3));
+    assertEquals(List.of("a", "c"), index.search("pears buy", 10));
+  }
+
+  @Test
+  void queriesWithoutWordsMatchNothing() {
+    assertEquals(List.of(), index.search("..."));
+  }
+
+  @Test
+  void replacesChangedDocuments() {
+    index.put("a", "Sell bananas");
+
+    assertEquals(List.of("b"), index.search("apples"));
+    assertEquals(List.of("a"), index.search("bananas"));
+    assertEquals(3, index.size());
+  }
+
+  @Test
+  void removesDocuments() {
+    index.remove("b");
+    index.remove("not there");
+
+    assertEquals(List.of("a"), index.search("apples"));
+    assertEquals(2, index.size());
+  }
+
+  @Test
+  void clearsEverything() {
+    index.clear();
+
+    assertEquals(0, index.size());
+    assertEquals(List.of(), index.search("buy"));
+  }
+
+  @Test
+  void staysCorrectThroughCompaction() {
+    // Enough changes to make most of the index dead, so it gets compacted.
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 1000; i++) {
+        index.put("todo" + i, "todo number " + i + (i % 2 == 0 ? " even" : " odd") + " round" + round);
+      }
+    }
+
+    List<String> expectedEvens = new ArrayList<>();
+    for (int i = 0; i < 1000; i += 2) {
+      expectedEvens.add("todo" + i);
+    }
+    assertEquals(expectedEvens, index.search("even round2"));
+    assertEquals(List.of(), index.search("round1"));
+    assertEquals(List.of("todo7"), index.search("7 odd"));
+    assertEquals(List.of("a", "c"), index.search("pears"));
+    assertEquals(1003, index.size());
+  }
+}
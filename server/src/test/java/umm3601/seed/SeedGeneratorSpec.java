@@ -0,0 +1,139 @@
+package umm3601.seed;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+@SuppressWarnings({ "MagicNumber" })
+class SeedGeneratorSpec {
+
+  @TempDir
+  private Path directory;
+
+  @Test
+  void usersHaveTheSeedUsersFields() {
+    Document user = new SeedGenerator(1, 100, 10).user();
+
+    assertEquals(Set.of("_id", "name", "age", "company", "email", "role", "avatar"), user.keySet());
+    assertTrue(user.getString("email").endsWith("@" + user.getString("company").toLowerCase() + ".com"));
+    assertTrue(user.getString("avatar").startsWith("https://gravatar.com/avatar/"));
+  }
+
+  @Test
+  void todosHaveTheSeedTodosFields() {
+    Document todo = new SeedGenerator(1, 100, 10).todo();
+
+    assertEquals(Set.of("_id", "owner", "status", "body", "category"), todo.keySet());
+    assertTrue(Set.of("homework", "groceries", "software design", "video games").contains(todo.getString("category")));
+  }
+
+  @Test
+  void theSameSeedMakesTheSameData() {
+    SeedGenerator a = new SeedGenerator(42, 100, 10);
+    SeedGenerator b = new SeedGenerator(42, 100, 10);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(a.user(), b.user());
+      assertEquals(a.todo(), b.todo());
+    }
+  }
+
+  @Test
+  void idsAreInTheOrderTheDocumentsWereMade() {
+    SeedGenerator generator = new SeedGenerator(1, 100, 10);
+    Document first = generator.user();
+    Document second = generator.todo();
+
+    assertTrue(first.getObjectId("_id").compareTo(second.getObjectId("_id")) < 0);
+  }
+
+  @Test
+  void agesAndRolesAreSpreadLikeTheSeedUsers() {
+    SeedGenerator generator = new SeedGenerator(7, 1000, 10);
+    Map<String, Integer> roles = new HashMap<>();
+    long totalAge = 0;
+    for (int i = 0; i < 10_000; i++) {
+      Document user = generator.user();
+      int age = user.getInteger("age");
+      assertTrue(age >= 18 && age <= 70, "Age " + age);
+      totalAge += age;
+      roles.merge(user.getString("role"), 1, Integer::sum);
+    }
+
+    assertEquals(31, totalAge / 10_000.0, 1);
+    assertTrue(roles.get("viewer") > roles.get("editor"), "Roles " + roles);
+    assertTrue(roles.get("editor") > roles.get("admin"), "Roles " + roles);
+  }
+
+  @Test
+  void companiesAreSkewed() {
+    List<String> companies = SeedGenerator.companyNames(1000);
+    SeedGenerator generator = new SeedGenerator(7, 1000, 10);
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < 10_000; i++) {
+      counts.merge(generator.user().getString("company"), 1, Integer::sum);
+    }
+
+    // With Zipf's law, the biggest company has about twice the users of the
+    // second, and far more than the thousandth.
+    int biggest = counts.get(companies.get(0));
+    assertTrue(biggest > 1.5 * counts.get(companies.get(1)), "Counts " + counts);
+    assertTrue(biggest > 10 * counts.getOrDefault(companies.get(999), 0), "Counts " + counts);
+  }
+
+  @Test
+  void companyNamesStartWithTheSeedCompaniesAndAreAllDifferent() {
+    List<String> companies = SeedGenerator.companyNames(5000);
+
+    assertEquals(5000, companies.size());
+    assertEquals(5000, new HashSet<>(companies).size());
+    assertEquals("OHMNET", companies.get(0));
+    assertEquals(List.of("OHMNET", "NIQUENT"), SeedGenerator.companyNames(2));
+  }
+
+  @Test
+  void todosHaveTheGivenNumberOfOwners() {
+    SeedGenerator generator = new SeedGenerator(7, 10, 50);
+    Set<String> owners = new HashSet<>();
+    for (int i = 0; i < 10_000; i++) {
+      owners.add(generator.todo().getString("owner"));
+    }
+
+    assertEquals(50, owners.size());
+  }
+
+  @Test
+  void writesADocumentPerLine() throws IOException {
+    SeedGenerator generator = new SeedGenerator(1, 10, 10);
+    Path users = directory.resolve("users.json");
+
+    generator.write(users, 25, generator::user);
+
+    List<String> lines = Files.readAllLines(users, StandardCharsets.UTF_8);
+    assertEquals(25, lines.size());
+    // In extended JSON, so the `_id`s are loaded as `ObjectId`s.
+    assertTrue(lines.get(0).startsWith("{\"_id\": {\"$oid\": "), lines.get(0));
+    assertEquals(ObjectId.class, Document.parse(lines.get(0)).get("_id").getClass());
+  }
+
+  @Test
+  void rejectsNoCompaniesOrOwners() {
+    assertThrows(IllegalArgumentException.class, () -> new SeedGenerator(1, 0, 10));
+    assertThrows(IllegalArgumentException.class, () -> new SeedGenerator(1, 10, 0));
+  }
+}
@@ -0,0 +1,180 @@
+package umm3601.seed;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+import umm3601.user.UserController;
+
+@SuppressWarnings({ "MagicNumber" })
+class SeedLoaderSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  @TempDir
+  private Path seedDir;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    db.getCollection("users").drop();
+    db.getCollection("todos").drop();
+  }
+
+  private Path seedFile(String name, String contents) throws IOException {
+    return Files.writeString(seedDir.resolve(name), contents, StandardCharsets.UTF_8);
+  }
+
+  private static String user(ObjectId id, String name) {
+    return "{\"_id\": {\"$oid\": \"" + id.toHexString() + "\"}, \"name\": \"" + name
+      + "\", \"age\": 25, \"company\": \"UMM\", \"email\": \"" + name.toLowerCase() + "@umm.edu\""
+      + ", \"role\": \"viewer\"}";
+  }
+
+  private static String todo(String owner) {
+    return "{\"owner\": \"" + owner + "\", \"status\": false, \"body\": \"Seed the database\", \"category\": \"work\"}";
+  }
+
+  @Test
+  void loadsArraysOfDocuments() throws IOException {
+    ObjectId patId = new ObjectId();
+    ObjectId samId = new ObjectId();
+    Path users = seedFile("users.json", "[\n  " + user(patId, "Pat") + ",\n  " + user(samId, "Sam") + "\n]\n");
+
+    SeedReport report = new SeedLoader(db, 1000, 4).load(List.of(users));
+
+    assertEquals(2, report.inserted());
+    assertEquals(0, report.failed());
+    assertEquals(1, report.collections().size());
+    assertEquals("users", report.collections().get(0).collection());
+    // The extended JSON `_id`s are kept, as `ObjectId`s.
+    Document pat = db.getCollection("users").find(new Document("_id", patId)).first();
+    assertEquals("Pat", pat.getString("name"));
+    assertEquals(25, pat.getInteger("age"));
+    assertEquals("Sam", db.getCollection("users").find(new Document("_id", samId)).first().getString("name"));
+  }
+
+  @Test
+  void loadsADocumentPerLine() throws IOException {
+    Path todos = seedFile("todos.json", todo("Pat") + "\n\n" + todo("Sam") + "\n" + todo("Kim") + "\n");
+
+    SeedReport report = new SeedLoader(db, 1000, 4).load(List.of(todos));
+
+    assertEquals(3, report.inserted());
+    assertEquals(3, db.getCollection("todos").countDocuments());
+  }
+
+  @Test
+  void loadsCollectionsInBatches() throws IOException {
+    List<String> users = new ArrayList<>();
+    for (int i = 0; i < 2500; i++) {
+      users.add(user(new ObjectId(), "User" + i));
+    }
+    List<String> todos = new ArrayList<>();
+    for (int i = 0; i < 1200; i++) {
+      todos.add(todo("User" + i));
+    }
+
+    // Batches of 100, with at most two at once for each collection.
+    SeedReport report = new SeedLoader(db, 100, 2).load(List.of(
+      seedFile("users.json", "[" + String.join(",", users) + "]"),
+      seedFile("todos.json", String.join("\n", todos))));
+
+    assertEquals(3700, report.inserted());
+    assertEquals(2500, db.getCollection("users").countDocuments());
+    assertEquals(1200, db.getCollection("todos").countDocuments());
+    assertTrue(report.documentsPerSecond() > 0);
+  }
+
+  @Test
+  void countsDocumentsThatCantBeInserted() throws IOException {
+    ObjectId id = new ObjectId();
+    Path users = seedFile("users.json",
+      "[" + user(id, "Pat") + "," + user(id, "Sam") + "," + user(new ObjectId(), "Kim") + "]");
+
+    SeedReport report = new SeedLoader(db, 1000, 4).load(List.of(users));
+
+    // The batch is unordered, so the document after the duplicate is still inserted.
+    assertEquals(2, report.inserted());
+    assertEquals(1, report.failed());
+    assertEquals(2, db.getCollection("users").countDocuments());
+  }
+
+  @Test
+  void createsIndexesAfterLoading() throws IOException {
+    Path users = seedFile("users.json", "[" + user(new ObjectId(), "Pat") + "]");
+
+    new SeedLoader(db, 1000, 4).load(List.of(users), UserController.INDEXES);
+
+    List<String> indexes = db.getCollection("users").listIndexes().into(new ArrayList<>()).stream()
+      .map(index -> index.getString("name"))
+      .collect(Collectors.toList());
+    // The `_id` index, and at least one of `UserController`'s.
+    assertTrue(indexes.size() > 1, "Indexes: " + indexes);
+  }
+
+  @Test
+  void throwsOnInvalidJson() throws IOException {
+    Path users = seedFile("users.json", "[{\"name\": \"Pat\",]");
+
+    assertThrows(JsonParseException.class, () -> new SeedLoader(db, 1000, 4).load(List.of(users)));
+  }
+
+  @Test
+  void findsTheSeedFiles() throws IOException {
+    seedFile("users.json", "[]");
+    seedFile("todos.json", "[]");
+    seedFile("README.md", "Not seed data");
+
+    assertEquals(List.of(seedDir.resolve("todos.json"), seedDir.resolve("users.json")),
+      SeedLoader.seedFiles(seedDir));
+    assertEquals("todos", SeedLoader.collectionName(seedDir.resolve("todos.json")));
+  }
+
+  @Test
+  void rejectsNonPositiveSettings() {
+    assertThrows(IllegalArgumentException.class, () -> new SeedLoader(db, 0, 4));
+    assertThrows(IllegalArgumentException.class, () -> new SeedLoader(db, 1000, 0));
+  }
+}
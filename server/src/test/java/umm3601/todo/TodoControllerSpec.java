@@ -0,0 +1,338 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+import io.javalin.validation.Validation;
+
+import umm3601.IndexManager;
+import umm3601.search.InvertedIndex;
+
+/**
+ * Tests the logic of the TodoController
+ */
+@SuppressWarnings({ "MagicNumber" })
+class TodoControllerSpec {
+
+  private TodoController todoController;
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<ArrayList<Todo>> todoArrayListCaptor;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+
+    MongoCollection<Document> todoDocuments = db.getCollection("todos");
+    todoDocuments.drop();
+    todoDocuments.insertMany(List.of(
+      todo("Blanche", false, "Write the parser", "software design"),
+      todo("Fry", true, "Beat level 3", "video games"),
+      todo("Fry", false, "Buy apples", "groceries"),
+      todo("Blanche", true, "Buy pears", "groceries"),
+      todo("Dawn", false, "Read chapter 2", "homework")));
+
+    todoController = new TodoController(db);
+    new IndexManager(db).ensureIndexes(todoController);
+  }
+
+  private static Document todo(String owner, boolean status, String body, String category) {
+    return new Document("owner", owner).append("status", status).append("body", body).append("category", category);
+  }
+
+  /**
+   * Set up the mocked context with the given query parameters.
+   *
+   * @param params the query parameters, as name/value pairs
+   */
+  private void mockQuery(String... params) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (int i = 0; i + 1 < params.length; i += 2) {
+      queryParams.put(params[i], Arrays.asList(params[i + 1]));
+      when(ctx.queryParam(params[i])).thenReturn(params[i + 1]);
+    }
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+  }
+
+  private List<Todo> getTodos() {
+    todoController.getTodos(ctx);
+    verify(ctx).json(todoArrayListCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    return todoArrayListCaptor.getValue();
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin mockServer = mock(Javalin.class);
+    todoController.addRoutes(mockServer);
+    verify(mockServer, Mockito.atLeast(1)).get(any(), any());
+  }
+
+  @Test
+  void listsAreVersionedOnceVersionTagsAreOn() {
+    assertEquals(Map.of(), todoController.versionedRoutes());
+
+    todoController.enableVersionTags();
+
+    assertEquals(Set.of("/api/todos"), todoController.versionedRoutes().keySet());
+  }
+
+  @Test
+  void onlyListsWithoutALimitAreUnpaged() {
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.path()).thenReturn("/api/todos");
+    mockQuery(TodoController.OWNER_KEY, "Fry");
+    assertTrue(todoController.isUnpagedList(ctx));
+    // They're still ordinary requests, though.
+    assertFalse(todoController.isLongRunning(ctx));
+
+    mockQuery(TodoController.LIMIT_KEY, "2");
+    assertFalse(todoController.isUnpagedList(ctx));
+
+    when(ctx.path()).thenReturn("/api/todos/58895985a22c04e761776d54");
+    mockQuery();
+    assertFalse(todoController.isUnpagedList(ctx));
+  }
+
+  @Test
+  void canGetAllTodos() {
+    mockQuery();
+
+    assertEquals(5, getTodos().size());
+  }
+
+  @Test
+  void canFilterByOwner() {
+    mockQuery(TodoController.OWNER_KEY, "Fry");
+
+    List<Todo> todos = getTodos();
+    assertEquals(2, todos.size());
+    assertTrue(todos.stream().allMatch(todo -> todo.owner.equals("Fry")));
+  }
+
+  @Test
+  void canFilterByStatusAndCategory() {
+    mockQuery(TodoController.STATUS_KEY, TodoController.STATUS_INCOMPLETE, TodoController.CATEGORY_KEY, "groceries");
+
+    List<Todo> todos = getTodos();
+    assertEquals(1, todos.size());
+    assertEquals("Buy apples", todos.get(0).body);
+  }
+
+  @Test
+  void rejectsIllegalStatuses() {
+    mockQuery(TodoController.STATUS_KEY, "maybe");
+
+    assertThrows(BadRequestResponse.class, () -> todoController.getTodos(ctx));
+  }
+
+  @Test
+  void canSortAndLimit() {
+    mockQuery(TodoController.SORT_BY_KEY, TodoController.OWNER_KEY, TodoController.SORT_ORDER_KEY, "desc",
+      TodoController.LIMIT_KEY, "3");
+    when(ctx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+      .thenReturn(new Validation().validator(TodoController.LIMIT_KEY, Integer.class, "3"));
+
+    List<Todo> todos = getTodos();
+    assertEquals(3, todos.size());
+    assertEquals("Fry", todos.get(0).owner);
+    assertEquals("Fry", todos.get(1).owner);
+    assertEquals("Dawn", todos.get(2).owner);
+  }
+
+  @Test
+  void rejectsIllegalSorts() {
+    mockQuery(TodoController.SORT_BY_KEY, "body");
+    assertThrows(BadRequestResponse.class, () -> todoController.getTodos(ctx));
+
+    mockQuery(TodoController.SORT_ORDER_KEY, "sideways");
+    assertThrows(BadRequestResponse.class, () -> todoController.getTodos(ctx));
+  }
+
+  /**
+   * Confirm that MongoDB answers every combination of filters we support,
+   * with every sort we support, from an index, and never has to scan the
+   * whole collection.
+   */
+  @Test
+  void noSupportedQueryScansTheCollection() {
+    String[][] filters = {
+      {TodoController.OWNER_KEY, "Fry"},
+      {TodoController.STATUS_KEY, TodoController.STATUS_COMPLETE},
+      {TodoController.CATEGORY_KEY, "groceries"},
+    };
+    // Every subset of the filters (including none of them) ...
+    for (int subset = 0; subset < 1 << filters.length; subset++) {
+      // ... with every sort field.
+      for (String sortBy : TodoController.SORT_FIELDS) {
+        List<String> params = new ArrayList<>(List.of(TodoController.SORT_BY_KEY, sortBy));
+        for (int i = 0; i < filters.length; i++) {
+          if ((subset & (1 << i)) != 0) {
+            params.addAll(List.of(filters[i]));
+          }
+        }
+        mockQuery(params.toArray(new String[0]));
+
+        Document explanation = db.getCollection("todos")
+          .find(todoController.constructFilter(ctx))
+          .sort(todoController.constructSortingOrder(ctx))
+          .explain();
+        String winningPlan = explanation
+          .get("queryPlanner", Document.class)
+          .get("winningPlan", Document.class)
+          .toJson();
+        assertFalse(winningPlan.contains("COLLSCAN"), "Query " + params + " scanned the collection: " + winningPlan);
+      }
+    }
+  }
+
+  @Test
+  void containsMatchesWholeWordsWithoutTheTextIndex() {
+    mockQuery(TodoController.CONTAINS_KEY, "BUY");
+
+    List<Todo> todos = getTodos();
+    assertEquals(2, todos.size());
+    assertTrue(todos.stream().allMatch(todo -> todo.body.startsWith("Buy")));
+  }
+
+  @Test
+  void containsUsesTheTextIndex() {
+    todoController.enableTextIndex(100).join();
+    mockQuery(TodoController.CONTAINS_KEY, "buy pears", TodoController.OWNER_KEY, "Blanche");
+
+    List<Todo> todos = getTodos();
+    assertEquals(1, todos.size());
+    assertEquals("Buy pears", todos.get(0).body);
+  }
+
+  @Test
+  void containsWithTooManyMatchesDoesntUseTheTextIndex() {
+    todoController.enableTextIndex(1).join();
+    mockQuery(TodoController.CONTAINS_KEY, "buy");
+
+    String filter = todoController.constructFilter(ctx).toBsonDocument().toJson();
+    assertTrue(filter.contains("$regex"), filter);
+    assertFalse(filter.contains("$in"), filter);
+    List<Todo> todos = getTodos();
+    assertEquals(2, todos.size());
+    assertTrue(todos.stream().allMatch(todo -> todo.body.startsWith("Buy")));
+  }
+
+  @Test
+  void rebuildingTheTextIndexSwapsInANewOne() {
+    todoController.enableTextIndex(100).join();
+    db.getCollection("todos").insertOne(todo("Dawn", false, "Buy a dog", "groceries"));
+
+    todoController.rebuildTextIndex();
+
+    mockQuery(TodoController.CONTAINS_KEY, "dog");
+    List<Todo> todos = getTodos();
+    assertEquals(1, todos.size());
+    assertEquals("Buy a dog", todos.get(0).body);
+  }
+
+  @Test
+  void containsWithNoWordsMatchesEverything() {
+    todoController.enableTextIndex(100).join();
+    mockQuery(TodoController.CONTAINS_KEY, "?!");
+
+    assertEquals(5, getTodos().size());
+  }
+
+  @Test
+  void textIndexedQueriesUseTheIdIndex() {
+    todoController.enableTextIndex(100).join();
+    mockQuery(TodoController.CONTAINS_KEY, "buy");
+
+    String winningPlan = db.getCollection("todos")
+      .find(todoController.constructFilter(ctx))
+      .explain()
+      .get("queryPlanner", Document.class)
+      .get("winningPlan", Document.class)
+      .toJson();
+    assertFalse(winningPlan.contains("COLLSCAN"), winningPlan);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void appliesChangesToTheTextIndex() {
+    InvertedIndex index = new InvertedIndex();
+    ObjectId id = new ObjectId();
+
+    ChangeStreamDocument<Document> insert = mock(ChangeStreamDocument.class);
+    when(insert.getOperationType()).thenReturn(OperationType.INSERT);
+    when(insert.getFullDocument()).thenReturn(new Document("_id", id).append("body", "Walk the dog"));
+    TodoController.applyChange(index, insert);
+    assertEquals(List.of(id.toHexString()), index.search("dog"));
+
+    ChangeStreamDocument<Document> delete = mock(ChangeStreamDocument.class);
+    when(delete.getOperationType()).thenReturn(OperationType.DELETE);
+    when(delete.getDocumentKey()).thenReturn(new BsonDocument("_id", new BsonObjectId(id)));
+    TodoController.applyChange(index, delete);
+    assertEquals(List.of(), index.search("dog"));
+  }
+}
@@ -0,0 +1,137 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import umm3601.metrics.PrometheusWriter;
+
+/**
+ * Tests for the `AvatarService`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class AvatarServiceSpec {
+
+  // md5("test@example.com")
+  private static final String TEST_EMAIL_HASH = "55502f40dc8b7c769880b10874abc9d0";
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private AvatarService avatarService;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    avatarService = new AvatarService(10);
+  }
+
+  @Test
+  void hashesWithMd5() throws NoSuchAlgorithmException {
+    assertEquals(TEST_EMAIL_HASH, AvatarService.md5Hex("test@example.com"));
+    // Hashing again (with the same, reused, digest) gives the same answer.
+    assertEquals(TEST_EMAIL_HASH, AvatarService.md5Hex("test@example.com"));
+    // The string is lowercased before it's hashed.
+    assertEquals(TEST_EMAIL_HASH, AvatarService.md5Hex("Test@Example.COM"));
+  }
+
+  @Test
+  void turnsBytesIntoHex() {
+    assertEquals("00017f80ff", AvatarService.toHex(new byte[] {0, 1, 127, -128, -1}));
+    assertEquals("", AvatarService.toHex(new byte[0]));
+  }
+
+  @Test
+  void buildsIdenticonUrls() {
+    assertEquals(
+      "https://gravatar.com/avatar/" + TEST_EMAIL_HASH + "?d=identicon",
+      avatarService.avatarFor("test@example.com"));
+  }
+
+  @Test
+  void normalizesEmailsBeforeHashing() {
+    String avatar = avatarService.avatarFor("test@example.com");
+
+    assertEquals(avatar, avatarService.avatarFor("  Test@Example.com "));
+    // The second lookup was for the same (normalized) email, so it came from the memo.
+    assertEquals(1, avatarService.memoStats().hits());
+    assertEquals(1, avatarService.memoStats().misses());
+  }
+
+  @Test
+  void servesItsMemoMetrics() {
+    avatarService.avatarFor("test@example.com");
+    avatarService.avatarFor("test@example.com");
+
+    PrometheusWriter writer = new PrometheusWriter();
+    avatarService.writeMetrics(writer);
+    String metrics = writer.toString();
+    assertTrue(metrics.contains("avatar_memo_hits_total 1"));
+    assertTrue(metrics.contains("avatar_memo_misses_total 1"));
+    assertTrue(metrics.contains("avatar_memo_entries 1"));
+  }
+
+  @Test
+  void usesTheMysteryPersonWithoutAnEmail() {
+    assertEquals(AvatarService.MYSTERY_PERSON_AVATAR, avatarService.avatarFor(null));
+    assertEquals(AvatarService.MYSTERY_PERSON_AVATAR, avatarService.avatarFor("  "));
+  }
+
+  @Test
+  void backfillsMissingAvatarsInBatches() {
+    MongoCollection<Document> users = db.getCollection("avatarBackfill");
+    users.drop();
+    users.insertMany(List.of(
+      new Document("name", "Has one").append("email", "has@one.com").append("avatar", "https://example.com/me.png"),
+      new Document("name", "Missing").append("email", "test@example.com"),
+      new Document("name", "Empty").append("email", "empty@avatar.com").append("avatar", ""),
+      new Document("name", "Null").append("email", "null@avatar.com").append("avatar", null),
+      new Document("name", "No email")));
+
+    // A batch size of 2 means the 4 updates go in two bulk writes.
+    assertEquals(4, avatarService.backfill(users, 2));
+
+    assertEquals("https://example.com/me.png", users.find(new Document("name", "Has one")).first().get("avatar"));
+    assertEquals(
+      "https://gravatar.com/avatar/" + TEST_EMAIL_HASH + "?d=identicon",
+      users.find(new Document("name", "Missing")).first().get("avatar"));
+    assertEquals(
+      AvatarService.MYSTERY_PERSON_AVATAR,
+      users.find(new Document("name", "No email")).first().get("avatar"));
+
+    // Everyone has an avatar now, so there's nothing left to do.
+    assertEquals(0, avatarService.backfill(users, 2));
+  }
+}
@@ -1,22 +1,39 @@
 package umm3601.user;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -30,6 +47,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
@@ -38,12 +56,21 @@ import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.json.JavalinJackson;
 import io.javalin.validation.Validation;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
 
+import umm3601.IndexManager;
+import umm3601.cache.CacheStats;
+
 /**
  * Tests the logic of the UserController
  *
@@ -86,6 +113,9 @@ class UserControllerSpec {
   @Captor
   private ArgumentCaptor<Map<String, String>> mapCaptor;
 
+  @Captor
+  private ArgumentCaptor<List<Document>> documentListCaptor;
+
   /**
    * Sets up (the connection to the) DB once; that connection and DB will
    * then be (re)used for all the tests, and closed in the `teardown()`
@@ -162,6 +192,7 @@ class UserControllerSpec {
     userDocuments.insertOne(sam);
 
     userController = new UserController(db);
+    new IndexManager(db).ensureIndexes(userController);
   }
 
   @Test
@@ -171,6 +202,70 @@ class UserControllerSpec {
     verify(mockServer, Mockito.atLeast(1)).get(any(), any());
   }
 
+  /**
+   * Get the handler `addRoutes` registers for `GET /api/users`, and set up
+   * the mocked context to run (and remember) whatever future it's given.
+   *
+   * @param future where to put the future passed to `ctx.future`
+   * @return the `GET /api/users` handler
+   */
+  private Handler getUsersHandler(AtomicReference<CompletableFuture<?>> future) {
+    Javalin mockServer = mock(Javalin.class);
+    userController.addRoutes(mockServer);
+    ArgumentCaptor<Handler> handlerCaptor = ArgumentCaptor.forClass(Handler.class);
+    verify(mockServer).get(eq("/api/users"), handlerCaptor.capture());
+
+    doAnswer(invocation -> {
+      Supplier<? extends CompletableFuture<?>> supplier = invocation.getArgument(0);
+      future.set(supplier.get());
+      return null;
+    }).when(ctx).future(any());
+    return handlerCaptor.getValue();
+  }
+
+  @Test
+  void getsUsersOnTheAsyncExecutor() throws Exception {
+    // An "executor" that just holds on to the tasks it's given until we run them.
+    List<Runnable> tasks = new ArrayList<>();
+    userController.useAsyncExecutor(tasks::add);
+    AtomicReference<CompletableFuture<?>> future = new AtomicReference<>();
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    getUsersHandler(future).handle(ctx);
+
+    // The handler has returned, but the request hasn't been answered yet.
+    assertEquals(1, tasks.size());
+    assertFalse(future.get().isDone());
+    verify(ctx, never()).json(any());
+
+    tasks.forEach(Runnable::run);
+    future.get().join();
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(4, userArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  void asyncGetUsersFailsTheFutureOnBadRequests() throws Exception {
+    userController.useAsyncExecutor(Runnable::run);
+    AtomicReference<CompletableFuture<?>> future = new AtomicReference<>();
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"OHMNET"}));
+    queryParams.put(UserController.COMPANY_MATCH_KEY, Arrays.asList(new String[] {"sideways"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+    when(ctx.queryParam(UserController.COMPANY_MATCH_KEY)).thenReturn("sideways");
+
+    getUsersHandler(future).handle(ctx);
+
+    // Javalin unwraps the `CompletionException` and handles the
+    // `BadRequestResponse` inside it as usual.
+    CompletionException thrown = assertThrows(CompletionException.class, () -> future.get().join());
+    assertTrue(thrown.getCause() instanceof BadRequestResponse);
+    verify(ctx, never()).json(any());
+  }
+
   @Test
   void canGetAllUsers() throws IOException {
     // When something asks the (mocked) context for the queryParamMap,
@@ -205,6 +300,29 @@ class UserControllerSpec {
         userArrayListCaptor.getValue().size());
   }
 
+  @Test
+  void canStreamAllUsers() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    // The stream handed to `writeJsonStream` reads from a database cursor
+    // that is closed as soon as `getUsers` returns, so we have to drain it
+    // while the call is still in progress, i.e., inside the `doAnswer`.
+    List<User> streamedUsers = new ArrayList<>();
+    doAnswer(invocation -> {
+      Stream<?> users = invocation.getArgument(0);
+      users.forEach(user -> streamedUsers.add((User) user));
+      return null;
+    }).when(ctx).writeJsonStream(any());
+
+    userController.useStreaming(true);
+    userController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    // When streaming we should never build the full list and hand it to `json`.
+    verify(ctx, Mockito.never()).json(any());
+    assertEquals(db.getCollection("users").countDocuments(), streamedUsers.size());
+  }
+
     /**
    * Confirm that if we process a request for users with age 37,
    * that all returned users have that age, and we get the correct
@@ -451,6 +569,625 @@ class UserControllerSpec {
     }
   }
 
+  /**
+   * Set up the mocked context so that it looks like the request asked
+   * for users at `company`, matched using `matchMode`.
+   *
+   * @param company the requested company
+   * @param matchMode the requested match mode, or `null` to use the default
+   */
+  private void mockCompanyRequest(String company, String matchMode) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {company}));
+    if (matchMode != null) {
+      queryParams.put(UserController.COMPANY_MATCH_KEY, Arrays.asList(new String[] {matchMode}));
+    }
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn(company);
+    when(ctx.queryParam(UserController.COMPANY_MATCH_KEY)).thenReturn(matchMode);
+  }
+
+  @Test
+  void canGetUsersWithExactCompanyIgnoringCase() {
+    mockCompanyRequest("ohmnet", UserController.MATCH_EXACT);
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    List<String> names = userArrayListCaptor.getValue().stream().map(user -> user.name).collect(Collectors.toList());
+    assertEquals(2, names.size());
+    assertTrue(names.contains("Jamie"));
+    assertTrue(names.contains("Sam"));
+  }
+
+  @Test
+  void exactCompanyMatchDoesNotMatchPrefixes() {
+    mockCompanyRequest("ohm", UserController.MATCH_EXACT);
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    assertEquals(0, userArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  void prefixCompanyMatchDoesNotMatchInTheMiddle() {
+    mockCompanyRequest("net", UserController.MATCH_PREFIX);
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    assertEquals(0, userArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  void containsCompanyMatchMatchesInTheMiddle() {
+    mockCompanyRequest("net", UserController.MATCH_CONTAINS);
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    assertEquals(2, userArrayListCaptor.getValue().size());
+    for (User user : userArrayListCaptor.getValue()) {
+      assertEquals("OHMNET", user.company);
+    }
+  }
+
+  @Test
+  void respondsAppropriatelyToIllegalCompanyMatchMode() {
+    mockCompanyRequest("ohm", "fuzzy");
+
+    BadRequestResponse exception = assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+    assertTrue(exception.getMessage().contains("fuzzy"));
+  }
+
+  /**
+   * Confirm that the controller's case-insensitive `company` index was
+   * created, and that MongoDB actually uses it to answer (default) prefix
+   * company queries instead of scanning the whole collection.
+   */
+  @Test
+  void companyQueriesUseTheCompanyIndex() {
+    boolean hasCompanyIndex = false;
+    for (Document index : db.getCollection("users").listIndexes()) {
+      Document key = index.get("key", Document.class);
+      if (key.containsKey(UserController.COMPANY_KEY)) {
+        hasCompanyIndex = true;
+        assertEquals(2, index.get("collation", Document.class).getInteger("strength"));
+      }
+    }
+    assertTrue(hasCompanyIndex);
+
+    Document explanation = db.getCollection("users")
+        .find(new Document(UserController.COMPANY_KEY, new Document("$gte", "ohm").append("$lt", "ohm\uffff")))
+        .collation(UserController.CASE_INSENSITIVE)
+        .explain();
+    String winningPlan = explanation.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+    assertTrue(winningPlan.contains("IXSCAN"));
+    assertFalse(winningPlan.contains("COLLSCAN"));
+  }
+
+  /**
+   * Confirm that a page of users without a `company` filter is read in
+   * `_id` order straight from the `_id` index, rather than by sorting the
+   * matching users in memory (which is what happens if the query uses the
+   * `company` index's collation).
+   */
+  @Test
+  void pagesWithoutACompanyUseTheIdIndex() {
+    mockPageRequest(2, UserController.encodeCursor(samsId.toHexString()));
+
+    Document explanation = userController.findUsers(ctx, userController.constructFilter(ctx), 2).explain();
+    String winningPlan = explanation.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+    List<String> stages = new ArrayList<>();
+    Matcher stage = Pattern.compile("\"stage\": \"(\\w+)\"").matcher(winningPlan);
+    while (stage.find()) {
+      stages.add(stage.group(1));
+    }
+    assertTrue(stages.contains("IXSCAN"), winningPlan);
+    assertTrue(winningPlan.contains("\"indexName\": \"_id_\""), winningPlan);
+    assertFalse(stages.contains("SORT"), winningPlan);
+    assertFalse(stages.contains("COLLSCAN"), winningPlan);
+  }
+
+  /**
+   * Set up the mocked context so that it looks like the request
+   * asked for a page of (at most) `limit` users, starting after
+   * the given `after` cursor (which can be `null` for the first page).
+   *
+   * @param limit the requested page size
+   * @param after the paging cursor, or `null` for the first page
+   */
+  private void mockPageRequest(int limit, String after) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    String limitString = Integer.toString(limit);
+    queryParams.put(UserController.LIMIT_KEY, Arrays.asList(new String[] {limitString}));
+    if (after != null) {
+      queryParams.put(UserController.AFTER_KEY, Arrays.asList(new String[] {after}));
+    }
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.LIMIT_KEY)).thenReturn(limitString);
+    when(ctx.queryParam(UserController.AFTER_KEY)).thenReturn(after);
+
+    Validation validation = new Validation();
+    Validator<Integer> validator = validation.validator(UserController.LIMIT_KEY, Integer.class, limitString);
+    when(ctx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class)).thenReturn(validator);
+  }
+
+  /**
+   * Walk through all the users two at a time, following the cursor in
+   * the `X-Next-Cursor` header, and confirm that we see each user exactly once.
+   */
+  @Test
+  void canPageThroughUsers() {
+    ArgumentCaptor<String> cursorCaptor = ArgumentCaptor.forClass(String.class);
+
+    mockPageRequest(2, null);
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).header(Mockito.eq(UserController.NEXT_CURSOR_HEADER), cursorCaptor.capture());
+    List<User> firstPage = userArrayListCaptor.getValue();
+    assertEquals(2, firstPage.size());
+    // Sam's `_id` was generated before the others were inserted, so Sam
+    // has the smallest `_id` and should be the first user on the first page.
+    assertEquals(samsId.toHexString(), firstPage.get(0)._id);
+
+    // Get the second page using the cursor from the first.
+    Mockito.reset(ctx);
+    mockPageRequest(2, cursorCaptor.getValue());
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> secondPage = userArrayListCaptor.getValue();
+    assertEquals(2, secondPage.size());
+    for (User user : secondPage) {
+      assertFalse(firstPage.contains(user));
+    }
+    verify(ctx).header(Mockito.eq(UserController.NEXT_CURSOR_HEADER), cursorCaptor.capture());
+
+    // There are only four users, so the third page is empty and
+    // has no cursor for a following page.
+    Mockito.reset(ctx);
+    mockPageRequest(2, cursorCaptor.getValue());
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    assertEquals(0, userArrayListCaptor.getValue().size());
+    verify(ctx, Mockito.never()).header(Mockito.eq(UserController.NEXT_CURSOR_HEADER), any());
+  }
+
+  @Test
+  void partialPageHasNoNextCursor() {
+    mockPageRequest(UserController.MAX_PAGE_SIZE, null);
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    assertEquals(db.getCollection("users").countDocuments(), userArrayListCaptor.getValue().size());
+    verify(ctx, Mockito.never()).header(Mockito.eq(UserController.NEXT_CURSOR_HEADER), any());
+  }
+
+  @Test
+  void pagesAreUsedWhenOnlyACursorIsGiven() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    String cursor = UserController.encodeCursor(new ObjectId(0, 0).toHexString());
+    queryParams.put(UserController.AFTER_KEY, Arrays.asList(new String[] {cursor}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.AFTER_KEY)).thenReturn(cursor);
+
+    userController.getUsers(ctx);
+
+    // All of our users come after the "zero" ObjectId, and there are fewer
+    // of them than the default page size.
+    verify(ctx).json(userArrayListCaptor.capture());
+    assertEquals(db.getCollection("users").countDocuments(), userArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  void cursorsRoundTrip() {
+    String cursor = UserController.encodeCursor(samsId.toHexString());
+    // The cursor is opaque, so shouldn't just be the hex id.
+    assertNotEquals(samsId.toHexString(), cursor);
+    assertEquals(samsId, UserController.decodeCursor(cursor));
+  }
+
+  @Test
+  void respondsAppropriatelyToIllegalCursor() {
+    mockPageRequest(2, "not-a-cursor");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
+  @Test
+  void respondsAppropriatelyToTooLargeLimit() {
+    mockPageRequest(UserController.MAX_PAGE_SIZE + 1, null);
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> {
+      userController.getUsers(ctx);
+    });
+    String exceptionMessage = exception.getErrors().get(UserController.LIMIT_KEY).get(0).getMessage();
+    assertTrue(exceptionMessage.contains(Integer.toString(UserController.MAX_PAGE_SIZE + 1)));
+  }
+
+  @Test
+  void respondsAppropriatelyToZeroLimit() {
+    mockPageRequest(0, null);
+
+    assertThrows(ValidationException.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
+  @Test
+  void canGetJustSomeFields() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.queryParam(UserController.FIELDS_KEY)).thenReturn("name, company,name");
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(documentListCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    List<Document> users = documentListCaptor.getValue();
+    assertEquals(db.getCollection("users").countDocuments(), users.size());
+    for (Document user : users) {
+      // MongoDB always includes the `_id` unless told not to.
+      assertEquals(Set.of("_id", "name", "company"), user.keySet());
+      // The `_id` should be a hex string, just like it is for a full `User`.
+      assertEquals(24, user.getString("_id").length());
+    }
+  }
+
+  @Test
+  void canPageThroughJustSomeFields() {
+    mockPageRequest(2, null);
+    when(ctx.queryParam(UserController.FIELDS_KEY)).thenReturn("name");
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(documentListCaptor.capture());
+    assertEquals(2, documentListCaptor.getValue().size());
+    assertEquals(samsId.toHexString(), documentListCaptor.getValue().get(0).getString("_id"));
+    assertEquals("Sam", documentListCaptor.getValue().get(0).getString("name"));
+    verify(ctx).header(Mockito.eq(UserController.NEXT_CURSOR_HEADER), any());
+  }
+
+  @Test
+  void canStreamJustSomeFields() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.queryParam(UserController.FIELDS_KEY)).thenReturn("email");
+
+    List<Document> streamedUsers = new ArrayList<>();
+    doAnswer(invocation -> {
+      Stream<?> users = invocation.getArgument(0);
+      users.forEach(user -> streamedUsers.add((Document) user));
+      return null;
+    }).when(ctx).writeJsonStream(any());
+
+    userController.useStreaming(true);
+    userController.getUsers(ctx);
+
+    assertEquals(db.getCollection("users").countDocuments(), streamedUsers.size());
+    for (Document user : streamedUsers) {
+      assertEquals(Set.of("_id", "email"), user.keySet());
+    }
+  }
+
+  @Test
+  void respondsAppropriatelyToUnknownFields() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.queryParam(UserController.FIELDS_KEY)).thenReturn("name,password");
+
+    BadRequestResponse exception = assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+    assertTrue(exception.getMessage().contains("password"));
+  }
+
+  @Test
+  void coalescedRequestsGetTheUsers() throws IOException {
+    mockPageRequest(2, null);
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+    userController.useRequestCoalescing(true);
+
+    userController.getUsers(ctx);
+    userController.getUsers(ctx);
+
+    // Requests that don't overlap don't share anything, but each one still
+    // gets its serialized page (and cursor).
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx, times(2)).result(bodyCaptor.capture());
+    verify(ctx, times(2)).header(Mockito.eq(UserController.NEXT_CURSOR_HEADER), any());
+    List<?> users = new ObjectMapper().readValue(bodyCaptor.getValue(), List.class);
+    assertEquals(2, users.size());
+  }
+
+  @Test
+  void allTheUsersAreCoalescedToo() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Map.of(UserController.COMPANY_KEY, List.of("OHMNET")));
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+    userController.useRequestCoalescing(true);
+
+    userController.getUsers(ctx);
+
+    // Coalesced requests get the shared (serialized) response, with all
+    // the matching users and no cursor.
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).result(bodyCaptor.capture());
+    verify(ctx, Mockito.never()).header(Mockito.eq(UserController.NEXT_CURSOR_HEADER), any());
+    List<?> users = new ObjectMapper().readValue(bodyCaptor.getValue(), List.class);
+    assertEquals(2, users.size());
+  }
+
+  @Test
+  void allTheUsersAreStillStreamedWhenCoalescing() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    List<Object> streamedUsers = new ArrayList<>();
+    doAnswer(invocation -> {
+      Stream<?> users = invocation.getArgument(0);
+      users.forEach(streamedUsers::add);
+      return null;
+    }).when(ctx).writeJsonStream(any());
+
+    userController.useRequestCoalescing(true);
+    userController.useStreaming(true);
+    userController.getUsers(ctx);
+
+    // Streamed requests aren't coalesced, so this is streamed rather than buffered.
+    verify(ctx, Mockito.never()).result(any(byte[].class));
+    verify(ctx, Mockito.never()).json(any());
+    assertEquals(db.getCollection("users").countDocuments(), streamedUsers.size());
+  }
+
+  @Test
+  void rawBsonResultsMatchTheUsers() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    userController.getUsers(ctx);
+    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> users = userArrayListCaptor.getValue();
+
+    userController.useRawBson(true);
+    userController.getUsers(ctx);
+
+    // The raw BSON path never turns the documents into `User`s, but the
+    // JSON it writes holds the same users.
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).result(bodyCaptor.capture());
+    verify(ctx).contentType("application/json");
+    verify(ctx, times(1)).json(any());
+    List<?> rawUsers = new ObjectMapper().readValue(bodyCaptor.getValue(), List.class);
+    assertEquals(users.size(), rawUsers.size());
+    for (int i = 0; i < users.size(); i++) {
+      Map<?, ?> rawUser = (Map<?, ?>) rawUsers.get(i);
+      assertEquals(users.get(i)._id, rawUser.get("_id"));
+      assertEquals(users.get(i).name, rawUser.get("name"));
+      assertEquals(users.get(i).age, rawUser.get("age"));
+      assertEquals(users.get(i).avatar, rawUser.get("avatar"));
+    }
+  }
+
+  @Test
+  void rawBsonPagesHaveACursor() throws IOException {
+    mockPageRequest(2, null);
+    userController.useRawBson(true);
+
+    userController.getUsers(ctx);
+
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    ArgumentCaptor<String> cursorCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).result(bodyCaptor.capture());
+    verify(ctx).header(Mockito.eq(UserController.NEXT_CURSOR_HEADER), cursorCaptor.capture());
+    List<?> page = new ObjectMapper().readValue(bodyCaptor.getValue(), List.class);
+    assertEquals(2, page.size());
+    assertEquals(samsId.toHexString(), ((Map<?, ?>) page.get(0)).get("_id"));
+    assertEquals(UserController.encodeCursor((String) ((Map<?, ?>) page.get(1)).get("_id")), cursorCaptor.getValue());
+  }
+
+  @Test
+  void cachedResultsAreReused() throws IOException {
+    mockPageRequest(3, null);
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+    userController.enableResultCache(10, Duration.ofMinutes(1));
+
+    userController.getUsers(ctx);
+    userController.getUsers(ctx);
+
+    // Both requests should get the same serialized page of users.
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx, times(2)).result(bodyCaptor.capture());
+    verify(ctx, times(2)).status(HttpStatus.OK);
+    List<byte[]> bodies = bodyCaptor.getAllValues();
+    assertEquals(new String(bodies.get(0)), new String(bodies.get(1)));
+    List<?> users = new ObjectMapper().readValue(bodies.get(0), List.class);
+    assertEquals(3, users.size());
+
+    // The second request should have been answered from the cache.
+    ArgumentCaptor<CacheStats> statsCaptor = ArgumentCaptor.forClass(CacheStats.class);
+    userController.getCacheStats(ctx);
+    verify(ctx).json(statsCaptor.capture());
+    assertEquals(1, statsCaptor.getValue().hits());
+    assertEquals(1, statsCaptor.getValue().misses());
+    assertEquals(1, statsCaptor.getValue().size());
+  }
+
+  @Test
+  void unchangedResultsAreNotResent() {
+    mockPageRequest(3, null);
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+    userController.enableResultCache(10, Duration.ofMinutes(1));
+
+    userController.getUsers(ctx);
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(Mockito.eq(Header.ETAG), etagCaptor.capture());
+
+    // Ask again, this time telling the server we already have that version.
+    Mockito.reset(ctx);
+    mockPageRequest(3, null);
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+    userController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx, Mockito.never()).result(any(byte[].class));
+  }
+
+  @Test
+  void allTheUsersAreCachedToo() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+    userController.enableResultCache(10, Duration.ofMinutes(1));
+
+    userController.getUsers(ctx);
+    userController.getUsers(ctx);
+
+    verify(ctx, times(2)).result(any(byte[].class));
+    ArgumentCaptor<CacheStats> statsCaptor = ArgumentCaptor.forClass(CacheStats.class);
+    userController.getCacheStats(ctx);
+    verify(ctx).json(statsCaptor.capture());
+    assertEquals(1, statsCaptor.getValue().hits());
+    assertEquals(1, statsCaptor.getValue().misses());
+    assertEquals(1, statsCaptor.getValue().size());
+  }
+
+  @Test
+  void streamedUsersAreNotCached() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    userController.enableResultCache(10, Duration.ofMinutes(1));
+    userController.useStreaming(true);
+
+    userController.getUsers(ctx);
+    userController.getUsers(ctx);
+
+    verify(ctx, times(2)).writeJsonStream(any());
+    ArgumentCaptor<CacheStats> statsCaptor = ArgumentCaptor.forClass(CacheStats.class);
+    userController.getCacheStats(ctx);
+    verify(ctx).json(statsCaptor.capture());
+    assertEquals(0, statsCaptor.getValue().misses());
+    assertEquals(0, statsCaptor.getValue().size());
+  }
+
+  @Test
+  void cachedPagesKeepTheirCursor() throws IOException {
+    mockPageRequest(2, null);
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+    userController.enableResultCache(10, Duration.ofMinutes(1));
+
+    userController.getUsers(ctx);
+    userController.getUsers(ctx);
+
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx, times(2)).result(bodyCaptor.capture());
+    verify(ctx, times(2)).header(Mockito.eq(UserController.NEXT_CURSOR_HEADER), any());
+    List<?> users = new ObjectMapper().readValue(bodyCaptor.getValue(), List.class);
+    assertEquals(2, users.size());
+  }
+
+  @Test
+  void differentQueriesHaveDifferentCacheKeys() {
+    Document ohmnet = new Document(UserController.COMPANY_KEY, "OHMNET");
+    Document ibm = new Document(UserController.COMPANY_KEY, "IBM");
+
+    List<String> allFields = List.of();
+    List<String> someFields = List.of("company", "name");
+
+    assertEquals(UserController.cacheKey(ohmnet, 0, allFields), UserController.cacheKey(ohmnet, 0, allFields));
+    assertNotEquals(UserController.cacheKey(ohmnet, 0, allFields), UserController.cacheKey(ibm, 0, allFields));
+    assertNotEquals(UserController.cacheKey(ohmnet, 0, allFields), UserController.cacheKey(ohmnet, 2, allFields));
+    assertNotEquals(UserController.cacheKey(ohmnet, 0, allFields), UserController.cacheKey(ohmnet, 0, someFields));
+  }
+
+  @Test
+  void listsAreVersionedOnceVersionTagsAreOn() {
+    assertEquals(Map.of(), userController.versionedRoutes());
+
+    userController.enableVersionTags();
+
+    assertEquals(Set.of("/api/users"), userController.versionedRoutes().keySet());
+  }
+
+  @Test
+  void importsAreLongRunning() {
+    when(ctx.method()).thenReturn(HandlerType.POST);
+    when(ctx.path()).thenReturn("/api/users/bulk");
+    assertTrue(userController.isLongRunning(ctx));
+    when(ctx.path()).thenReturn("/api/users");
+    assertFalse(userController.isLongRunning(ctx));
+  }
+
+  @Test
+  void wholeListsAreUnpagedAndOnlyLongRunningWhenStreamed() {
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.path()).thenReturn("/api/users");
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    assertTrue(userController.isUnpagedList(ctx));
+    assertFalse(userController.isLongRunning(ctx));
+
+    userController.useStreaming(true);
+    assertTrue(userController.isLongRunning(ctx));
+
+    when(ctx.queryParamMap()).thenReturn(Map.of(UserController.LIMIT_KEY, List.of("10")));
+    assertFalse(userController.isUnpagedList(ctx));
+    assertFalse(userController.isLongRunning(ctx));
+  }
+
+  @Test
+  void cacheStatsAreNotFoundWithoutACache() {
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.getCacheStats(ctx);
+    });
+  }
+
+  @Test
+  void servesUserStats() throws IOException {
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+
+    userController.getUserStats(ctx);
+    userController.getUserStats(ctx);
+
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx, times(2)).result(bodyCaptor.capture());
+    verify(ctx, times(2)).status(HttpStatus.OK);
+    // The second request is served the same (materialized) stats.
+    assertEquals(new String(bodyCaptor.getAllValues().get(0)), new String(bodyCaptor.getAllValues().get(1)));
+    Map<?, ?> stats = new ObjectMapper().readValue(bodyCaptor.getValue(), Map.class);
+    assertEquals(4, stats.get("total"));
+    assertEquals(Map.of("OHMNET", 2, "IBM", 1, "UMM", 1), stats.get("companies"));
+    assertEquals(Map.of("20-29", 1, "30-39", 2, "40-49", 1), stats.get("ages"));
+  }
+
+  @Test
+  void refreshesUserStatsInTheBackground() {
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+    userController.enableStatsRefresh(Duration.ofMinutes(1));
+
+    userController.getUserStats(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+  }
+
+  @Test
+  void importsUsersInBulk() throws IOException {
+    String body = "{\"name\": \"Bulk\", \"age\": 30, \"company\": \"OHMNET\", "
+      + "\"email\": \"bulk@ohmnet.com\", \"role\": \"viewer\"}\n{\"name\": \"Broken\"}\n";
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    userController.useImportBatchSize(1);
+
+    userController.importUsers(ctx);
+
+    ArgumentCaptor<ImportReport> reportCaptor = ArgumentCaptor.forClass(ImportReport.class);
+    verify(ctx).json(reportCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(1, reportCaptor.getValue().inserted());
+    assertEquals(2L, reportCaptor.getValue().errors().get(0).line());
+    assertEquals(1, db.getCollection("users").countDocuments(new Document("name", "Bulk")));
+  }
+
+  @Test
+  void importBatchesMustHoldSomething() {
+    assertThrows(IllegalArgumentException.class, () -> userController.useImportBatchSize(0));
+  }
+
   /**
    * Test that the `generateAvatar` method works as expected.
    *
@@ -0,0 +1,192 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import umm3601.user.ImportReport.LineError;
+
+@SuppressWarnings({ "MagicNumber" })
+class UserImporterSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> users;
+  private AvatarService avatarService;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    users = db.getCollection("users");
+    users.drop();
+    avatarService = new AvatarService(100);
+  }
+
+  private static String user(String name, int age) {
+    return "{\"name\": \"" + name + "\", \"age\": " + age
+      + ", \"company\": \"OHMNET\", \"email\": \"" + name.toLowerCase() + "@ohmnet.com\", \"role\": \"viewer\"}";
+  }
+
+  private static InputStream ndjson(String... lines) {
+    return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private ImportReport importUsers(int batchSize, String... lines) throws IOException {
+    return new UserImporter(users, avatarService, batchSize).importNdjson(ndjson(lines));
+  }
+
+  @Test
+  void importsUsers() throws IOException {
+    ImportReport report = importUsers(10, user("Pat", 25), user("Sam", 37));
+
+    assertEquals(new ImportReport(2, 2, 0, List.of(), false), report);
+    Document pat = users.find(new Document("name", "Pat")).first();
+    assertEquals(25, pat.get("age"));
+    assertEquals("OHMNET", pat.get("company"));
+    assertEquals(avatarService.avatarFor("pat@ohmnet.com"), pat.get("avatar"));
+    assertTrue(pat.get("_id") instanceof ObjectId);
+  }
+
+  @Test
+  void keepsGivenIdsAndAvatars() throws IOException {
+    String oid = "588935f57546a2daea44de7c";
+    String hex = "588935f5597715f06f3e8f6c";
+    ImportReport report = importUsers(10,
+      "{\"_id\": {\"$oid\": \"" + oid + "\"}, " + user("Pat", 25).substring(1),
+      "{\"_id\": \"" + hex + "\", \"avatar\": \"https://example.com/sam.png\", " + user("Sam", 37).substring(1));
+
+    assertEquals(2, report.inserted());
+    assertEquals("Pat", users.find(new Document("_id", new ObjectId(oid))).first().get("name"));
+    Document sam = users.find(new Document("_id", new ObjectId(hex))).first();
+    assertEquals("https://example.com/sam.png", sam.get("avatar"));
+  }
+
+  @Test
+  void skipsBlankLinesAndHandlesCrlf() throws IOException {
+    ImportReport report = importUsers(10, user("Pat", 25) + "\r", "", "   ", user("Sam", 37) + "\r", "");
+
+    assertEquals(new ImportReport(2, 2, 0, List.of(), false), report);
+    assertEquals(2, users.countDocuments());
+  }
+
+  @Test
+  void reportsInvalidLines() throws IOException {
+    ImportReport report = importUsers(10,
+      user("Pat", 25),
+      "{not json",
+      user("Sam", 0),
+      user("Bob", 150),
+      user("Ann", 30).replace("viewer", "emperor"),
+      user("Kim", 30).replace("kim@ohmnet.com", "kim"),
+      user("Lee", 30).replace("\"name\": \"Lee\"", "\"name\": \"\""),
+      user("Ray", 30).replace("\"role\"", "\"rank\""),
+      "{\"_id\": \"nope\", " + user("Zed", 30).substring(1),
+      user("Joy", 40));
+
+    assertEquals(10, report.lines());
+    assertEquals(2, report.inserted());
+    assertEquals(8, report.failed());
+    assertEquals(List.of(2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), report.errors().stream().map(LineError::line).toList());
+    assertTrue(report.errors().get(1).message().contains("age"));
+    assertTrue(report.errors().get(3).message().contains("role"));
+    assertTrue(report.errors().get(6).message().contains("rank"));
+    assertFalse(report.errorsTruncated());
+    assertEquals(2, users.countDocuments());
+  }
+
+  @Test
+  void reportsUsersMongoWontInsert() throws IOException {
+    String duplicate = "{\"_id\": \"588935f57546a2daea44de7c\", " + user("Pat", 25).substring(1);
+
+    // With a batch size of 2 the duplicates land in different batches.
+    ImportReport report = importUsers(2, duplicate, user("Sam", 37), user("Bob", 50), duplicate, user("Joy", 40));
+
+    assertEquals(4, report.inserted());
+    assertEquals(1, report.failed());
+    assertEquals(4L, report.errors().get(0).line());
+    assertTrue(report.errors().get(0).message().contains("duplicate key"));
+    assertEquals(4, users.countDocuments());
+  }
+
+  @Test
+  void importsManyBatches() throws IOException {
+    String[] lines = new String[2500];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = user("User" + i, 20 + i % 50);
+    }
+
+    ImportReport report = importUsers(100, lines);
+
+    assertEquals(new ImportReport(2500, 2500, 0, List.of(), false), report);
+    assertEquals(2500, users.countDocuments());
+  }
+
+  @Test
+  void rejectsOverlongLines() throws IOException {
+    String longName = "x".repeat(UserImporter.MAX_LINE_LENGTH);
+
+    ImportReport report = importUsers(10, user(longName, 25), user("Pat", 25));
+
+    assertEquals(2, report.lines());
+    assertEquals(1, report.inserted());
+    assertEquals(1L, report.errors().get(0).line());
+    assertTrue(report.errors().get(0).message().contains("longer than"));
+  }
+
+  @Test
+  void reportsOnlyTheFirstErrors() throws IOException {
+    String[] lines = new String[UserImporter.MAX_REPORTED_ERRORS + 10];
+    Arrays.fill(lines, "{}");
+
+    ImportReport report = importUsers(10, lines);
+
+    assertEquals(lines.length, report.failed());
+    assertEquals(UserImporter.MAX_REPORTED_ERRORS, report.errors().size());
+    assertEquals(1L, report.errors().get(0).line());
+    assertTrue(report.errorsTruncated());
+  }
+
+  @Test
+  void batchesMustHoldSomething() {
+    assertThrows(IllegalArgumentException.class, () -> new UserImporter(users, avatarService, 0));
+  }
+}
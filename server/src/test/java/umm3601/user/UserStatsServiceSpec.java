@@ -0,0 +1,169 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+@SuppressWarnings({ "MagicNumber" })
+class UserStatsServiceSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> users;
+  private UserStatsService service;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    users = db.getCollection("users");
+    users.drop();
+    users.insertMany(List.of(
+      user("UMM", "admin", 25),
+      user("IBM", "editor", 37),
+      user("OHMNET", "viewer", 37),
+      user("OHMNET", "viewer", 45),
+      user("OHMNET", "editor", 19),
+      new Document("name", "Nobody")));
+  }
+
+  @AfterEach
+  void teardownEach() {
+    if (service != null) {
+      service.close();
+    }
+  }
+
+  private static Document user(String company, String role, int age) {
+    return new Document("company", company).append("role", role).append("age", age);
+  }
+
+  @Test
+  void countsUsersEveryWhichWay() {
+    service = new UserStatsService(users, Duration.ofMinutes(1));
+
+    UserStats stats = service.current();
+
+    assertEquals(6, stats.total());
+    assertEquals(
+      List.of(Map.entry("OHMNET", 3L), Map.entry("IBM", 1L), Map.entry("UMM", 1L), Map.entry("unknown", 1L)),
+      List.copyOf(stats.companies().entrySet()));
+    assertEquals(Map.of("viewer", 2L, "editor", 2L, "admin", 1L, "unknown", 1L), stats.roles());
+    assertEquals(
+      List.of(Map.entry("0-19", 1L), Map.entry("20-29", 1L), Map.entry("30-39", 2L), Map.entry("40-49", 1L),
+        Map.entry("unknown", 1L)),
+      List.copyOf(stats.ages().entrySet()));
+  }
+
+  @Test
+  void countsNothingInAnEmptyCollection() {
+    users.drop();
+    service = new UserStatsService(users, Duration.ofMinutes(1));
+
+    UserStats stats = service.current();
+    assertEquals(0, stats.total());
+    assertEquals(Map.of(), stats.companies());
+    assertEquals(Map.of(), stats.roles());
+    assertEquals(Map.of(), stats.ages());
+  }
+
+  @Test
+  void reusesCountsUntilTheyAreTooOld() {
+    service = new UserStatsService(users, Duration.ofMinutes(1));
+    UserStats first = service.current();
+    users.insertOne(user("UMM", "admin", 30));
+
+    assertSame(first, service.current());
+    assertEquals(7, service.refresh().total());
+    assertEquals(7, service.current().total());
+  }
+
+  @Test
+  void recomputesOutOfDateCounts() {
+    service = new UserStatsService(users, Duration.ZERO);
+    UserStats first = service.current();
+    users.insertOne(user("UMM", "admin", 30));
+
+    UserStats second = service.current();
+    assertNotSame(first, second);
+    assertEquals(7, second.total());
+  }
+
+  @Test
+  void refreshesInTheBackground() throws InterruptedException {
+    service = new UserStatsService(users, Duration.ofMillis(50));
+    service.start();
+    UserStats first = service.current();
+    users.insertOne(user("UMM", "admin", 30));
+
+    long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (service.current().total() != 7 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(6, first.total());
+    assertEquals(7, service.current().total());
+  }
+
+  @Test
+  void backgroundRefreshNeedsAnInterval() {
+    service = new UserStatsService(users, Duration.ZERO);
+    assertThrows(IllegalArgumentException.class, service::start);
+  }
+
+  @Test
+  void namesAgeRanges() {
+    assertEquals("0-19", UserStatsService.ageRange(0));
+    assertEquals("70-149", UserStatsService.ageRange(70));
+    assertEquals("unknown", UserStatsService.ageRange(150));
+    assertEquals("unknown", UserStatsService.ageRange(UserStatsService.UNKNOWN));
+  }
+
+  @Test
+  void recordsWhenTheCountsWereComputed() {
+    Instant now = Instant.parse("2024-01-02T03:04:05Z");
+    Document facets = new Document("total", List.of())
+      .append("companies", List.of())
+      .append("roles", List.of())
+      .append("ages", List.of());
+
+    assertEquals(new UserStats(0, Map.of(), Map.of(), Map.of(), "2024-01-02T03:04:05Z"),
+      UserStatsService.toStats(facets, now));
+  }
+}